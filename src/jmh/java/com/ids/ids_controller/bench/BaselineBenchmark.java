@@ -0,0 +1,57 @@
+package com.ids.ids_controller.bench;
+
+import com.ids.ids_controller.service.BaselineService;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.SplittableRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * BaselineService przy pełnym oknie 86400 próbek (24h przy ticku 1 s) - każda obserwacja
+ * usuwa najstarszą próbkę ze statystyk (i ze szkicu kwantyli w trybach mad/percentile).
+ * Jedna operacja = jedna obserwacja albo jeden z-score.
+ *
+ * Pomiar przy wprowadzeniu DoubleRingBuffer (1 rdzeń, JDK 21, tryb stddev): addObservation 3,1 tys. ops/s
+ * (ConcurrentLinkedDeque.size() w O(n)) -> 10,4 mln ops/s, calculateZScore bez zmian (15 mln ops/s);
+ * pamięć historii ok. 48 B -> 8 B na próbkę.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class BaselineBenchmark {
+
+    static final int WINDOW = 86_400;
+    static final String FEATURE = "SYNS_PER_SEC";
+
+    @Param({"stddev", "mad", "percentile"})
+    public String mode;
+
+    private final double[] values = new double[4096];
+    private BaselineService baseline;
+    private int next;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        SplittableRandom random = new SplittableRandom(SyntheticTraffic.SEED);
+        for (int i = 0; i < values.length; i++) {
+            values[i] = 100 + random.nextGaussian() * 15;
+        }
+        baseline = new BaselineService(WINDOW, BaselineService.ZScoreSettings.parse(FEATURE + "=" + mode, 0.01));
+        for (int i = 0; i < WINDOW; i++) {
+            baseline.addObservation(FEATURE, values[i % values.length], 0);
+        }
+    }
+
+    @Benchmark
+    public void addObservation() {
+        baseline.addObservation(FEATURE, values[next++ & (values.length - 1)], 0);
+    }
+
+    @Benchmark
+    public double calculateZScore() {
+        return baseline.calculateZScore(FEATURE, values[next++ & (values.length - 1)]);
+    }
+}
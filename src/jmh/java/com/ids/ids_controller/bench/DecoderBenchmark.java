@@ -0,0 +1,120 @@
+package com.ids.ids_controller.bench;
+
+import com.ids.ids_controller.parser.PacketDecoder;
+import com.ids.ids_controller.parser.PacketView;
+import com.ids.ids_controller.service.FeatureExtractor;
+import com.ids.ids_controller.service.FeatureSink;
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.Unpooled;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * PacketDecoder.decode na strumieniu PCAP pociętym na paczki danej wielkości (jak z gniazda sondy).
+ * Jedna operacja = jeden rekord (cały strumień na wywołanie, @OperationsPerInvocation).
+ * sink=noop mierzy sam dekoder, sink=extractor - dekodowanie z ekstrakcją cech (ścieżka produkcyjna).
+ *
+ * Pomiar przy wprowadzeniu PacketView (1 rdzeń, JDK 21, paczki 16 KiB, sink=extractor, rekordy/s, ByteBuf):
+ * SYN_FLOOD 276 tys. (pcap4j) -> 1,64 mln, BULK_TRANSFER 431 tys. -> 7,0 mln, MIXED 441 tys. -> 4,6 mln;
+ * alokacja z 3,0-4,0 KB do 57-336 B na rekord.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class DecoderBenchmark {
+
+    static final int RECORDS = 20_000;
+
+    @Param({"SYN_FLOOD", "PORT_SCAN", "ICMP_FLOOD", "BULK_TRANSFER", "MIXED"})
+    public SyntheticTraffic.Mix mix;
+
+    // 1460 - segment TCP, 16384/65536 - typowe odczyty event-loopa Netty
+    @Param({"1460", "16384", "65536"})
+    public int chunkSize;
+
+    @Param({"noop", "extractor"})
+    public String sink;
+
+    private ByteBuf[] chunks;
+    private byte[][] arrayChunks;
+    private PacketDecoder decoder;
+    private FeatureExtractor extractor;
+    private ChecksumSink checksumSink;
+    private int invocations;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        byte[] stream = SyntheticTraffic.pcapStream(mix, RECORDS);
+        int count = (stream.length + chunkSize - 1) / chunkSize;
+        chunks = new ByteBuf[count];
+        arrayChunks = new byte[count][];
+        for (int i = 0; i < count; i++) {
+            int from = i * chunkSize;
+            int to = Math.min(stream.length, from + chunkSize);
+            // Ścieżka ByteBuf czyta nagłówek globalny tylko na początku strumienia - podawany raz poniżej
+            int bufFrom = Math.max(from, 24);
+            chunks[i] = Unpooled.wrappedBuffer(stream, bufFrom, Math.max(0, to - bufFrom));
+            arrayChunks[i] = Arrays.copyOfRange(stream, from, to);
+        }
+
+        FeatureSink featureSink;
+        if ("extractor".equals(sink)) {
+            extractor = new FeatureExtractor();
+            featureSink = extractor.openSink();
+        } else {
+            featureSink = checksumSink = new ChecksumSink();
+        }
+        decoder = new PacketDecoder(featureSink, true);
+        decoder.decode(Unpooled.wrappedBuffer(stream, 0, 24));
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(RECORDS)
+    public long zeroCopy() {
+        for (ByteBuf chunk : chunks) {
+            chunk.readerIndex(0);
+            decoder.decode(chunk);
+        }
+        return result();
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(RECORDS)
+    public long byteArray() {
+        for (byte[] chunk : arrayChunks) {
+            decoder.decode(chunk);
+        }
+        return result();
+    }
+
+    // Okno cech zamykane co kilka strumieni - tablice przepływów i szkice nie rosną bez końca
+    private long result() {
+        if (checksumSink != null) {
+            return checksumSink.checksum;
+        }
+        if (++invocations % 16 == 0) {
+            return extractor.captureWindow().getPacketCount();
+        }
+        return decoder.getRecordCount();
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        decoder.close();
+    }
+
+    // Odbiornik bez ekstrakcji - suma kontrolna zwracana z benchmarku nie pozwala JIT-owi usunąć dekodowania
+    static final class ChecksumSink implements FeatureSink {
+        long checksum;
+
+        @Override public void begin() { }
+        @Override public void accept(PacketView packet) { checksum += packet.dstPort() + packet.frameLength(); }
+        @Override public void end() { }
+        @Override public void close() { }
+    }
+}
@@ -0,0 +1,68 @@
+package com.ids.ids_controller.bench;
+
+import com.ids.ids_controller.parser.PacketView;
+import com.ids.ids_controller.service.FeatureExtractor;
+import com.ids.ids_controller.service.FeatureSink;
+import com.ids.ids_controller.service.FeatureWindow;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Ekstrakcja cech z już zdekodowanych pakietów (FeatureSink.accept) - bez kosztu dekodowania.
+ * Jedna operacja = jeden pakiet. Pakiety podawane są paczkami po CHUNK (begin/accept/end jak z dekodera),
+ * a okno jest zamykane co WINDOW_CHUNKS paczek, więc koszt captureWindow jest wliczony proporcjonalnie.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class ExtractorBenchmark {
+
+    static final int PACKETS = 16_384;
+    static final int CHUNK = 256;
+    static final int WINDOW_CHUNKS = 256;
+
+    @Param({"SYN_FLOOD", "PORT_SCAN", "ICMP_FLOOD", "BULK_TRANSFER", "MIXED"})
+    public SyntheticTraffic.Mix mix;
+
+    private PacketView[] packets;
+    private FeatureExtractor extractor;
+    private FeatureSink sink;
+    private int next;
+    private int chunks;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        packets = SyntheticTraffic.packets(mix, PACKETS);
+        extractor = new FeatureExtractor();
+        sink = extractor.openSink();
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(CHUNK)
+    public long extract() {
+        sink.begin();
+        try {
+            for (int i = 0; i < CHUNK; i++) {
+                sink.accept(packets[next]);
+                next = (next + 1) % PACKETS;
+            }
+        } finally {
+            sink.end();
+        }
+        if (++chunks % WINDOW_CHUNKS == 0) {
+            FeatureWindow window = extractor.captureWindow();
+            return window.getPacketCount();
+        }
+        return chunks;
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        sink.close();
+        extractor.shutdown();
+    }
+}
@@ -0,0 +1,57 @@
+package com.ids.ids_controller.bench;
+
+import com.ids.ids_controller.service.FeatureRegistry;
+import com.ids.ids_controller.service.FuzzyService;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.SplittableRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * FuzzyService.analyze dla obu silników na losowych z-score'ach (|z| do 6, jak przy realnych anomaliach).
+ * Jedna operacja = jedna ocena; wariant threads4 pokazuje skalowanie silnika skompilowanego
+ * wobec serializowanego FIS.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class FuzzyBenchmark {
+
+    @Param({"compiled", "jfuzzylogic"})
+    public String engine;
+
+    private final double[][] inputs = new double[1024][8];
+    private FuzzyService fuzzyService;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        SplittableRandom random = new SplittableRandom(SyntheticTraffic.SEED);
+        for (double[] row : inputs) {
+            for (int i = 0; i < row.length; i++) {
+                row[i] = random.nextDouble(-6, 6);
+            }
+        }
+        fuzzyService = new FuzzyService(engine, FeatureRegistry.core(), new SimpleMeterRegistry());
+    }
+
+    @State(Scope.Thread)
+    public static class Cursor {
+        int next;
+    }
+
+    @Benchmark
+    public double analyze(Cursor cursor) {
+        double[] z = inputs[cursor.next++ & (inputs.length - 1)];
+        return fuzzyService.analyze(z);
+    }
+
+    @Benchmark
+    @Threads(4)
+    public double analyzeThreads4(Cursor cursor) {
+        return analyze(cursor);
+    }
+}
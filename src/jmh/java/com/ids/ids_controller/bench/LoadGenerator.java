@@ -0,0 +1,346 @@
+package com.ids.ids_controller.bench;
+
+import com.ids.ids_controller.IdsControllerApplication;
+import org.springframework.boot.SpringApplication;
+import org.springframework.context.ConfigurableApplicationContext;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.SocketChannel;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.SplittableRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Syntetyczna sonda obciążeniowa dla całej ścieżki PcapReceiver -> PacketDecoder -> FeatureExtractor
+ * -> StatisticsAggregator. Strumieniuje generowany PCAP na port 9000 po connections połączeniach
+ * z zadanym tempem (pps) i paczkami po chunk rekordów: najpierw warmup sekund ruchu tła (baseline
+ * potrzebuje co najmniej 30 ticków), potem attack sekund z udziałem attack-share rekordów ataku.
+ *
+ * Stan kontrolera czytany z /actuator/prometheus ze wszystkich potoków (global i per-sonda przy
+ * ids.probes.isolated-pipelines=true): ids.aggregator.packets - pakiety policzone w oknach (suma potoków),
+ * ids.aggregator.lag/tick - zaległość i czas ticku (sumy i liczności dodawane, maksima - największe),
+ * ids.aggregator.probability - najwyższe z potoków.
+ * Raport: utrzymane pps, zaległość ticków, różnica wysłane - policzone i czas od startu ataku do
+ * przekroczenia progu prawdopodobieństwa. Przy ruchu z innych sond różnica obejmuje także ich pakiety.
+ * Nieudany odczyt metryk w trakcie pomiaru to pominięta próbka (liczona w raporcie), nie koniec pomiaru.
+ *
+ * Uruchomienie (kontroler w tym samym JVM, bez historii i dzienników na dysku):
+ *   mvn -Pjmh -DskipTests test-compile exec:exec@load-generator -Dload.args="pps=200000 connections=4 attack=SYN_FLOOD"
+ * Zewnętrzny kontroler: embedded=false host=10.0.0.2 http-port=8080.
+ * Kod wyjścia 1, gdy utrata przekracza max-loss albo atak nie został wykryty w max-detect-seconds.
+ */
+public final class LoadGenerator {
+
+    private static final int FRAME_POOL = 65_536;
+    private static final int RECORD_HEADER = 16;
+    private static final int MAX_FRAME = 1514;
+    private static final String PROBABILITY = "ids_aggregator_probability";
+
+    record Settings(String host, int port, int httpPort, boolean embedded, long pps, int connections, int chunk,
+                    SyntheticTraffic.Mix background, SyntheticTraffic.Mix attack, double attackShare,
+                    int warmupSeconds, int attackSeconds, int drainSeconds, long tickMillis, double threshold,
+                    double maxLoss, double maxDetectSeconds) {
+
+        static Settings parse(String[] args) {
+            Map<String, String> values = new HashMap<>();
+            for (String arg : args) {
+                for (String entry : arg.trim().split("\\s+")) {
+                    if (entry.isEmpty()) continue;
+                    int eq = entry.indexOf('=');
+                    if (eq <= 0) throw new IllegalArgumentException("Oczekiwano klucz=wartość: " + entry);
+                    values.put(entry.substring(0, eq), entry.substring(eq + 1));
+                }
+            }
+            Settings s = new Settings(
+                    values.getOrDefault("host", "localhost"),
+                    Integer.parseInt(values.getOrDefault("port", "9000")),
+                    Integer.parseInt(values.getOrDefault("http-port", "8080")),
+                    Boolean.parseBoolean(values.getOrDefault("embedded", "true")),
+                    Long.parseLong(values.getOrDefault("pps", "100000")),
+                    Integer.parseInt(values.getOrDefault("connections", "1")),
+                    Integer.parseInt(values.getOrDefault("chunk", "64")),
+                    SyntheticTraffic.Mix.valueOf(values.getOrDefault("background", "MIXED")),
+                    SyntheticTraffic.Mix.valueOf(values.getOrDefault("attack", "SYN_FLOOD")),
+                    Double.parseDouble(values.getOrDefault("attack-share", "0.5")),
+                    Integer.parseInt(values.getOrDefault("warmup", "60")),
+                    Integer.parseInt(values.getOrDefault("attack-seconds", "30")),
+                    Integer.parseInt(values.getOrDefault("drain", "10")),
+                    Long.parseLong(values.getOrDefault("tick-ms", "1000")),
+                    Double.parseDouble(values.getOrDefault("threshold", "70")),
+                    Double.parseDouble(values.getOrDefault("max-loss", "0.001")),
+                    Double.parseDouble(values.getOrDefault("max-detect-seconds", "10")));
+            if (s.pps < 1 || s.connections < 1 || s.chunk < 1) {
+                throw new IllegalArgumentException("pps, connections i chunk muszą być dodatnie");
+            }
+            if (s.attackShare < 0 || s.attackShare > 1) {
+                throw new IllegalArgumentException("attack-share musi być z zakresu 0-1: " + s.attackShare);
+            }
+            return s;
+        }
+    }
+
+    private final Settings settings;
+    private final byte[][] backgroundFrames;
+    private final byte[][] attackFrames;
+    private final HttpClient http = HttpClient.newBuilder().connectTimeout(Duration.ofSeconds(2)).build();
+
+    private final LongAdder sent = new LongAdder();
+    private final LongAdder attackSent = new LongAdder();
+    private volatile boolean attacking;
+    private volatile boolean running = true;
+    private int missedSamples;
+
+    private LoadGenerator(Settings settings) {
+        this.settings = settings;
+        this.backgroundFrames = SyntheticTraffic.frames(settings.background, FRAME_POOL);
+        this.attackFrames = SyntheticTraffic.frames(settings.attack, FRAME_POOL);
+    }
+
+    public static void main(String[] args) throws Exception {
+        Settings settings = Settings.parse(args);
+        ConfigurableApplicationContext controller = settings.embedded ? startController(settings) : null;
+        boolean passed;
+        try {
+            passed = new LoadGenerator(settings).run();
+        } finally {
+            if (controller != null) controller.close();
+        }
+        System.exit(passed ? 0 : 1);
+    }
+
+    private static ConfigurableApplicationContext startController(Settings s) {
+        return SpringApplication.run(IdsControllerApplication.class,
+                "--server.port=" + s.httpPort,
+                "--ids.aggregator.tick-ms=" + s.tickMillis,
+                "--ids.alerts.threshold=" + s.threshold,
+                "--ids.history.enabled=false",
+                "--ids.alerts.journal.enabled=false",
+                "--ids.baseline.persistence.enabled=false");
+    }
+
+    private boolean run() throws Exception {
+        // Odczyt początkowy obowiązkowy (punkt odniesienia licznika pakietów) - przed startem wysyłających
+        Metrics before = scrape();
+        List<Thread> senders = new ArrayList<>();
+        List<Throwable> errors = new ArrayList<>();
+        for (int c = 0; c < settings.connections; c++) {
+            int connection = c;
+            Thread sender = new Thread(() -> {
+                try {
+                    send(connection);
+                } catch (IOException e) {
+                    synchronized (errors) {
+                        errors.add(e);
+                    }
+                }
+            }, "load-sender-" + c);
+            senders.add(sender);
+            sender.start();
+        }
+
+        long startNanos = System.nanoTime();
+        long attackNanos = startNanos + TimeUnit.SECONDS.toNanos(settings.warmupSeconds);
+        long endNanos = attackNanos + TimeUnit.SECONDS.toNanos(settings.attackSeconds);
+        long pollNanos = TimeUnit.MILLISECONDS.toNanos(Math.max(50, settings.tickMillis / 5));
+        double warmupMaxProbability = 0;
+        double maxLagSeconds = 0;
+        double maxTickSeconds = 0;
+        long warmupSent = 0;
+        long detectionNanos = -1;
+
+        // Wysyłające wątki nie są demonami - zatrzymanie i join także przy wyjątku
+        try {
+            while (System.nanoTime() < endNanos) {
+                LockSupport.parkNanos(pollNanos);
+                long now = System.nanoTime();
+                if (!attacking && now >= attackNanos) {
+                    warmupSent = sent.sum();
+                    attacking = true;
+                }
+                Metrics m = sample();
+                if (m == null) continue;
+                maxLagSeconds = Math.max(maxLagSeconds, m.lagMaxSeconds);
+                maxTickSeconds = Math.max(maxTickSeconds, m.tickMaxSeconds);
+                if (!attacking) {
+                    warmupMaxProbability = Math.max(warmupMaxProbability, m.probability);
+                } else if (detectionNanos < 0 && m.probability > settings.threshold) {
+                    detectionNanos = now - attackNanos;
+                }
+            }
+        } finally {
+            running = false;
+            for (Thread sender : senders) {
+                sender.join();
+            }
+        }
+        double sendSeconds = (System.nanoTime() - startNanos) / 1e9;
+        long totalSent = sent.sum();
+
+        // Dopóki licznik pakietów rośnie, kontroler odrabia kolejkę; koniec po dwóch tickach bez zmian
+        Metrics after = sample();
+        long drainEnd = System.nanoTime() + TimeUnit.SECONDS.toNanos(settings.drainSeconds);
+        int stableTicks = 0;
+        while (stableTicks < 2 && System.nanoTime() < drainEnd) {
+            LockSupport.parkNanos(TimeUnit.MILLISECONDS.toNanos(settings.tickMillis));
+            Metrics m = sample();
+            if (m == null) continue;
+            stableTicks = after != null && m.packets == after.packets ? stableTicks + 1 : 0;
+            after = m;
+        }
+        if (after == null) {
+            System.out.printf("%nBrak odczytu metryk po wysyłce (%d pominiętych próbek) - pomiar nieważny%n", missedSamples);
+            return false;
+        }
+
+        long accounted = (long) (after.packets - before.packets);
+        double loss = totalSent == 0 ? 0 : (double) (totalSent - accounted) / totalSent;
+        long ticks = after.lagCount - before.lagCount;
+        double meanLagMillis = ticks == 0 ? 0 : (after.lagSumSeconds - before.lagSumSeconds) / ticks * 1000;
+        double meanTickMillis = ticks == 0 ? 0 : (after.tickSumSeconds - before.tickSumSeconds) / ticks * 1000;
+
+        System.out.printf("%n=== Obciążenie: %s + %s (%.0f%% ataku), cel %d pps, %d połączeń, paczki po %d rekordów ===%n",
+                settings.background, settings.attack, settings.attackShare * 100, settings.pps, settings.connections,
+                settings.chunk);
+        System.out.printf("Wysłane:          %d pakietów w %.1f s = %.0f pps (rozgrzewka: %d, rekordy ataku: %d)%n",
+                totalSent, sendSeconds, totalSent / sendSeconds, warmupSent, attackSent.sum());
+        System.out.printf("Policzone:        %d pakietów, różnica %d (%.3f%%)%n",
+                accounted, totalSent - accounted, loss * 100);
+        System.out.printf("Ticki:            %d w %d potokach, zaległość śr. %.2f ms / maks. %.2f ms, czas ticku śr. %.2f ms / maks. %.2f ms%n",
+                ticks, after.pipelines, meanLagMillis, maxLagSeconds * 1000, meanTickMillis, maxTickSeconds * 1000);
+        System.out.printf("Prawdopodobieństwo w rozgrzewce: maks. %.1f%%%n", warmupMaxProbability);
+        if (missedSamples > 0) {
+            System.out.printf("Pominięte próbki: %d (błąd odczytu /actuator/prometheus)%n", missedSamples);
+        }
+        if (detectionNanos >= 0) {
+            System.out.printf("Wykrycie ataku:   %.2f s od startu (próg %.0f%%)%n", detectionNanos / 1e9, settings.threshold);
+        } else {
+            System.out.printf("Wykrycie ataku:   brak przez %d s (próg %.0f%%)%n", settings.attackSeconds, settings.threshold);
+        }
+        for (Throwable error : errors) {
+            System.out.println("Błąd połączenia: " + error);
+        }
+
+        boolean detected = detectionNanos >= 0 && detectionNanos / 1e9 <= settings.maxDetectSeconds;
+        return errors.isEmpty() && loss <= settings.maxLoss && (settings.attackShare == 0 || detected);
+    }
+
+    /*
+     * jedno połączenie: nagłówek globalny PCAP, potem paczki chunk rekordów co chunk / (pps / connections) s.
+     * Zaległość ponad sekundę (kontroler wstrzymał odczyt) nie jest odrabiana seriami - liczy się utrzymane tempo.
+     */
+    private void send(int connection) throws IOException {
+        try (SocketChannel channel = SocketChannel.open(new InetSocketAddress(settings.host, settings.port))) {
+            ByteBuffer header = ByteBuffer.allocate(24).order(ByteOrder.LITTLE_ENDIAN);
+            header.putInt(0xa1b2c3d4).putShort((short) 2).putShort((short) 4).putInt(0).putInt(0)
+                    .putInt(262144).putInt(1);
+            writeFully(channel, header.flip());
+
+            SplittableRandom random = new SplittableRandom(SyntheticTraffic.SEED + connection);
+            ByteBuffer chunk = ByteBuffer.allocate(settings.chunk * (RECORD_HEADER + MAX_FRAME)).order(ByteOrder.LITTLE_ENDIAN);
+            long intervalNanos = settings.chunk * settings.connections * 1_000_000_000L / settings.pps;
+            long maxBacklogNanos = TimeUnit.SECONDS.toNanos(1);
+            long next = System.nanoTime();
+            int backgroundIndex = connection * 7919;
+            int attackIndex = connection * 7919;
+            while (running) {
+                boolean attack = attacking;
+                long micros = System.currentTimeMillis() * 1000;
+                int attackRecords = 0;
+                chunk.clear();
+                for (int r = 0; r < settings.chunk; r++) {
+                    byte[] frame;
+                    if (attack && random.nextDouble() < settings.attackShare) {
+                        frame = attackFrames[attackIndex++ & (FRAME_POOL - 1)];
+                        attackRecords++;
+                    } else {
+                        frame = backgroundFrames[backgroundIndex++ & (FRAME_POOL - 1)];
+                    }
+                    long ts = micros + r;
+                    chunk.putInt((int) (ts / 1_000_000)).putInt((int) (ts % 1_000_000))
+                            .putInt(frame.length).putInt(frame.length).put(frame);
+                }
+                writeFully(channel, chunk.flip());
+                sent.add(settings.chunk);
+                attackSent.add(attackRecords);
+
+                next += intervalNanos;
+                long now = System.nanoTime();
+                if (now - next > maxBacklogNanos) {
+                    next = now;
+                } else if (next > now) {
+                    LockSupport.parkNanos(next - now);
+                }
+            }
+        }
+    }
+
+    private static void writeFully(SocketChannel channel, ByteBuffer buffer) throws IOException {
+        while (buffer.hasRemaining()) {
+            channel.write(buffer);
+        }
+    }
+
+    // Wybrane metryki agregatorów (wszystkie potoki) z formatu tekstowego Prometheus
+    private record Metrics(double packets, double probability, double lagSumSeconds, long lagCount,
+                           double lagMaxSeconds, double tickSumSeconds, double tickMaxSeconds, int pipelines) {}
+
+    // Odczyt w trakcie pomiaru - błąd to pominięta próbka
+    private Metrics sample() throws InterruptedException {
+        try {
+            return scrape();
+        } catch (IOException | RuntimeException e) {
+            if (missedSamples++ == 0) {
+                System.out.println("Błąd odczytu metryk: " + e);
+            }
+            return null;
+        }
+    }
+
+    private Metrics scrape() throws IOException, InterruptedException {
+        HttpRequest request = HttpRequest.newBuilder(
+                        URI.create("http://" + settings.host + ":" + settings.httpPort + "/actuator/prometheus"))
+                .timeout(Duration.ofSeconds(2))
+                .build();
+        String body = http.send(request, HttpResponse.BodyHandlers.ofString()).body();
+        Map<String, Double> values = new HashMap<>();
+        Set<String> pipelines = new HashSet<>();
+        for (String line : body.split("\n")) {
+            if (!line.startsWith("ids_aggregator_")) continue;
+            int labels = line.indexOf('{');
+            int value = line.lastIndexOf('}');
+            int pipeline = line.indexOf("pipeline=\"");
+            if (labels < 0 || value < 0 || pipeline < 0) continue;
+            pipeline += "pipeline=\"".length();
+            pipelines.add(line.substring(pipeline, line.indexOf('"', pipeline)));
+            String name = line.substring(0, labels);
+            String[] tokens = line.substring(value + 1).trim().split(" ");
+            // Per-sonda potoki dzielą ruch - liczniki i sumy się dodają, maksima i prawdopodobieństwo nie
+            values.merge(name, Double.parseDouble(tokens[0]),
+                    name.endsWith("_max") || name.equals(PROBABILITY) ? Math::max : Double::sum);
+        }
+        return new Metrics(
+                values.getOrDefault("ids_aggregator_packets_total", 0.0),
+                values.getOrDefault(PROBABILITY, 0.0),
+                values.getOrDefault("ids_aggregator_lag_seconds_sum", 0.0),
+                values.getOrDefault("ids_aggregator_lag_seconds_count", 0.0).longValue(),
+                values.getOrDefault("ids_aggregator_lag_seconds_max", 0.0),
+                values.getOrDefault("ids_aggregator_tick_seconds_sum", 0.0),
+                values.getOrDefault("ids_aggregator_tick_seconds_max", 0.0),
+                pipelines.size());
+    }
+}
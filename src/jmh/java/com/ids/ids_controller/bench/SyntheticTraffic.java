@@ -0,0 +1,169 @@
+package com.ids.ids_controller.bench;
+
+import com.ids.ids_controller.parser.PacketView;
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.Unpooled;
+
+import java.util.SplittableRandom;
+
+/**
+ * Syntetyczne strumienie PCAP (nagłówek globalny little-endian + rekordy) dla benchmarków.
+ * Ramki Ethernet/IPv4 z poprawnymi długościami, chroniony host jak w domyślnej konfiguracji (172.18.0.3).
+ * Ziarno jest stałe - każdy przebieg benchmarku widzi identyczny ruch.
+ */
+public final class SyntheticTraffic {
+
+    public static final long SEED = 42;
+
+    private static final int VICTIM = (int) PacketView.ipV4Key("172.18.0.3");
+    private static final int CLIENT_NET = (int) PacketView.ipV4Key("10.0.0.0");
+
+    public enum Mix {
+        // Losowe (spoofowane) źródła, SYN na port 80 ofiary, ramki minimalne
+        SYN_FLOOD,
+        // Jedno źródło, SYN na kolejne porty ofiary
+        PORT_SCAN,
+        // Kilkanaście źródeł, echo request z 56 B danych
+        ICMP_FLOOD,
+        // Jeden przepływ: pełne ramki od ofiary i potwierdzenia od klienta
+        BULK_TRANSFER,
+        // Ruch "dzienny": kilkaset klientów, przepływy HTTP różnej wielkości i zapytania DNS
+        MIXED
+    }
+
+    private SyntheticTraffic() {
+    }
+
+    // Strumień PCAP z records rekordami danej mieszanki
+    public static byte[] pcapStream(Mix mix, int records) {
+        SplittableRandom random = new SplittableRandom(SEED);
+        ByteBuf out = Unpooled.buffer(24 + records * 128);
+        out.writeIntLE(0xa1b2c3d4);
+        out.writeShortLE(2).writeShortLE(4);
+        out.writeIntLE(0).writeIntLE(0);
+        out.writeIntLE(262144);
+        out.writeIntLE(1); // LINKTYPE_ETHERNET
+
+        ByteBuf frame = Unpooled.buffer(1514);
+        long micros = 1_700_000_000_000_000L;
+        for (int i = 0; i < records; i++) {
+            frame.clear();
+            writeFrame(frame, mix, i, random);
+            micros += 1 + random.nextInt(20);
+            out.writeIntLE((int) (micros / 1_000_000));
+            out.writeIntLE((int) (micros % 1_000_000));
+            out.writeIntLE(frame.readableBytes());
+            out.writeIntLE(frame.readableBytes());
+            out.writeBytes(frame);
+        }
+        byte[] stream = new byte[out.readableBytes()];
+        out.readBytes(stream);
+        return stream;
+    }
+
+    // Zdekodowane widoki pakietów - wejście ekstraktora bez kosztu dekodowania
+    public static PacketView[] packets(Mix mix, int records) {
+        SplittableRandom random = new SplittableRandom(SEED);
+        ByteBuf frame = Unpooled.buffer(1514);
+        PacketView[] views = new PacketView[records];
+        for (int i = 0; i < records; i++) {
+            frame.clear();
+            writeFrame(frame, mix, i, random);
+            views[i] = new PacketView();
+            views[i].parse(frame, 0, frame.readableBytes());
+        }
+        return views;
+    }
+
+    // Same ramki (bez nagłówków rekordów) - generator obciążenia dokleja nagłówki z bieżącym czasem
+    public static byte[][] frames(Mix mix, int count) {
+        SplittableRandom random = new SplittableRandom(SEED);
+        ByteBuf frame = Unpooled.buffer(1514);
+        byte[][] frames = new byte[count][];
+        for (int i = 0; i < count; i++) {
+            frame.clear();
+            writeFrame(frame, mix, i, random);
+            frames[i] = new byte[frame.readableBytes()];
+            frame.readBytes(frames[i]);
+        }
+        return frames;
+    }
+
+    private static void writeFrame(ByteBuf f, Mix mix, int i, SplittableRandom random) {
+        switch (mix) {
+            case SYN_FLOOD -> tcp(f, random.nextInt(), VICTIM, 1024 + random.nextInt(60000), 80,
+                    PacketView.TCP_SYN, 0);
+            case PORT_SCAN -> tcp(f, CLIENT_NET | 66, VICTIM, 51000, 1 + i % 65535, PacketView.TCP_SYN, 0);
+            case ICMP_FLOOD -> icmpEcho(f, CLIENT_NET | (1 + random.nextInt(16)), VICTIM, 56);
+            case BULK_TRANSFER -> {
+                if (i % 3 == 2) {
+                    tcp(f, CLIENT_NET | 10, VICTIM, 50000, 443, PacketView.TCP_ACK, 0);
+                } else {
+                    tcp(f, VICTIM, CLIENT_NET | 10, 443, 50000, PacketView.TCP_ACK | PacketView.TCP_PSH, 1460);
+                }
+            }
+            case MIXED -> mixed(f, random);
+        }
+    }
+
+    private static void mixed(ByteBuf f, SplittableRandom random) {
+        int client = CLIENT_NET | (1 + random.nextInt(400));
+        int clientPort = 32768 + random.nextInt(64);
+        int roll = random.nextInt(100);
+        if (roll < 5) {
+            tcp(f, client, VICTIM, clientPort, 80, PacketView.TCP_SYN, 0);
+        } else if (roll < 45) {
+            tcp(f, VICTIM, client, 80, clientPort, PacketView.TCP_ACK | PacketView.TCP_PSH, 200 + random.nextInt(1261));
+        } else if (roll < 85) {
+            tcp(f, client, VICTIM, clientPort, 80, PacketView.TCP_ACK, random.nextInt(4) == 0 ? 300 : 0);
+        } else if (roll < 95) {
+            udp(f, client, VICTIM, clientPort, 53, 40);
+        } else {
+            icmpEcho(f, client, VICTIM, 56);
+        }
+    }
+
+    private static void tcp(ByteBuf f, int src, int dst, int srcPort, int dstPort, int flags, int payload) {
+        ethernet(f);
+        ipV4(f, src, dst, PacketView.PROTO_TCP, 20 + payload);
+        f.writeShort(srcPort).writeShort(dstPort);
+        f.writeInt(0).writeInt(0);
+        f.writeByte(0x50).writeByte(flags).writeShort(65535);
+        f.writeShort(0).writeShort(0);
+        f.writeZero(payload);
+        pad(f);
+    }
+
+    private static void udp(ByteBuf f, int src, int dst, int srcPort, int dstPort, int payload) {
+        ethernet(f);
+        ipV4(f, src, dst, PacketView.PROTO_UDP, 8 + payload);
+        f.writeShort(srcPort).writeShort(dstPort).writeShort(8 + payload).writeShort(0);
+        f.writeZero(payload);
+        pad(f);
+    }
+
+    private static void icmpEcho(ByteBuf f, int src, int dst, int payload) {
+        ethernet(f);
+        ipV4(f, src, dst, PacketView.PROTO_ICMP, 8 + payload);
+        f.writeByte(8).writeByte(0).writeShort(0).writeInt(0);
+        f.writeZero(payload);
+        pad(f);
+    }
+
+    private static void ethernet(ByteBuf f) {
+        f.writeZero(12);
+        f.writeShort(0x0800);
+    }
+
+    private static void ipV4(ByteBuf f, int src, int dst, int protocol, int l4Length) {
+        f.writeByte(0x45).writeByte(0).writeShort(20 + l4Length);
+        f.writeShort(0).writeShort(0);
+        f.writeByte(64).writeByte(protocol).writeShort(0);
+        f.writeInt(src).writeInt(dst);
+    }
+
+    // Minimalna ramka Ethernet (bez FCS) ma 60 B
+    private static void pad(ByteBuf f) {
+        if (f.writerIndex() < 60) f.writeZero(60 - f.writerIndex());
+    }
+}
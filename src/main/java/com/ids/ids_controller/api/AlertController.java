@@ -0,0 +1,46 @@
+package com.ids.ids_controller.api;
+
+import com.ids.ids_controller.service.AlertEvent;
+import com.ids.ids_controller.service.AlertService;
+import org.springframework.http.MediaType;
+import org.springframework.http.ResponseEntity;
+import org.springframework.http.codec.ServerSentEvent;
+import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.PathVariable;
+import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RequestParam;
+import org.springframework.web.bind.annotation.RestController;
+import reactor.core.publisher.Flux;
+
+@RestController
+@RequestMapping("/alerts")
+public class AlertController {
+
+    private static final int MAX_PAGE_SIZE = 500;
+
+    private final AlertService alertService;
+
+    public AlertController(AlertService alertService) {
+        this.alertService = alertService;
+    }
+
+    // Ostatni stan alertów od najnowszych; subject - tylko "global" albo wybrany host/zakres
+    @GetMapping
+    public AlertService.AlertPage page(@RequestParam(defaultValue = "0") int page,
+                                       @RequestParam(defaultValue = "50") int size,
+                                       @RequestParam(required = false) String subject) {
+        return alertService.page(Math.max(0, page), Math.max(1, Math.min(size, MAX_PAGE_SIZE)), subject);
+    }
+
+    @GetMapping("/{id}")
+    public ResponseEntity<AlertEvent> get(@PathVariable long id) {
+        AlertEvent event = alertService.get(id);
+        return event != null ? ResponseEntity.ok(event) : ResponseEntity.notFound().build();
+    }
+
+    // Zdarzenia OPEN/UPDATE/CLOSED na żywo (SSE), publikowane przez wątek dziennika
+    @GetMapping(value = "/stream", produces = MediaType.TEXT_EVENT_STREAM_VALUE)
+    public Flux<ServerSentEvent<String>> stream() {
+        return alertService.stream();
+    }
+}
@@ -0,0 +1,38 @@
+package com.ids.ids_controller.api;
+
+import com.ids.ids_controller.cluster.ClusterService;
+import org.springframework.http.MediaType;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RequestParam;
+import org.springframework.web.bind.annotation.RestController;
+
+@RestController
+@RequestMapping("/cluster")
+public class ClusterController {
+
+    private final ClusterService clusterService;
+
+    public ClusterController(ClusterService clusterService) {
+        this.clusterService = clusterService;
+    }
+
+    // Digest binarny dla peerów; since/instance - sequence i instance z poprzedniego digestu (0 - pełny)
+    @GetMapping("/digest")
+    public ResponseEntity<byte[]> digest(@RequestParam(defaultValue = "0") long since,
+                                         @RequestParam(defaultValue = "0") long instance) {
+        if (!clusterService.isEnabled()) {
+            return ResponseEntity.notFound().build();
+        }
+        return ResponseEntity.ok()
+                .contentType(MediaType.APPLICATION_OCTET_STREAM)
+                .body(clusterService.localDigest(since, instance));
+    }
+
+    // Peery, baseline floty i ostatnia ocena floty (koordynator)
+    @GetMapping("/status")
+    public ClusterService.ClusterStatus status() {
+        return clusterService.status();
+    }
+}
@@ -1,18 +1,20 @@
 package com.ids.ids_controller.api;
 
 import com.ids.ids_controller.service.BaselineService;
+import com.ids.ids_controller.service.SnapshotHistory;
 import com.ids.ids_controller.service.StatisticsAggregator;
+import com.ids.ids_controller.service.TopTalkers;
+import org.springframework.http.HttpStatus;
 import org.springframework.http.MediaType;
+import org.springframework.http.codec.ServerSentEvent;
 import org.springframework.stereotype.Controller;
 import org.springframework.ui.Model;
 import org.springframework.web.bind.annotation.GetMapping;
 import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RequestParam;
 import org.springframework.web.bind.annotation.ResponseBody;
+import org.springframework.web.server.ResponseStatusException;
 import reactor.core.publisher.Flux;
-import reactor.core.scheduler.Schedulers;
-
-import java.time.Duration;
-import java.util.Map;
 
 @Controller
 @RequestMapping("/dashboard")
@@ -20,10 +22,12 @@ public class DashboardController {
 
     private final BaselineService baselineService;
     private final StatisticsAggregator aggregator;
+    private final SnapshotHistory history;
 
-    public DashboardController(BaselineService baselineService, StatisticsAggregator aggregator) {
+    public DashboardController(BaselineService baselineService, StatisticsAggregator aggregator, SnapshotHistory history) {
         this.baselineService = baselineService;
         this.aggregator = aggregator;
+        this.history = history;
     }
 
     @GetMapping
@@ -32,12 +36,52 @@ public class DashboardController {
         return "index";
     }
 
-    // Reaktywne API przesyłające dane w formacie Server-Sent Events (SSE)
+    // Reaktywne API przesyłające dane w formacie Server-Sent Events (SSE) - wspólny gorący strumień agregatora
     @GetMapping(value = "/stream", produces = MediaType.TEXT_EVENT_STREAM_VALUE)
     @ResponseBody
-    public Flux<Map<String, Double>> streamMetrics() {
-        return Flux.interval(Duration.ofSeconds(1))
-                .map(sequence -> aggregator.getCurrentMetrics()) // Musisz dodać tę metodę w aggregatorze
-                .subscribeOn(Schedulers.boundedElastic());
+    public Flux<ServerSentEvent<String>> streamMetrics() {
+        return aggregator.metricsStream();
+    }
+
+    // Największe źródła i cele ruchu z ostatniego ticku (pakiety, bajty, SYN-y)
+    @GetMapping("/top-talkers")
+    @ResponseBody
+    public TopTalkers topTalkers() {
+        return aggregator.getTopTalkers();
+    }
+
+    /*
+     * Historia ticków globalnego potoku w kolumnach (timestamps + kolumna na cechę). from/to - epoch ms
+     * (domyślnie ostatnia godzina), step - ms albo z jednostką: 30s, 5m, 1h, 1d (domyślnie ~500 punktów).
+     */
+    @GetMapping("/history")
+    @ResponseBody
+    public SnapshotHistory.HistorySeries history(@RequestParam(required = false) Long from,
+                                                 @RequestParam(required = false) Long to,
+                                                 @RequestParam(required = false) String step) {
+        long end = to != null ? to : System.currentTimeMillis();
+        long start = from != null ? from : end - 3_600_000;
+        try {
+            return history.query(start, end, step != null ? parseStep(step) : 0);
+        } catch (IllegalArgumentException e) {
+            throw new ResponseStatusException(HttpStatus.BAD_REQUEST, e.getMessage());
+        }
+    }
+
+    private static long parseStep(String step) {
+        String value = step.trim().toLowerCase();
+        long unit = switch (value.isEmpty() ? ' ' : value.charAt(value.length() - 1)) {
+            case 's' -> 1_000;
+            case 'm' -> 60_000;
+            case 'h' -> 3_600_000;
+            case 'd' -> 86_400_000;
+            default -> 1;
+        };
+        String number = unit == 1 ? value : value.substring(0, value.length() - 1);
+        try {
+            return Long.parseLong(number) * unit;
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("Niepoprawny krok historii: " + step);
+        }
     }
 }
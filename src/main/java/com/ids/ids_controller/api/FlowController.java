@@ -0,0 +1,29 @@
+package com.ids.ids_controller.api;
+
+import com.ids.ids_controller.service.FeatureExtractor;
+import com.ids.ids_controller.service.FlowTable;
+import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RequestParam;
+import org.springframework.web.bind.annotation.RestController;
+
+import java.util.List;
+
+@RestController
+@RequestMapping("/flows")
+public class FlowController {
+
+    private static final int MAX_LIMIT = 1000;
+
+    private final FeatureExtractor featureExtractor;
+
+    public FlowController(FeatureExtractor featureExtractor) {
+        this.featureExtractor = featureExtractor;
+    }
+
+    // Największe przepływy (5-tuple) wg liczby bajtów
+    @GetMapping("/top")
+    public List<FlowTable.FlowStats> topFlows(@RequestParam(defaultValue = "20") int limit) {
+        return featureExtractor.topFlows(Math.max(1, Math.min(limit, MAX_LIMIT)));
+    }
+}
@@ -0,0 +1,31 @@
+package com.ids.ids_controller.api;
+
+import com.ids.ids_controller.service.HostScore;
+import com.ids.ids_controller.service.HostScoringService;
+import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RequestParam;
+import org.springframework.web.bind.annotation.RestController;
+
+import java.util.List;
+
+@RestController
+@RequestMapping("/hosts")
+public class HostController {
+
+    private static final int MAX_LIMIT = 5000;
+
+    private final HostScoringService hostScoringService;
+
+    public HostController(HostScoringService hostScoringService) {
+        this.hostScoringService = hostScoringService;
+    }
+
+    // Oceny chronionych hostów z ostatniego ticku, od najbardziej podejrzanych
+    @GetMapping("/scores")
+    public List<HostScore> scores(@RequestParam(defaultValue = "50") int limit) {
+        List<HostScore> scores = hostScoringService.getLastScores();
+        int n = Math.max(1, Math.min(limit, MAX_LIMIT));
+        return scores.size() > n ? scores.subList(0, n) : scores;
+    }
+}
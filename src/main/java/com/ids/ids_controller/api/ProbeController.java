@@ -0,0 +1,63 @@
+package com.ids.ids_controller.api;
+
+import com.ids.ids_controller.probe.ProbeRegistry;
+import com.ids.ids_controller.probe.ProbeSession;
+import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RestController;
+
+import java.time.Instant;
+import java.util.Comparator;
+import java.util.List;
+
+@RestController
+@RequestMapping("/probes")
+public class ProbeController {
+
+    private final ProbeRegistry probeRegistry;
+
+    public ProbeController(ProbeRegistry probeRegistry) {
+        this.probeRegistry = probeRegistry;
+    }
+
+    // Lista podłączonych sond wraz z tempem odbioru danych i stanem kolejki (odrzucanie/próbkowanie przy przeciążeniu)
+    @GetMapping
+    public List<ProbeInfo> listProbes() {
+        return probeRegistry.getSessions().stream()
+                .sorted(Comparator.comparing(ProbeSession::getConnectedAt))
+                .map(ProbeInfo::from)
+                .toList();
+    }
+
+    public record ProbeInfo(
+            String id,
+            String remoteAddress,
+            Instant connectedAt,
+            long bytesReceived,
+            long recordsDecoded,
+            double bytesPerSec,
+            double recordsPerSec,
+            int queuedChunks,
+            long shedChunks,
+            double shedBytesPerSec,
+            long recordsSampledOut,
+            int sampling,
+            int snapLength,
+            long recordsTruncated,
+            boolean isolatedPipeline,
+            Double anomalyProbability
+    ) {
+        static ProbeInfo from(ProbeSession s) {
+            return new ProbeInfo(
+                    s.getId(), s.getRemoteAddress(), s.getConnectedAt(),
+                    s.getBytesReceived(), s.getRecordsDecoded(),
+                    s.getBytesPerSec(), s.getRecordsPerSec(),
+                    s.getQueuedChunks(), s.getShedChunks(), s.getShedBytesPerSec(),
+                    s.getRecordsSampledOut(), s.getSampling(),
+                    s.getSnapLength(), s.getRecordsTruncated(),
+                    s.getPipeline() != null,
+                    s.getPipeline() != null ? s.getPipeline().getLastProbability() : null
+            );
+        }
+    }
+}
@@ -0,0 +1,105 @@
+package com.ids.ids_controller.cluster;
+
+import com.ids.ids_controller.service.HyperLogLog;
+import com.ids.ids_controller.service.WindowSummary;
+
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.zip.CRC32;
+
+/**
+ * Binarny format ClusterDigest (big-endian):
+ * [magic][wersja][flagi][instancja][seq][ośrodek] [liczba cech] + (nazwa, count, mean, m2)*
+ * [okno: znacznik, tempa SYN/ICMP, liczniki, szkic par HLL] [CRC32 całości].
+ * Osiem cech i okno z małym ruchem to kilkaset bajtów na wymianę.
+ */
+final class ClusterCodec {
+
+    private static final int MAGIC = 0x49445343; // "IDSC"
+    private static final byte VERSION = 1;
+    private static final byte FULL = 1;
+    private static final byte HAS_WINDOW = 2;
+
+    private ClusterCodec() {
+    }
+
+    static byte[] encode(ClusterDigest digest) {
+        byte[] site = digest.site().getBytes(StandardCharsets.UTF_8);
+        Map<byte[], ClusterDigest.Stats> features = new LinkedHashMap<>();
+        int size = 4 + 1 + 1 + 8 + 8 + 2 + site.length + 2 + 4;
+        for (Map.Entry<String, ClusterDigest.Stats> e : digest.baseline().entrySet()) {
+            byte[] name = e.getKey().getBytes(StandardCharsets.UTF_8);
+            features.put(name, e.getValue());
+            size += 1 + name.length + 8 + 8 + 8;
+        }
+        WindowSummary w = digest.window();
+        if (w != null) {
+            size += 8 + 8 + 8 + 8 * 8 + w.portPairs().encodedSize();
+        }
+
+        ByteBuffer out = ByteBuffer.allocate(size);
+        out.putInt(MAGIC).put(VERSION)
+                .put((byte) ((digest.full() ? FULL : 0) | (w != null ? HAS_WINDOW : 0)))
+                .putLong(digest.instance()).putLong(digest.sequence())
+                .putShort((short) site.length).put(site)
+                .putShort((short) features.size());
+        features.forEach((name, stats) -> out.put((byte) name.length).put(name)
+                .putLong(stats.count()).putDouble(stats.mean()).putDouble(stats.m2()));
+        if (w != null) {
+            out.putLong(w.timestampMillis()).putDouble(w.synsPerSecond()).putDouble(w.icmpsPerSecond())
+                    .putLong(w.packets()).putLong(w.bytes()).putLong(w.inboundBytes()).putLong(w.outboundBytes())
+                    .putLong(w.flows()).putLong(w.halfOpen()).putLong(w.handshakesCompleted()).putLong(w.handshakesFailed());
+            w.portPairs().writeTo(out);
+        }
+        CRC32 crc = new CRC32();
+        crc.update(out.array(), 0, out.position());
+        out.putInt((int) crc.getValue());
+        return out.array();
+    }
+
+    static ClusterDigest decode(byte[] data) {
+        if (data.length < 8) {
+            throw new IllegalArgumentException("Digest klastra za krótki: " + data.length + " B");
+        }
+        CRC32 crc = new CRC32();
+        crc.update(data, 0, data.length - 4);
+        ByteBuffer in = ByteBuffer.wrap(data);
+        if (in.getInt(data.length - 4) != (int) crc.getValue()) {
+            throw new IllegalArgumentException("Niezgodna suma CRC digestu klastra");
+        }
+        try {
+            if (in.getInt() != MAGIC || in.get() != VERSION) {
+                throw new IllegalArgumentException("Nieznany format digestu klastra");
+            }
+            byte flags = in.get();
+            long instance = in.getLong();
+            long sequence = in.getLong();
+            String site = readString(in, Short.toUnsignedInt(in.getShort()));
+            int count = Short.toUnsignedInt(in.getShort());
+            Map<String, ClusterDigest.Stats> baseline = new LinkedHashMap<>();
+            for (int i = 0; i < count; i++) {
+                String name = readString(in, Byte.toUnsignedInt(in.get()));
+                baseline.put(name, new ClusterDigest.Stats(in.getLong(), in.getDouble(), in.getDouble()));
+            }
+            WindowSummary window = null;
+            if ((flags & HAS_WINDOW) != 0) {
+                window = new WindowSummary(in.getLong(), in.getDouble(), in.getDouble(),
+                        in.getLong(), in.getLong(), in.getLong(), in.getLong(),
+                        in.getLong(), in.getLong(), in.getLong(), in.getLong(),
+                        HyperLogLog.readFrom(in));
+            }
+            return new ClusterDigest(site, instance, sequence, (flags & FULL) != 0, baseline, window);
+        } catch (BufferUnderflowException | IndexOutOfBoundsException e) {
+            throw new IllegalArgumentException("Urwany digest klastra", e);
+        }
+    }
+
+    private static String readString(ByteBuffer in, int length) {
+        byte[] bytes = new byte[length];
+        in.get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+}
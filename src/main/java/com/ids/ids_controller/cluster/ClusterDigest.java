@@ -0,0 +1,20 @@
+package com.ids.ids_controller.cluster;
+
+import com.ids.ids_controller.service.WindowSummary;
+
+import java.util.Map;
+
+/**
+ * Stan kontrolera wymieniany w klastrze: statystyki Welforda cech baseline (tylko zmienione od
+ * poprzedniego pobrania, chyba że full) i podsumowanie ostatniego okna.
+ */
+public record ClusterDigest(
+        String site,
+        long instance,            // losowy identyfikator uruchomienia - zmiana wymusza pełny digest
+        long sequence,            // numer ostatniej obserwacji baseline w chwili zapisu
+        boolean full,             // true - baseline zawiera wszystkie cechy, false - tylko zmienione po since
+        Map<String, Stats> baseline,
+        WindowSummary window      // null przed pierwszym tickiem
+) {
+    public record Stats(long count, double mean, double m2) {}
+}
@@ -0,0 +1,341 @@
+package com.ids.ids_controller.cluster;
+
+import com.ids.ids_controller.service.AlertService;
+import com.ids.ids_controller.service.BaselineService;
+import com.ids.ids_controller.service.FeatureRegistry;
+import com.ids.ids_controller.service.FuzzyService;
+import com.ids.ids_controller.service.NetworkSnapshot;
+import com.ids.ids_controller.service.StatisticsAggregator;
+import com.ids.ids_controller.service.WindowSummary;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import jakarta.annotation.PreDestroy;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.http.MediaType;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+import org.springframework.web.reactive.function.client.WebClient;
+import reactor.core.Disposable;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+import reactor.core.scheduler.Schedulers;
+
+import java.time.Duration;
+import java.util.*;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Tryb klastra: kontrolery (po jednym na ośrodek) co ids.cluster.exchange-interval-seconds pobierają
+ * od siebie nawzajem digest (ClusterCodec) - statystyki Welforda cech baseline zmienione od poprzedniego
+ * pobrania oraz podsumowanie ostatniego okna.
+ *
+ * Statystyki wszystkich ośrodków łączone są wzorem Chana w baseline floty, od którego startuje mały
+ * albo nowy ośrodek: cecha z mniej niż ids.cluster.bootstrap-samples lokalnymi próbkami liczy z-score
+ * względem floty. Koordynator (ids.cluster.coordinator) scala dodatkowo okna ośrodków (sumy liczników,
+ * szkic par HLL) i ocenia cechy całej floty we własnym baseline - alerty w potoku "fleet".
+ *
+ * Okna ośrodków są scalane takie, jakie były przy ostatnim pobraniu - cechy floty to suma ostatnich
+ * ticków, nie okna wyrównane co do milisekundy.
+ *
+ * Wymiana nie zajmuje wątku harmonogramu Springa (wspólnego z checkpointami baseline i tempami sond):
+ * exchange() tylko subskrybuje pobrania, a scalenie baseline floty i ocena floty wykonują się na
+ * boundedElastic po ostatniej odpowiedzi. Termin, w którym poprzednia wymiana jeszcze trwa, jest pomijany.
+ */
+@Service
+public class ClusterService {
+    private static final Logger log = LoggerFactory.getLogger(ClusterService.class);
+
+    public static final String PIPELINE = "fleet";
+
+    private final boolean enabled;
+    private final String site;
+    private final boolean coordinator;
+    private final long bootstrapSamples;
+    private final long intervalMillis;
+    private final Duration timeout;
+    private final long instance = ThreadLocalRandom.current().nextLong();
+
+    private final BaselineService baselineService;
+    private final BaselineService fleetBaseline; // tylko koordynator
+    // Cechy floty - te same co w potoku globalnym; sloty w fleetBaseline
+    private final FeatureRegistry features;
+    private final int[] fleetSlots;
+    private final StatisticsAggregator aggregator;
+    private final FuzzyService fuzzyService;
+    private final AlertService alertService;
+    private final WebClient webClient = WebClient.create();
+
+    // Kolejność z ids.cluster.peers; stan peera zmieniany pod jego monitorem
+    private final Map<String, Peer> peers = new LinkedHashMap<>();
+    private final AtomicBoolean exchanging = new AtomicBoolean();
+    private volatile Disposable inFlight;
+    private volatile Map<String, BaselineService.BaselineStats> fleetStats = Map.of();
+    private volatile FleetScore lastFleetScore;
+
+    private final Counter bytesIn;
+    private final Counter bytesOut;
+    private final Counter failures;
+
+    public ClusterService(BaselineService baselineService, StatisticsAggregator aggregator,
+                          FuzzyService fuzzyService, AlertService alertService, MeterRegistry meterRegistry,
+                          @Value("${ids.cluster.enabled:false}") boolean enabled,
+                          @Value("${ids.cluster.site:local}") String site,
+                          @Value("${ids.cluster.peers:}") String peerUrls,
+                          @Value("${ids.cluster.coordinator:false}") boolean coordinator,
+                          @Value("${ids.cluster.bootstrap-samples:3600}") long bootstrapSamples,
+                          @Value("${ids.cluster.exchange-interval-seconds:10}") long intervalSeconds,
+                          @Value("${ids.cluster.timeout-ms:2000}") long timeoutMillis,
+                          @Value("${ids.cluster.fleet.window-size:8640}") int fleetWindow) {
+        this.baselineService = baselineService;
+        this.aggregator = aggregator;
+        this.fuzzyService = fuzzyService;
+        this.alertService = alertService;
+        this.enabled = enabled;
+        this.site = site;
+        this.coordinator = coordinator;
+        this.bootstrapSamples = bootstrapSamples;
+        this.intervalMillis = intervalSeconds * 1000;
+        this.timeout = Duration.ofMillis(timeoutMillis);
+        this.fleetBaseline = coordinator ? baselineService.emptyCopy(fleetWindow) : null;
+        this.features = aggregator.getFeatureExtractor().getFeatureRegistry();
+        this.fleetSlots = coordinator ? features.slotsIn(fleetBaseline) : null;
+        for (String url : peerUrls.split(",")) {
+            if (url.isBlank()) continue;
+            String trimmed = url.trim().replaceAll("/+$", "");
+            peers.put(trimmed, new Peer(trimmed));
+        }
+        this.bytesIn = Counter.builder("ids.cluster.bytes")
+                .description("Bajty digestów klastra")
+                .tag("direction", "in")
+                .register(meterRegistry);
+        this.bytesOut = Counter.builder("ids.cluster.bytes")
+                .description("Bajty digestów klastra")
+                .tag("direction", "out")
+                .register(meterRegistry);
+        this.failures = Counter.builder("ids.cluster.exchange.failures")
+                .description("Nieudane pobrania digestu od peerów")
+                .register(meterRegistry);
+        if (enabled) {
+            log.info("Tryb klastra: ośrodek {}, {} peerów, wymiana co {} s{}", site, peers.size(), intervalSeconds,
+                    coordinator ? ", koordynator floty" : "");
+        }
+    }
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    /*
+     * digest lokalny w formacie binarnym. since/instance - z poprzedniego digestu tego kontrolera u pytającego;
+     * inna instancja (restart) albo since spoza zakresu daje digest pełny, inaczej tylko cechy zmienione po since.
+     */
+    public byte[] localDigest(long since, long peerInstance) {
+        long sequence = baselineService.getObservationSeq();
+        boolean full = peerInstance != instance || since > sequence;
+        Map<String, ClusterDigest.Stats> baseline = new LinkedHashMap<>();
+        baselineService.getCurrentProfile().forEach((name, live) -> {
+            BaselineService.BaselineStats stats = live.copy();
+            if (full || stats.getSequence() > since) {
+                baseline.put(name, new ClusterDigest.Stats(stats.getCount(), stats.getMean(), stats.getM2()));
+            }
+        });
+        byte[] encoded = ClusterCodec.encode(
+                new ClusterDigest(site, instance, sequence, full, baseline, aggregator.getLastSummary()));
+        bytesOut.increment(encoded.length);
+        return encoded;
+    }
+
+    @Scheduled(fixedDelayString = "${ids.cluster.exchange-interval-seconds:10}", timeUnit = TimeUnit.SECONDS)
+    public void exchange() {
+        if (!enabled) return;
+        if (!exchanging.compareAndSet(false, true)) {
+            log.debug("Poprzednia wymiana w klastrze jeszcze trwa - pominięto termin");
+            return;
+        }
+        // Równoległe pobrania; całość najwyżej timeout (+ zapas), potem scalenie poza wątkiem I/O WebClienta
+        inFlight = Flux.fromIterable(peers.values())
+                .flatMap(this::pull)
+                .then()
+                .timeout(timeout.plusSeconds(1))
+                .onErrorResume(e -> {
+                    log.warn("Wymiana w klastrze przerwana: {}", e.getMessage());
+                    return Mono.empty();
+                })
+                .publishOn(Schedulers.boundedElastic())
+                .then(Mono.fromRunnable(this::afterExchange))
+                .doFinally(signal -> exchanging.set(false))
+                .subscribe(
+                        done -> {},
+                        error -> log.error("Błąd scalania wyników wymiany w klastrze: ", error)
+                );
+    }
+
+    private void afterExchange() {
+        refreshFleetBaseline();
+        if (coordinator) {
+            scoreFleet();
+        }
+    }
+
+    private Mono<Void> pull(Peer peer) {
+        long since;
+        long peerInstance;
+        synchronized (peer) {
+            since = peer.sequence;
+            peerInstance = peer.instance;
+        }
+        return webClient.get()
+                .uri(peer.url + "/cluster/digest?since={since}&instance={instance}", since, peerInstance)
+                .accept(MediaType.APPLICATION_OCTET_STREAM)
+                .retrieve()
+                .bodyToMono(byte[].class)
+                .timeout(timeout)
+                .doOnNext(bytes -> {
+                    bytesIn.increment(bytes.length);
+                    peer.apply(ClusterCodec.decode(bytes));
+                })
+                .then()
+                .onErrorResume(e -> {
+                    failures.increment();
+                    peer.fail(e);
+                    return Mono.empty();
+                });
+    }
+
+    // Baseline floty = lokalny + ostatnio znane statystyki peerów (wzór Chana), podmieniany w całości
+    private void refreshFleetBaseline() {
+        Map<String, BaselineService.BaselineStats> fleet = new HashMap<>();
+        baselineService.getCurrentProfile().forEach((name, stats) -> fleet.put(name, stats.copy()));
+        for (Peer peer : peers.values()) {
+            synchronized (peer) {
+                peer.baseline.forEach((name, stats) -> fleet.computeIfAbsent(name, k -> new BaselineService.BaselineStats())
+                        .merge(stats.count(), stats.mean(), stats.m2()));
+            }
+        }
+        Map<String, BaselineService.BaselineStats> published = Collections.unmodifiableMap(fleet);
+        fleetStats = published;
+        baselineService.setPrior(published, bootstrapSamples);
+    }
+
+    // Cechy floty ze scalonych okien: lokalnego i peerów odpowiadających w ostatnich dwóch interwałach
+    private void scoreFleet() {
+        List<WindowSummary> windows = new ArrayList<>();
+        List<String> sites = new ArrayList<>();
+        WindowSummary local = aggregator.getLastSummary();
+        if (local != null) {
+            windows.add(local);
+            sites.add(site);
+        }
+        long freshAfter = System.currentTimeMillis() - 2 * intervalMillis;
+        for (Peer peer : peers.values()) {
+            synchronized (peer) {
+                if (peer.window != null && peer.lastSeenMillis >= freshAfter) {
+                    windows.add(peer.window);
+                    sites.add(peer.site);
+                }
+            }
+        }
+        if (windows.isEmpty()) return;
+
+        long now = System.currentTimeMillis();
+        NetworkSnapshot s = WindowSummary.merge(windows).toSnapshot(features);
+        // Cechy bez wartości dla floty (NaN) - z = 0, bez obserwacji w baseline
+        double[] z = new double[features.size()];
+        Map<String, Double> zScores = new LinkedHashMap<>();
+        for (int id = 0; id < z.length; id++) {
+            double value = s.features().get(id);
+            if (Double.isNaN(value)) continue;
+            z[id] = fleetBaseline.calculateZScore(fleetSlots[id], value);
+            zScores.put(features.name(id), z[id]);
+        }
+        zScores = Collections.unmodifiableMap(zScores);
+        double probability = fuzzyService.analyze(z);
+
+        if (probability > alertService.getThreshold()) {
+            log.error("!!! ANOMALIA FLOTY ({} ośrodków) !!! Prawdopodobieństwo: {}%", sites.size(),
+                    String.format("%.2f", probability));
+            alertService.report(PIPELINE, "global", now, probability, zScores, s, fuzzyService.firedRules(z));
+        }
+        alertService.endTick(PIPELINE);
+        for (int id = 0; id < z.length; id++) {
+            double value = s.features().get(id);
+            if (!Double.isNaN(value)) fleetBaseline.addObservation(fleetSlots[id], value, probability);
+        }
+        lastFleetScore = new FleetScore(now, List.copyOf(sites), probability, s, zScores);
+    }
+
+    public ClusterStatus status() {
+        List<PeerStatus> peerStatus = new ArrayList<>();
+        for (Peer peer : peers.values()) {
+            synchronized (peer) {
+                peerStatus.add(new PeerStatus(peer.url, peer.site, peer.lastSeenMillis, peer.sequence,
+                        peer.baseline.size(), peer.window != null ? peer.window.timestampMillis() : 0,
+                        peer.failures, peer.lastError));
+            }
+        }
+        Map<String, ClusterDigest.Stats> fleet = new TreeMap<>();
+        fleetStats.forEach((name, stats) -> fleet.put(name, new ClusterDigest.Stats(stats.getCount(), stats.getMean(), stats.getM2())));
+        return new ClusterStatus(site, coordinator, baselineService.getObservationSeq(), peerStatus, fleet, lastFleetScore);
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        Disposable exchange = inFlight;
+        if (exchange != null) {
+            exchange.dispose();
+        }
+        if (coordinator) {
+            alertService.closeAll(PIPELINE);
+        }
+    }
+
+    public record FleetScore(long timestampMillis, List<String> sites, double anomalyProbability,
+                             NetworkSnapshot features, Map<String, Double> zScores) {}
+
+    public record PeerStatus(String url, String site, long lastSeenMillis, long sequence, int features,
+                             long windowTimestampMillis, long failures, String lastError) {}
+
+    public record ClusterStatus(String site, boolean coordinator, long sequence, List<PeerStatus> peers,
+                                Map<String, ClusterDigest.Stats> fleetBaseline, FleetScore fleet) {}
+
+    // Ostatnio znany stan jednego peera
+    private static final class Peer {
+        final String url;
+        String site = "?";
+        long instance;
+        long sequence;
+        final Map<String, ClusterDigest.Stats> baseline = new HashMap<>();
+        WindowSummary window;
+        long lastSeenMillis;
+        long failures;
+        String lastError;
+
+        Peer(String url) {
+            this.url = url;
+        }
+
+        synchronized void apply(ClusterDigest digest) {
+            // Nowa instancja peera (restart) albo niezgodny seq - digest pełny zastępuje znane cechy
+            if (digest.full()) baseline.clear();
+            baseline.putAll(digest.baseline());
+            site = digest.site();
+            instance = digest.instance();
+            sequence = digest.sequence();
+            if (digest.window() != null) window = digest.window();
+            lastSeenMillis = System.currentTimeMillis();
+            lastError = null;
+        }
+
+        synchronized void fail(Throwable e) {
+            failures++;
+            if (!Objects.equals(lastError, e.toString())) {
+                log.warn("Nie udało się pobrać digestu od {}: {}", url, e.toString());
+            }
+            lastError = e.toString();
+        }
+    }
+}
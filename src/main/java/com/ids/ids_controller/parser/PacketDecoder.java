@@ -1,34 +1,118 @@
 package com.ids.ids_controller.parser;
 
-import com.ids.ids_controller.service.FeatureExtractor;
+import com.ids.ids_controller.service.FeatureSink;
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.Unpooled;
 import org.pcap4j.packet.*;
-import org.springframework.stereotype.Component;
 
 /**
  * https://datatracker.ietf.org/doc/draft-ietf-opsawg-pcap/ - struktura pcap
+ *
+ * Dekoder jest stanowy (kolejność bajtów, niedokończony rekord), dlatego każde połączenie sondy
+ * dostaje własną instancję z PacketDecoderFactory. Bez blokad: decode()/resync()/setSampling() wywołuje
+ * tylko jeden wątek naraz - w PcapReceiver publishOn przypina subskrypcję połączenia do jednego wątku
+ * puli pcap-decode i podaje paczki sekwencyjnie, a close() jest wołane w doFinally po zakończeniu
+ * strumienia (przy odtwarzaniu - wątek pcap-replay). Liczniki dla metryk są publikowane przez pola volatile.
  * */
-
-@Component
 public class PacketDecoder {
     private static final org.slf4j.Logger log = org.slf4j.LoggerFactory.getLogger(PacketDecoder.class); // inicjacja logowania
 
-    private final FeatureExtractor featureExtractor;
+    private final FeatureSink featureSink;
 
     // Flaga określająca kolejność bajtów dla aktualnie przetwarzanego strumienia
     private boolean isBigEndian = false;
+    // true dla wariantu nanosekundowego (magic 0xa1b23c4d) - ts_usec zawiera wtedy nanosekundy
+    private boolean isNanos = false;
 
     private byte[] remainder = null;
 
-    // Wstrzyknięcie serwisu ekstraktora cech przez konstruktor
-    public PacketDecoder(FeatureExtractor featureExtractor) {
-        this.featureExtractor = featureExtractor;
+    // true po luce w strumieniu (resync()) - następne rekordy dopiero od wiarygodnego nagłówka
+    private boolean resyncPending;
+    // Wynik findRecord bez znalezionego rekordu: od tego offsetu bajty czekają na następną paczkę
+    private int resyncKeepFrom;
+    // Znacznik czasu ostatniego przyjętego rekordu (s) - rekord po luce musi mieć zbliżony
+    private long lastTimestampSec = -1;
+    private static final long MAX_GAP_SEC = 3600;
+
+    // Maksymalny sensowny incl_len (snaplen w libpcap/tcpdump to domyślnie 262144)
+    private static final int MAX_RECORD_LEN = 262144;
+
+    // Oczekiwany snaplen sondy (0 - przyjmowany z nagłówka globalnego strumienia). incl_len powyżej limitu
+    // oznacza rozsynchronizowanie strumienia - przy sondach przechwytujących same nagłówki limit jest
+    // o rzędy wielkości ciaśniejszy niż MAX_RECORD_LEN, więc śmieciowe długości odrzucamy od razu.
+    private final int expectedSnapLength;
+    private int streamSnapLength = -1;
+    private int recordLimit;
+
+    // Bufor akumulacyjny trybu zero-copy - trzyma wyłącznie niedokończony rekord z poprzedniej paczki
+    // (najwyżej 16 + recordLimit bajtów - przeczytane bajty są zwalniane po każdym przebiegu).
+    // Alokowany raz i używany ponownie (clear() zamiast nowej tablicy)
+    private final ByteBuf cumulation = Unpooled.buffer(64 * 1024);
+    // true do odebrania pierwszych 24 bajtów strumienia - nagłówek globalny sprawdzany tylko na jego początku
+    private boolean streamStart = true;
+    // Porcja dopisywana do bufora akumulacyjnego, gdy jego początek nie jest nagłówkiem rekordu
+    private static final int RESYNC_STEP = 4096;
+
+    // Tablica robocza dla bufora direct (pcap4j wymaga byte[]), rośnie tylko gdy trafi się większa ramka
+    private byte[] scratch = new byte[2048];
+
+    // true - nagłówki czytane flyweightem z bajtów ramki, false - przez model obiektowy pcap4j (tryb zapasowy/debug)
+    private final boolean flyweight;
+
+    // Widok pakietu wielokrotnego użytku - jeden na dekoder
+    private final PacketView view = new PacketView();
+    private ByteBuf wrappedData;
+
+    // Liczba zdekodowanych rekordów - zapisywana tylko przez wątek połączenia, odczytywana przez API sond
+    private long recordCount;
+    private volatile long publishedRecordCount;
+
+    // Liczniki diagnostyczne (zwykłe pola na ścieżce pakietu, publikowane po każdej paczce jak recordCount):
+    // błędy parsowania rekordów, bajty pominięte przy resynchronizacji, bajty czekające na dokończenie rekordu
+    private long decodeErrors;
+    private long resyncSkips;
+    private volatile long publishedDecodeErrors;
+    private volatile long publishedResyncSkips;
+    private volatile int publishedBufferedBytes;
+    // Rekordy ucięte przez snaplen (orig_len albo długość IP większa niż incl_len)
+    private long truncatedRecords;
+    private volatile long publishedTruncatedRecords;
+    private volatile int publishedSnapLength;
+
+    // Próbkowanie 1 z N (ustawiane przez odbiornik przy przeciążeniu, 1 - bez próbkowania):
+    // przyjmowany jest co N-ty pełny rekord z wagą N, pozostałe są pomijane bez parsowania
+    private int sampleEvery = 1;
+    private long sampleCounter;
+    private long sampledOut;
+    private volatile long publishedSampledOut;
+
+    public PacketDecoder(FeatureSink featureSink, boolean flyweight) {
+        this(featureSink, flyweight, 0);
+    }
+
+    public PacketDecoder(FeatureSink featureSink, boolean flyweight, int expectedSnapLength) {
+        this.featureSink = featureSink;
+        this.flyweight = flyweight;
+        this.expectedSnapLength = Math.min(Math.max(0, expectedSnapLength), MAX_RECORD_LEN);
+        this.recordLimit = this.expectedSnapLength > 0 ? this.expectedSnapLength : MAX_RECORD_LEN;
+        this.publishedSnapLength = recordLimit;
     }
 
     /*
      * główna metoda dekodująca surowe bajty odebrane z sieci.
      * obsługuje format strumienia PCAP (Global Header + Packet Records).
      */
-    public synchronized void decode(byte[] incomingData) {
+    public void decode(byte[] incomingData) {
+        featureSink.begin();
+        try {
+            decodeChunk(incomingData);
+        } finally {
+            featureSink.end();
+        }
+        publish(remainder != null ? remainder.length : 0);
+    }
+
+    private void decodeChunk(byte[] incomingData) {
         // Minimalna ramka Ethernet to 14 bajtów (MAC src, MAC dst, EtherType)
         byte[] data;
         if (remainder != null) {
@@ -43,6 +127,15 @@ public class PacketDecoder {
         if (data == null || data.length < 14) return;
 
         int offset = 0;
+        if (resyncPending) {
+            offset = findRecord(wrapped(data), 0, data.length);
+            if (offset < 0) {
+                remainder = new byte[data.length - resyncKeepFrom];
+                System.arraycopy(data, resyncKeepFrom, remainder, 0, remainder.length);
+                return;
+            }
+            resyncPending = false;
+        }
 
         /* * sprawdzenie tzw. "Magic Number" nagłówka globalnego PCAP (24 bajty).
          * 0xa1b2c3d4/0xa1b23c4d oznacza standardowy format, 0xd4c3b2a1/0x4d3cb2a1 to format zamieniony.
@@ -54,15 +147,19 @@ public class PacketDecoder {
         // 0xA1 -> Big-Endian (zarówno microsec jak i nano zaczynają się od 0xA1...)
         // 0xD4 -> Little-Endian microsec (D4 C3 B2 A1)
         // 0x4D -> Little-Endian nanosec (4D 3C B2 A1)
-        if (data.length >= 24) {
+        if (offset == 0 && data.length >= 24) {
             // Big-Endian
             if (data[0] == (byte)0xa1 && data[1] == (byte)0xb2) {
                 isBigEndian = true;
+                isNanos = data[2] == (byte)0x3c;
+                onGlobalHeader(wrapped(data), 0);
                 offset = 24;
             }
             // Little-Endian
             else if ((data[0] == (byte)0xd4 && data[1] == (byte)0xc3 || data[0] == (byte)0x4d && data[1] == (byte)0x3c)) {
                 isBigEndian = false;
+                isNanos = data[0] == (byte)0x4d;
+                onGlobalHeader(wrapped(data), 0);
                 offset = 24;
             }
         }
@@ -94,9 +191,10 @@ public class PacketDecoder {
                             (data[offset + 8] & 0xff);
                 }
 
-                // Walidacja: czy odczytana długość ma sens i czy pakiet mieści się w tablicy
-                if (packetLen <= 0) {
+                // Walidacja: czy odczytana długość ma sens (snaplen) i czy pakiet mieści się w tablicy
+                if (packetLen <= 0 || packetLen > recordLimit) {
                     offset++;
+                    resyncSkips++;
                     continue;
                 }
 
@@ -105,14 +203,30 @@ public class PacketDecoder {
                     break;
                 }
 
+                if (skipSampled()) {
+                    offset += 16 + packetLen;
+                    continue;
+                }
+
                 try {
-                    // Kopiujemy tylko czyste dane ramki Ethernet (pomijając 16 bajtów nagłówka rekordu)
-                    byte[] ethernetRaw = new byte[packetLen];
-                    System.arraycopy(data, offset + 16, ethernetRaw, 0, packetLen);
-                    // Fabryka Pcap4j tworzy obiektowy model pakietu z surowych bajtów
-                    Packet packet = EthernetPacket.newPacket(ethernetRaw, 0, ethernetRaw.length);
-                    featureExtractor.extract(packet);
+                    if (flyweight) {
+                        view.parse(wrapped(data), offset + 16, packetLen);
+                    } else {
+                        // Kopiujemy tylko czyste dane ramki Ethernet (pomijając 16 bajtów nagłówka rekordu)
+                        byte[] ethernetRaw = new byte[packetLen];
+                        System.arraycopy(data, offset + 16, ethernetRaw, 0, packetLen);
+                        // Fabryka Pcap4j tworzy obiektowy model pakietu z surowych bajtów
+                        Packet packet = EthernetPacket.newPacket(ethernetRaw, 0, ethernetRaw.length);
+                        view.parse(packet);
+                    }
+                    view.setTimestampMicros(timestampMicros(wrapped(data), offset));
+                    view.setOriginalLength(readOriginalLen(wrapped(data), offset));
+                    view.setWeight(sampleEvery);
+                    if (view.isTruncated()) truncatedRecords++;
+                    featureSink.accept(view);
+                    recordCount++;
                 } catch (Exception e) {
+                    decodeErrors++;
                     log.error("Błąd parsowania pakietu na offset {}: {}", offset, e.getMessage());
                 }
 
@@ -122,6 +236,7 @@ public class PacketDecoder {
             } catch (Exception e) {
                 // W razie błędu parsowania konkretnego pakietu, idziemy o bajt dalej, by nie zablokować pętli
                 offset++;
+                resyncSkips++;
             }
         }
         if (offset < data.length) {
@@ -129,4 +244,317 @@ public class PacketDecoder {
             System.arraycopy(data, offset, remainder, 0, remainder.length);
         }
     }
-}
\ No newline at end of file
+
+    /*
+     * tryb zero-copy: rekordy czytane są bezpośrednio z ByteBuf odebranego przez Netty.
+     * Do bufora akumulacyjnego trafiają tylko bajty niedokończonego rekordu, a przy następnej
+     * paczce dopisujemy do niego dokładnie tyle bajtów, ile brakuje do jego końca - reszta paczki
+     * jest dekodowana bezpośrednio z bufora wejściowego.
+     * ByteBuf należy do reactor-netty i jest zwalniany po powrocie z doOnNext - nie przechowujemy go.
+     */
+    public void decode(ByteBuf in) {
+        featureSink.begin();
+        try {
+            decodeChunk(in);
+        } finally {
+            featureSink.end();
+        }
+        publish(cumulation.readableBytes());
+    }
+
+    // Wołane przez wątek dekodujący przed paczką
+    public void setSampling(int every) {
+        this.sampleEvery = Math.max(1, every);
+    }
+
+    public int getSampling() {
+        return sampleEvery;
+    }
+
+    // true - rekord ma zostać pominięty przez próbkowanie
+    private boolean skipSampled() {
+        if (sampleEvery == 1) return false;
+        if (sampleCounter++ % sampleEvery == 0) return false;
+        sampledOut++;
+        return true;
+    }
+
+    private void publish(int bufferedBytes) {
+        publishedRecordCount = recordCount;
+        publishedTruncatedRecords = truncatedRecords;
+        publishedSnapLength = recordLimit;
+        publishedSampledOut = sampledOut;
+        publishedDecodeErrors = decodeErrors;
+        publishedResyncSkips = resyncSkips;
+        publishedBufferedBytes = bufferedBytes;
+    }
+
+    private void decodeChunk(ByteBuf in) {
+        if (streamStart) {
+            // Pierwsze paczki połączenia mogą być krótsze niż nagłówek globalny - zbierany w buforze akumulacyjnym
+            cumulation.writeBytes(in, Math.min(24 - cumulation.readableBytes(), in.readableBytes()));
+            if (cumulation.readableBytes() < 24) return;
+            streamStart = false;
+            cumulation.skipBytes(globalHeaderLength(cumulation, cumulation.readerIndex()));
+            if (!cumulation.isReadable()) cumulation.clear();
+        }
+        if (resyncPending) {
+            // Rzadkie (po odrzuceniu paczki) - szukanie rekordu w kopii bufora akumulacyjnego
+            cumulation.writeBytes(in);
+            int start = findRecord(cumulation, cumulation.readerIndex(), cumulation.writerIndex());
+            if (start < 0) {
+                cumulation.readerIndex(resyncKeepFrom);
+                cumulation.discardReadBytes();
+                return;
+            }
+            resyncPending = false;
+            cumulation.readerIndex(start);
+            decodeRecords(cumulation);
+            cumulation.discardReadBytes();
+            return;
+        }
+        boolean skipping = false;
+        while (cumulation.isReadable() && in.isReadable()) {
+            // Po przebiegu z pominiętymi bajtami dalej porcjami RESYNC_STEP, nie po brakującym bajcie nagłówka
+            int missing = skipping ? Math.max(RESYNC_STEP, missingBytes(cumulation)) : missingBytes(cumulation);
+            cumulation.writeBytes(in, Math.min(missing, in.readableBytes()));
+            long skips = resyncSkips;
+            decodeRecords(cumulation);
+            skipping = resyncSkips != skips;
+            // Bez tego śmieci przesuwane o bajt podnosiłyby writerIndex bez końca
+            cumulation.discardReadBytes();
+        }
+        if (!cumulation.isReadable()) {
+            cumulation.clear();
+            decodeRecords(in);
+            if (in.isReadable()) {
+                // Ucięty rekord na końcu paczki - jedyna kopia w stanie ustalonym
+                cumulation.writeBytes(in);
+            }
+        }
+    }
+
+    /*
+     * luka w strumieniu (odbiornik odrzucił paczkę przy ids.ingest.queue.policy=drop-oldest). Paczki nie są
+     * wyrównane do rekordów, więc niedokończony rekord jest porzucany, a dekodowanie wznawia się od pierwszego
+     * miejsca, w którym nagłówek rekordu i nagłówek po nim są wiarygodne (findRecord).
+     */
+    public void resync() {
+        remainder = null;
+        cumulation.clear();
+        streamStart = false; // nagłówek globalny, jeśli był w odrzuconej paczce, jest już stracony
+        resyncPending = true;
+        lastTimestampSec = recordCount > 0 ? view.timestampMicros() / 1_000_000 : -1;
+    }
+
+    /*
+     * pierwszy offset w [from, end) z wiarygodnym nagłówkiem rekordu: incl_len w limicie, orig_len >= incl_len,
+     * część ułamkowa znacznika poniżej sekundy, sekundy najwyżej MAX_GAP_SEC od ostatniego rekordu - i taki sam
+     * nagłówek zaraz za rekordem. Gdy nagłówek następnego rekordu jeszcze nie dotarł, wynik to -1, a bajty
+     * od kandydata (resyncKeepFrom) czekają na następną paczkę; bez kandydata zostaje ogon krótszy niż nagłówek.
+     */
+    private int findRecord(ByteBuf buf, int from, int end) {
+        int offset = from;
+        for (; offset + 16 <= end; offset++) {
+            if (plausibleHeader(buf, offset)) {
+                int next = offset + 16 + readRecordLen(buf, offset);
+                if (next + 16 > end) break;
+                if (plausibleHeader(buf, next)) return offset;
+            }
+            resyncSkips++;
+        }
+        resyncKeepFrom = offset;
+        return -1;
+    }
+
+    private boolean plausibleHeader(ByteBuf buf, int recordOffset) {
+        int packetLen = readRecordLen(buf, recordOffset);
+        if (packetLen < 14 || packetLen > recordLimit) return false;
+        int originalLen = readOriginalLen(buf, recordOffset);
+        if (originalLen < packetLen || originalLen > MAX_RECORD_LEN) return false;
+        long sec = isBigEndian ? buf.getUnsignedInt(recordOffset) : buf.getUnsignedIntLE(recordOffset);
+        if (lastTimestampSec >= 0 && Math.abs(sec - lastTimestampSec) > MAX_GAP_SEC) return false;
+        long frac = isBigEndian ? buf.getUnsignedInt(recordOffset + 4) : buf.getUnsignedIntLE(recordOffset + 4);
+        return frac < (isNanos ? 1_000_000_000L : 1_000_000L);
+    }
+
+    // Zamknięcie połączenia - przekazuje ekstraktorowi, że to źródło rekordów się skończyło
+    public void close() {
+        featureSink.close();
+    }
+
+    public long getRecordCount() {
+        return publishedRecordCount;
+    }
+
+    public long getDecodeErrors() {
+        return publishedDecodeErrors;
+    }
+
+    // Rekordy pominięte przez próbkowanie (reprezentowane wagą przyjętych)
+    public long getSampledOut() {
+        return publishedSampledOut;
+    }
+
+    // Rekordy ucięte przez snaplen sondy - bajty liczone wg orig_len/długości IP
+    public long getTruncatedRecords() {
+        return publishedTruncatedRecords;
+    }
+
+    // Bieżący limit incl_len: oczekiwany snaplen, snaplen z nagłówka strumienia albo MAX_RECORD_LEN
+    public int getSnapLength() {
+        return publishedSnapLength;
+    }
+
+    public long getResyncSkips() {
+        return publishedResyncSkips;
+    }
+
+    // Rozmiar niedokończonego rekordu trzymanego do następnej paczki (remainder albo bufor akumulacyjny)
+    public int getBufferedBytes() {
+        return publishedBufferedBytes;
+    }
+
+    // Pojemność bufora akumulacyjnego (testy ograniczenia pamięci)
+    int cumulationCapacity() {
+        return cumulation.capacity();
+    }
+
+    /*
+     * nagłówek globalny na początku strumienia (magic jak w decode(byte[])): ustawia kolejność bajtów
+     * i wariant znaczników, zwraca jego długość - 24 albo 0, gdy strumień zaczyna się od razu od rekordu.
+     */
+    private int globalHeaderLength(ByteBuf buf, int offset) {
+        byte b0 = buf.getByte(offset);
+        byte b1 = buf.getByte(offset + 1);
+        if (b0 == (byte)0xa1 && b1 == (byte)0xb2) {
+            isBigEndian = true;
+            isNanos = buf.getByte(offset + 2) == (byte)0x3c;
+        } else if ((b0 == (byte)0xd4 && b1 == (byte)0xc3 || b0 == (byte)0x4d && b1 == (byte)0x3c)) {
+            isBigEndian = false;
+            isNanos = b0 == (byte)0x4d;
+        } else {
+            return 0;
+        }
+        onGlobalHeader(buf, offset);
+        return 24;
+    }
+
+    /*
+     * przetwarza wszystkie pełne rekordy od readerIndex, przesuwając go za ostatni pełny rekord.
+     * logika (walidacja długości, resynchronizacja o bajt) jak w decode(byte[]).
+     */
+    private void decodeRecords(ByteBuf buf) {
+        int offset = buf.readerIndex();
+        int end = buf.writerIndex();
+
+        while (offset + 16 <= end) {
+            int packetLen = readRecordLen(buf, offset);
+
+            if (packetLen <= 0 || packetLen > recordLimit) {
+                offset++;
+                resyncSkips++;
+                continue;
+            }
+
+            if (offset + 16 + packetLen > end) {
+                break;
+            }
+
+            if (skipSampled()) {
+                offset += 16 + packetLen;
+                continue;
+            }
+
+            try {
+                if (flyweight) {
+                    view.parse(buf, offset + 16, packetLen);
+                } else {
+                    view.parse(toPacket(buf, offset + 16, packetLen));
+                }
+                view.setTimestampMicros(timestampMicros(buf, offset));
+                view.setOriginalLength(readOriginalLen(buf, offset));
+                view.setWeight(sampleEvery);
+                if (view.isTruncated()) truncatedRecords++;
+                featureSink.accept(view);
+                recordCount++;
+            } catch (Exception e) {
+                decodeErrors++;
+                log.error("Błąd parsowania pakietu na offset {}: {}", offset, e.getMessage());
+            }
+
+            offset += 16 + packetLen;
+        }
+        buf.readerIndex(offset);
+    }
+
+    /*
+     * ile bajtów trzeba dopisać do bufora akumulacyjnego, by zawierał pełny pierwszy rekord (zawsze >= 1).
+     * Przy niewiarygodnej długości - porcja RESYNC_STEP, którą decodeRecords przejdzie o bajt, zamiast
+     * dopisywania po jednym bajcie.
+     */
+    private int missingBytes(ByteBuf buf) {
+        int readable = buf.readableBytes();
+        if (readable < 16) return 16 - readable;
+
+        int packetLen = readRecordLen(buf, buf.readerIndex());
+        if (packetLen <= 0 || packetLen > recordLimit) return RESYNC_STEP;
+        return Math.max(1, 16 + packetLen - readable);
+    }
+
+    // incl_len - bajty 8-11 nagłówka rekordu
+    private int readRecordLen(ByteBuf buf, int recordOffset) {
+        return isBigEndian ? buf.getInt(recordOffset + 8) : buf.getIntLE(recordOffset + 8);
+    }
+
+    // orig_len - bajty 12-15 nagłówka rekordu (długość ramki na łączu, >= incl_len przy uciętym przechwycie)
+    private int readOriginalLen(ByteBuf buf, int recordOffset) {
+        return isBigEndian ? buf.getInt(recordOffset + 12) : buf.getIntLE(recordOffset + 12);
+    }
+
+    /*
+     * snaplen z nagłówka globalnego (bajty 16-19). Gdy sonda deklaruje inny niż oczekiwany (ids.probes.snaplen),
+     * ostrzegamy i przyjmujemy większy z nich - rekordy zgodne z nagłówkiem nie mogą być odrzucane.
+     */
+    private void onGlobalHeader(ByteBuf buf, int headerOffset) {
+        int declared = isBigEndian ? buf.getInt(headerOffset + 16) : buf.getIntLE(headerOffset + 16);
+        if (declared == streamSnapLength) return;
+        streamSnapLength = declared;
+        int limit = declared > 0 && declared <= MAX_RECORD_LEN ? declared : MAX_RECORD_LEN;
+        if (expectedSnapLength > 0) {
+            if (declared != expectedSnapLength) {
+                log.warn("Strumień deklaruje snaplen {}, oczekiwano {} - limit rekordu {}", declared,
+                        expectedSnapLength, Math.max(expectedSnapLength, limit));
+            }
+            limit = Math.max(expectedSnapLength, limit);
+        }
+        recordLimit = limit;
+    }
+
+    // ts_sec (bajty 0-3) i ts_usec/ts_nsec (bajty 4-7) nagłówka rekordu, w mikrosekundach
+    private long timestampMicros(ByteBuf buf, int recordOffset) {
+        long sec = isBigEndian ? buf.getUnsignedInt(recordOffset) : buf.getUnsignedIntLE(recordOffset);
+        long frac = isBigEndian ? buf.getUnsignedInt(recordOffset + 4) : buf.getUnsignedIntLE(recordOffset + 4);
+        return sec * 1_000_000L + (isNanos ? frac / 1000 : frac);
+    }
+
+    // Opakowanie byte[] w ByteBuf dla flyweighta (ścieżka byte[]) - tworzone raz na paczkę danych
+    private ByteBuf wrapped(byte[] data) {
+        if (wrappedData == null || wrappedData.array() != data) {
+            wrappedData = Unpooled.wrappedBuffer(data);
+        }
+        return wrappedData;
+    }
+
+    private Packet toPacket(ByteBuf buf, int index, int length) throws IllegalRawDataException {
+        if (buf.hasArray()) {
+            return EthernetPacket.newPacket(buf.array(), buf.arrayOffset() + index, length);
+        }
+        // Bufor direct - jedna kopia do tablicy roboczej wielokrotnego użytku
+        if (scratch.length < length) {
+            scratch = new byte[Math.max(length, scratch.length * 2)];
+        }
+        buf.getBytes(index, scratch, 0, length);
+        return EthernetPacket.newPacket(scratch, 0, length);
+    }
+}
@@ -0,0 +1,36 @@
+package com.ids.ids_controller.parser;
+
+import com.ids.ids_controller.service.FeatureExtractor;
+import com.ids.ids_controller.service.FeatureSink;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+/**
+ * Tworzy dekodery dla kolejnych połączeń sond - każde połączenie ma własny stan dekodowania.
+ */
+@Component
+public class PacketDecoderFactory {
+    private static final org.slf4j.Logger log = org.slf4j.LoggerFactory.getLogger(PacketDecoderFactory.class);
+
+    // true - nagłówki czytane flyweightem z bajtów ramki, false - przez model obiektowy pcap4j (tryb zapasowy/debug)
+    private final boolean flyweight;
+
+    public PacketDecoderFactory(@Value("${ids.decoder.parser:flyweight}") String parser) {
+        this.flyweight = !"pcap4j".equalsIgnoreCase(parser);
+        log.info("Parser nagłówków: {}", flyweight ? "flyweight" : "pcap4j");
+    }
+
+    public PacketDecoder create(FeatureExtractor featureExtractor) {
+        return create(featureExtractor, 0);
+    }
+
+    // expectedSnapLength - snaplen zadeklarowany dla sondy (0 - przyjmowany z nagłówka globalnego strumienia)
+    public PacketDecoder create(FeatureExtractor featureExtractor, int expectedSnapLength) {
+        return new PacketDecoder(featureExtractor.openSink(), flyweight, expectedSnapLength);
+    }
+
+    // Dekoder zasilający podany odbiornik (np. odbiornik odtwarzania PCAP sterujący zegarem agregatora)
+    public PacketDecoder create(FeatureSink featureSink) {
+        return new PacketDecoder(featureSink, flyweight);
+    }
+}
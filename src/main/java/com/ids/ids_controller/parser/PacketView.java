@@ -0,0 +1,356 @@
+package com.ids.ids_controller.parser;
+
+import io.netty.buffer.ByteBuf;
+import org.pcap4j.packet.*;
+
+/**
+ * Flyweight nagłówków ramki - odczyt pól potrzebnych do ekstrakcji cech bezpośrednio z bajtów ramki (offsety),
+ * bez budowania drzewa obiektów pcap4j. Jedna instancja jest wielokrotnie używana przez dekoder,
+ * więc wartości są ważne tylko do następnego wywołania parse().
+ *
+ * Sonda może przechwytywać tylko nagłówki (snaplen): frameLength() to wtedy liczba przechwyconych bajtów,
+ * a bajty ruchu liczymy z wireLength() - orig_len rekordu PCAP albo długości z nagłówka IP.
+ *
+ * https://en.wikipedia.org/wiki/IEEE_802.1Q - tag VLAN
+ * https://datatracker.ietf.org/doc/html/rfc8200 - nagłówek IPv6 i nagłówki rozszerzeń
+ */
+public final class PacketView {
+
+    public static final int PROTO_ICMP = 1;
+    public static final int PROTO_TCP = 6;
+    public static final int PROTO_UDP = 17;
+    public static final int PROTO_ICMPV6 = 58;
+
+    public static final int TCP_FIN = 0x01;
+    public static final int TCP_SYN = 0x02;
+    public static final int TCP_RST = 0x04;
+    public static final int TCP_PSH = 0x08;
+    public static final int TCP_ACK = 0x10;
+
+    private static final int MAX_IP_LENGTH = 65535; // największy datagram IP (bez jumbogramów IPv6)
+    // Bit oznaczający klucz adresu IPv6 - klucze IPv4 zajmują tylko dolne 32 bity
+    private static final long IPV6_KEY_FLAG = 1L << 63;
+
+    private static final int ETHERTYPE_IPV4 = 0x0800;
+    private static final int ETHERTYPE_IPV6 = 0x86dd;
+    private static final int ETHERTYPE_VLAN = 0x8100;
+    private static final int ETHERTYPE_QINQ = 0x88a8;
+
+    private long timestampMicros;
+    // Liczba pakietów, które reprezentuje ten rekord (N przy próbkowaniu 1 z N, inaczej 1)
+    private int weight = 1;
+    private int frameLength;
+    // orig_len z nagłówka rekordu PCAP (0 - nieznana) i offset nagłówka IP w ramce (długość warstwy 2)
+    private int originalLength;
+    private int l3Offset;
+    private int etherType;
+    private int ipVersion;
+    private long srcAddr;
+    private long dstAddr;
+    private int protocol;
+    private int ipTotalLength;
+    private int srcPort;
+    private int dstPort;
+    private int tcpFlags;
+    private int icmpType;
+
+    /*
+     * parsuje ramkę Ethernet zaczynającą się na pozycji offset bufora (bez zmiany readerIndex).
+     * zwraca false, jeśli ramka jest za krótka nawet na nagłówek Ethernet.
+     * niekompletne nagłówki wyższych warstw nie są błędem - odpowiednie pola pozostają puste.
+     */
+    public boolean parse(ByteBuf buf, int offset, int length) {
+        reset();
+        frameLength = length;
+        if (length < 14) return false;
+
+        int end = offset + length;
+        int pos = offset + 12;
+        int type = buf.getUnsignedShort(pos);
+        pos += 2;
+
+        // 802.1Q / 802.1ad - pomijamy (również podwójne) tagi VLAN
+        while ((type == ETHERTYPE_VLAN || type == ETHERTYPE_QINQ) && pos + 4 <= end) {
+            type = buf.getUnsignedShort(pos + 2);
+            pos += 4;
+        }
+        etherType = type;
+        l3Offset = pos - offset;
+
+        if (type == ETHERTYPE_IPV4) {
+            parseIpV4(buf, pos, end);
+        } else if (type == ETHERTYPE_IPV6) {
+            parseIpV6(buf, pos, end);
+        }
+        return true;
+    }
+
+    private void parseIpV4(ByteBuf buf, int pos, int end) {
+        if (pos + 20 > end) return;
+        int versionIhl = buf.getUnsignedByte(pos);
+        if ((versionIhl >> 4) != 4) return;
+        int ihl = (versionIhl & 0x0f) * 4;
+        if (ihl < 20) return;
+
+        ipVersion = 4;
+        ipTotalLength = buf.getUnsignedShort(pos + 2);
+        protocol = buf.getUnsignedByte(pos + 9);
+        srcAddr = buf.getUnsignedInt(pos + 12);
+        dstAddr = buf.getUnsignedInt(pos + 16);
+
+        // Tylko pierwszy fragment zawiera nagłówek warstwy 4
+        int fragmentOffset = buf.getUnsignedShort(pos + 6) & 0x1fff;
+        if (fragmentOffset == 0) {
+            parseTransport(buf, pos + ihl, end);
+        }
+    }
+
+    private void parseIpV6(ByteBuf buf, int pos, int end) {
+        if (pos + 40 > end) return;
+        if ((buf.getUnsignedByte(pos) >> 4) != 6) return;
+
+        ipVersion = 6;
+        ipTotalLength = 40 + buf.getUnsignedShort(pos + 4);
+        srcAddr = ipV6Key(buf.getLong(pos + 8), buf.getLong(pos + 16));
+        dstAddr = ipV6Key(buf.getLong(pos + 24), buf.getLong(pos + 32));
+
+        int next = buf.getUnsignedByte(pos + 6);
+        pos += 40;
+
+        // Nagłówki rozszerzeń: Hop-by-Hop (0), Routing (43), Fragment (44), AH (51), Destination Options (60)
+        for (int i = 0; i < 8 && pos + 8 <= end; i++) {
+            if (next == 0 || next == 43 || next == 60) {
+                int len = (buf.getUnsignedByte(pos + 1) + 1) * 8;
+                next = buf.getUnsignedByte(pos);
+                pos += len;
+            } else if (next == 44) {
+                int fragmentOffset = buf.getUnsignedShort(pos + 2) >> 3;
+                next = buf.getUnsignedByte(pos);
+                pos += 8;
+                if (fragmentOffset != 0) {
+                    protocol = next;
+                    return;
+                }
+            } else if (next == 51) {
+                int len = (buf.getUnsignedByte(pos + 1) + 2) * 4;
+                next = buf.getUnsignedByte(pos);
+                pos += len;
+            } else {
+                break;
+            }
+        }
+        protocol = next;
+        parseTransport(buf, pos, end);
+    }
+
+    private void parseTransport(ByteBuf buf, int pos, int end) {
+        switch (protocol) {
+            case PROTO_TCP -> {
+                if (pos + 14 > end) return;
+                srcPort = buf.getUnsignedShort(pos);
+                dstPort = buf.getUnsignedShort(pos + 2);
+                tcpFlags = buf.getUnsignedByte(pos + 13);
+            }
+            case PROTO_UDP -> {
+                if (pos + 4 > end) return;
+                srcPort = buf.getUnsignedShort(pos);
+                dstPort = buf.getUnsignedShort(pos + 2);
+            }
+            case PROTO_ICMP, PROTO_ICMPV6 -> {
+                if (pos + 1 > end) return;
+                icmpType = buf.getUnsignedByte(pos);
+            }
+            default -> { }
+        }
+    }
+
+    /*
+     * wypełnia widok na podstawie modelu obiektowego pcap4j - ścieżka zapasowa/diagnostyczna,
+     * pozwala porównać wynik flyweighta z referencyjnym parserem.
+     */
+    public void parse(Packet packet) {
+        reset();
+        frameLength = packet.length();
+
+        EthernetPacket eth = packet.get(EthernetPacket.class);
+        if (eth != null) {
+            etherType = eth.getHeader().getType().value() & 0xffff;
+        }
+        l3Offset = 14;
+        Dot1qVlanTagPacket vlan = packet.get(Dot1qVlanTagPacket.class);
+        if (vlan != null) {
+            etherType = vlan.getHeader().getType().value() & 0xffff;
+            l3Offset += 4;
+        }
+
+        IpV4Packet ip4 = packet.get(IpV4Packet.class);
+        IpV6Packet ip6 = packet.get(IpV6Packet.class);
+        if (ip4 != null) {
+            ipVersion = 4;
+            ipTotalLength = ip4.getHeader().getTotalLengthAsInt();
+            protocol = ip4.getHeader().getProtocol().value() & 0xff;
+            srcAddr = ipV4Key(ip4.getHeader().getSrcAddr().getAddress());
+            dstAddr = ipV4Key(ip4.getHeader().getDstAddr().getAddress());
+        } else if (ip6 != null) {
+            ipVersion = 6;
+            ipTotalLength = 40 + ip6.getHeader().getPayloadLengthAsInt();
+            protocol = ip6.getHeader().getNextHeader().value() & 0xff;
+            srcAddr = ipV6Key(ip6.getHeader().getSrcAddr().getAddress());
+            dstAddr = ipV6Key(ip6.getHeader().getDstAddr().getAddress());
+        }
+
+        TcpPacket tcp = packet.get(TcpPacket.class);
+        UdpPacket udp = packet.get(UdpPacket.class);
+        IcmpV4CommonPacket icmp4 = packet.get(IcmpV4CommonPacket.class);
+        IcmpV6CommonPacket icmp6 = packet.get(IcmpV6CommonPacket.class);
+        if (tcp != null) {
+            TcpPacket.TcpHeader h = tcp.getHeader();
+            protocol = PROTO_TCP;
+            srcPort = h.getSrcPort().valueAsInt();
+            dstPort = h.getDstPort().valueAsInt();
+            tcpFlags = (h.getFin() ? TCP_FIN : 0) | (h.getSyn() ? TCP_SYN : 0) | (h.getRst() ? TCP_RST : 0)
+                    | (h.getPsh() ? TCP_PSH : 0) | (h.getAck() ? TCP_ACK : 0) | (h.getUrg() ? 0x20 : 0);
+        } else if (udp != null) {
+            protocol = PROTO_UDP;
+            srcPort = udp.getHeader().getSrcPort().valueAsInt();
+            dstPort = udp.getHeader().getDstPort().valueAsInt();
+        } else if (icmp4 != null) {
+            protocol = PROTO_ICMP;
+            icmpType = icmp4.getHeader().getType().value() & 0xff;
+        } else if (icmp6 != null) {
+            protocol = PROTO_ICMPV6;
+            icmpType = icmp6.getHeader().getType().value() & 0xff;
+        }
+    }
+
+    // Kopia pól innego widoku - używana przy przekazywaniu rekordów do wątków roboczych
+    public void copyFrom(PacketView other) {
+        timestampMicros = other.timestampMicros;
+        weight = other.weight;
+        frameLength = other.frameLength;
+        originalLength = other.originalLength;
+        l3Offset = other.l3Offset;
+        etherType = other.etherType;
+        ipVersion = other.ipVersion;
+        srcAddr = other.srcAddr;
+        dstAddr = other.dstAddr;
+        protocol = other.protocol;
+        ipTotalLength = other.ipTotalLength;
+        srcPort = other.srcPort;
+        dstPort = other.dstPort;
+        tcpFlags = other.tcpFlags;
+        icmpType = other.icmpType;
+    }
+
+    private void reset() {
+        timestampMicros = 0;
+        weight = 1;
+        frameLength = 0;
+        originalLength = 0;
+        l3Offset = 0;
+        etherType = 0;
+        ipVersion = 0;
+        srcAddr = 0;
+        dstAddr = 0;
+        protocol = -1;
+        ipTotalLength = 0;
+        srcPort = -1;
+        dstPort = -1;
+        tcpFlags = 0;
+        icmpType = -1;
+    }
+
+    // Znacznik czasu przechwycenia z nagłówka rekordu PCAP - ustawiany przez dekoder po parse()
+    public void setTimestampMicros(long timestampMicros) { this.timestampMicros = timestampMicros; }
+    public long timestampMicros() { return timestampMicros; }
+
+    // Waga rekordu ustawiana przez dekoder po parse() - liczniki ekstraktora mnożone są przez nią
+    public void setWeight(int weight) { this.weight = weight; }
+    public int weight() { return weight; }
+
+    // orig_len rekordu PCAP - ustawiane przez dekoder po parse()
+    public void setOriginalLength(int originalLength) { this.originalLength = originalLength; }
+
+    // Liczba przechwyconych bajtów ramki (incl_len) - przy snaplen mniejszym niż ramka tylko nagłówki
+    public int frameLength() { return frameLength; }
+
+    /*
+     * długość ramki na łączu - do liczenia bajtów (średni rozmiar, asymetria, przepływy).
+     * orig_len, gdy sonda go zachowała; inaczej długość z nagłówka IP, jeśli wskazuje na uciętą ramkę.
+     * orig_len pochodzi z nagłówka rekordu bez weryfikacji - obcinany do [incl_len, 65535 + nagłówek L2].
+     */
+    public int wireLength() {
+        if (originalLength > frameLength) return Math.min(originalLength, MAX_IP_LENGTH + l3Offset);
+        int ipFrame = ipTotalLength > 0 ? l3Offset + ipTotalLength : 0;
+        return Math.max(ipFrame, frameLength);
+    }
+
+    public boolean isTruncated() { return wireLength() > frameLength; }
+
+    public int etherType() { return etherType; }
+    public int ipVersion() { return ipVersion; }
+    public boolean hasIp() { return ipVersion != 0; }
+    public long srcAddr() { return srcAddr; }
+    public long dstAddr() { return dstAddr; }
+    public int protocol() { return protocol; }
+    public int ipTotalLength() { return ipTotalLength; }
+    public int srcPort() { return srcPort; }
+    public int dstPort() { return dstPort; }
+    public int tcpFlags() { return tcpFlags; }
+    public int icmpType() { return icmpType; }
+
+    public boolean isTcp() { return protocol == PROTO_TCP && dstPort >= 0; }
+    public boolean isSyn() { return isTcp() && (tcpFlags & TCP_SYN) != 0; }
+    public boolean isAck() { return isTcp() && (tcpFlags & TCP_ACK) != 0; }
+
+    // Echo Request: typ 8 w ICMPv4, typ 128 w ICMPv6
+    public boolean isIcmpEchoRequest() {
+        return protocol == PROTO_ICMP && icmpType == 8 || protocol == PROTO_ICMPV6 && icmpType == 128;
+    }
+
+    // --- klucze adresów ---
+    // IPv4 -> adres jako liczba bez znaku (dolne 32 bity), IPv6 -> 63-bitowy skrót 128 bitów z ustawionym najwyższym bitem.
+    // Klucz IPv6 nie jest odwracalny, ale kolizje są pomijalne dla zliczania cech.
+
+    public static long ipV4Key(byte[] address) {
+        return ((address[0] & 0xffL) << 24) | ((address[1] & 0xffL) << 16) | ((address[2] & 0xffL) << 8) | (address[3] & 0xffL);
+    }
+
+    public static long ipV4Key(String dottedQuad) {
+        String[] parts = dottedQuad.trim().split("\\.");
+        if (parts.length != 4) throw new IllegalArgumentException("Niepoprawny adres IPv4: " + dottedQuad);
+        long key = 0;
+        for (String part : parts) {
+            int octet = Integer.parseInt(part);
+            if (octet < 0 || octet > 255) throw new IllegalArgumentException("Niepoprawny adres IPv4: " + dottedQuad);
+            key = (key << 8) | octet;
+        }
+        return key;
+    }
+
+    public static long ipV6Key(byte[] address) {
+        long hi = 0, lo = 0;
+        for (int i = 0; i < 8; i++) hi = (hi << 8) | (address[i] & 0xffL);
+        for (int i = 8; i < 16; i++) lo = (lo << 8) | (address[i] & 0xffL);
+        return ipV6Key(hi, lo);
+    }
+
+    static long ipV6Key(long hi, long lo) {
+        long h = hi * 0x9E3779B97F4A7C15L ^ lo;
+        h ^= h >>> 33;
+        h *= 0xff51afd7ed558ccdL;
+        h ^= h >>> 33;
+        return h | IPV6_KEY_FLAG;
+    }
+
+    public static boolean isIpV6Key(long key) {
+        return (key & IPV6_KEY_FLAG) != 0;
+    }
+
+    public static String formatAddress(long key) {
+        if (isIpV6Key(key)) {
+            return "ipv6#" + Long.toHexString(key & ~IPV6_KEY_FLAG);
+        }
+        return ((key >>> 24) & 0xff) + "." + ((key >>> 16) & 0xff) + "." + ((key >>> 8) & 0xff) + "." + (key & 0xff);
+    }
+}
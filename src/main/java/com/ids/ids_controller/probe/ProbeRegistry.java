@@ -0,0 +1,177 @@
+package com.ids.ids_controller.probe;
+
+import com.ids.ids_controller.parser.PacketDecoder;
+import com.ids.ids_controller.parser.PacketDecoderFactory;
+import com.ids.ids_controller.service.AlertService;
+import com.ids.ids_controller.service.BaselineService;
+import com.ids.ids_controller.service.FeatureExtractor;
+import com.ids.ids_controller.service.FuzzyService;
+import com.ids.ids_controller.service.StatisticsAggregator;
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.Meter;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Tags;
+import jakarta.annotation.PreDestroy;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Rejestr podłączonych sond. Każde połączenie dostaje własny dekoder (brak wspólnego stanu i blokady),
+ * a przy ids.probes.isolated-pipelines=true także własny ekstraktor, baseline i agregator,
+ * dzięki czemu sondy obsługiwane przez różne wątki event-loopa nie dzielą żadnych struktur
+ * (poza FuzzyService, bezpiecznym wątkowo).
+ *
+ * Metryki połączenia (tag probe) to FunctionCounter/Gauge odczytujące liczniki sesji i dekodera
+ * przy scrape'ie - ścieżka pakietu nie dotyka rejestru.
+ */
+@Service
+public class ProbeRegistry {
+    private static final Logger log = LoggerFactory.getLogger(ProbeRegistry.class);
+
+    private final PacketDecoderFactory decoderFactory;
+    private final FeatureExtractor sharedExtractor;
+    private final FuzzyService fuzzyService;
+    private final AlertService alertService;
+    private final BaselineService baselineService;
+    private final MeterRegistry meterRegistry;
+    private final boolean isolatedPipelines;
+    private final long tickMillis;
+    // Oczekiwany snaplen per adres sondy (ids.probes.snaplen-by-address), domyślnie ids.probes.snaplen
+    private final int defaultSnapLength;
+    private final Map<String, Integer> snapLengths;
+
+    private final Map<String, ProbeSession> sessions = new ConcurrentHashMap<>();
+    private final AtomicInteger sequence = new AtomicInteger();
+    private long lastRateUpdate = System.nanoTime();
+
+    public ProbeRegistry(PacketDecoderFactory decoderFactory, FeatureExtractor sharedExtractor,
+                         FuzzyService fuzzyService, AlertService alertService, BaselineService baselineService,
+                         MeterRegistry meterRegistry,
+                         @Value("${ids.probes.isolated-pipelines:false}") boolean isolatedPipelines,
+                         @Value("${ids.aggregator.tick-ms:1000}") long tickMillis,
+                         @Value("${ids.probes.snaplen:0}") int defaultSnapLength,
+                         @Value("${ids.probes.snaplen-by-address:}") String snapLengthsByAddress) {
+        this.decoderFactory = decoderFactory;
+        this.sharedExtractor = sharedExtractor;
+        this.fuzzyService = fuzzyService;
+        this.alertService = alertService;
+        this.baselineService = baselineService;
+        this.meterRegistry = meterRegistry;
+        this.isolatedPipelines = isolatedPipelines;
+        this.tickMillis = tickMillis;
+        this.defaultSnapLength = defaultSnapLength;
+        this.snapLengths = parseSnapLengths(snapLengthsByAddress);
+    }
+
+    // "10.0.0.7=96,10.0.0.8=128" -> adres -> snaplen
+    static Map<String, Integer> parseSnapLengths(String spec) {
+        Map<String, Integer> result = new HashMap<>();
+        for (String entry : spec.split(",")) {
+            if (entry.isBlank()) continue;
+            String[] parts = entry.trim().split("=");
+            if (parts.length != 2) {
+                throw new IllegalArgumentException("Niepoprawny wpis ids.probes.snaplen-by-address: " + entry);
+            }
+            result.put(parts[0].trim(), Integer.parseInt(parts[1].trim()));
+        }
+        return result;
+    }
+
+    // remoteAddress w postaci InetSocketAddress.toString(): "[host]/adres:port"
+    private int snapLengthFor(String remoteAddress) {
+        String address = remoteAddress.substring(remoteAddress.indexOf('/') + 1);
+        int port = address.lastIndexOf(':');
+        if (port > 0) address = address.substring(0, port);
+        return snapLengths.getOrDefault(address, defaultSnapLength);
+    }
+
+    public ProbeSession open(String remoteAddress) {
+        String id = "probe-" + sequence.incrementAndGet();
+
+        FeatureExtractor extractor = sharedExtractor;
+        StatisticsAggregator pipeline = null;
+        if (isolatedPipelines) {
+            extractor = sharedExtractor.sequentialCopy();
+            BaselineService baseline = baselineService.emptyCopy(baselineService.getWindowSize());
+            pipeline = new StatisticsAggregator(extractor, baseline, fuzzyService, alertService,
+                    meterRegistry, id, tickMillis);
+            pipeline.init();
+        }
+
+        int snapLength = snapLengthFor(remoteAddress);
+        ProbeSession session = new ProbeSession(id, remoteAddress, decoderFactory.create(extractor, snapLength), pipeline);
+        session.setMeters(registerMeters(session));
+        sessions.put(id, session);
+        log.info("Zarejestrowano sondę {} ({}), osobny potok: {}, snaplen: {}", id, remoteAddress, isolatedPipelines,
+                snapLength > 0 ? snapLength : "z nagłówka");
+        return session;
+    }
+
+    public void close(ProbeSession session) {
+        if (sessions.remove(session.getId()) == null) return;
+        session.getDecoder().close();
+        session.getMeters().forEach(meterRegistry::remove);
+        if (session.getPipeline() != null) {
+            session.getPipeline().cleanup();
+            session.getPipeline().getFeatureExtractor().shutdown();
+        }
+        log.info("Wyrejestrowano sondę {} ({})", session.getId(), session.getRemoteAddress());
+    }
+
+    private List<Meter> registerMeters(ProbeSession session) {
+        PacketDecoder decoder = session.getDecoder();
+        Tags tags = Tags.of("probe", session.getId());
+        return List.of(
+                FunctionCounter.builder("ids.probe.received", session, ProbeSession::getBytesReceived)
+                        .baseUnit("bytes").description("Bajty odebrane od sondy").tags(tags).register(meterRegistry),
+                FunctionCounter.builder("ids.probe.records", decoder, PacketDecoder::getRecordCount)
+                        .description("Zdekodowane rekordy PCAP").tags(tags).register(meterRegistry),
+                FunctionCounter.builder("ids.decoder.errors", decoder, PacketDecoder::getDecodeErrors)
+                        .description("Rekordy, których nie udało się sparsować").tags(tags).register(meterRegistry),
+                FunctionCounter.builder("ids.decoder.truncated", decoder, PacketDecoder::getTruncatedRecords)
+                        .description("Rekordy ucięte przez snaplen sondy").tags(tags).register(meterRegistry),
+                FunctionCounter.builder("ids.decoder.resync.skipped", decoder, PacketDecoder::getResyncSkips)
+                        .baseUnit("bytes").description("Bajty pominięte przy resynchronizacji strumienia").tags(tags).register(meterRegistry),
+                Gauge.builder("ids.decoder.buffered", decoder, PacketDecoder::getBufferedBytes)
+                        .baseUnit("bytes").description("Niedokończony rekord czekający na następną paczkę").tags(tags).register(meterRegistry),
+                Gauge.builder("ids.ingest.queue.depth", session, ProbeSession::getQueuedChunks)
+                        .description("Paczki czekające na dekodowanie").tags(tags).register(meterRegistry),
+                FunctionCounter.builder("ids.ingest.shed", session, ProbeSession::getShedBytes)
+                        .baseUnit("bytes").description("Bajty odrzucone z kolejki (drop-oldest)").tags(tags).register(meterRegistry),
+                FunctionCounter.builder("ids.ingest.sampled.out", decoder, PacketDecoder::getSampledOut)
+                        .description("Rekordy pominięte przez próbkowanie 1 z N").tags(tags).register(meterRegistry),
+                Gauge.builder("ids.ingest.sampling", decoder, PacketDecoder::getSampling)
+                        .description("Bieżące N próbkowania (1 - bez próbkowania)").tags(tags).register(meterRegistry)
+        );
+    }
+
+    public Collection<ProbeSession> getSessions() {
+        return Collections.unmodifiableCollection(sessions.values());
+    }
+
+    @Scheduled(fixedRate = 1000)
+    public void updateRates() {
+        long now = System.nanoTime();
+        double elapsedSec = (now - lastRateUpdate) / 1e9;
+        lastRateUpdate = now;
+        if (elapsedSec <= 0) return;
+        sessions.values().forEach(s -> s.updateRates(elapsedSec));
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        sessions.values().forEach(this::close);
+    }
+}
@@ -0,0 +1,100 @@
+package com.ids.ids_controller.probe;
+
+import com.ids.ids_controller.parser.PacketDecoder;
+import com.ids.ids_controller.service.StatisticsAggregator;
+import io.micrometer.core.instrument.Meter;
+
+import java.time.Instant;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Stan jednego połączenia sondy: własny dekoder, liczniki odebranych danych
+ * i (opcjonalnie) własny potok ekstraktor -> baseline -> agregator.
+ */
+public class ProbeSession {
+
+    private final String id;
+    private final String remoteAddress;
+    private final Instant connectedAt = Instant.now();
+    private final PacketDecoder decoder;
+    private final StatisticsAggregator pipeline; // null, gdy sonda zasila globalny potok
+
+    private final LongAdder bytesReceived = new LongAdder();
+
+    // Kolejka paczek między wątkiem I/O a dekodowaniem: paczki oczekujące i odrzucone (drop-oldest)
+    private final AtomicInteger queuedChunks = new AtomicInteger();
+    private final LongAdder shedChunks = new LongAdder();
+    private final LongAdder shedBytes = new LongAdder();
+
+    // Tempo liczone przez ProbeRegistry co sekundę
+    private long lastBytes;
+    private long lastRecords;
+    private long lastShedBytes;
+    private volatile double bytesPerSec;
+    private volatile double recordsPerSec;
+    private volatile double shedBytesPerSec;
+
+    // Metryki połączenia zarejestrowane przez ProbeRegistry - usuwane przy rozłączeniu
+    private List<Meter> meters = List.of();
+
+    ProbeSession(String id, String remoteAddress, PacketDecoder decoder, StatisticsAggregator pipeline) {
+        this.id = id;
+        this.remoteAddress = remoteAddress;
+        this.decoder = decoder;
+        this.pipeline = pipeline;
+    }
+
+    public void onChunk(int bytes) {
+        bytesReceived.add(bytes);
+    }
+
+    public void onQueued() {
+        queuedChunks.incrementAndGet();
+    }
+
+    public void onDequeued() {
+        queuedChunks.decrementAndGet();
+    }
+
+    // Paczka odrzucona z kolejki bez dekodowania
+    public void onShed(int bytes) {
+        queuedChunks.decrementAndGet();
+        shedChunks.increment();
+        shedBytes.add(bytes);
+    }
+
+    void updateRates(double elapsedSec) {
+        long bytes = bytesReceived.sum();
+        long records = decoder.getRecordCount();
+        long shed = shedBytes.sum();
+        bytesPerSec = (bytes - lastBytes) / elapsedSec;
+        recordsPerSec = (records - lastRecords) / elapsedSec;
+        shedBytesPerSec = (shed - lastShedBytes) / elapsedSec;
+        lastBytes = bytes;
+        lastRecords = records;
+        lastShedBytes = shed;
+    }
+
+    void setMeters(List<Meter> meters) { this.meters = meters; }
+    List<Meter> getMeters() { return meters; }
+
+    public String getId() { return id; }
+    public String getRemoteAddress() { return remoteAddress; }
+    public Instant getConnectedAt() { return connectedAt; }
+    public PacketDecoder getDecoder() { return decoder; }
+    public StatisticsAggregator getPipeline() { return pipeline; }
+    public long getBytesReceived() { return bytesReceived.sum(); }
+    public long getRecordsDecoded() { return decoder.getRecordCount(); }
+    public double getBytesPerSec() { return bytesPerSec; }
+    public double getRecordsPerSec() { return recordsPerSec; }
+    public int getQueuedChunks() { return queuedChunks.get(); }
+    public long getShedChunks() { return shedChunks.sum(); }
+    public long getShedBytes() { return shedBytes.sum(); }
+    public double getShedBytesPerSec() { return shedBytesPerSec; }
+    public long getRecordsSampledOut() { return decoder.getSampledOut(); }
+    public long getRecordsTruncated() { return decoder.getTruncatedRecords(); }
+    public int getSnapLength() { return decoder.getSnapLength(); }
+    public int getSampling() { return decoder.getSampling(); }
+}
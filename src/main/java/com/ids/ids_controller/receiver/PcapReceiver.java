@@ -1,21 +1,68 @@
 package com.ids.ids_controller.receiver;
 
 import com.ids.ids_controller.parser.PacketDecoder;
+import com.ids.ids_controller.probe.ProbeRegistry;
+import com.ids.ids_controller.probe.ProbeSession;
+import io.netty.buffer.ByteBuf;
 import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Component;
+import reactor.core.publisher.BufferOverflowStrategy;
+import reactor.core.publisher.Flux;
+import reactor.core.scheduler.Scheduler;
+import reactor.core.scheduler.Schedulers;
 import reactor.netty.tcp.TcpServer;
 
+import java.util.function.Consumer;
+import java.util.function.ToIntFunction;
+
  /**
  * https://projectreactor.io/docs/netty/release/reference/tcp-server.html - TcpSerwer generalnie
  * https://projectreactor.io/docs/netty/snapshot/api/reactor/netty/ByteBufFlux.html#asByteArray() - asByteArray
  * https://projectreactor.io/docs/core/release/api/reactor/core/publisher/Flux.html - doOnNext/Terminatee
+ *
+ * Paczki z wątku I/O Netty trafiają do ograniczonej kolejki (ids.ingest.queue.capacity) i są dekodowane
+ * na osobnej puli wątków - dekodowanie nie blokuje event-loopa. Przy przeciążeniu (ids.ingest.queue.policy):
+ * block - brak popytu wstrzymuje odczyt z gniazda (reactor-netty wyłącza autoRead), TCP spowalnia sondę;
+ * drop-oldest - gniazdo czytane bez przerwy, najstarsze paczki są odrzucane i liczone (sonda nie zwalnia);
+ * paczki nie są wyrównane do rekordów PCAP, więc po luce dekoder porzuca niedokończony rekord i szuka
+ * następnego wiarygodnego nagłówka (PacketDecoder.resync);
+ * sample - jak block, ale od połowy kolejki dekoder przyjmuje co N-ty rekord z wagą N (ids.ingest.sample-rate),
+ * więc liczniki cech pozostają nieobciążonymi oszacowaniami, a kolejka szybciej się opróżnia.
  * */
 
 @Component
 public class PcapReceiver {
     private static final org.slf4j.Logger log = org.slf4j.LoggerFactory.getLogger(PcapReceiver.class); // inicjacja logowania
 
-    private final PacketDecoder packetDecoder;
+    private final ProbeRegistry probeRegistry;
+
+    // true - dekoder czyta rekordy bezpośrednio z ByteBuf (bez asByteArray), false - stara ścieżka byte[]
+    @Value("${ids.ingest.zero-copy:true}")
+    private boolean zeroCopy;
+
+    // Odtwarzanie pliku PCAP (PcapReplay) wyklucza ruch na żywo - ticki agregatora idą wtedy wg czasu przechwytu
+    @Value("${ids.replay.file:}")
+    private String replayFile;
+
+    @Value("${ids.ingest.queue.capacity:64}")
+    private int queueCapacity;
+
+    @Value("${ids.ingest.queue.policy:block}")
+    private String queuePolicy;
+
+    @Value("${ids.ingest.sample-rate:10}")
+    private int sampleRate;
+
+    // Wątki dekodujące (0 = liczba rdzeni); każde połączenie jest dekodowane sekwencyjnie na jednym z nich
+    @Value("${ids.ingest.decode-threads:0}")
+    private int decodeThreads;
+
+    private OverloadPolicy policy;
+    private Scheduler decodeScheduler;
+
+    enum OverloadPolicy { BLOCK, DROP_OLDEST, SAMPLE }
 
     /* dependency injection - aby uniknąć sztywnego tworzenia obiektów (np. new PacketDecoder()) wewnątrz klasy.
     * spring działa jak "zarządca", który tworzy instancje klas (Beany) i "wstawia" je tam, gdzie są potrzebne.
@@ -23,30 +70,121 @@ public class PcapReceiver {
     * ala testów: można łatwo podstawić fałszywy dekoder (mock), aby przetestować samo odbieranie sieciowe, bez analizy pakietów
     * tutaj wstrzykiwanie poprzez konstruktor
     */
-    public PcapReceiver(PacketDecoder packetDecoder) {
-        this.packetDecoder = packetDecoder;
+    public PcapReceiver(ProbeRegistry probeRegistry) {
+        this.probeRegistry = probeRegistry;
     }
 
     @PostConstruct
     public void startReceiving() {
+        if (!replayFile.isBlank()) {
+            log.info("Tryb odtwarzania pliku {} - serwer PcapReceiver nie jest uruchamiany", replayFile);
+            return;
+        }
+        policy = OverloadPolicy.valueOf(queuePolicy.trim().replace('-', '_').toUpperCase());
+        if (queueCapacity < 2) {
+            throw new IllegalArgumentException("ids.ingest.queue.capacity musi wynosić co najmniej 2: " + queueCapacity);
+        }
+        if (sampleRate < 2 || sampleRate > 1000) {
+            throw new IllegalArgumentException("ids.ingest.sample-rate musi być z zakresu 2-1000: " + sampleRate);
+        }
+        decodeScheduler = Schedulers.newParallel("pcap-decode",
+                decodeThreads > 0 ? decodeThreads : Runtime.getRuntime().availableProcessors(), true);
+
         TcpServer.create() // Creates a TcpServer instance that is ready for configuring
                 .host("0.0.0.0") // nasłuch na wszystkich interfejsach
                 .port(9000)      // port zgodny z sondą
                 .handle((in, out) -> { // handling połączeń in - połączenie wejściowe, out - połączenie wyjściowe
                     // in/out TO SĄ ByteBufFlux!!!!
-                    log.info("Sonda połączyła się z kontrolerem.");
-
-                    return in.receive() // patrz komentarz przy .then()
-                            .asByteArray() // Returns a Flux with byte[] inside of it
-                            .doOnNext(data -> { // Add behavior (side-effect) triggered when the Flux emits an item
-                                log.debug("Odebrano paczkę danych: {} bajtów", data.length); // pcapy z socata przychodzą w formie surowych bajtów
-                                packetDecoder.decode(data); // przekazujemy paczki danych do decodera
-                            })
+                    // każde połączenie ma własną sesję z własnym dekoderem - sondy nie dzielą stanu ani blokady
+                    String[] remote = {"unknown"};
+                    in.withConnection(conn -> remote[0] = String.valueOf(conn.channel().remoteAddress()));
+                    ProbeSession session = probeRegistry.open(remote[0]);
+                    PacketDecoder packetDecoder = session.getDecoder();
+                    log.info("Sonda {} połączyła się z kontrolerem.", remote[0]);
+
+                    Flux<?> stream;
+                    if (zeroCopy) {
+                        // reactor-netty zwalnia ByteBuf po doOnNext - retain() przedłuża życie bufora na czas kolejki,
+                        // zwalniamy go sami po dekodowaniu albo przy odrzuceniu
+                        stream = handOff(in.receive().retain(), session, packetDecoder, ByteBuf.class, ByteBuf::readableBytes, ByteBuf::release)
+                                .doOnNext(buf -> {
+                                    try {
+                                        log.debug("Odebrano paczkę danych: {} bajtów", buf.readableBytes());
+                                        beforeDecode(session, packetDecoder);
+                                        packetDecoder.decode(buf);
+                                    } finally {
+                                        buf.release();
+                                    }
+                                });
+                    } else {
+                        stream = handOff(in.receive() // patrz komentarz przy .then()
+                                        .asByteArray(), // Returns a Flux with byte[] inside of it
+                                        session, packetDecoder, byte[].class, data -> data.length, data -> { })
+                                .doOnNext(data -> { // Add behavior (side-effect) triggered when the Flux emits an item
+                                    log.debug("Odebrano paczkę danych: {} bajtów", data.length); // pcapy z socata przychodzą w formie surowych bajtów
+                                    beforeDecode(session, packetDecoder);
+                                    packetDecoder.decode(data); // przekazujemy paczki danych do decodera
+                                });
+                    }
+                    return stream
+                            .doFinally(signal -> probeRegistry.close(session))
                             .doOnTerminate(() -> log.info("Połączenie z sondą przerwane.")) // Add behavior (side-effect) triggered when the Flux terminates, either by completing successfully
                             // or failing with an error - u nas informuje że połączenie z sonda zostało przerwane
                             .then(); // .receive().then() = Receives data from the connected client ont the in connection. then zamyka zasoby tego konkretnego handlera po zamknięciu połaczenia
                 })
                 .bindNow(); // Starts the server in a blocking fashion and waits for it to finish initializing
-        log.info("Serwer PcapReceiver uruchomiony na porcie 9000");
+        log.info("Serwer PcapReceiver uruchomiony na porcie 9000 (zero-copy: {}, kolejka: {} paczek, polityka: {})",
+                zeroCopy, queueCapacity, policy);
+    }
+
+    /*
+     * ograniczona kolejka między wątkiem I/O a dekodowaniem. Liczniki sesji: onChunk/onQueued na wątku I/O,
+     * onDequeued przed dekodowaniem, onShed przy odrzuceniu (drop-oldest).
+     */
+    private <T> Flux<T> handOff(Flux<T> chunks, ProbeSession session, PacketDecoder decoder, Class<T> type,
+                                ToIntFunction<T> size, Consumer<T> release) {
+        Flux<T> queued = chunks.doOnNext(chunk -> {
+            session.onChunk(size.applyAsInt(chunk));
+            session.onQueued();
+        });
+        if (policy != OverloadPolicy.DROP_OLDEST) {
+            return queued
+                    .publishOn(decodeScheduler, queueCapacity)
+                    .doOnNext(chunk -> session.onDequeued())
+                    .doOnDiscard(type, release); // paczki porzucone przy zamknięciu połączenia
+        }
+        // Bufor zgłasza nieograniczony popyt do gniazda, więc to on jest kolejką - publishOn pobiera po jednej paczce.
+        // Numer nadany na wątku I/O: przeskok numeru po stronie dekodowania to luka po odrzuconej paczce.
+        // Odrzucona paczka trafia najpierw do onShed, a potem do doOnDiscard (tam jest zwalniana)
+        long[] next = {0};
+        long[] expected = {0};
+        return queued
+                .map(chunk -> new Sequenced<>(chunk, next[0]++))
+                .onBackpressureBuffer(queueCapacity,
+                        s -> session.onShed(size.applyAsInt(s.chunk())), BufferOverflowStrategy.DROP_OLDEST)
+                .publishOn(decodeScheduler, 1)
+                .doOnNext(s -> {
+                    session.onDequeued();
+                    if (s.seq() != expected[0]) decoder.resync();
+                    expected[0] = s.seq() + 1;
+                })
+                .map(Sequenced::chunk)
+                .doOnDiscard(Sequenced.class, s -> release.accept(type.cast(s.chunk())));
+    }
+
+    // Paczka z numerem kolejnym w połączeniu (tylko drop-oldest)
+    private record Sequenced<T>(T chunk, long seq) {}
+
+    private void beforeDecode(ProbeSession session, PacketDecoder decoder) {
+        if (policy == OverloadPolicy.SAMPLE) {
+            decoder.setSampling(session.getQueuedChunks() >= queueCapacity / 2 ? sampleRate : 1);
+        }
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        if (decodeScheduler != null) {
+            decodeScheduler.dispose();
+        }
     }
 }
@@ -0,0 +1,237 @@
+package com.ids.ids_controller.receiver;
+
+import com.ids.ids_controller.parser.PacketDecoder;
+import com.ids.ids_controller.parser.PacketDecoderFactory;
+import com.ids.ids_controller.parser.PacketView;
+import com.ids.ids_controller.service.BaselineService;
+import com.ids.ids_controller.service.FeatureExtractor;
+import com.ids.ids_controller.service.FeatureSink;
+import com.ids.ids_controller.service.StatisticsAggregator;
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.Unpooled;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.stereotype.Component;
+
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Odtwarzanie pliku .pcap zamiast nasłuchu na porcie 9000 (ids.replay.file) - do uczenia baseline
+ * i sprawdzania zmian reguł FCL na zapisanym ruchu.
+ *
+ * Plik jest mapowany w pamięć (segmentami do 1 GiB) i podawany paczkami ByteBuf tym samym dekoderem
+ * i ekstraktorem co ruch z sond - bez kopiowania do sterty. Ticki globalnego agregatora wyznaczają
+ * znaczniki czasu rekordów: gdy rekord przekracza granicę ticku, okno jest zamykane przed jego
+ * przyjęciem (puste ticki przerw w ruchu też są liczone, jak przy zegarze ściennym). Przerwa dłuższa niż
+ * ids.replay.max-gap-ticks ticków (wyłączona sonda, sklejone przechwyty) zamyka tylko okno sprzed niej -
+ * pozostałe puste ticki są pomijane, zamiast dokarmiać baseline milionami pustych okien.
+ * Ekstrakcja jest zawsze sekwencyjna w wątku odtwarzania (także przy ids.features.workers > 0) - rekordy
+ * sprzed granicy ticku są w oknie w chwili jego zamknięcia, a przy pełnych kolejkach nic nie jest odrzucane.
+ *
+ * ids.replay.speed: max - bez opóźnień, realtime - tempo przechwytu, liczba N - N razy szybciej.
+ */
+@Component
+public class PcapReplay {
+    private static final Logger log = LoggerFactory.getLogger(PcapReplay.class);
+
+    private static final long SEGMENT_SIZE = 1L << 30;
+    private static final int CHUNK_SIZE = 64 * 1024;
+    private static final long MIN_SLEEP_NANOS = 1_000_000; // krótszych wyprzedzeń nie opłaca się usypiać
+
+    private final PacketDecoderFactory decoderFactory;
+    private final FeatureExtractor featureExtractor;
+    private final StatisticsAggregator aggregator;
+    private final BaselineService baselineService;
+    private final String file;
+    private final double speed; // 0 - bez ograniczenia tempa
+    private final String exportProfile;
+    private final long maxGapTicks;
+
+    public PcapReplay(PacketDecoderFactory decoderFactory, FeatureExtractor featureExtractor,
+                      StatisticsAggregator aggregator, BaselineService baselineService,
+                      @Value("${ids.replay.file:}") String file,
+                      @Value("${ids.replay.speed:max}") String speed,
+                      @Value("${ids.replay.export-profile:}") String exportProfile,
+                      @Value("${ids.replay.max-gap-ticks:3600}") long maxGapTicks) {
+        this.decoderFactory = decoderFactory;
+        this.featureExtractor = featureExtractor;
+        this.aggregator = aggregator;
+        this.baselineService = baselineService;
+        this.file = file;
+        this.speed = parseSpeed(speed);
+        this.exportProfile = exportProfile;
+        this.maxGapTicks = Math.max(1, maxGapTicks);
+    }
+
+    static double parseSpeed(String speed) {
+        if ("max".equalsIgnoreCase(speed)) return 0;
+        if ("realtime".equalsIgnoreCase(speed)) return 1;
+        double factor = Double.parseDouble(speed);
+        if (!(factor > 0)) {
+            throw new IllegalArgumentException("ids.replay.speed musi być max, realtime lub liczbą dodatnią: " + speed);
+        }
+        return factor;
+    }
+
+    public boolean isEnabled() {
+        return !file.isBlank();
+    }
+
+    // Start po pełnym uruchomieniu kontekstu - stan baseline jest już odtworzony z dysku
+    @EventListener(ApplicationReadyEvent.class)
+    public void start() {
+        if (!isEnabled()) return;
+        Thread thread = new Thread(this::run, "pcap-replay");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    private void run() {
+        Path path = Path.of(file);
+        log.info("Odtwarzanie {} (tempo: {})", path, speed == 0 ? "max" : speed + "x");
+        ClockedSink sink = new ClockedSink(featureExtractor.openSequentialSink(), aggregator::tick,
+                aggregator.getTickMillis(), speed, maxGapTicks);
+        PacketDecoder decoder = decoderFactory.create(sink);
+        long wallStart = System.nanoTime();
+
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            long size = channel.size();
+            for (long position = 0; position < size; position += SEGMENT_SIZE) {
+                long length = Math.min(SEGMENT_SIZE, size - position);
+                ByteBuf segment = Unpooled.wrappedBuffer(channel.map(FileChannel.MapMode.READ_ONLY, position, length));
+                for (int offset = 0; offset < length; offset += CHUNK_SIZE) {
+                    // Rekord przecięty granicą paczki/segmentu dekoder składa w buforze akumulacyjnym
+                    decoder.decode(segment.slice(offset, (int) Math.min(CHUNK_SIZE, length - offset)));
+                }
+            }
+        } catch (IOException e) {
+            log.error("Błąd odczytu pliku PCAP {}: {}", path, e.getMessage());
+            return;
+        } finally {
+            decoder.close();
+        }
+
+        // Niepełne ostatnie okno nie jest oceniane - zaniżyłoby cechy nieprzeliczane na sekundę
+        double wallSec = (System.nanoTime() - wallStart) / 1e9;
+        double captureSec = sink.lastMicros > 0 ? (sink.lastMicros - sink.firstMicros) / 1e6 : 0;
+        log.info("Zakończono odtwarzanie {}: {} rekordów, {} s ruchu w {} s, {} ticków (pominięte w przerwach: {})", path,
+                decoder.getRecordCount(), String.format("%.1f", captureSec), String.format("%.1f", wallSec), sink.ticks,
+                sink.skippedTicks);
+
+        if (!exportProfile.isBlank()) {
+            try {
+                baselineService.exportProfile(exportProfile);
+            } catch (IOException e) {
+                log.error("Nie udało się wyeksportować profilu baseline do {}: {}", exportProfile, e.getMessage());
+            }
+        }
+    }
+
+    // Zamknięcie okna (StatisticsAggregator.tick)
+    interface Ticker {
+        void tick(long durationNanos, long endMillis);
+    }
+
+    /*
+     * odbiornik ekstraktora sterujący zegarem: przed przyjęciem rekordu zamyka okna, których granicę
+     * przekroczył jego znacznik czasu, i (przy ograniczonym tempie) czeka na jego moment w czasie ściennym.
+     * Obie czynności wymagają wyjścia z paczki (end) - agregator czeka na piszących w zamykanej epoce.
+     */
+    static final class ClockedSink implements FeatureSink {
+        private final FeatureSink delegate;
+        private final Ticker ticker;
+        private final long tickMicros;
+        private final double speed;
+        private final long maxGapTicks;
+        private long firstMicros = -1;
+        private long lastMicros;
+        private long nextTickMicros;
+        private long wallStartNanos;
+        // Czas przechwytu pominięty w przerwach - tempo odtwarzania liczone bez niego
+        private long skippedMicros;
+        long ticks;
+        long skippedTicks;
+
+        ClockedSink(FeatureSink delegate, Ticker ticker, long tickMillis, double speed, long maxGapTicks) {
+            this.delegate = delegate;
+            this.ticker = ticker;
+            this.tickMicros = tickMillis * 1000;
+            this.speed = speed;
+            this.maxGapTicks = maxGapTicks;
+        }
+
+        @Override
+        public void begin() {
+            delegate.begin();
+        }
+
+        @Override
+        public void accept(PacketView packet) {
+            long ts = packet.timestampMicros();
+            if (firstMicros < 0) {
+                firstMicros = ts;
+                nextTickMicros = ts + tickMicros;
+                wallStartNanos = System.nanoTime();
+            }
+            if (ts > lastMicros) lastMicros = ts;
+
+            if (ts >= nextTickMicros) {
+                delegate.end();
+                long due = (ts - nextTickMicros) / tickMicros + 1;
+                if (due > maxGapTicks) {
+                    // Okno sprzed przerwy jest zamykane, puste okna przerwy - pomijane (zachowana faza ticków)
+                    tick();
+                    long skipped = due - 1;
+                    nextTickMicros += skipped * tickMicros;
+                    skippedMicros += skipped * tickMicros;
+                    skippedTicks += skipped;
+                    log.info("Przerwa w przechwycie: {} s bez rekordów - pominięto {} pustych ticków (ids.replay.max-gap-ticks={})",
+                            String.format("%.1f", skipped * tickMicros / 1e6), skipped, maxGapTicks);
+                } else {
+                    for (; due > 0; due--) {
+                        tick();
+                    }
+                }
+                delegate.begin();
+            }
+            if (speed > 0) {
+                pace(ts);
+            }
+            delegate.accept(packet);
+        }
+
+        private void tick() {
+            ticker.tick(TimeUnit.MICROSECONDS.toNanos(tickMicros), nextTickMicros / 1000);
+            nextTickMicros += tickMicros;
+            ticks++;
+        }
+
+        private void pace(long ts) {
+            long due = wallStartNanos + (long) ((ts - firstMicros - skippedMicros) * 1000 / speed);
+            long ahead = due - System.nanoTime();
+            if (ahead >= MIN_SLEEP_NANOS) {
+                delegate.end();
+                LockSupport.parkNanos(ahead);
+                delegate.begin();
+            }
+        }
+
+        @Override
+        public void end() {
+            delegate.end();
+        }
+
+        @Override
+        public void close() {
+            delegate.close();
+        }
+    }
+}
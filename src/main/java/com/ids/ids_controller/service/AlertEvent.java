@@ -0,0 +1,28 @@
+package com.ids.ids_controller.service;
+
+import java.time.Instant;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Zdarzenie alertu zapisywane w dzienniku i wysyłane strumieniem SSE.
+ * Kolejne ticki z anomalią tego samego źródła (potok + podmiot) składają się w jeden alert:
+ * OPEN przy pierwszym ticku, UPDATE co ids.alerts.update-every-ticks ticków trwania, CLOSED po wygaśnięciu.
+ * Dowody (z-score'y, migawka cech, reguły) pochodzą z ticku o najwyższym prawdopodobieństwie.
+ */
+public record AlertEvent(
+        long id,
+        State state,
+        String pipeline,
+        String subject,           // "global" albo chroniony host/zakres
+        Instant startedAt,
+        Instant updatedAt,
+        long ticks,               // liczba ticków z anomalią złożonych w ten alert
+        double peakProbability,
+        double lastProbability,
+        Map<String, Double> zScores,
+        Object evidence,          // NetworkSnapshot albo HostScore
+        List<String> firedRules
+) {
+    public enum State { OPEN, UPDATE, CLOSED }
+}
@@ -0,0 +1,452 @@
+package com.ids.ids_controller.service;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.http.codec.ServerSentEvent;
+import org.springframework.stereotype.Service;
+import reactor.core.publisher.Flux;
+import tools.jackson.databind.ObjectMapper;
+
+import java.io.BufferedOutputStream;
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Predicate;
+import java.util.stream.Stream;
+
+/**
+ * Alerty anomalii: składanie kolejnych ticków z anomalią w jeden alert, dziennik append-only
+ * (JSON Lines, ids.alerts.dir/alerts.jsonl), indeks ostatnich alertów dla /alerts i strumień SSE.
+ *
+ * Dziennik jest dzielony na segmenty: po przekroczeniu ids.alerts.journal.max-segment-mb albo
+ * max-segment-age-hours bieżący plik jest zamykany jako alerts-<początek ms>.jsonl, a zamkniętych segmentów
+ * zostaje najwyżej max-segments. Przy starcie indeks odtwarzany jest tylko z ogona: najnowszego zamkniętego
+ * segmentu i bieżącego pliku, z każdego najwyżej max-segment-mb ostatnich bajtów.
+ *
+ * Ticki agregatorów tylko aktualizują stan otwartych alertów i wstawiają zdarzenia do ograniczonej kolejki
+ * (offer - bez czekania). Zapis, indeksowanie i publikację SSE wykonuje wątek dziennika partiami
+ * z jednym flush na partię. Przy zapchanej kolejce zdarzenia są odrzucane i liczone (ids.alerts.dropped),
+ * tick nigdy nie czeka na dysk.
+ */
+@Service
+public class AlertService {
+    private static final Logger log = LoggerFactory.getLogger(AlertService.class);
+
+    private static final String JOURNAL_FILE = "alerts.jsonl";
+    private static final String SEGMENT_PREFIX = "alerts-";
+    private static final String SEGMENT_SUFFIX = ".jsonl";
+    private static final int MAX_BATCH = 256;
+    private static final int SSE_REPLAY = 20;
+    private static final ObjectMapper objectMapper = new ObjectMapper();
+
+    private final double threshold;
+    private final int closeAfterTicks;
+    private final int updateEveryTicks;
+    private final int indexSize;
+    private final boolean journalEnabled;
+    private final Path directory;
+    private final long maxSegmentBytes;
+    private final long maxSegmentAgeMillis;
+    private final int maxSegments;
+
+    private final BlockingQueue<AlertEvent> queue;
+    private final AtomicLong ids = new AtomicLong();
+    // Otwarte alerty wg "potok|podmiot" - każdy wpis modyfikuje tylko wątek ticku swojego potoku
+    private final Map<String, OpenAlert> open = new ConcurrentHashMap<>();
+    private final Map<String, AtomicLong> pipelineTicks = new ConcurrentHashMap<>();
+    // Ostatni stan każdego z ostatnich indexSize alertów (kolejność wstawienia = kolejność otwarcia)
+    private final LinkedHashMap<Long, AlertEvent> index = new LinkedHashMap<>();
+    private final SseBroadcast<AlertEvent> broadcast = new SseBroadcast<>(objectMapper, SSE_REPLAY);
+    private final Counter dropped;
+
+    private Thread writer;
+    private volatile boolean running = true;
+    // Bieżący segment dziennika - po init() używany tylko przez wątek dziennika
+    private OutputStream journalOut;
+    private long segmentBytes;
+    private long segmentStartMillis;
+
+    public AlertService(@Value("${ids.alerts.threshold:70}") double threshold,
+                        @Value("${ids.alerts.close-after-ticks:3}") int closeAfterTicks,
+                        @Value("${ids.alerts.update-every-ticks:60}") int updateEveryTicks,
+                        @Value("${ids.alerts.queue-capacity:1024}") int queueCapacity,
+                        @Value("${ids.alerts.index-size:10000}") int indexSize,
+                        @Value("${ids.alerts.journal.enabled:true}") boolean journalEnabled,
+                        @Value("${ids.alerts.dir:data/alerts}") String directory,
+                        @Value("${ids.alerts.journal.max-segment-mb:64}") int maxSegmentMb,
+                        @Value("${ids.alerts.journal.max-segment-age-hours:24}") int maxSegmentAgeHours,
+                        @Value("${ids.alerts.journal.max-segments:30}") int maxSegments,
+                        MeterRegistry meterRegistry) {
+        this.threshold = threshold;
+        this.closeAfterTicks = Math.max(1, closeAfterTicks);
+        this.updateEveryTicks = Math.max(1, updateEveryTicks);
+        this.indexSize = indexSize;
+        this.journalEnabled = journalEnabled;
+        this.directory = Path.of(directory);
+        this.maxSegmentBytes = Math.max(1, maxSegmentMb) * 1024L * 1024L;
+        this.maxSegmentAgeMillis = TimeUnit.HOURS.toMillis(Math.max(1, maxSegmentAgeHours));
+        this.maxSegments = Math.max(0, maxSegments);
+        this.queue = new ArrayBlockingQueue<>(queueCapacity);
+        this.dropped = Counter.builder("ids.alerts.dropped")
+                .description("Zdarzenia alertów odrzucone przy przepełnionej kolejce dziennika")
+                .register(meterRegistry);
+        Gauge.builder("ids.alerts.open", open, Map::size)
+                .description("Otwarte alerty")
+                .register(meterRegistry);
+    }
+
+    @PostConstruct
+    public void init() throws IOException {
+        if (journalEnabled) {
+            Files.createDirectories(directory);
+            Path journal = directory.resolve(JOURNAL_FILE);
+            segmentStartMillis = System.currentTimeMillis();
+            loadIndex(journal);
+            journalOut = openJournal(journal);
+            segmentBytes = Files.size(journal);
+        }
+        writer = new Thread(this::writeLoop, "alert-journal");
+        writer.setDaemon(true);
+        writer.start();
+    }
+
+    public double getThreshold() {
+        return threshold;
+    }
+
+    /*
+     * tick z anomalią (prawdopodobieństwo powyżej progu) dla podmiotu potoku. Wołane z wątku ticku potoku
+     * przed endTick(pipeline) tego samego ticku. windowMillis - koniec ocenianego okna (przy odtwarzaniu
+     * PCAP czas przechwytu), z niego są startedAt/updatedAt alertu.
+     */
+    public void report(String pipeline, String subject, long windowMillis, double probability,
+                       Map<String, Double> zScores, Object evidence, List<String> firedRules) {
+        long tick = ticks(pipeline).get();
+        Instant now = Instant.ofEpochMilli(windowMillis);
+        OpenAlert alert = open.get(pipeline + "|" + subject);
+        if (alert == null) {
+            alert = new OpenAlert(ids.incrementAndGet(), pipeline, subject, now, tick);
+            open.put(pipeline + "|" + subject, alert);
+            alert.update(tick, now, probability, zScores, evidence, firedRules);
+            enqueue(alert.toEvent(AlertEvent.State.OPEN));
+            return;
+        }
+        alert.update(tick, now, probability, zScores, evidence, firedRules);
+        if ((tick - alert.startTick) % updateEveryTicks == 0) {
+            enqueue(alert.toEvent(AlertEvent.State.UPDATE));
+        }
+    }
+
+    // Koniec ticku potoku - zamyka alerty bez anomalii od closeAfterTicks ticków
+    public void endTick(String pipeline) {
+        long tick = ticks(pipeline).incrementAndGet();
+        closeWhere(pipeline, alert -> tick - alert.lastTick > closeAfterTicks);
+    }
+
+    // Zamknięcie wszystkich alertów potoku (koniec potoku per-sonda)
+    public void closeAll(String pipeline) {
+        closeWhere(pipeline, alert -> true);
+        pipelineTicks.remove(pipeline);
+    }
+
+    private void closeWhere(String pipeline, Predicate<OpenAlert> condition) {
+        Iterator<OpenAlert> it = open.values().iterator();
+        while (it.hasNext()) {
+            OpenAlert alert = it.next();
+            if (alert.pipeline.equals(pipeline) && condition.test(alert)) {
+                it.remove();
+                enqueue(alert.toEvent(AlertEvent.State.CLOSED));
+            }
+        }
+    }
+
+    private AtomicLong ticks(String pipeline) {
+        return pipelineTicks.computeIfAbsent(pipeline, p -> new AtomicLong());
+    }
+
+    private void enqueue(AlertEvent event) {
+        if (!queue.offer(event)) {
+            dropped.increment();
+        }
+    }
+
+    // Strona alertów od najnowszych (wg otwarcia), opcjonalnie tylko dla podmiotu
+    public AlertPage page(int page, int size, String subject) {
+        List<AlertEvent> matching = new ArrayList<>();
+        synchronized (index) {
+            for (AlertEvent event : index.values()) {
+                if (subject == null || subject.equals(event.subject())) {
+                    matching.add(event);
+                }
+            }
+        }
+        int total = matching.size();
+        int to = Math.max(0, total - page * size);
+        int from = Math.max(0, to - size);
+        List<AlertEvent> items = new ArrayList<>(matching.subList(from, to));
+        Collections.reverse(items);
+        return new AlertPage(page, size, total, items);
+    }
+
+    public AlertEvent get(long id) {
+        synchronized (index) {
+            return index.get(id);
+        }
+    }
+
+    public Flux<ServerSentEvent<String>> stream() {
+        return broadcast.flux();
+    }
+
+    public record AlertPage(int page, int size, long total, List<AlertEvent> items) {}
+
+    // --- wątek dziennika ---
+
+    private void writeLoop() {
+        List<AlertEvent> batch = new ArrayList<>(MAX_BATCH);
+        while (running || !queue.isEmpty()) {
+            try {
+                AlertEvent first = queue.poll(500, TimeUnit.MILLISECONDS);
+                if (first == null) continue;
+                batch.add(first);
+                queue.drainTo(batch, MAX_BATCH - 1);
+                writeBatch(batch, journalOut);
+                if (journalOut != null && segmentBytes > 0 && (segmentBytes >= maxSegmentBytes
+                        || System.currentTimeMillis() - segmentStartMillis >= maxSegmentAgeMillis)) {
+                    rotate();
+                }
+            } catch (InterruptedException e) {
+                running = false;
+            } finally {
+                batch.clear();
+            }
+        }
+        if (journalOut != null) {
+            try {
+                journalOut.close();
+            } catch (IOException e) {
+                log.error("Błąd zamknięcia dziennika alertów: {}", e.getMessage());
+            }
+        }
+    }
+
+    private void writeBatch(List<AlertEvent> batch, OutputStream out) {
+        for (AlertEvent event : batch) {
+            if (out != null) {
+                try {
+                    byte[] line = objectMapper.writeValueAsBytes(event);
+                    out.write(line);
+                    out.write('\n');
+                    segmentBytes += line.length + 1;
+                } catch (IOException e) {
+                    log.error("Błąd zapisu dziennika alertów: {}", e.getMessage());
+                }
+            }
+            indexEvent(event);
+            broadcast.publish(event);
+            if (event.state() == AlertEvent.State.OPEN) {
+                log.error("!!! ALERT #{} [{}] {} - prawdopodobieństwo {}%", event.id(), event.pipeline(), event.subject(),
+                        String.format("%.2f", event.peakProbability()));
+            } else if (event.state() == AlertEvent.State.CLOSED) {
+                log.warn("Alert #{} [{}] {} zamknięty po {} tickach, maks. {}%", event.id(), event.pipeline(),
+                        event.subject(), event.ticks(), String.format("%.2f", event.peakProbability()));
+            }
+        }
+        if (out != null) {
+            try {
+                out.flush();
+            } catch (IOException e) {
+                log.error("Błąd zapisu dziennika alertów: {}", e.getMessage());
+            }
+        }
+    }
+
+    private void indexEvent(AlertEvent event) {
+        synchronized (index) {
+            index.put(event.id(), event);
+            if (index.size() > indexSize) {
+                Iterator<Long> it = index.keySet().iterator();
+                it.next();
+                it.remove();
+            }
+        }
+    }
+
+    private static OutputStream openJournal(Path journal) throws IOException {
+        return new BufferedOutputStream(Files.newOutputStream(journal, StandardOpenOption.CREATE, StandardOpenOption.APPEND));
+    }
+
+    // Zamknięcie bieżącego segmentu pod nazwą z czasem początku i otwarcie nowego - wątek dziennika
+    private void rotate() {
+        Path journal = directory.resolve(JOURNAL_FILE);
+        Path closed = directory.resolve(SEGMENT_PREFIX + segmentStartMillis + SEGMENT_SUFFIX);
+        try {
+            journalOut.close();
+            Files.move(journal, closed);
+            List<Path> segments = closedSegments();
+            for (int i = 0; i < segments.size() - maxSegments; i++) {
+                Files.delete(segments.get(i));
+            }
+            log.info("Zamknięto segment dziennika alertów {} ({} B)", closed.getFileName(), segmentBytes);
+        } catch (IOException e) {
+            log.error("Błąd rotacji dziennika alertów: {}", e.getMessage());
+        }
+        // Także po nieudanym przeniesieniu - kolejna próba dopiero po następnym limicie, nie po każdej partii
+        segmentStartMillis = System.currentTimeMillis();
+        segmentBytes = 0;
+        try {
+            journalOut = openJournal(journal);
+        } catch (IOException e) {
+            log.error("Nie można otworzyć dziennika alertów {} - zdarzenia tylko w indeksie: {}", journal, e.getMessage());
+            journalOut = null;
+        }
+    }
+
+    // Zamknięte segmenty alerts-<początek ms>.jsonl, od najstarszego
+    private List<Path> closedSegments() throws IOException {
+        try (Stream<Path> files = Files.list(directory)) {
+            return files.filter(f -> segmentStart(f) >= 0)
+                    .sorted(Comparator.comparingLong(AlertService::segmentStart))
+                    .toList();
+        }
+    }
+
+    private static long segmentStart(Path file) {
+        String name = file.getFileName().toString();
+        if (!name.startsWith(SEGMENT_PREFIX) || !name.endsWith(SEGMENT_SUFFIX)) return -1;
+        try {
+            return Long.parseLong(name.substring(SEGMENT_PREFIX.length(), name.length() - SEGMENT_SUFFIX.length()));
+        } catch (NumberFormatException e) {
+            return -1;
+        }
+    }
+
+    // Odtworzenie indeksu i licznika identyfikatorów z ogona dziennika (ostatni stan każdego alertu)
+    private void loadIndex(Path journal) {
+        long lines = 0;
+        try {
+            List<Path> segments = closedSegments();
+            if (!segments.isEmpty()) {
+                lines += readTail(segments.get(segments.size() - 1), false);
+            }
+            if (Files.exists(journal)) {
+                lines += readTail(journal, true);
+            }
+        } catch (IOException e) {
+            log.error("Błąd odczytu dziennika alertów w {}: {}", directory, e.getMessage());
+        }
+        log.info("Wczytano dziennik alertów: {} wpisów, {} alertów w indeksie", lines, index.size());
+    }
+
+    // Najwyżej maxSegmentBytes ostatnich bajtów pliku; current - bieżący segment (jego wiek od pierwszego wpisu)
+    private long readTail(Path file, boolean current) throws IOException {
+        long lines = 0;
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            long skip = Math.max(0, channel.size() - maxSegmentBytes);
+            channel.position(skip);
+            BufferedReader reader = new BufferedReader(new InputStreamReader(Channels.newInputStream(channel), StandardCharsets.UTF_8));
+            if (skip > 0) {
+                reader.readLine(); // wiersz urwany początkiem ogona
+            }
+            String line;
+            while ((line = reader.readLine()) != null) {
+                if (line.isBlank()) continue;
+                try {
+                    AlertEvent event = objectMapper.readValue(line, AlertEvent.class);
+                    if (current && lines == 0 && event.updatedAt() != null) {
+                        segmentStartMillis = Math.min(segmentStartMillis, event.updatedAt().toEpochMilli());
+                    }
+                    indexEvent(event);
+                    ids.accumulateAndGet(event.id(), Math::max);
+                    lines++;
+                } catch (RuntimeException e) {
+                    // Urwany ostatni wiersz po awarii
+                    log.warn("Pominięto uszkodzony wpis dziennika alertów {}: {}", file.getFileName(), e.getMessage());
+                }
+            }
+        }
+        return lines;
+    }
+
+    @PreDestroy
+    public void shutdown() throws InterruptedException {
+        for (String pipeline : new ArrayList<>(pipelineTicks.keySet())) {
+            closeAll(pipeline);
+        }
+        running = false;
+        if (writer != null) {
+            writer.join(TimeUnit.SECONDS.toMillis(5));
+        }
+        broadcast.complete();
+    }
+
+    // Stan otwartego alertu - modyfikowany tylko przez wątek ticku swojego potoku
+    private static final class OpenAlert {
+        final long id;
+        final String pipeline;
+        final String subject;
+        final Instant startedAt;
+        final long startTick;
+        Instant updatedAt;
+        long lastTick;
+        long ticks;
+        double peakProbability = -1;
+        double lastProbability;
+        Map<String, Double> zScores;
+        Object evidence;
+        List<String> firedRules;
+
+        OpenAlert(long id, String pipeline, String subject, Instant startedAt, long startTick) {
+            this.id = id;
+            this.pipeline = pipeline;
+            this.subject = subject;
+            this.startedAt = startedAt;
+            this.startTick = startTick;
+        }
+
+        void update(long tick, Instant now, double probability, Map<String, Double> zScores,
+                    Object evidence, List<String> firedRules) {
+            lastTick = tick;
+            updatedAt = now;
+            ticks++;
+            lastProbability = probability;
+            if (probability > peakProbability) {
+                peakProbability = probability;
+                this.zScores = zScores;
+                this.evidence = evidence;
+                this.firedRules = firedRules;
+            }
+        }
+
+        AlertEvent toEvent(AlertEvent.State state) {
+            return new AlertEvent(id, state, pipeline, subject, startedAt, updatedAt, ticks,
+                    peakProbability, lastProbability, zScores, evidence, firedRules);
+        }
+    }
+}
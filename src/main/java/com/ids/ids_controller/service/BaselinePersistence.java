@@ -0,0 +1,444 @@
+package com.ids.ids_controller.service;
+
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.util.*;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+import java.util.stream.Stream;
+import java.util.zip.CRC32;
+
+/**
+ * Trwały stan baseline: binarna migawka (statystyki Welforda + okna przesuwne) czytana przez mmap
+ * oraz dziennik append-only zaakceptowanych obserwacji między migawkami.
+ *
+ * Migawka:  [magic][wersja][maxSeq][tick ms][liczba cech][długość danych][CRC32 danych] + dane cech
+ * Dziennik: rekordy [długość nazwy][nazwa][seq][wartość][CRC32], pliki baseline-<generacja>.log;
+ * wpisy ticku zbierane w pamięci i zapisywane jednym write() w flush() (koniec ticku agregatora)
+ *
+ * Checkpoint przełącza dziennik na nową generację, zapisuje migawkę do pliku tymczasowego
+ * i podmienia ją atomowo (fsync pliku i katalogu), a dopiero potem usuwa starsze dzienniki. Po restarcie
+ * wczytujemy migawkę i odtwarzamy wpisy dzienników o seq większym niż seq zapisany przy danej cesze -
+ * uszkodzony (urwany) ogon dziennika jest rozpoznawany po CRC i pomijany.
+ *
+ * Baseline per host (HostBaselines) zapisywane są przy checkpoincie do osobnej migawki hosts.snap
+ * ([klucz jednostki][liczba cech] + cechy jak wyżej), bez dziennika - po restarcie mają stan z ostatniego
+ * checkpointu.
+ *
+ * Cechy zliczane w oknie (aktywne przepływy, różnorodność portów, półotwarte połączenia) zależą od
+ * ids.aggregator.tick-ms, a liczności unikalnych nie da się przeskalować - migawka zapisana przy innym ticku
+ * jest odrzucana razem z dziennikami (baseline uczy się od nowa). Checkpoint zaraz po odtworzeniu zapewnia,
+ * że każdy dziennik ma obok migawkę z zapisanym tickiem.
+ *
+ * Okno utraty: dziennik trafia do pamięci podręcznej systemu co tick (write), a fsync dostaje dopiero przy
+ * rotacji (checkpoint) i zamknięciu. Awaria procesu traci więc najwyżej niezapisany tick, a awaria systemu
+ * lub zasilania - obserwacje od ostatniego checkpointu (ids.baseline.persistence.checkpoint-interval-seconds).
+ */
+@Component
+public class BaselinePersistence implements BaselineService.ObservationJournal {
+    private static final Logger log = LoggerFactory.getLogger(BaselinePersistence.class);
+
+    private static final int SNAPSHOT_MAGIC = 0x49445342; // "IDSB"
+    private static final int SNAPSHOT_VERSION = 2;
+    private static final int SNAPSHOT_HEADER = 4 + 4 + 8 + 8 + 4 + 4 + 8;
+    private static final String SNAPSHOT_FILE = "baseline.snap";
+    private static final int HOSTS_MAGIC = 0x49445348; // "IDSH"
+    private static final String HOSTS_FILE = "hosts.snap";
+    private static final String LOG_PREFIX = "baseline-";
+    private static final String LOG_SUFFIX = ".log";
+    private static final int RECORD_OVERHEAD = 2 + 8 + 8 + 4;
+    private static final int MAX_PENDING = 1 << 20; // zapis bez czekania na koniec ticku po przekroczeniu
+
+    private final BaselineService baselineService;
+    private final HostBaselines hostBaselines;
+    private final boolean enabled;
+    private final Path directory;
+    private final long tickMillis;
+
+    private FileChannel logChannel;
+    private long logGeneration;
+    // Wpisy od ostatniego flush() - bufor rośnie do największej paczki ticku
+    private ByteBuffer pending = ByteBuffer.allocate(64 * 1024);
+    private final CRC32 crc = new CRC32();
+    private final Map<String, byte[]> nameCache = new HashMap<>();
+    // Osobna blokada checkpointu - append() nie czeka na zapis migawki
+    private final Object checkpointLock = new Object();
+
+    public BaselinePersistence(BaselineService baselineService, HostBaselines hostBaselines,
+                               @Value("${ids.baseline.persistence.enabled:false}") boolean enabled,
+                               @Value("${ids.baseline.persistence.dir:data/baseline}") String directory,
+                               @Value("${ids.aggregator.tick-ms:1000}") long tickMillis) {
+        this.baselineService = baselineService;
+        this.hostBaselines = hostBaselines;
+        this.enabled = enabled;
+        this.directory = Path.of(directory);
+        this.tickMillis = tickMillis;
+    }
+
+    @PostConstruct
+    public void init() throws IOException {
+        if (!enabled) return;
+        Files.createDirectories(directory);
+
+        long start = System.nanoTime();
+        int features = loadSnapshot();
+        long replayed = 0;
+        List<Long> generations = logGenerations();
+        if (features >= 0) {
+            for (long generation : generations) {
+                replayed += replayLog(logPath(generation));
+            }
+        } else if (!generations.isEmpty()) {
+            log.warn("Pomijam {} dzienników baseline zapisanych przy innym ticku", generations.size());
+        }
+        int hosts = loadHostSnapshot();
+        log.info("Odtworzono baseline: {} cech z migawki, {} obserwacji z dziennika, {} jednostek per host w {} ms",
+                Math.max(0, features), replayed, hosts, (System.nanoTime() - start) / 1_000_000);
+
+        logGeneration = generations.isEmpty() ? 1 : generations.get(generations.size() - 1) + 1;
+        openLog(logGeneration);
+        baselineService.setJournal(this);
+        // Migawka z bieżącym tickiem od razu - dziennik nigdy nie leży bez niej, odrzucone pliki znikają
+        checkpoint();
+    }
+
+    // Wołane przez BaselineService pod blokadą slotu cechy - tylko dopisanie do bufora ticku
+    @Override
+    public synchronized void append(long seq, String featureName, double value) {
+        if (logChannel == null) return;
+        byte[] name = nameCache.computeIfAbsent(featureName, n -> n.getBytes(StandardCharsets.UTF_8));
+        int length = RECORD_OVERHEAD + name.length;
+        if (pending.remaining() < length) {
+            ByteBuffer grown = ByteBuffer.allocate(Math.max(pending.capacity() * 2, pending.position() + length));
+            pending.flip();
+            pending = grown.put(pending);
+        }
+        int start = pending.position();
+        pending.putShort((short) name.length).put(name).putLong(seq).putDouble(value);
+        crc.reset();
+        crc.update(pending.array(), start, pending.position() - start);
+        pending.putInt((int) crc.getValue());
+        if (pending.position() >= MAX_PENDING) {
+            writePending();
+        }
+    }
+
+    @Override
+    public synchronized void flush() {
+        writePending();
+    }
+
+    private void writePending() {
+        if (logChannel == null || pending.position() == 0) return;
+        pending.flip();
+        try {
+            while (pending.hasRemaining()) {
+                logChannel.write(pending);
+            }
+        } catch (IOException e) {
+            log.error("Błąd zapisu dziennika baseline: {}", e.getMessage());
+        } finally {
+            pending.clear();
+        }
+    }
+
+    @Scheduled(fixedDelayString = "${ids.baseline.persistence.checkpoint-interval-seconds:300}", timeUnit = TimeUnit.SECONDS)
+    public void checkpoint() {
+        if (!enabled) return;
+        synchronized (checkpointLock) {
+            try {
+                long previousGeneration = rotateLog();
+                // Stan zebrany po rotacji - wszystkie wpisy starszych dzienników są już w nim zawarte
+                List<BaselineService.FeatureState> state = baselineService.exportState();
+                writeSnapshot(state, baselineService.getObservationSeq());
+                deleteLogsUpTo(previousGeneration);
+                Map<Long, List<BaselineService.FeatureState>> hosts = hostBaselines.exportBaselines();
+                writeHostSnapshot(hosts);
+                log.debug("Checkpoint baseline: {} cech, {} jednostek per host, dziennik generacji {}",
+                        state.size(), hosts.size(), previousGeneration + 1);
+            } catch (IOException e) {
+                log.error("Checkpoint baseline nie powiódł się: {}", e.getMessage());
+            }
+        }
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        if (!enabled) return;
+        checkpoint();
+        synchronized (this) {
+            closeLog();
+        }
+    }
+
+    // --- migawka ---
+
+    private void writeSnapshot(List<BaselineService.FeatureState> state, long maxSeq) throws IOException {
+        List<byte[]> names = new ArrayList<>(state.size());
+        long payload = 0;
+        for (BaselineService.FeatureState f : state) {
+            byte[] name = f.name().getBytes(StandardCharsets.UTF_8);
+            names.add(name);
+            payload += featureSize(name, f);
+        }
+        writeFile(SNAPSHOT_FILE, SNAPSHOT_MAGIC, maxSeq, state.size(), payload, buf -> {
+            for (int i = 0; i < state.size(); i++) {
+                putFeature(buf, names.get(i), state.get(i));
+            }
+        });
+    }
+
+    private void writeHostSnapshot(Map<Long, List<BaselineService.FeatureState>> hosts) throws IOException {
+        List<Map.Entry<Long, List<BaselineService.FeatureState>>> units = new ArrayList<>(hosts.entrySet());
+        Map<String, byte[]> names = new HashMap<>();
+        long payload = 0;
+        for (Map.Entry<Long, List<BaselineService.FeatureState>> unit : units) {
+            payload += 8 + 4;
+            for (BaselineService.FeatureState f : unit.getValue()) {
+                payload += featureSize(names.computeIfAbsent(f.name(), n -> n.getBytes(StandardCharsets.UTF_8)), f);
+            }
+        }
+        writeFile(HOSTS_FILE, HOSTS_MAGIC, 0, units.size(), payload, buf -> {
+            for (Map.Entry<Long, List<BaselineService.FeatureState>> unit : units) {
+                buf.putLong(unit.getKey()).putInt(unit.getValue().size());
+                for (BaselineService.FeatureState f : unit.getValue()) {
+                    putFeature(buf, names.get(f.name()), f);
+                }
+            }
+        });
+    }
+
+    // Zapis do pliku tymczasowego (nagłówek z CRC danych) i atomowa podmiana
+    private void writeFile(String fileName, int magic, long maxSeq, int entries, long payload,
+                           Consumer<MappedByteBuffer> body) throws IOException {
+        if (SNAPSHOT_HEADER + payload > Integer.MAX_VALUE) {
+            throw new IOException("Migawka " + fileName + " przekracza 2 GB (" + payload + " B)");
+        }
+        Path tmp = directory.resolve(fileName + ".tmp");
+        Files.deleteIfExists(tmp);
+        try (FileChannel channel = FileChannel.open(tmp, StandardOpenOption.CREATE_NEW, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+            MappedByteBuffer buf = channel.map(FileChannel.MapMode.READ_WRITE, 0, SNAPSHOT_HEADER + payload);
+            buf.position(SNAPSHOT_HEADER);
+            body.accept(buf);
+
+            CRC32 checksum = new CRC32();
+            checksum.update(buf.slice(SNAPSHOT_HEADER, (int) payload));
+            buf.putInt(0, magic)
+                    .putInt(4, SNAPSHOT_VERSION)
+                    .putLong(8, maxSeq)
+                    .putLong(16, tickMillis)
+                    .putInt(24, entries)
+                    .putInt(28, (int) payload)
+                    .putLong(32, checksum.getValue());
+            buf.force();
+        }
+        Files.move(tmp, directory.resolve(fileName), StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+        syncDirectory();
+    }
+
+    // Podmiana migawki musi być trwała, zanim usuniemy dzienniki, których wpisy zawiera
+    private void syncDirectory() {
+        try (FileChannel dir = FileChannel.open(directory, StandardOpenOption.READ)) {
+            dir.force(true);
+        } catch (IOException e) {
+            // system plików bez fsync katalogu (np. Windows) - zostaje kolejność zapewniana przez system
+            log.debug("fsync katalogu baseline niedostępny: {}", e.getMessage());
+        }
+    }
+
+    // Liczba odtworzonych cech albo -1, gdy migawka jest z innego ticku (dzienniki też nie pasują)
+    private int loadSnapshot() throws IOException {
+        MappedByteBuffer buf = mapFile(SNAPSHOT_FILE, SNAPSHOT_MAGIC);
+        if (buf == null) return 0;
+        if (!sameTick(buf, SNAPSHOT_FILE)) return -1;
+        int features = buf.getInt(24);
+        for (int i = 0; i < features; i++) {
+            baselineService.restoreFeature(getFeature(buf));
+        }
+        return features;
+    }
+
+    private int loadHostSnapshot() throws IOException {
+        MappedByteBuffer buf = mapFile(HOSTS_FILE, HOSTS_MAGIC);
+        if (buf == null || !sameTick(buf, HOSTS_FILE)) return 0;
+        int units = buf.getInt(24);
+        Map<Long, List<BaselineService.FeatureState>> hosts = new HashMap<>();
+        for (int i = 0; i < units; i++) {
+            long unit = buf.getLong();
+            int count = buf.getInt();
+            List<BaselineService.FeatureState> features = new ArrayList<>(count);
+            for (int j = 0; j < count; j++) {
+                features.add(getFeature(buf));
+            }
+            hosts.put(unit, features);
+        }
+        hostBaselines.restoreBaselines(hosts);
+        return units;
+    }
+
+    // Plik migawki ustawiony na początku danych albo null, gdy go nie ma lub nie przechodzi kontroli
+    private MappedByteBuffer mapFile(String fileName, int magic) throws IOException {
+        Path path = directory.resolve(fileName);
+        if (!Files.exists(path)) return null;
+
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            if (channel.size() < SNAPSHOT_HEADER) {
+                log.warn("Migawka baseline {} jest za krótka - pomijam", path);
+                return null;
+            }
+            MappedByteBuffer buf = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            int payload = buf.getInt(28);
+            if (buf.getInt(0) != magic || buf.getInt(4) != SNAPSHOT_VERSION
+                    || payload < 0 || SNAPSHOT_HEADER + (long) payload > channel.size()) {
+                log.warn("Nieobsługiwany format migawki baseline {} - pomijam", path);
+                return null;
+            }
+            CRC32 checksum = new CRC32();
+            checksum.update(buf.slice(SNAPSHOT_HEADER, payload));
+            if (checksum.getValue() != buf.getLong(32)) {
+                log.warn("Niezgodna suma kontrolna migawki baseline {} - pomijam", path);
+                return null;
+            }
+            buf.position(SNAPSHOT_HEADER);
+            return buf;
+        }
+    }
+
+    private boolean sameTick(MappedByteBuffer buf, String fileName) {
+        long stored = buf.getLong(16);
+        if (stored == tickMillis) return true;
+        log.warn("Migawka {} zapisana przy ids.aggregator.tick-ms={}, bieżący tick {} ms - odrzucam, baseline uczy się od nowa",
+                fileName, stored, tickMillis);
+        return false;
+    }
+
+    private static int featureSize(byte[] name, BaselineService.FeatureState f) {
+        return 2 + name.length + 8 + 8 + 8 + 8 + 4 + 8 * f.history().length;
+    }
+
+    private static void putFeature(ByteBuffer buf, byte[] name, BaselineService.FeatureState f) {
+        buf.putShort((short) name.length).put(name)
+                .putLong(f.count()).putDouble(f.mean()).putDouble(f.m2()).putLong(f.sequence())
+                .putInt(f.history().length);
+        for (double v : f.history()) {
+            buf.putDouble(v);
+        }
+    }
+
+    private static BaselineService.FeatureState getFeature(ByteBuffer buf) {
+        byte[] name = new byte[buf.getShort()];
+        buf.get(name);
+        long count = buf.getLong();
+        double mean = buf.getDouble();
+        double m2 = buf.getDouble();
+        long sequence = buf.getLong();
+        double[] history = new double[buf.getInt()];
+        buf.asDoubleBuffer().get(history);
+        buf.position(buf.position() + 8 * history.length);
+        return new BaselineService.FeatureState(new String(name, StandardCharsets.UTF_8), count, mean, m2, sequence, history);
+    }
+
+    // --- dziennik ---
+
+    private long replayLog(Path path) throws IOException {
+        long replayed = 0;
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            MappedByteBuffer buf = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            CRC32 checksum = new CRC32();
+            while (buf.remaining() >= 2) {
+                int start = buf.position();
+                int nameLen = buf.getShort(start);
+                int length = 2 + nameLen + 8 + 8;
+                if (nameLen < 0 || buf.remaining() < length + 4) break;
+
+                checksum.reset();
+                checksum.update(buf.slice(start, length));
+                if ((int) checksum.getValue() != buf.getInt(start + length)) {
+                    log.warn("Uszkodzony wpis dziennika {} na pozycji {} - pomijam resztę pliku", path, start);
+                    break;
+                }
+                byte[] name = new byte[nameLen];
+                buf.get(start + 2, name);
+                long seq = buf.getLong(start + 2 + nameLen);
+                double value = buf.getDouble(start + 2 + nameLen + 8);
+                baselineService.replayObservation(seq, new String(name, StandardCharsets.UTF_8), value);
+                replayed++;
+                buf.position(start + length + 4);
+            }
+        }
+        return replayed;
+    }
+
+    private synchronized long rotateLog() throws IOException {
+        long previous = logGeneration;
+        closeLog();
+        logGeneration++;
+        openLog(logGeneration);
+        return previous;
+    }
+
+    private void openLog(long generation) throws IOException {
+        logChannel = FileChannel.open(logPath(generation),
+                StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.APPEND);
+    }
+
+    private void closeLog() {
+        if (logChannel == null) return;
+        writePending();
+        try {
+            logChannel.force(false);
+            logChannel.close();
+        } catch (IOException e) {
+            log.error("Błąd zamykania dziennika baseline: {}", e.getMessage());
+        }
+        logChannel = null;
+    }
+
+    private void deleteLogsUpTo(long generation) throws IOException {
+        for (long g : logGenerations()) {
+            if (g <= generation) {
+                Files.deleteIfExists(logPath(g));
+            }
+        }
+    }
+
+    private List<Long> logGenerations() throws IOException {
+        List<Long> generations = new ArrayList<>();
+        try (Stream<Path> files = Files.list(directory)) {
+            files.map(p -> p.getFileName().toString())
+                    .filter(n -> n.startsWith(LOG_PREFIX) && n.endsWith(LOG_SUFFIX))
+                    .forEach(n -> {
+                        try {
+                            generations.add(Long.parseLong(n.substring(LOG_PREFIX.length(), n.length() - LOG_SUFFIX.length())));
+                        } catch (NumberFormatException ignored) {
+                            // obcy plik w katalogu
+                        }
+                    });
+        }
+        Collections.sort(generations);
+        return generations;
+    }
+
+    private Path logPath(long generation) {
+        return directory.resolve(LOG_PREFIX + generation + LOG_SUFFIX);
+    }
+
+    // Baseline per host - zapisywane tylko w migawce (bez dziennika), odtwarzane przy starcie
+    public interface HostBaselines {
+        Map<Long, List<BaselineService.FeatureState>> exportBaselines();
+
+        void restoreBaselines(Map<Long, List<BaselineService.FeatureState>> baselines);
+    }
+}
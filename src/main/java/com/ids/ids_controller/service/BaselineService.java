@@ -1,52 +1,198 @@
 package com.ids.ids_controller.service;
 
 import com.fasterxml.jackson.annotation.JsonProperty;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Service;
 import tools.jackson.databind.ObjectMapper;
 
 import java.io.File;
 import java.io.IOException;
+import java.nio.charset.StandardCharsets;
 import java.util.*;
 import java.util.concurrent.ConcurrentHashMap;
-import java.util.concurrent.ConcurrentLinkedDeque;
+import java.util.concurrent.atomic.AtomicLong;
 
 @Service
 public class BaselineService {
     private static final Logger log = LoggerFactory.getLogger(BaselineService.class);
     private final ObjectMapper objectMapper = new ObjectMapper();
 
-    // ConcurrentLinkedDeque jest bezpieczna dla wielu wątków (lock-free)
-    private final Map<String, Deque<Double>> historyMap = new ConcurrentHashMap<>();
-    private final int MAX_WINDOW_SIZE = 86400; // 24h
+    private static final int DEFAULT_WINDOW_SIZE = 86400; // 24h przy ticku co 1 s
+    private static final double MAD_TO_STDDEV = 1.4826; // MAD * 1.4826 = odchylenie standardowe dla rozkładu normalnego
+    private final int windowSize;
 
-    private final Map<String, BaselineStats> currentStats = new ConcurrentHashMap<>();;
+    // Limit formatu dziennika i migawki (długość nazwy jako short)
+    public static final int MAX_FEATURE_NAME_BYTES = Short.MAX_VALUE;
+
+    // Cechy w gęstej tablicy slotów - nazwa rozwiązywana raz (slot(), FeatureRegistry.slotsIn), nie w ticku.
+    // Tablica kopiowana przy dodaniu cechy, stan slotu zmieniany pod jego monitorem
+    private final Map<String, Integer> slotIds = new ConcurrentHashMap<>();
+    private volatile Slot[] slots = new Slot[0];
+
+    // Tryb z-score per cecha; dla trybów odpornych szkic kwantyli okna w slocie
+    private final ZScoreSettings zScores;
+
+    // Baseline floty per slot (ids.cluster) - zastępuje lokalny, dopóki cecha ma mniej niż priorMinSamples próbek
+    private volatile BaselineStats[] prior = new BaselineStats[0];
+    private volatile long priorMinSamples;
+
+    // Numer kolejny zaakceptowanych obserwacji - wiąże stan okna z wpisami dziennika (BaselinePersistence)
+    private final AtomicLong observationSeq = new AtomicLong();
+    private volatile ObservationJournal journal;
+
+    // Wypełnienie okna per cecha (ids.baseline.window.fill) - tylko dla beana; null w instancjach ręcznych
+    private final MeterRegistry meterRegistry;
+
+    // Instancje tworzone ręcznie (np. potoki per-sonda) używają domyślnego okna
+    public BaselineService() {
+        this(DEFAULT_WINDOW_SIZE);
+    }
+
+    // Baseline per host/sonda - bez metryk (tysiące instancji zaśmieciłyby rejestr)
+    public BaselineService(int windowSize) {
+        this(windowSize, ZScoreSettings.STDDEV);
+    }
+
+    public BaselineService(int windowSize, ZScoreSettings zScores) {
+        this(windowSize, zScores, null);
+    }
+
+    @Autowired
+    public BaselineService(@Value("${ids.baseline.window-size:86400}") int windowSize,
+                           @Value("${ids.baseline.z-score:}") String zScoreModes,
+                           @Value("${ids.baseline.sketch.accuracy:0.01}") double sketchAccuracy,
+                           MeterRegistry meterRegistry) {
+        this(windowSize, ZScoreSettings.parse(zScoreModes, sketchAccuracy), meterRegistry);
+        if (!zScores.modes().isEmpty()) {
+            log.info("Odporne z-score'y baseline: {}", zScores.modes());
+        }
+    }
+
+    private BaselineService(int windowSize, ZScoreSettings zScores, MeterRegistry meterRegistry) {
+        this.windowSize = windowSize;
+        this.zScores = zScores;
+        this.meterRegistry = meterRegistry;
+    }
+
+    // Pusty baseline o tych samych trybach z-score i slotach cech - dla potoków per-sonda i ocen per host
+    public BaselineService emptyCopy(int windowSize) {
+        BaselineService copy = new BaselineService(windowSize, zScores);
+        for (Slot slot : slots) {
+            copy.slot(slot.name);
+        }
+        return copy;
+    }
+
+    // Indeks cechy dla wariantów int addObservation/calculateZScore; slot tworzony przy pierwszym użyciu nazwy
+    public int slot(String featureName) {
+        Integer id = slotIds.get(featureName);
+        if (id != null) return id;
+        synchronized (slotIds) {
+            id = slotIds.get(featureName);
+            if (id != null) return id;
+            if (featureName.getBytes(StandardCharsets.UTF_8).length > MAX_FEATURE_NAME_BYTES) {
+                throw new IllegalArgumentException("Nazwa cechy dłuższa niż " + MAX_FEATURE_NAME_BYTES + " B (UTF-8)");
+            }
+            int created = slots.length;
+            Slot[] grown = Arrays.copyOf(slots, created + 1);
+            grown[created] = new Slot(featureName, zScores.modeOf(featureName), windowSize, zScores.sketchAccuracy());
+            slots = grown; // publikacja tablicy przed identyfikatorem
+            slotIds.put(featureName, created);
+            registerFillGauge(featureName, created);
+            return created;
+        }
+    }
 
     public void addObservation(String featureName, double value, double anomalyProbability) {
-        BaselineStats stats = currentStats.computeIfAbsent(featureName, k -> new BaselineStats());
+        addObservation(slot(featureName), value, anomalyProbability);
+    }
+
+    public void addObservation(int slot, double value, double anomalyProbability) {
+        Slot s = slots[slot];
+        synchronized (s) {
+            if (anomalyProbability > 60.0 && s.stats.getCount() > 30) {
+                log.warn("Pominięto aktualizację baseline dla {} - wykryto silną anomalię", s.name);
+                return;
+            }
 
-        if (anomalyProbability > 60.0 && stats.getCount() > 30) {
-            log.warn("Pominięto aktualizację baseline dla {} - wykryto silną anomalię", featureName);
-            return;
+            // Przesuwanie okna - najstarsza próbka wypada ze statystyk, gdy bufor jest pełny
+            long seq = observationSeq.incrementAndGet();
+            apply(s, value, seq);
+            ObservationJournal j = journal;
+            if (j != null) {
+                // Zapis pod blokadą slotu - kolejność wpisów w dzienniku zgodna z kolejnością zmian stanu
+                j.append(seq, s.name, value);
+            }
         }
+    }
+
+    // Gauge czyta bieżący bufor slotu (restoreFeature podmienia bufor cechy)
+    private void registerFillGauge(String featureName, int slot) {
+        if (meterRegistry == null) return;
+        Gauge.builder("ids.baseline.window.fill", this, b -> b.windowFill(slot))
+                .description("Wypełnienie okna przesuwnego baseline (0-1)")
+                .tag("feature", featureName)
+                .register(meterRegistry);
+    }
+
+    private double windowFill(int slot) {
+        Slot s = slots[slot];
+        synchronized (s) {
+            return (double) s.history.size() / windowSize;
+        }
+    }
 
-        // Standardowe przesuwanie okna (Deque)
-        Deque<Double> history = historyMap.computeIfAbsent(featureName, k -> new ConcurrentLinkedDeque<>());
-        if (history.size() >= MAX_WINDOW_SIZE) {
-            Double oldest = history.pollFirst();
-            if (oldest != null) stats.remove(oldest);
+    // Wołane pod monitorem slotu
+    private static void apply(Slot s, double value, long seq) {
+        if (s.history.isFull()) {
+            double oldest = s.history.pollOldest();
+            s.stats.remove(oldest);
+            if (s.sketch != null) s.sketch.remove(oldest);
         }
-        history.addLast(value);
-        stats.update(value); // Używamy nowej metody Welforda
+        s.history.add(value);
+        s.stats.update(value); // Używamy nowej metody Welforda
+        if (s.sketch != null) s.sketch.add(value);
+        s.stats.setSequence(seq);
     }
 
     public double calculateZScore(String featureName, double currentValue) {
-        BaselineStats stats = currentStats.get(featureName);
+        return calculateZScore(slot(featureName), currentValue);
+    }
+
+    public double calculateZScore(int slot, double currentValue) {
+        Slot s = slots[slot];
+        BaselineStats stats = s.stats;
+        long localCount = stats.getCount();
+
+        // Mała/nowa instancja startuje od baseline floty (tylko Welford - szkice kwantyli są lokalne)
+        if (localCount < priorMinSamples) {
+            BaselineStats[] fleet = prior;
+            if (slot < fleet.length && fleet[slot] != null && fleet[slot].getCount() >= 30) {
+                return welfordZScore(fleet[slot], currentValue);
+            }
+        }
 
         // Z-Score wymaga minimum danych, by mieć sens statystyczny (np. 30 próbek)
-        if (stats == null || stats.getCount() < 30) return 0.0;
+        if (localCount < 30) return 0.0;
+
+        if (s.mode != ZScoreMode.STDDEV) {
+            synchronized (s) {
+                // Profil zaimportowany bez okna - szkic zapełnia się nowymi obserwacjami, do tego czasu Welford
+                if (s.sketch != null && s.sketch.count() >= 30) {
+                    double z = robustZScore(s.mode, s.sketch, currentValue);
+                    if (!Double.isNaN(z)) return z;
+                }
+            }
+        }
+        return welfordZScore(stats, currentValue);
+    }
 
+    private static double welfordZScore(BaselineStats stats, double currentValue) {
         double mean = stats.getMean();
         double stdDev = stats.getStdDev();
 
@@ -56,13 +202,152 @@ public class BaselineService {
         return (currentValue - mean) / stdDev;
     }
 
+    /*
+     * MAD: (x - mediana) / (1.4826 * MAD) - przy rozkładzie normalnym równe klasycznemu z, ale kilka
+     * wartości odstających w oknie nie przesuwa mediany ani MAD. NaN (powrót do Welforda), gdy ponad
+     * połowa okna leży w jednym kubełku szkicu (MAD = 0).
+     * PERCENTILE: ranga x w oknie zamieniona kwantylem rozkładu normalnego; |z| ograniczone przez
+     * długość okna (ok. 4.4 dla 86400 próbek), za to działa także przy cesze niemal stałej.
+     */
+    private static double robustZScore(ZScoreMode mode, QuantileSketch sketch, double value) {
+        if (mode == ZScoreMode.MAD) {
+            double scale = MAD_TO_STDDEV * sketch.mad();
+            if (scale < 0.0001) return Double.NaN;
+            return (value - sketch.quantile(0.5)) / scale;
+        }
+        double half = 0.5 / sketch.count();
+        double rank = Math.max(half, Math.min(1 - half, sketch.rank(value)));
+        return normalQuantile(rank);
+    }
+
+    // Odwrotna dystrybuanta N(0,1), błąd względny < 1.2e-9 (P. J. Acklam)
+    private static double normalQuantile(double p) {
+        if (p < 0.02425) {
+            double q = Math.sqrt(-2 * Math.log(p));
+            return (((((-7.784894002430293e-03 * q - 3.223964580411365e-01) * q - 2.400758277161838e+00) * q
+                    - 2.549732539343734e+00) * q + 4.374664141464968e+00) * q + 2.938163982698783e+00)
+                    / ((((7.784695709041462e-03 * q + 3.224671290700398e-01) * q + 2.445134137142996e+00) * q
+                    + 3.754408661907416e+00) * q + 1);
+        }
+        if (p > 1 - 0.02425) {
+            return -normalQuantile(1 - p);
+        }
+        double q = p - 0.5;
+        double r = q * q;
+        return (((((-3.969683028665376e+01 * r + 2.209460984245205e+02) * r - 2.759285104469687e+02) * r
+                + 1.383577518672690e+02) * r - 3.066479806614716e+01) * r + 2.506628277459239e+00) * q
+                / (((((-5.447609879822406e+01 * r + 1.615858368580409e+02) * r - 1.556989798598866e+02) * r
+                + 6.680131188771972e+01) * r - 1.328068155288572e+01) * r + 1);
+    }
+
+    /*
+     * ustawia baseline floty (statystyki scalone z kontrolerów klastra) używany dla cech, które lokalnie
+     * mają mniej niż minLocalSamples próbek. Statystyki nie są kopiowane - wywołujący ich nie modyfikuje.
+     */
+    public void setPrior(Map<String, BaselineStats> fleet, long minLocalSamples) {
+        fleet.keySet().forEach(this::slot);
+        BaselineStats[] bySlot = new BaselineStats[slots.length];
+        fleet.forEach((name, stats) -> bySlot[slotIds.get(name)] = stats);
+        this.priorMinSamples = minLocalSamples;
+        this.prior = bySlot;
+    }
+
+    public int getWindowSize() {
+        return windowSize;
+    }
+
+    // --- stan binarny dla BaselinePersistence ---
+
+    public void setJournal(ObservationJournal journal) {
+        this.journal = journal;
+    }
+
+    // Koniec ticku potoku - dziennik zapisuje obserwacje ticku jednym wywołaniem
+    public void flushJournal() {
+        ObservationJournal j = journal;
+        if (j != null) j.flush();
+    }
+
+    public long getObservationSeq() {
+        return observationSeq.get();
+    }
+
+    // Spójna kopia okna i statystyk każdej cechy (każda cecha kopiowana pod własną blokadą)
+    public List<FeatureState> exportState() {
+        List<FeatureState> states = new ArrayList<>();
+        for (Slot s : slots) {
+            synchronized (s) {
+                double[] values = new double[s.history.size()];
+                for (int i = 0; i < values.length; i++) {
+                    values[i] = s.history.get(i);
+                }
+                BaselineStats stats = s.stats;
+                states.add(new FeatureState(s.name, stats.getCount(), stats.getMean(), stats.getM2(), stats.getSequence(), values));
+            }
+        }
+        return states;
+    }
+
+    /*
+     * odtwarza cechę z migawki. Jeśli okno w migawce nie odpowiada statystykom
+     * (zmieniona długość okna), statystyki są przeliczane z zachowanych próbek.
+     */
+    public void restoreFeature(FeatureState state) {
+        double[] values = state.history();
+        int from = Math.max(0, values.length - windowSize);
+        DoubleRingBuffer history = new DoubleRingBuffer(windowSize);
+        BaselineStats stats = new BaselineStats();
+        QuantileSketch sketch = zScores.modeOf(state.name()) == ZScoreMode.STDDEV
+                ? null : new QuantileSketch(zScores.sketchAccuracy());
+
+        if (from == 0 && values.length == state.count() || values.length == 0) {
+            for (double v : values) {
+                history.add(v);
+                if (sketch != null) sketch.add(v);
+            }
+            stats.setFromDTO(state.count(), state.mean(), state.m2());
+        } else {
+            for (int i = from; i < values.length; i++) {
+                history.add(values[i]);
+                stats.update(values[i]);
+                if (sketch != null) sketch.add(values[i]);
+            }
+        }
+        stats.setSequence(state.sequence());
+
+        int id = slot(state.name()); // przed odczytem slots - slot() może podmienić tablicę
+        Slot s = slots[id];
+        synchronized (s) {
+            s.history = history;
+            s.sketch = sketch;
+            s.stats = stats;
+        }
+        observationSeq.accumulateAndGet(state.sequence(), Math::max);
+    }
+
+    // Ponowne zastosowanie wpisu dziennika - pomija wpisy już zawarte w migawce
+    public void replayObservation(long seq, String featureName, double value) {
+        int id = slot(featureName);
+        Slot s = slots[id];
+        synchronized (s) {
+            if (seq <= s.stats.getSequence()) return;
+            apply(s, value, seq);
+        }
+        observationSeq.accumulateAndGet(seq, Math::max);
+    }
+
+    // Statystyki cech w kolejności slotów (obiekty żywe - kopia spójna przez BaselineStats.copy())
     public Map<String, BaselineStats> getCurrentProfile() {
-        return Collections.unmodifiableMap(currentStats);
+        Map<String, BaselineStats> profile = new LinkedHashMap<>();
+        for (Slot s : slots) {
+            profile.put(s.name, s.stats);
+        }
+        return Collections.unmodifiableMap(profile);
     }
 
     public void exportProfile(String filePath) throws IOException {
         Map<String, BaselineStatsDTO> exportData = new HashMap<>();
-        currentStats.forEach((key, stats) -> {
+        getCurrentProfile().forEach((key, stats) -> {
             exportData.put(key, new BaselineStatsDTO(stats.getCount(), stats.getMean(), stats.getM2()));
         });
         objectMapper.writeValue(new File(filePath), exportData);
@@ -83,9 +368,13 @@ public class BaselineService {
         importedData.forEach((key, dto) -> {
             BaselineStats stats = new BaselineStats();
             stats.setFromDTO(dto.count, dto.mean, dto.m2);
-            currentStats.put(key, stats);
+            int id = slot(key);
+            Slot s = slots[id];
+            synchronized (s) {
+                s.stats = stats;
+            }
         });
-        log.info("Zaimportowano profil baseline z pliku: {}. Cechy: {}", filePath, currentStats.keySet());
+        log.info("Zaimportowano profil baseline z pliku: {}. Cechy: {}", filePath, slotIds.keySet());
     }
 
     // ALGORYTM WELFORDA
@@ -93,6 +382,7 @@ public class BaselineService {
         private long count = 0;
         private double mean = 0.0;
         private double m2 = 0.0;
+        private long sequence = 0; // numer ostatniej zastosowanej obserwacji
 
         public synchronized void update(double x) {
             count++;
@@ -113,12 +403,37 @@ public class BaselineService {
             count--;
         }
 
+        // Łączy statystyki rozłącznego zbioru próbek (Chan, Golub, LeVeque) - baseline floty z kontrolerów
+        public synchronized void merge(long otherCount, double otherMean, double otherM2) {
+            if (otherCount <= 0) return;
+            if (count == 0) {
+                count = otherCount; mean = otherMean; m2 = otherM2;
+                return;
+            }
+            long total = count + otherCount;
+            double delta = otherMean - mean;
+            mean += delta * otherCount / total;
+            m2 += otherM2 + delta * delta * ((double) count * otherCount / total);
+            count = total;
+        }
+
+        // Spójna kopia (liczność, średnia, M2 i seq z jednej chwili)
+        public synchronized BaselineStats copy() {
+            BaselineStats copy = new BaselineStats();
+            copy.setFromDTO(count, mean, m2);
+            copy.setSequence(sequence);
+            return copy;
+        }
+
         public synchronized void setFromDTO(long count, double mean, double m2) {
             this.count = count;
             this.mean = mean;
             this.m2 = m2;
         }
 
+        public synchronized void setSequence(long sequence) { this.sequence = sequence; }
+        public synchronized long getSequence() { return sequence; }
+
         public synchronized long getCount() { return count; }
         public synchronized double getMean() { return mean; }
         public synchronized double getM2() { return m2; }
@@ -127,6 +442,62 @@ public class BaselineService {
         }
     }
 
+    // Sposób liczenia z-score'u cechy (ids.baseline.z-score)
+    public enum ZScoreMode { STDDEV, MAD, PERCENTILE }
+
+    /*
+     * tryby per cecha ("ACTIVE_FLOWS=mad,HALF_OPEN=percentile"; pozostałe cechy - STDDEV) i błąd względny
+     * szkiców kwantyli.
+     */
+    public record ZScoreSettings(Map<String, ZScoreMode> modes, double sketchAccuracy) {
+        public static final ZScoreSettings STDDEV = new ZScoreSettings(Map.of(), 0.01);
+
+        public static ZScoreSettings parse(String spec, double sketchAccuracy) {
+            Map<String, ZScoreMode> modes = new HashMap<>();
+            for (String entry : spec.split(",")) {
+                if (entry.isBlank()) continue;
+                String[] parts = entry.trim().split("=");
+                if (parts.length != 2) {
+                    throw new IllegalArgumentException("Niepoprawny wpis ids.baseline.z-score: " + entry);
+                }
+                modes.put(parts[0].trim(), ZScoreMode.valueOf(parts[1].trim().toUpperCase()));
+            }
+            return new ZScoreSettings(Map.copyOf(modes), sketchAccuracy);
+        }
+
+        ZScoreMode modeOf(String featureName) {
+            return modes.getOrDefault(featureName, ZScoreMode.STDDEV);
+        }
+    }
+
+    // Stan jednej cechy: statystyki Welforda, okno przesuwne (bufor cykliczny double[], 8 B/próbkę)
+    // i szkic kwantyli okna dla trybów odpornych
+    private static final class Slot {
+        final String name;
+        final ZScoreMode mode;
+        volatile BaselineStats stats = new BaselineStats();
+        DoubleRingBuffer history;
+        QuantileSketch sketch; // null dla STDDEV
+
+        Slot(String name, ZScoreMode mode, int windowSize, double sketchAccuracy) {
+            this.name = name;
+            this.mode = mode;
+            this.history = new DoubleRingBuffer(windowSize);
+            this.sketch = mode == ZScoreMode.STDDEV ? null : new QuantileSketch(sketchAccuracy);
+        }
+    }
+
+    public record FeatureState(String name, long count, double mean, double m2, long sequence, double[] history) {}
+
+    // Odbiorca zaakceptowanych obserwacji (dziennik append-only)
+    public interface ObservationJournal {
+        void append(long seq, String featureName, double value);
+
+        // Koniec ticku - zapis wpisów zebranych od poprzedniego flush()
+        default void flush() {
+        }
+    }
+
     private record BaselineStatsDTO(
             @JsonProperty("count") long count,
             @JsonProperty("mean") double mean,
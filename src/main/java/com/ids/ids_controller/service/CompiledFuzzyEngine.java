@@ -0,0 +1,619 @@
+package com.ids.ids_controller.service;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Skompilowany, niezmienny silnik wnioskowania rozmytego dla podzbioru FCL używanego przez anomaly_finder.fcl:
+ * terminy kawałkami liniowe (punkty), reguły z AND/OR/NOT i nawiasami, AND: MIN|PROD, ACT: MIN|PROD,
+ * ACCU: MAX, jedna zmienna wyjściowa z METHOD: COG.
+ *
+ * Plik parsowany jest raz. Przynależności terminów wyjściowych stablicowane są w tych samych punktach,
+ * w których jFuzzyLogic próbkuje uniwersum przy COG (1000 próbek), więc wynik zgadza się z FIS,
+ * a ocena to tylko pętla po tablicach. Przy ACCU: MAX reguły o tym samym terminie wyjściowym składają się
+ * do jednego stopnia aktywacji - COG liczy się raz na termin, nie na regułę.
+ * Tablice robocze evaluate() są per wątek (ThreadLocal), więc ocena nie alokuje, a evaluate() można wołać
+ * z wielu wątków jednocześnie. firedRules() służy do uzasadnień alertów i alokuje listę wyniku.
+ */
+public final class CompiledFuzzyEngine {
+
+    private static final int COG_POINTS = 1000;
+
+    private final String[] inputNames;
+    private final PiecewiseLinear[][] inputTerms;   // [zmienna][termin]
+    private final int[] inputTermOffset;            // początek terminów zmiennej w płaskiej tablicy przynależności
+    private final int inputTermCount;
+    private final Condition[] ruleConditions;
+    private final String[] ruleNames;
+    private final int[] ruleOutputTerm;
+    private final double[] ruleWeight;
+    private final boolean andProduct;
+    private final boolean orProbabilistic;
+    private final boolean activationProduct;
+
+    private final String outputName;
+    private final String[] outputTermNames;
+    private final double[][] outputTables;          // [termin][próbka]
+    private final double[] samples;
+    private final int[] supportStart;               // [termin] pierwsza próbka o niezerowej przynależności
+    private final int[] supportEnd;                 // [termin] za ostatnią taką próbką
+    private final double defaultValue;
+    private final ThreadLocal<Scratch> scratch;
+
+    private CompiledFuzzyEngine(Parser p) {
+        this.inputNames = p.inputs.toArray(new String[0]);
+        this.inputTerms = new PiecewiseLinear[inputNames.length][];
+        this.inputTermOffset = new int[inputNames.length];
+        int offset = 0;
+        for (int v = 0; v < inputNames.length; v++) {
+            Map<String, PiecewiseLinear> terms = p.fuzzify.get(inputNames[v]);
+            if (terms == null || terms.isEmpty()) {
+                throw new IllegalArgumentException("Brak bloku FUZZIFY dla zmiennej " + inputNames[v]);
+            }
+            inputTerms[v] = terms.values().toArray(new PiecewiseLinear[0]);
+            inputTermOffset[v] = offset;
+            offset += inputTerms[v].length;
+        }
+        this.inputTermCount = offset;
+
+        this.outputName = p.output;
+        Map<String, PiecewiseLinear> outTerms = p.defuzzify;
+        List<String> outTermNames = new ArrayList<>(outTerms.keySet());
+        this.outputTermNames = outTermNames.toArray(new String[0]);
+
+        this.andProduct = p.andProduct;
+        this.orProbabilistic = p.orProbabilistic;
+        this.activationProduct = p.activationProduct;
+        this.ruleConditions = new Condition[p.rules.size()];
+        this.ruleNames = new String[p.rules.size()];
+        this.ruleOutputTerm = new int[p.rules.size()];
+        this.ruleWeight = new double[p.rules.size()];
+        for (int r = 0; r < p.rules.size(); r++) {
+            ParsedRule rule = p.rules.get(r);
+            ruleConditions[r] = rule.condition.bind(this, p);
+            ruleNames[r] = rule.name;
+            ruleOutputTerm[r] = outTermNames.indexOf(rule.outputTerm);
+            if (ruleOutputTerm[r] < 0) {
+                throw new IllegalArgumentException("Nieznany termin wyjściowy " + rule.outputTerm);
+            }
+            ruleWeight[r] = rule.weight;
+        }
+
+        // Uniwersum wyjścia jak w jFuzzyLogic: od najmniejszego do największego punktu terminów
+        double min = Double.POSITIVE_INFINITY;
+        double max = Double.NEGATIVE_INFINITY;
+        for (PiecewiseLinear term : outTerms.values()) {
+            min = Math.min(min, term.x[0]);
+            max = Math.max(max, term.x[term.x.length - 1]);
+        }
+        double step = (max - min) / COG_POINTS;
+        this.samples = new double[COG_POINTS];
+        double x = min;
+        for (int i = 0; i < COG_POINTS; i++, x += step) {
+            samples[i] = x;
+        }
+        this.outputTables = new double[outTermNames.size()][COG_POINTS];
+        this.supportStart = new int[outTermNames.size()];
+        this.supportEnd = new int[outTermNames.size()];
+        int t = 0;
+        for (PiecewiseLinear term : outTerms.values()) {
+            supportStart[t] = COG_POINTS;
+            for (int i = 0; i < COG_POINTS; i++) {
+                outputTables[t][i] = term.membership(samples[i]);
+                if (outputTables[t][i] > 0) {
+                    supportStart[t] = Math.min(supportStart[t], i);
+                    supportEnd[t] = i + 1;
+                }
+            }
+            t++;
+        }
+        this.defaultValue = p.defaultValue;
+        int outputTermCount = outTermNames.size();
+        this.scratch = ThreadLocal.withInitial(() -> new Scratch(inputTermCount, outputTermCount));
+    }
+
+    public static CompiledFuzzyEngine load(InputStream in) throws IOException {
+        return parse(new String(in.readAllBytes(), StandardCharsets.UTF_8));
+    }
+
+    public static CompiledFuzzyEngine parse(String fcl) {
+        Parser parser = new Parser(fcl);
+        parser.parseFunctionBlock();
+        return new CompiledFuzzyEngine(parser);
+    }
+
+    public String[] inputNames() {
+        return inputNames.clone();
+    }
+
+    public String outputName() {
+        return outputName;
+    }
+
+    public int inputIndex(String name) {
+        for (int i = 0; i < inputNames.length; i++) {
+            if (inputNames[i].equals(name)) return i;
+        }
+        throw new IllegalArgumentException("Nieznana zmienna wejściowa " + name);
+    }
+
+    // Wartości wejść w kolejności z VAR_INPUT
+    public double evaluate(double... inputs) {
+        Scratch work = scratch.get();
+        double[] memberships = memberships(inputs, work.memberships);
+
+        double[] activation = work.activation;
+        Arrays.fill(activation, 0);
+        for (int r = 0; r < ruleConditions.length; r++) {
+            double degree = ruleConditions[r].eval(memberships) * ruleWeight[r];
+            int t = ruleOutputTerm[r];
+            if (degree > activation[t]) activation[t] = degree;
+        }
+
+        // Agregacja tylko w zakresie nośników aktywnych terminów - poza nimi przynależność wynosi 0
+        double[] aggregated = work.aggregated; // poza [from, to) zawsze zera
+        int from = samples.length;
+        int to = 0;
+        for (int t = 0; t < outputTables.length; t++) {
+            double a = activation[t];
+            if (a <= 0) continue;
+            double[] table = outputTables[t];
+            int start = supportStart[t];
+            int end = supportEnd[t];
+            if (activationProduct) {
+                for (int i = start; i < end; i++) {
+                    aggregated[i] = Math.max(aggregated[i], a * table[i]);
+                }
+            } else {
+                for (int i = start; i < end; i++) {
+                    aggregated[i] = Math.max(aggregated[i], Math.min(a, table[i]));
+                }
+            }
+            from = Math.min(from, start);
+            to = Math.max(to, end);
+        }
+
+        double sum = 0;
+        double weighted = 0;
+        for (int i = from; i < to; i++) {
+            sum += aggregated[i];
+            weighted += samples[i] * aggregated[i];
+            aggregated[i] = 0;
+        }
+        return sum > 0 ? weighted / sum : defaultValue;
+    }
+
+    // Reguły o niezerowym stopniu aktywacji dla danych wejść (uzasadnienie wyniku evaluate), malejąco wg stopnia
+    public List<RuleActivation> firedRules(double... inputs) {
+        double[] memberships = memberships(inputs, new double[inputTermCount]);
+        List<RuleActivation> fired = new ArrayList<>();
+        for (int r = 0; r < ruleConditions.length; r++) {
+            double degree = ruleConditions[r].eval(memberships) * ruleWeight[r];
+            if (degree > 0) {
+                fired.add(new RuleActivation(ruleNames[r], outputTermNames[ruleOutputTerm[r]], degree));
+            }
+        }
+        fired.sort((a, b) -> Double.compare(b.degree(), a.degree()));
+        return fired;
+    }
+
+    private double[] memberships(double[] inputs, double[] memberships) {
+        if (inputs.length != inputNames.length) {
+            throw new IllegalArgumentException("Oczekiwano " + inputNames.length + " wejść, podano " + inputs.length);
+        }
+        for (int v = 0; v < inputTerms.length; v++) {
+            PiecewiseLinear[] terms = inputTerms[v];
+            for (int t = 0; t < terms.length; t++) {
+                memberships[inputTermOffset[v] + t] = terms[t].membership(inputs[v]);
+            }
+        }
+        return memberships;
+    }
+
+    public record RuleActivation(String rule, String outputTerm, double degree) {}
+
+    // Tablice robocze jednej oceny - jedna instancja na wątek
+    private static final class Scratch {
+        final double[] memberships;
+        final double[] activation;
+        final double[] aggregated = new double[COG_POINTS];
+
+        Scratch(int inputTermCount, int outputTermCount) {
+            this.memberships = new double[inputTermCount];
+            this.activation = new double[outputTermCount];
+        }
+    }
+
+    double and(double a, double b) {
+        return andProduct ? a * b : Math.min(a, b);
+    }
+
+    double or(double a, double b) {
+        return orProbabilistic ? a + b - a * b : Math.max(a, b);
+    }
+
+    // --- drzewo warunku ---
+
+    // Skompilowany warunek reguły - działa na płaskiej tablicy przynależności terminów wejściowych
+    @FunctionalInterface
+    interface Condition {
+        double eval(double[] memberships);
+    }
+
+    // Warunek po parsowaniu - nazwy zmiennych/terminów zamieniane na indeksy po zbudowaniu tablic silnika
+    private interface Expr {
+        Condition bind(CompiledFuzzyEngine engine, Parser parser);
+    }
+
+    private record TermRef(String variable, String term, boolean negated) implements Expr {
+        @Override
+        public Condition bind(CompiledFuzzyEngine engine, Parser parser) {
+            int v = engine.inputIndex(variable);
+            int t = new ArrayList<>(parser.fuzzify.get(variable).keySet()).indexOf(term);
+            if (t < 0) {
+                throw new IllegalArgumentException("Nieznany termin " + variable + " IS " + term);
+            }
+            int slot = engine.inputTermOffset[v] + t;
+            return negated ? m -> 1 - m[slot] : m -> m[slot];
+        }
+    }
+
+    private record And(Expr left, Expr right) implements Expr {
+        @Override
+        public Condition bind(CompiledFuzzyEngine engine, Parser parser) {
+            Condition l = left.bind(engine, parser);
+            Condition r = right.bind(engine, parser);
+            return m -> engine.and(l.eval(m), r.eval(m));
+        }
+    }
+
+    private record Or(Expr left, Expr right) implements Expr {
+        @Override
+        public Condition bind(CompiledFuzzyEngine engine, Parser parser) {
+            Condition l = left.bind(engine, parser);
+            Condition r = right.bind(engine, parser);
+            return m -> engine.or(l.eval(m), r.eval(m));
+        }
+    }
+
+    private record Not(Expr inner) implements Expr {
+        @Override
+        public Condition bind(CompiledFuzzyEngine engine, Parser parser) {
+            Condition c = inner.bind(engine, parser);
+            return m -> 1 - c.eval(m);
+        }
+    }
+
+    private record ParsedRule(String name, Expr condition, String outputTerm, double weight) {}
+
+    // Funkcja przynależności zadana punktami - poza zakresem przyjmuje wartość skrajnego punktu (jak jFuzzyLogic)
+    static final class PiecewiseLinear {
+        final double[] x;
+        final double[] y;
+
+        PiecewiseLinear(double[] x, double[] y) {
+            for (int i = 1; i < x.length; i++) {
+                if (x[i] < x[i - 1]) {
+                    throw new IllegalArgumentException("Punkty terminu muszą być uporządkowane: " + Arrays.toString(x));
+                }
+            }
+            this.x = x;
+            this.y = y;
+        }
+
+        double membership(double in) {
+            if (in <= x[0]) return y[0];
+            int last = x.length - 1;
+            if (in >= x[last]) return y[last];
+            for (int i = 1; i <= last; i++) {
+                if (in <= x[i]) {
+                    double dx = x[i] - x[i - 1];
+                    if (dx == 0) return y[i];
+                    return y[i - 1] + (y[i] - y[i - 1]) * (in - x[i - 1]) / dx;
+                }
+            }
+            return y[last];
+        }
+    }
+
+    // --- parser podzbioru FCL ---
+
+    static final class Parser {
+        private final List<String> tokens = new ArrayList<>();
+        private int pos;
+
+        final List<String> inputs = new ArrayList<>();
+        String output;
+        final Map<String, Map<String, PiecewiseLinear>> fuzzify = new LinkedHashMap<>();
+        final Map<String, PiecewiseLinear> defuzzify = new LinkedHashMap<>();
+        final List<ParsedRule> rules = new ArrayList<>();
+        double defaultValue = Double.NaN;
+        boolean andProduct;
+        boolean orProbabilistic;
+        boolean orDeclared;
+        boolean activationProduct;
+
+        Parser(String source) {
+            tokenize(source);
+        }
+
+        private void tokenize(String s) {
+            int i = 0;
+            while (i < s.length()) {
+                char c = s.charAt(i);
+                if (Character.isWhitespace(c)) {
+                    i++;
+                } else if (s.startsWith("//", i)) {
+                    while (i < s.length() && s.charAt(i) != '\n') i++;
+                } else if (s.startsWith("(*", i)) {
+                    int end = s.indexOf("*)", i + 2);
+                    i = end < 0 ? s.length() : end + 2;
+                } else if (s.startsWith(":=", i)) {
+                    tokens.add(":=");
+                    i += 2;
+                } else if ("();:,".indexOf(c) >= 0) {
+                    tokens.add(String.valueOf(c));
+                    i++;
+                } else {
+                    int start = i;
+                    while (i < s.length() && !Character.isWhitespace(s.charAt(i))
+                            && "();:,".indexOf(s.charAt(i)) < 0 && !s.startsWith("//", i)) {
+                        i++;
+                    }
+                    tokens.add(s.substring(start, i));
+                }
+            }
+        }
+
+        void parseFunctionBlock() {
+            expect("FUNCTION_BLOCK");
+            if (!peekIs("VAR_INPUT")) next(); // nazwa bloku
+            while (!peekIs("END_FUNCTION_BLOCK")) {
+                String keyword = next().toUpperCase();
+                switch (keyword) {
+                    case "VAR_INPUT" -> parseVars(inputs);
+                    case "VAR_OUTPUT" -> {
+                        List<String> outputs = new ArrayList<>();
+                        parseVars(outputs);
+                        if (outputs.size() != 1) {
+                            throw new IllegalArgumentException("Obsługiwana jest dokładnie jedna zmienna wyjściowa");
+                        }
+                        output = outputs.get(0);
+                    }
+                    case "FUZZIFY" -> parseFuzzify();
+                    case "DEFUZZIFY" -> parseDefuzzify();
+                    case "RULEBLOCK" -> parseRuleBlock();
+                    default -> throw unexpected(keyword);
+                }
+            }
+            expect("END_FUNCTION_BLOCK");
+            if (output == null || defuzzify.isEmpty()) {
+                throw new IllegalArgumentException("Brak zmiennej wyjściowej lub bloku DEFUZZIFY");
+            }
+        }
+
+        private void parseVars(List<String> target) {
+            while (!peekIs("END_VAR")) {
+                target.add(next());
+                expect(":");
+                String type = next();
+                if (!type.equalsIgnoreCase("REAL")) throw unexpected(type);
+                expect(";");
+            }
+            expect("END_VAR");
+        }
+
+        private void parseFuzzify() {
+            String variable = next();
+            Map<String, PiecewiseLinear> terms = new LinkedHashMap<>();
+            while (!peekIs("END_FUZZIFY")) {
+                expect("TERM");
+                String name = next();
+                terms.put(name, parsePoints());
+            }
+            expect("END_FUZZIFY");
+            fuzzify.put(variable, terms);
+        }
+
+        private void parseDefuzzify() {
+            String variable = next();
+            if (!variable.equals(output)) {
+                throw new IllegalArgumentException("DEFUZZIFY dla nieznanej zmiennej wyjściowej " + variable);
+            }
+            while (!peekIs("END_DEFUZZIFY")) {
+                String keyword = next().toUpperCase();
+                switch (keyword) {
+                    case "TERM" -> {
+                        String name = next();
+                        defuzzify.put(name, parsePoints());
+                    }
+                    case "METHOD" -> {
+                        expect(":");
+                        String method = next();
+                        if (!method.equalsIgnoreCase("COG")) {
+                            throw new IllegalArgumentException("Nieobsługiwana metoda defuzyfikacji " + method);
+                        }
+                        expect(";");
+                    }
+                    case "DEFAULT" -> {
+                        expect(":=");
+                        defaultValue = number(next());
+                        expect(";");
+                    }
+                    case "ACCU" -> parseAccumulation();
+                    default -> throw unexpected(keyword);
+                }
+            }
+            expect("END_DEFUZZIFY");
+        }
+
+        private void parseRuleBlock() {
+            next(); // nazwa bloku
+            while (!peekIs("END_RULEBLOCK")) {
+                String keyword = next().toUpperCase();
+                switch (keyword) {
+                    case "AND" -> {
+                        expect(":");
+                        andProduct = operator(next(), "MIN", "PROD");
+                        expect(";");
+                    }
+                    case "OR" -> {
+                        expect(":");
+                        orProbabilistic = operator(next(), "MAX", "ASUM");
+                        orDeclared = true;
+                        expect(";");
+                    }
+                    case "ACT" -> {
+                        expect(":");
+                        activationProduct = operator(next(), "MIN", "PROD");
+                        expect(";");
+                    }
+                    case "ACCU" -> parseAccumulation();
+                    case "RULE" -> parseRule();
+                    default -> throw unexpected(keyword);
+                }
+            }
+            expect("END_RULEBLOCK");
+            // OR musi być dualne do AND - MAX dla MIN, ASUM dla PROD (bez deklaracji: MAX)
+            if (orDeclared && orProbabilistic != andProduct) {
+                throw new IllegalArgumentException("OR musi być dualne do AND (MIN/MAX lub PROD/ASUM)");
+            }
+        }
+
+        private void parseAccumulation() {
+            expect(":");
+            String method = next();
+            if (!method.equalsIgnoreCase("MAX")) {
+                throw new IllegalArgumentException("Nieobsługiwana metoda akumulacji " + method);
+            }
+            expect(";");
+        }
+
+        private void parseRule() {
+            String name = next(); // numer/nazwa reguły
+            expect(":");
+            expect("IF");
+            Expr condition = parseOr();
+            expect("THEN");
+            String variable = next();
+            if (!variable.equals(output)) {
+                throw new IllegalArgumentException("Konkluzja reguły dla nieznanej zmiennej " + variable);
+            }
+            expect("IS");
+            String term = next();
+            double weight = 1;
+            if (peekIs("WITH")) {
+                next();
+                weight = number(next());
+            }
+            expect(";");
+            rules.add(new ParsedRule(name, condition, term, weight));
+        }
+
+        // AND wiąże mocniej niż OR
+        private Expr parseOr() {
+            Expr left = parseAnd();
+            while (peekIs("OR")) {
+                next();
+                left = new Or(left, parseAnd());
+            }
+            return left;
+        }
+
+        private Expr parseAnd() {
+            Expr left = parseFactor();
+            while (peekIs("AND")) {
+                next();
+                left = new And(left, parseFactor());
+            }
+            return left;
+        }
+
+        private Expr parseFactor() {
+            if (peekIs("(")) {
+                next();
+                Expr inner = parseOr();
+                expect(")");
+                return inner;
+            }
+            if (peekIs("NOT")) {
+                next();
+                return new Not(parseFactor());
+            }
+            String variable = next();
+            expect("IS");
+            boolean negated = false;
+            if (peekIs("NOT")) {
+                next();
+                negated = true;
+            }
+            return new TermRef(variable, next(), negated);
+        }
+
+        private PiecewiseLinear parsePoints() {
+            expect(":=");
+            List<double[]> points = new ArrayList<>();
+            while (peekIs("(")) {
+                next();
+                double x = number(next());
+                expect(",");
+                double y = number(next());
+                expect(")");
+                points.add(new double[]{x, y});
+            }
+            expect(";");
+            if (points.isEmpty()) {
+                throw new IllegalArgumentException("Termin bez punktów - obsługiwane są tylko funkcje kawałkami liniowe");
+            }
+            double[] x = new double[points.size()];
+            double[] y = new double[points.size()];
+            for (int i = 0; i < points.size(); i++) {
+                x[i] = points.get(i)[0];
+                y[i] = points.get(i)[1];
+            }
+            return new PiecewiseLinear(x, y);
+        }
+
+        private boolean operator(String token, String min, String product) {
+            if (token.equalsIgnoreCase(min)) return false;
+            if (token.equalsIgnoreCase(product)) return true;
+            throw new IllegalArgumentException("Nieobsługiwany operator " + token);
+        }
+
+        private double number(String token) {
+            try {
+                return Double.parseDouble(token);
+            } catch (NumberFormatException e) {
+                throw unexpected(token);
+            }
+        }
+
+        private String next() {
+            if (pos >= tokens.size()) {
+                throw new IllegalArgumentException("Nieoczekiwany koniec pliku FCL");
+            }
+            return tokens.get(pos++);
+        }
+
+        private boolean peekIs(String token) {
+            return pos < tokens.size() && tokens.get(pos).equalsIgnoreCase(token);
+        }
+
+        private void expect(String token) {
+            String actual = next();
+            if (!actual.equalsIgnoreCase(token)) {
+                throw new IllegalArgumentException("Oczekiwano '" + token + "', jest '" + actual + "'");
+            }
+        }
+
+        private IllegalArgumentException unexpected(String token) {
+            return new IllegalArgumentException("Nieoczekiwany element FCL: '" + token + "'");
+        }
+    }
+}
@@ -0,0 +1,72 @@
+package com.ids.ids_controller.service;
+
+/**
+ * Wbudowane cechy ruchu - zawsze pierwsze w FeatureRegistry, więc identyfikator cechy to ordinal().
+ * Ta kolejność to także kolejność pierwszych kolumn cech i z-score'ów w SnapshotHistory.
+ */
+public enum CoreFeature implements TrafficFeature {
+
+    // SYN-y i pingi przeliczane na sekundę - baseline *_PER_SEC nie zależy od długości ticku
+    SYNS_PER_SEC("z_syns") {
+        @Override public double value(FeatureWindow w, int base) { return Math.round(w.perSecond(w.getSynCount())); }
+        @Override public double hostValue(HostFeatures h, double rateScale) { return Math.round(h.syns() * rateScale); }
+        @Override public double fleetValue(WindowSummary s) { return Math.round(s.synsPerSecond()); }
+    },
+    ICMPS_PER_SEC("z_icmps") {
+        @Override public double value(FeatureWindow w, int base) { return Math.round(w.perSecond(w.getIcmpCount())); }
+        @Override public double hostValue(HostFeatures h, double rateScale) { return Math.round(h.icmps() * rateScale); }
+        @Override public double fleetValue(WindowSummary s) { return Math.round(s.icmpsPerSecond()); }
+    },
+    AVG_PACKET_SIZE("z_avg_size") {
+        @Override public double value(FeatureWindow w, int base) { return w.getAvgPacketSize(); }
+        @Override public double hostValue(HostFeatures h, double rateScale) { return h.avgPacketSize(); }
+        @Override public double fleetValue(WindowSummary s) { return s.packets() == 0 ? 0 : (double) s.bytes() / s.packets(); }
+    },
+    TRAFFIC_ASYMMETRY("z_asymmetry") {
+        @Override public double value(FeatureWindow w, int base) { return w.getTrafficAsymmetry(); }
+        @Override public double hostValue(HostFeatures h, double rateScale) { return h.asymmetry(); }
+        @Override public double fleetValue(WindowSummary s) {
+            return s.outboundBytes() == 0 ? s.inboundBytes() : (double) s.inboundBytes() / s.outboundBytes();
+        }
+    },
+    ACTIVE_FLOWS("z_flows") {
+        @Override public double value(FeatureWindow w, int base) { return w.getActiveFlowsCount(); }
+        @Override public double hostValue(HostFeatures h, double rateScale) { return h.flows(); }
+        @Override public double fleetValue(WindowSummary s) { return s.flows(); }
+    },
+    GLOBAL_PORT_DIVERSITY("z_ports") {
+        @Override public double value(FeatureWindow w, int base) { return w.getGlobalPortDiversity(); }
+        @Override public double hostValue(HostFeatures h, double rateScale) { return h.portDiversity(); }
+        @Override public double fleetValue(WindowSummary s) { return s.portPairs().estimate(); }
+    },
+    HALF_OPEN("z_half_open") {
+        @Override public double value(FeatureWindow w, int base) { return w.getHalfOpenCount(); }
+        @Override public double hostValue(HostFeatures h, double rateScale) { return h.halfOpen(); }
+        @Override public double fleetValue(WindowSummary s) { return s.halfOpen(); }
+    },
+    // 1 przy braku rozstrzygniętych uzgodnień - cisza nie wygląda jak porzucone połączenia
+    HANDSHAKE_COMPLETION("z_completion") {
+        @Override public double value(FeatureWindow w, int base) { return w.getHandshakeCompletion(); }
+        @Override public double hostValue(HostFeatures h, double rateScale) { return h.handshakeCompletion(); }
+        @Override public double fleetValue(WindowSummary s) {
+            long resolved = s.handshakesCompleted() + s.handshakesFailed();
+            return resolved == 0 ? 1 : (double) s.handshakesCompleted() / resolved;
+        }
+    };
+
+    private final String fuzzyInput;
+
+    CoreFeature(String fuzzyInput) {
+        this.fuzzyInput = fuzzyInput;
+    }
+
+    @Override
+    public String fuzzyInput() {
+        return fuzzyInput;
+    }
+
+    // Identyfikator w każdym FeatureRegistry (cechy wbudowane są rejestrowane pierwsze)
+    public int id() {
+        return ordinal();
+    }
+}
@@ -0,0 +1,48 @@
+package com.ids.ids_controller.service;
+
+/**
+ * Okno przesuwne stałej pojemności na prymitywnej tablicy double[].
+ * Dodanie i usunięcie najstarszej wartości to O(1), bez alokacji i bez opakowywania w Double.
+ * Nie jest bezpieczny wątkowo - synchronizację zapewnia właściciel.
+ */
+public final class DoubleRingBuffer {
+
+    private final double[] values;
+    private int head; // indeks najstarszej wartości
+    private int size;
+
+    public DoubleRingBuffer(int capacity) {
+        if (capacity <= 0) {
+            throw new IllegalArgumentException("Pojemność okna musi być dodatnia: " + capacity);
+        }
+        this.values = new double[capacity];
+    }
+
+    public boolean isFull() {
+        return size == values.length;
+    }
+
+    // Usuwa i zwraca najstarszą wartość - wołać tylko gdy bufor nie jest pusty
+    public double pollOldest() {
+        double oldest = values[head];
+        head = (head + 1) % values.length;
+        size--;
+        return oldest;
+    }
+
+    public void add(double value) {
+        if (isFull()) {
+            throw new IllegalStateException("Okno jest pełne - najpierw pollOldest()");
+        }
+        values[(head + size) % values.length] = value;
+        size++;
+    }
+
+    // i-ta wartość licząc od najstarszej
+    public double get(int i) {
+        return values[(head + i) % values.length];
+    }
+
+    public int size() { return size; }
+    public int capacity() { return values.length; }
+}
@@ -0,0 +1,49 @@
+package com.ids.ids_controller.service;
+
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Dokładne zbiory portów per źródło - pamięć rośnie z liczbą par (źródło, port).
+ */
+final class ExactPortDiversity implements PortDiversity {
+
+    // klucze adresów źródłowych - patrz PacketView.ipV4Key/ipV6Key
+    private final Map<Long, Set<Integer>> portVarietyMap = new HashMap<>();
+
+    @Override
+    public void add(long srcAddr, int dstPort) {
+        portVarietyMap.computeIfAbsent(srcAddr, k -> new HashSet<>()).add(dstPort);
+    }
+
+    @Override
+    public void mergeFrom(PortDiversity other) {
+        ((ExactPortDiversity) other).portVarietyMap.forEach((ip, ports) ->
+                portVarietyMap.computeIfAbsent(ip, k -> new HashSet<>()).addAll(ports));
+    }
+
+    @Override
+    public void clear() {
+        portVarietyMap.clear();
+    }
+
+    @Override
+    public long globalDiversity() {
+        long sum = 0;
+        for (Set<Integer> ports : portVarietyMap.values()) {
+            sum += ports.size();
+        }
+        return sum;
+    }
+
+    @Override
+    public void addPairsTo(HyperLogLog pairs) {
+        portVarietyMap.forEach((ip, ports) -> {
+            for (int port : ports) {
+                pairs.addHash(HyperLogLog.hash(ip * 65537 + port));
+            }
+        });
+    }
+}
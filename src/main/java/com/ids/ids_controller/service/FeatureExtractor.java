@@ -1,129 +1,456 @@
 package com.ids.ids_controller.service;
 
-import org.pcap4j.packet.IpV4Packet;
-import org.pcap4j.packet.Packet;
-import org.pcap4j.packet.TcpPacket;
-import org.pcap4j.packet.IcmpV4CommonPacket;
+import com.ids.ids_controller.parser.PacketView;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import jakarta.annotation.PreDestroy;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Service;
 
-import java.util.HashMap;
-import java.util.Map;
-import java.util.Set;
-import java.util.concurrent.ConcurrentHashMap;
-import java.util.concurrent.atomic.AtomicInteger;
-import java.util.concurrent.atomic.LongAdder;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+/**
+ * Ekstrakcja cech rozbita na shardy (FeatureShard) zbierane przez agregator raz na tick.
+ *
+ * workers = 0 - tryb sekwencyjny: każde połączenie sondy ma własny shard, aktualizowany
+ * na wątku event-loopa połączenia.
+ * workers = N - tryb równoległy: zdekodowane rekordy są kopiowane do partii i rozdzielane
+ * (po adresie źródłowym) na N wątków roboczych, z których każdy ma własny shard.
+ *
+ * Okna odcinane są przełączeniem licznika epok (jedna operacja atomowa) - piszący od razu przechodzą
+ * do bufora nowej epoki, a agregator czyta zamrożone bufory poprzedniej (patrz FeatureShard).
+ *
+ * Czas ekstrakcji mierzy histogram ids.features.extract (jeden pomiar na paczkę/partię, nie na pakiet):
+ * stage=chunk - dekodowanie i ekstrakcja paczki sondy (tryb sekwencyjny),
+ * stage=dispatch - dekodowanie i rozdział paczki na partie (tryb równoległy, z czekaniem na kolejkę),
+ * stage=batch - ekstrakcja partii w wątku roboczym.
+ */
 @Service
 public class FeatureExtractor {
     private static final Logger log = LoggerFactory.getLogger(FeatureExtractor.class);
 
-    private final LongAdder inboundBytes = new LongAdder();
-    private final LongAdder outboundBytes = new LongAdder();
-    private final LongAdder totalPacketCount = new LongAdder();
-    private final LongAdder totalPayloadSize = new LongAdder();
-    private final Set<String> activeFlows = ConcurrentHashMap.newKeySet();
+    private static final int BATCH_SIZE = 256;
+    private static final int QUEUE_CAPACITY = 64;
+    private static final long DISPATCH_WAIT_MS = 1000; // najdłuższe czekanie na miejsce w kolejce wątku (policy=block)
+    private static final int DEFAULT_FLOW_CAPACITY = 65536;
+    private static final int DEFAULT_FLOW_IDLE_TIMEOUT_SEC = 60;
+    private static final int DEFAULT_HALF_OPEN_CAPACITY = 65536;
+    private static final int DEFAULT_HANDSHAKE_TIMEOUT_SEC = 30;
+    private static final String DEFAULT_PORT_DIVERSITY = "sketch";
+    private static final double DEFAULT_PORT_SKETCH_ERROR = 0.05;
+    private static final int DEFAULT_PORT_SKETCH_MAX_SOURCES = 16384;
+    private static final int DEFAULT_HEAVY_HITTER_CAPACITY = 64;
+    private static final String DEFAULT_PROTECTED_HOSTS = "172.18.0.3"; // adres ofiary z którego można pobierać pliki
+    private static final int DEFAULT_MAX_HOSTS = 4096;
 
-    // statystyki podstawowe
-    private final AtomicInteger synCount = new AtomicInteger(0);
-    private final AtomicInteger icmpCount = new AtomicInteger(0);
-    private final Map<String, Set<Integer>> portVarietyMap = new ConcurrentHashMap<>();
+    private final List<FeatureShard> shards = new CopyOnWriteArrayList<>();
+    private final Worker[] workers;
+    private final ConcurrentLinkedQueue<RecordBatch> freeBatches = new ConcurrentLinkedQueue<>();
+    private final FeatureShard.Settings shardSettings;
+    private final AtomicLong epoch = new AtomicLong();
+    private final FullQueue fullQueue;
+    private long lastCaptureNanos = System.nanoTime();
 
-    private final String PROTECTED_IP = "172.18.0.3"; // adres ofiary z którego można pobierać pliki
+    private final MeterRegistry meterRegistry;
+    private final Timer chunkTimer;
+    private final Timer dispatchTimer;
+    private final Timer batchTimer;
+    private final Counter shedRecords;
 
-    public void extract(Packet packet) {
-        if (isTrafficToController(packet)) return;
+    // Instancje tworzone ręcznie pracują w trybie sekwencyjnym, z metrykami w lokalnym (niepublikowanym) rejestrze
+    public FeatureExtractor() {
+        this(FeatureRegistry.core());
+    }
 
-        int packetSize = packet.length();
-        totalPacketCount.increment();
-        totalPayloadSize.add(packetSize);
+    public FeatureExtractor(FeatureRegistry features) {
+        this(0, DEFAULT_FLOW_CAPACITY, DEFAULT_FLOW_IDLE_TIMEOUT_SEC,
+                DEFAULT_HALF_OPEN_CAPACITY, DEFAULT_HANDSHAKE_TIMEOUT_SEC,
+                DEFAULT_PORT_DIVERSITY, DEFAULT_PORT_SKETCH_ERROR, DEFAULT_PORT_SKETCH_MAX_SOURCES,
+                DEFAULT_HEAVY_HITTER_CAPACITY, DEFAULT_PROTECTED_HOSTS, "host", DEFAULT_MAX_HOSTS,
+                "block", features, new SimpleMeterRegistry());
+    }
 
-        String srcIp = "";
-        String dstIp = "";
+    @Autowired
+    public FeatureExtractor(@Value("${ids.features.workers:0}") int workerCount,
+                            @Value("${ids.flows.capacity:65536}") int flowCapacity,
+                            @Value("${ids.flows.idle-timeout-seconds:60}") int flowIdleTimeoutSec,
+                            @Value("${ids.tcp.half-open.capacity:65536}") int halfOpenCapacity,
+                            @Value("${ids.tcp.handshake-timeout-seconds:30}") int handshakeTimeoutSec,
+                            @Value("${ids.features.port-diversity:sketch}") String portDiversityMode,
+                            @Value("${ids.features.port-sketch.error:0.05}") double portSketchError,
+                            @Value("${ids.features.port-sketch.max-sources:16384}") int portSketchMaxSources,
+                            @Value("${ids.features.heavy-hitters.capacity:64}") int heavyHitterCapacity,
+                            @Value("${ids.hosts.protected:172.18.0.3}") String protectedHosts,
+                            @Value("${ids.hosts.granularity:host}") String hostGranularity,
+                            @Value("${ids.hosts.max-tracked:4096}") int maxHosts,
+                            @Value("${ids.ingest.queue.policy:block}") String queuePolicy,
+                            FeatureRegistry features,
+                            MeterRegistry meterRegistry) {
+        this(workerCount, new FeatureShard.Settings(
+                features,
+                ProtectedHosts.parse(protectedHosts, ProtectedHosts.Granularity.valueOf(hostGranularity.toUpperCase())),
+                maxHosts,
+                flowCapacity,
+                flowIdleTimeoutSec * 1_000_000L,
+                halfOpenCapacity,
+                handshakeTimeoutSec * 1_000_000L,
+                new PortDiversity.PortDiversitySettings(
+                        "sketch".equalsIgnoreCase(portDiversityMode),
+                        HyperLogLog.precisionForError(portSketchError),
+                        portSketchMaxSources),
+                heavyHitterCapacity), FullQueue.of(queuePolicy), meterRegistry);
+    }
 
-        if (packet.contains(IpV4Packet.class)) {
-            IpV4Packet ipPkt = packet.get(IpV4Packet.class);
-            srcIp = ipPkt.getHeader().getSrcAddr().getHostAddress();
-            dstIp = ipPkt.getHeader().getDstAddr().getHostAddress();
+    private FeatureExtractor(int workerCount, FeatureShard.Settings shardSettings, FullQueue fullQueue,
+                             MeterRegistry meterRegistry) {
+        this.shardSettings = shardSettings;
+        this.fullQueue = fullQueue;
+        this.meterRegistry = meterRegistry;
+        this.chunkTimer = extractTimer(meterRegistry, "chunk");
+        this.dispatchTimer = extractTimer(meterRegistry, "dispatch");
+        this.batchTimer = extractTimer(meterRegistry, "batch");
+        this.shedRecords = Counter.builder("ids.features.shed")
+                .description("Rekordy odrzucone przy pełnej kolejce wątku roboczego ekstrakcji")
+                .register(meterRegistry);
+        this.workers = new Worker[Math.max(0, workerCount)];
+        for (int i = 0; i < workers.length; i++) {
+            workers[i] = new Worker(newShard());
+            Thread thread = new Thread(workers[i], "feature-worker-" + i);
+            thread.setDaemon(true);
+            workers[i].thread = thread;
+            thread.start();
+        }
+        if (workers.length > 0) {
+            log.info("Ekstrakcja cech w trybie równoległym: {} wątków roboczych", workers.length);
+        }
+    }
 
-            // Kierunek ruchu
-            if (dstIp.equals(PROTECTED_IP)) {
-                inboundBytes.add(packetSize);
-            } else if (srcIp.equals(PROTECTED_IP)) {
-                outboundBytes.add(packetSize);
-            }
+    // Ekstraktor sekwencyjny o tych samych ustawieniach (chronione hosty, limity) - dla potoków per-sonda
+    public FeatureExtractor sequentialCopy() {
+        return new FeatureExtractor(0, shardSettings, fullQueue, meterRegistry);
+    }
+
+    // Ten sam histogram dla wszystkich ekstraktorów rejestru (rejestracja istniejącego miernika zwraca go ponownie)
+    private static Timer extractTimer(MeterRegistry registry, String stage) {
+        return Timer.builder("ids.features.extract")
+                .description("Czas dekodowania/ekstrakcji cech jednej paczki lub partii")
+                .tag("stage", stage)
+                .publishPercentileHistogram()
+                .minimumExpectedValue(Duration.ofNanos(1_000))
+                .maximumExpectedValue(Duration.ofSeconds(1))
+                .register(registry);
+    }
+
+    // Precyzja szkiców HLL portów (ids.features.port-sketch.error) - wspólna dla szkiców scalanych w klastrze
+    public int getPortSketchPrecision() {
+        return shardSettings.portDiversity().precision();
+    }
+
+    public FeatureRegistry getFeatureRegistry() {
+        return shardSettings.features();
+    }
+
+    public ProtectedHosts getProtectedHosts() {
+        return shardSettings.protectedHosts();
+    }
+
+    public FeatureSink openSink() {
+        return workers.length == 0 ? new ShardSink(newShard()) : new DispatchingSink();
+    }
 
-            // Unikalne przepływy (Flows)
-            activeFlows.add(srcIp + "->" + dstIp);
+    /*
+     * odbiornik zawsze sekwencyjny (własny shard), niezależnie od ids.features.workers - dla odtwarzania PCAP,
+     * gdzie okno zamyka wątek piszący: po end() wszystkie rekordy są już w shardzie, bez partii w kolejkach.
+     */
+    public FeatureSink openSequentialSink() {
+        return new ShardSink(newShard());
+    }
+
+    /*
+     * zamyka bieżące okno: przełącza epokę i zbiera zamrożone bufory wszystkich shardów.
+     * Czekanie dotyczy tylko piszącego, który jest w trakcie paczki rozpoczętej jeszcze w starej epoce.
+     */
+    public synchronized FeatureWindow captureWindow() {
+        long now = System.nanoTime();
+        long duration = now - lastCaptureNanos;
+        lastCaptureNanos = now;
+        return captureWindow(duration);
+    }
+
+    // Wariant dla zegara innego niż ścienny (odtwarzanie PCAP) - długość okna podaje wołający
+    public synchronized FeatureWindow captureWindow(long durationNanos) {
+        // Shardy zamknięte przed przełączeniem nie mają już nic w buforze nowej epoki
+        List<FeatureShard> closing = new ArrayList<>();
+        for (FeatureShard shard : shards) {
+            if (shard.closed) closing.add(shard);
         }
 
-        if (packet.contains(TcpPacket.class)) {
-            TcpPacket tcp = packet.get(TcpPacket.class);
-            int dstPort = tcp.getHeader().getDstPort().valueAsInt();
+        long frozen = epoch.getAndIncrement();
+        FeatureWindow window = new FeatureWindow(
+                shardSettings.features(),
+                PortDiversity.create(shardSettings.portDiversity()),
+                new TalkerSketches(shardSettings.heavyHitterCapacity()),
+                new HostTable(shardSettings.maxHosts(), shardSettings.portDiversity().precision()),
+                durationNanos);
+
+        for (FeatureShard shard : shards) {
+            while (shard.writerEpoch == frozen) {
+                Thread.onSpinWait();
+            }
+            shard.drainInto(window, frozen);
+        }
+        shards.removeAll(closing);
+        return window;
+    }
+
+    // Początek paczki piszącego: ogłoszenie epoki, w której będzie pisał (ponawiane, jeśli epoka właśnie się zmieniła)
+    private void enter(FeatureShard shard) {
+        shard.lock.lock();
+        long e;
+        do {
+            e = epoch.get();
+            shard.writerEpoch = e;
+        } while (epoch.get() != e);
+        shard.beginWrite(e);
+    }
+
+    private void exit(FeatureShard shard) {
+        shard.endWrite();
+        shard.writerEpoch = FeatureShard.IDLE;
+        shard.lock.unlock();
+    }
 
-            // SYN Flood
-            if (tcp.getHeader().getSyn() && !tcp.getHeader().getAck()) {
-                synCount.incrementAndGet();
+    // Największe przepływy wg bajtów ze wszystkich shardów
+    public List<FlowTable.FlowStats> topFlows(int limit) {
+        List<FlowTable.FlowStats> candidates = new ArrayList<>();
+        for (FeatureShard shard : shards) {
+            shard.lock.lock();
+            try {
+                shard.topFlows(limit, candidates);
+            } finally {
+                shard.lock.unlock();
             }
+        }
+        candidates.sort(Comparator.comparingLong(FlowTable.FlowStats::bytes).reversed());
+        return candidates.size() > limit ? candidates.subList(0, limit) : candidates;
+    }
+
+    private FeatureShard newShard() {
+        FeatureShard shard = new FeatureShard(shardSettings);
+        shards.add(shard);
+        return shard;
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        for (Worker worker : workers) {
+            worker.thread.interrupt();
+        }
+    }
+
+    // Tryb sekwencyjny - shard na wyłączność jednego połączenia
+    private final class ShardSink implements FeatureSink {
+        private final FeatureShard shard;
+        private long beginNanos;
+
+        ShardSink(FeatureShard shard) {
+            this.shard = shard;
+        }
+
+        @Override
+        public void begin() {
+            beginNanos = System.nanoTime();
+            enter(shard);
+        }
+
+        @Override public void accept(PacketView packet) { shard.accept(packet); }
+
+        @Override
+        public void end() {
+            exit(shard);
+            chunkTimer.record(System.nanoTime() - beginNanos, TimeUnit.NANOSECONDS);
+        }
 
-            // NMAP / Entropia Portów
-            if (!srcIp.isEmpty()) {
-                portVarietyMap.computeIfAbsent(srcIp, k -> ConcurrentHashMap.newKeySet()).add(dstPort);
+        @Override public void close() { shard.closed = true; }
+    }
+
+    // Tryb równoległy - rekordy kopiowane do partii per wątek roboczy, wysyłanych gdy są pełne lub na koniec paczki
+    private final class DispatchingSink implements FeatureSink {
+        private final RecordBatch[] pending = new RecordBatch[workers.length];
+        private long beginNanos;
+
+        @Override
+        public void begin() {
+            beginNanos = System.nanoTime();
+        }
+
+        @Override
+        public void accept(PacketView packet) {
+            int w = (int) ((mix(routingKey(packet)) & Long.MAX_VALUE) % workers.length);
+            RecordBatch batch = pending[w];
+            if (batch == null) {
+                batch = pending[w] = acquireBatch();
+            }
+            batch.add(packet);
+            if (batch.isFull()) {
+                dispatch(w, batch);
+                pending[w] = null;
             }
         }
 
-        if (packet.contains(IcmpV4CommonPacket.class)) {
-            IcmpV4CommonPacket icmp = packet.get(IcmpV4CommonPacket.class);
-            if (icmp.getHeader().getType().value() == (byte) 8) {
-                icmpCount.incrementAndGet();
+        @Override
+        public void end() {
+            for (int w = 0; w < pending.length; w++) {
+                if (pending[w] != null) {
+                    dispatch(w, pending[w]);
+                    pending[w] = null;
+                }
+            }
+            if (beginNanos != 0) {
+                dispatchTimer.record(System.nanoTime() - beginNanos, TimeUnit.NANOSECONDS);
+                beginNanos = 0;
             }
         }
+
+        @Override
+        public void close() { end(); }
+    }
+
+    private RecordBatch acquireBatch() {
+        RecordBatch batch = freeBatches.poll();
+        return batch != null ? batch : new RecordBatch();
     }
 
-    private boolean isTrafficToController(Packet packet) {
-        if (packet.contains(TcpPacket.class)) {
-            return packet.get(TcpPacket.class).getHeader().getDstPort().valueAsInt() == 9000;
+    /*
+     * przekazanie partii do wątku roboczego. Wątek dekodujący nie czeka bez końca: przy policy=block czeka
+     * najwyżej DISPATCH_WAIT_MS (backpressure na odczyt z gniazda), potem partia jest odrzucana; drop-oldest
+     * zwalnia miejsce najstarszą partią z kolejki, sample odrzuca bieżącą. Odrzucone rekordy - ids.features.shed.
+     */
+    private void dispatch(int worker, RecordBatch batch) {
+        BlockingQueue<RecordBatch> queue = workers[worker].queue;
+        if (queue.offer(batch)) return;
+        try {
+            switch (fullQueue) {
+                case WAIT -> {
+                    if (queue.offer(batch, DISPATCH_WAIT_MS, TimeUnit.MILLISECONDS)) return;
+                }
+                case DROP_OLDEST -> {
+                    RecordBatch oldest = queue.poll();
+                    if (oldest != null) shed(oldest);
+                    if (queue.offer(batch)) return;
+                }
+                case DROP_NEWEST -> {
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
         }
-        return false;
+        shed(batch);
     }
 
-    // Metody eksportujące dane do Agregatora Statystyk
-    public int getAndResetSynCount() { return synCount.getAndSet(0); }
-    public int getAndResetIcmpCount() { return icmpCount.getAndSet(0); }
-    public double getAvgPacketSize() {
-        long count = totalPacketCount.sum();
-        return count == 0 ? 0 : (double) totalPayloadSize.sum() / count;
+    private void shed(RecordBatch batch) {
+        shedRecords.increment(batch.size);
+        batch.size = 0;
+        freeBatches.offer(batch);
     }
 
-    public double getTrafficAsymmetry() {
-        double in = inboundBytes.sum();
-        double out = outboundBytes.sum();
-        if (out == 0) return in; // Unikamy dzielenia przez zero
-        return in / out; // > 1 ruch przychodzący dominuje (DDoS), < 1 wychodzący (Exfiltration)
+    // Zachowanie przy pełnej kolejce wątku roboczego wg ids.ingest.queue.policy
+    private enum FullQueue {
+        WAIT, DROP_OLDEST, DROP_NEWEST;
+
+        static FullQueue of(String policy) {
+            return switch (policy.trim().toLowerCase()) {
+                case "drop-oldest", "drop_oldest" -> DROP_OLDEST;
+                case "sample" -> DROP_NEWEST;
+                default -> WAIT;
+            };
+        }
     }
 
-    public int getActiveFlowsCount() {
-        return activeFlows.size();
+    /*
+     * klucz wyboru wątku. TCP wg adresu klienta połączenia - strony z wyższym (efemerycznym) portem, przy
+     * równych portach mniejszego adresu - więc SYN, SYN/ACK, RST i ACK jednego uzgodnienia widzi ten sam
+     * HalfOpenTracker niezależnie od kierunku. Pozostałe wg adresu źródłowego. Zbiory i szkice per źródło
+     * (porty, rozmówcy) są scalane z wszystkich shardów przy zamknięciu okna.
+     */
+    static long routingKey(PacketView packet) {
+        if (!packet.isTcp()) return packet.srcAddr();
+        int srcPort = packet.srcPort();
+        int dstPort = packet.dstPort();
+        if (srcPort != dstPort) return srcPort > dstPort ? packet.srcAddr() : packet.dstAddr();
+        return Math.min(packet.srcAddr(), packet.dstAddr());
     }
 
-    public Map<String, Integer> getAndResetPortVariety() {
-        Map<String, Integer> result = new HashMap<>();
-        portVarietyMap.forEach((ip, ports) -> result.put(ip, ports.size()));
-        portVarietyMap.clear();
-        return result;
+    private static long mix(long key) {
+        long h = key * 0x9E3779B97F4A7C15L;
+        return h ^ (h >>> 32);
+    }
+
+    private final class Worker implements Runnable {
+        private final BlockingQueue<RecordBatch> queue = new ArrayBlockingQueue<>(QUEUE_CAPACITY);
+        private final FeatureShard shard;
+        private Thread thread;
+
+        Worker(FeatureShard shard) {
+            this.shard = shard;
+        }
+
+        @Override
+        public void run() {
+            try {
+                while (!Thread.currentThread().isInterrupted()) {
+                    RecordBatch batch = queue.take();
+                    long start = System.nanoTime();
+                    enter(shard);
+                    try {
+                        for (int i = 0; i < batch.size; i++) {
+                            shard.accept(batch.records[i]);
+                        }
+                    } finally {
+                        exit(shard);
+                    }
+                    batchTimer.record(System.nanoTime() - start, TimeUnit.NANOSECONDS);
+                    batch.size = 0;
+                    freeBatches.offer(batch);
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
     }
 
-    // Resetowanie statystyk po zebraniu przez Agregator
-    public void resetAll() {
-        synCount.set(0);
-        icmpCount.set(0);
-        totalPacketCount.reset();
-        totalPayloadSize.reset();
-        inboundBytes.reset();
-        outboundBytes.reset();
-        portVarietyMap.clear();
-        activeFlows.clear();
+    // Partia rekordów - widoki alokowane raz i nadpisywane przy ponownym użyciu partii
+    private static final class RecordBatch {
+        final PacketView[] records = new PacketView[BATCH_SIZE];
+        int size;
+
+        RecordBatch() {
+            for (int i = 0; i < BATCH_SIZE; i++) {
+                records[i] = new PacketView();
+            }
+        }
+
+        void add(PacketView packet) {
+            records[size++].copyFrom(packet);
+        }
+
+        boolean isFull() {
+            return size == BATCH_SIZE;
+        }
     }
 }
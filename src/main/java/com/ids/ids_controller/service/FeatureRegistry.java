@@ -0,0 +1,136 @@
+package com.ids.ids_controller.service;
+
+import com.ids.ids_controller.parser.PacketView;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Component;
+
+import java.util.*;
+
+/**
+ * Rejestr cech ruchu: CoreFeature, a po nich beany TrafficFeature (wg @Order). Każda cecha dostaje
+ * gęsty identyfikator 0..size()-1 - wartości, z-score'y i sloty baseline potoków to tablice
+ * indeksowane nim, bez wyszukiwania po nazwie w ticku. Niezmienny po utworzeniu.
+ */
+@Component
+public final class FeatureRegistry {
+    private static final Logger log = LoggerFactory.getLogger(FeatureRegistry.class);
+
+    private static final FeatureRegistry CORE = new FeatureRegistry(List.of());
+
+    private final TrafficFeature[] features;
+    private final int[] counterBase;
+    private final int counterCount;
+    private final Map<String, Integer> ids = new HashMap<>();
+    private final List<String> names;
+    // Cechy z własnymi licznikami - tylko one są wołane dla każdego pakietu
+    private final TrafficFeature[] counting;
+    private final int[] countingBase;
+
+    @Autowired
+    public FeatureRegistry(ObjectProvider<TrafficFeature> plugins) {
+        this(plugins.orderedStream().toList());
+        if (features.length > CoreFeature.values().length) {
+            log.info("Dodatkowe cechy ruchu: {}", names.subList(CoreFeature.values().length, names.size()));
+        }
+    }
+
+    public FeatureRegistry(List<TrafficFeature> plugins) {
+        List<TrafficFeature> all = new ArrayList<>(List.of(CoreFeature.values()));
+        all.addAll(plugins);
+        this.features = all.toArray(new TrafficFeature[0]);
+        this.counterBase = new int[features.length];
+        List<TrafficFeature> counting = new ArrayList<>();
+        List<Integer> countingBase = new ArrayList<>();
+        int counters = 0;
+        for (int id = 0; id < features.length; id++) {
+            TrafficFeature feature = features[id];
+            if (ids.putIfAbsent(feature.name(), id) != null) {
+                throw new IllegalArgumentException("Zduplikowana nazwa cechy ruchu: " + feature.name());
+            }
+            counterBase[id] = counters;
+            if (feature.counters() > 0) {
+                counting.add(feature);
+                countingBase.add(counters);
+                counters += feature.counters();
+            }
+        }
+        this.counterCount = counters;
+        this.counting = counting.toArray(new TrafficFeature[0]);
+        this.countingBase = countingBase.stream().mapToInt(Integer::intValue).toArray();
+        this.names = all.stream().map(TrafficFeature::name).toList();
+    }
+
+    // Same cechy wbudowane - dla instancji tworzonych ręcznie (testy, benchmarki)
+    public static FeatureRegistry core() {
+        return CORE;
+    }
+
+    public int size() {
+        return features.length;
+    }
+
+    public TrafficFeature feature(int id) {
+        return features[id];
+    }
+
+    public String name(int id) {
+        return features[id].name();
+    }
+
+    // Nazwy w kolejności identyfikatorów
+    public List<String> names() {
+        return names;
+    }
+
+    // Identyfikator cechy albo -1
+    public int id(String name) {
+        return ids.getOrDefault(name, -1);
+    }
+
+    // Łączna liczba własnych liczników cech w oknie
+    int counterCount() {
+        return counterCount;
+    }
+
+    // Ścieżka pakietu shardu - pusta pętla, gdy żadna cecha nie ma własnych liczników
+    void count(PacketView packet, int weight, long[] counters) {
+        for (int i = 0; i < counting.length; i++) {
+            counting[i].count(packet, weight, counters, countingBase[i]);
+        }
+    }
+
+    public double[] values(FeatureWindow window) {
+        double[] values = new double[features.length];
+        for (int id = 0; id < features.length; id++) {
+            values[id] = features[id].value(window, counterBase[id]);
+        }
+        return values;
+    }
+
+    // Wartości jednostki do out; host bez ruchu w oknie - pusty HostFeatures
+    void hostValues(HostFeatures host, double rateScale, double[] out) {
+        for (int id = 0; id < features.length; id++) {
+            out[id] = features[id].hostValue(host, rateScale);
+        }
+    }
+
+    public double[] fleetValues(WindowSummary summary) {
+        double[] values = new double[features.length];
+        for (int id = 0; id < features.length; id++) {
+            values[id] = features[id].fleetValue(summary);
+        }
+        return values;
+    }
+
+    // Sloty cech w danym baseline (slots[id]) - rozwiązywane raz na instancję baseline, nie w ticku
+    public int[] slotsIn(BaselineService baseline) {
+        int[] slots = new int[features.length];
+        for (int id = 0; id < features.length; id++) {
+            slots[id] = baseline.slot(features[id].name());
+        }
+        return slots;
+    }
+}
@@ -0,0 +1,292 @@
+package com.ids.ids_controller.service;
+
+import com.ids.ids_controller.parser.PacketView;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Akumulator cech dla jednego wątku piszącego (połączenia sondy albo wątku roboczego).
+ *
+ * Liczniki okna są podwójnie buforowane: piszący zapisuje do bufora bieżącej epoki (epoch & 1),
+ * a agregator po przełączeniu epoki czyta zamrożony bufor poprzedniej bez żadnej blokady.
+ * Protokół (FeatureExtractor.enter/exit): piszący ogłasza w writerEpoch epokę, w której pisze,
+ * i ponawia odczyt licznika epok, jeśli ten zmienił się w międzyczasie; agregator po przełączeniu
+ * czeka tylko, aż writerEpoch przestanie wskazywać starą epokę - najwyżej czas jednej paczki/partii.
+ *
+ * Tablica przepływów trwa między oknami i nie jest buforowana - obsługuje ją tylko piszący
+ * (okno przepływów przełączane na początku pierwszej paczki nowej epoki); blokada shardu chroni ją
+ * przed odczytem z API (topFlows).
+ *
+ * Tak samo trwa stan uzgodnień TCP (HalfOpenTracker): wyniki uzgodnień trafiają do bufora bieżącej
+ * epoki, a liczba półotwartych jest stanem (nie licznikiem) - globalna publikowana po każdej paczce,
+ * per host zapisywana na początku pierwszej paczki nowej epoki.
+ */
+final class FeatureShard {
+
+    static final long IDLE = -1;
+    private static final int OVERFLOW_FLOW_PRECISION = 12;
+
+    final ReentrantLock lock = new ReentrantLock();
+    volatile long writerEpoch = IDLE;
+    volatile boolean closed;
+
+    private final ProtectedHosts protectedHosts;
+    private final FeatureRegistry features;
+    // Przepływy 5-tuple - trwają między tickami, wygasają po bezczynności
+    private final FlowTable flowTable;
+    // Uzgodnienia TCP w toku - trwają między tickami, wygasają po ids.tcp.handshake-timeout-seconds
+    private final HalfOpenTracker handshakes;
+    private final Buffer[] buffers = new Buffer[2];
+    private Buffer current;
+    private long flowEpoch = IDLE;
+
+    // Statystyki tablicy przepływów publikowane po każdej paczce (czytane przez agregator bez blokady)
+    private volatile int publishedFlowTableSize;
+    private volatile long publishedFlowTableOverflows;
+    private volatile int publishedHalfOpen;
+    private volatile long publishedHalfOpenEvictions;
+
+    FeatureShard(Settings settings) {
+        this.protectedHosts = settings.protectedHosts();
+        this.features = settings.features();
+        this.flowTable = new FlowTable(settings.flowCapacity(), settings.flowIdleTimeoutMicros());
+        this.handshakes = new HalfOpenTracker(settings.halfOpenCapacity(), settings.handshakeTimeoutMicros(),
+                settings.maxHosts(), new HandshakeOutcomes());
+        buffers[0] = new Buffer(settings);
+        buffers[1] = new Buffer(settings);
+        current = buffers[0];
+    }
+
+    // Początek paczki w danej epoce - wołane przez piszącego pod blokadą, po ogłoszeniu writerEpoch
+    void beginWrite(long epoch) {
+        current = buffers[(int) (epoch & 1)];
+        if (epoch != flowEpoch) {
+            flowEpoch = epoch;
+            flowTable.startWindow((int) epoch);
+            Buffer b = current;
+            handshakes.forEachUnit((unit, halfOpen) -> {
+                HostFeatures host = b.hosts.get(unit);
+                if (host != null) host.halfOpen = halfOpen;
+            });
+        }
+    }
+
+    // Koniec paczki - publikacja statystyk tablicy przepływów i uzgodnień
+    void endWrite() {
+        publishedFlowTableSize = flowTable.size();
+        publishedFlowTableOverflows = flowTable.overflows();
+        publishedHalfOpen = handshakes.size();
+        publishedHalfOpenEvictions = handshakes.evictions();
+    }
+
+    void accept(PacketView packet) {
+        if (isTrafficToController(packet)) return;
+
+        Buffer b = current;
+        // Rekord z próbki 1 z N reprezentuje N pakietów - liczniki addytywne mnożone przez wagę,
+        // liczności zbiorów (przepływy, porty) liczone z samej próbki
+        int w = packet.weight();
+        // Bajty na łączu (orig_len/długość IP), nie przechwycone - sonda może wysyłać same nagłówki;
+        // iloczyn w long - wireLength() do ~64 KiB razy waga próbkowania przekracza int
+        long packetSize = (long) packet.wireLength() * w;
+        b.packets += w;
+        b.bytes += packetSize;
+        if (w > 1) b.sampledPackets += w;
+
+        HostFeatures dstHost = null;
+        HostFeatures srcHost = null;
+        if (packet.hasIp()) {
+            long srcIp = packet.srcAddr();
+            long dstIp = packet.dstAddr();
+            long dstUnit = protectedHosts.unitOf(dstIp);
+            long srcUnit = protectedHosts.unitOf(srcIp);
+
+            // Kierunek ruchu
+            if (dstUnit != ProtectedHosts.NONE) {
+                b.inboundBytes += packetSize;
+                dstHost = b.hosts.get(dstUnit);
+            } else if (srcUnit != ProtectedHosts.NONE) {
+                b.outboundBytes += packetSize;
+            }
+            if (srcUnit != ProtectedHosts.NONE && srcUnit != dstUnit) {
+                srcHost = b.hosts.get(srcUnit);
+            }
+            if (dstHost != null) {
+                dstHost.packets += w;
+                dstHost.bytes += packetSize;
+                dstHost.inboundBytes += packetSize;
+            }
+            if (srcHost != null) {
+                srcHost.packets += w;
+                srcHost.bytes += packetSize;
+                srcHost.outboundBytes += packetSize;
+            }
+
+            // Unikalne przepływy (Flows); nie zmieściły się w tablicy - szkic okna (globalnie)
+            // i górne oszacowanie per host (każdy taki pakiet jako przepływ)
+            int flow = flowTable.record(packet, packetSize);
+            if (flow == FlowTable.NEW_IN_WINDOW) {
+                b.activeFlows++;
+            } else if (flow == FlowTable.OVERFLOW) {
+                b.overflowFlows.addHash(flowTable.lastHash());
+            }
+            if (flow != FlowTable.UPDATED) {
+                if (dstHost != null) dstHost.flows++;
+                if (srcHost != null) srcHost.flows++;
+            }
+            b.talkers.record(srcIp, dstIp, packetSize, w);
+
+            // Uzgodnienia TCP - rekord z próbki nie mówi nic o pozostałych pakietach połączenia
+            if (w == 1 && packet.isTcp()) {
+                handshakes.record(packet, dstUnit);
+            }
+        }
+
+        if (packet.isTcp()) {
+            // SYN Flood
+            if (packet.isSyn() && !packet.isAck()) {
+                b.syns += w;
+                if (dstHost != null) dstHost.syns += w;
+                if (packet.hasIp()) {
+                    b.talkers.recordSyn(packet.srcAddr(), packet.dstAddr(), w);
+                }
+            }
+
+            // NMAP / Entropia Portów
+            if (packet.hasIp()) {
+                b.portDiversity.add(packet.srcAddr(), packet.dstPort());
+                if (dstHost != null) b.hosts.addPort(dstHost, packet.srcAddr(), packet.dstPort());
+            }
+        }
+
+        if (packet.isIcmpEchoRequest()) {
+            b.icmps += w;
+            if (dstHost != null) dstHost.icmps += w;
+        }
+
+        // Cechy z własnymi licznikami (TrafficFeature.count)
+        features.count(packet, w, b.counters);
+    }
+
+    /*
+     * przenosi zamrożony bufor epoki do okna i zeruje go. Wołane przez agregatora bez blokady,
+     * gdy żaden piszący nie jest już w tej epoce - bufor wróci do użycia dopiero za dwie epoki.
+     */
+    void drainInto(FeatureWindow window, long frozenEpoch) {
+        Buffer b = buffers[(int) (frozenEpoch & 1)];
+        window.packets += b.packets;
+        window.sampledPackets += b.sampledPackets;
+        window.bytes += b.bytes;
+        window.inboundBytes += b.inboundBytes;
+        window.outboundBytes += b.outboundBytes;
+        window.syns += b.syns;
+        window.icmps += b.icmps;
+        window.activeFlows += b.activeFlows + (int) b.overflowFlows.estimate();
+        window.flowTableSize += publishedFlowTableSize;
+        window.flowTableOverflows += publishedFlowTableOverflows;
+        window.halfOpen += publishedHalfOpen;
+        window.halfOpenEvictions += publishedHalfOpenEvictions;
+        window.handshakesCompleted += b.handshakesCompleted;
+        window.handshakesFailed += b.handshakesFailed;
+        window.portDiversity.mergeFrom(b.portDiversity);
+        window.talkers.mergeFrom(b.talkers);
+        window.hosts.mergeFrom(b.hosts);
+        for (int i = 0; i < b.counters.length; i++) {
+            window.counters[i] += b.counters[i];
+        }
+        b.clear();
+    }
+
+    // Wołane pod blokadą
+    void topFlows(int limit, List<FlowTable.FlowStats> out) {
+        flowTable.top(limit, out);
+    }
+
+    record Settings(
+            FeatureRegistry features,
+            ProtectedHosts protectedHosts,
+            int maxHosts,
+            int flowCapacity,
+            long flowIdleTimeoutMicros,
+            int halfOpenCapacity,
+            long handshakeTimeoutMicros,
+            PortDiversity.PortDiversitySettings portDiversity,
+            int heavyHitterCapacity
+    ) {}
+
+    private static boolean isTrafficToController(PacketView packet) {
+        return packet.isTcp() && packet.dstPort() == 9000;
+    }
+
+    // Wyniki uzgodnień liczone w epoce, w której zapadły (piszący - ten sam wątek co accept)
+    private final class HandshakeOutcomes implements HalfOpenTracker.Listener {
+        @Override
+        public void completed(long unit) {
+            current.handshakesCompleted++;
+            if (unit != ProtectedHosts.NONE) {
+                HostFeatures host = current.hosts.get(unit);
+                if (host != null) host.handshakesCompleted++;
+            }
+        }
+
+        @Override
+        public void failed(long unit) {
+            current.handshakesFailed++;
+            if (unit != ProtectedHosts.NONE) {
+                HostFeatures host = current.hosts.get(unit);
+                if (host != null) host.handshakesFailed++;
+            }
+        }
+    }
+
+    // Liczniki jednej epoki
+    private static final class Buffer {
+        long packets;
+        long sampledPackets;
+        long bytes;
+        long inboundBytes;
+        long outboundBytes;
+        int syns;
+        int icmps;
+        int activeFlows;
+        // Przepływy odrzucone przez pełną tablicę (szkic HLL, ok. 1.6% błędu)
+        final HyperLogLog overflowFlows = new HyperLogLog(OVERFLOW_FLOW_PRECISION);
+        int handshakesCompleted;
+        int handshakesFailed;
+        // Unikalne porty docelowe per źródło (dokładnie albo szkicem HLL)
+        final PortDiversity portDiversity;
+        // Heavy-hitters okna - kto generuje ruch/SYN-y
+        final TalkerSketches talkers;
+        // Cechy per chroniony host/zakres
+        final HostTable hosts;
+        // Własne liczniki cech z FeatureRegistry
+        final long[] counters;
+
+        Buffer(Settings settings) {
+            this.counters = new long[settings.features().counterCount()];
+            this.portDiversity = PortDiversity.create(settings.portDiversity());
+            this.talkers = new TalkerSketches(settings.heavyHitterCapacity());
+            this.hosts = new HostTable(settings.maxHosts(), settings.portDiversity().precision());
+        }
+
+        void clear() {
+            packets = 0;
+            sampledPackets = 0;
+            bytes = 0;
+            inboundBytes = 0;
+            outboundBytes = 0;
+            syns = 0;
+            icmps = 0;
+            activeFlows = 0;
+            overflowFlows.clear();
+            handshakesCompleted = 0;
+            handshakesFailed = 0;
+            portDiversity.clear();
+            talkers.clear();
+            hosts.clear();
+            Arrays.fill(counters, 0);
+        }
+    }
+}
@@ -0,0 +1,21 @@
+package com.ids.ids_controller.service;
+
+import com.ids.ids_controller.parser.PacketView;
+
+/**
+ * Wejście ekstraktora cech dla jednego źródła rekordów (połączenia sondy).
+ * Dekoder otacza każdą paczkę danych parą begin()/end() - implementacja może w tym czasie
+ * trzymać swój shard lub buforować rekordy dla wątków roboczych.
+ * Instancja jest używana przez jeden wątek naraz.
+ */
+public interface FeatureSink {
+
+    void begin();
+
+    void accept(PacketView packet);
+
+    void end();
+
+    // Wywoływane po zamknięciu połączenia - dane niezebrane przez agregator nie są tracone
+    void close();
+}
@@ -0,0 +1,58 @@
+package com.ids.ids_controller.service;
+
+import com.fasterxml.jackson.annotation.JsonValue;
+
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Wartości cech (albo z-score'y) jednego ticku indeksowane identyfikatorem z FeatureRegistry.
+ * W JSON (alerty, API) - obiekt nazwa -> wartość; NaN (cecha nieoceniana w danym potoku) jest pomijane.
+ * Tablica nie jest kopiowana - właściciel nie może jej zmieniać po utworzeniu wektora.
+ */
+public final class FeatureVector {
+
+    private final FeatureRegistry registry;
+    private final double[] values;
+
+    public FeatureVector(FeatureRegistry registry, double[] values) {
+        if (values.length != registry.size()) {
+            throw new IllegalArgumentException("Wektor cech ma " + values.length + " wartości, rejestr " + registry.size());
+        }
+        this.registry = registry;
+        this.values = values;
+    }
+
+    public double get(int id) {
+        return values[id];
+    }
+
+    public double get(CoreFeature feature) {
+        return values[feature.id()];
+    }
+
+    // NaN dla cechy spoza rejestru
+    public double get(String name) {
+        int id = registry.id(name);
+        return id < 0 ? Double.NaN : values[id];
+    }
+
+    public int size() {
+        return values.length;
+    }
+
+    @JsonValue
+    public Map<String, Double> toMap() {
+        Map<String, Double> map = new LinkedHashMap<>();
+        for (int id = 0; id < values.length; id++) {
+            if (!Double.isNaN(values[id])) map.put(registry.name(id), values[id]);
+        }
+        return Collections.unmodifiableMap(map);
+    }
+
+    @Override
+    public String toString() {
+        return toMap().toString();
+    }
+}
@@ -0,0 +1,110 @@
+package com.ids.ids_controller.service;
+
+/**
+ * Cechy zebrane ze wszystkich shardów w jednym oknie (ticku) agregatora.
+ */
+public class FeatureWindow {
+
+    long packets;
+    long sampledPackets; // część packets oszacowana z próbki 1 z N (rekordy z wagą > 1)
+    long bytes;
+    long inboundBytes;
+    long outboundBytes;
+    int syns;
+    int icmps;
+    int activeFlows;
+    long flowTableSize;
+    long flowTableOverflows;
+    int halfOpen;
+    long halfOpenEvictions;
+    int handshakesCompleted;
+    int handshakesFailed;
+    final PortDiversity portDiversity;
+    final TalkerSketches talkers;
+    final HostTable hosts;
+    final long[] counters; // własne liczniki cech (TrafficFeature.counters())
+    private final FeatureRegistry registry;
+    private final long durationNanos;
+
+    FeatureWindow(FeatureRegistry registry, PortDiversity portDiversity, TalkerSketches talkers, HostTable hosts,
+                  long durationNanos) {
+        this.registry = registry;
+        this.counters = new long[registry.counterCount()];
+        this.portDiversity = portDiversity;
+        this.talkers = talkers;
+        this.hosts = hosts;
+        this.durationNanos = durationNanos;
+    }
+
+    public FeatureRegistry getRegistry() { return registry; }
+
+    // Licznik cechy zsumowany ze wszystkich shardów (indeks = base cechy + numer licznika)
+    public long counter(int index) { return counters[index]; }
+
+    // Faktyczna długość okna (od poprzedniego przełączenia epoki)
+    public long getDurationNanos() { return durationNanos; }
+
+    // Przelicza licznik okna na wartość na sekundę - cechy *_PER_SEC niezależne od długości ticku
+    public double perSecond(long count) {
+        return durationNanos <= 0 ? count : count * 1e9 / durationNanos;
+    }
+
+    public int getSynCount() { return syns; }
+    public int getIcmpCount() { return icmps; }
+    public long getPacketCount() { return packets; }
+
+    // Udział pakietów okna oszacowanych z próbkowania (0 - całe okno policzone dokładnie)
+    public double getSampledShare() {
+        return packets == 0 ? 0 : (double) sampledPackets / packets;
+    }
+
+    public double getAvgPacketSize() {
+        return packets == 0 ? 0 : (double) bytes / packets;
+    }
+
+    public double getTrafficAsymmetry() {
+        double in = inboundBytes;
+        double out = outboundBytes;
+        if (out == 0) return in; // Unikamy dzielenia przez zero
+        return in / out; // > 1 ruch przychodzący dominuje (DDoS), < 1 wychodzący (Exfiltration)
+    }
+
+    // Przepływy (5-tuple) widziane w tym oknie
+    public int getActiveFlowsCount() {
+        return activeFlows;
+    }
+
+    public long getFlowTableSize() { return flowTableSize; }
+    public long getFlowTableOverflows() { return flowTableOverflows; }
+
+    // Połączenia TCP po SYN bez zakończonego uzgodnienia (stan po ostatniej paczce shardów)
+    public int getHalfOpenCount() { return halfOpen; }
+    public long getHalfOpenEvictions() { return halfOpenEvictions; }
+
+    // Udział uzgodnień zakończonych ACK wśród rozstrzygniętych w oknie (1 - brak porzuconych albo brak uzgodnień)
+    public double getHandshakeCompletion() {
+        int resolved = handshakesCompleted + handshakesFailed;
+        return resolved == 0 ? 1 : (double) handshakesCompleted / resolved;
+    }
+
+    // Suma liczby unikalnych portów docelowych dla każdego źródła
+    public int getGlobalPortDiversity() {
+        return (int) Math.min(Integer.MAX_VALUE, portDiversity.globalDiversity());
+    }
+
+    // Liczba chronionych hostów/zakresów z ruchem w tym oknie
+    public int getHostCount() { return hosts.size(); }
+    public long getHostOverflows() { return hosts.overflows(); }
+
+    public TopTalkers getTopTalkers(int k) {
+        return talkers.top(k);
+    }
+
+    // Podsumowanie do wymiany między kontrolerami (ids.cluster) - szkic par o precyzji szkiców portów
+    public WindowSummary summarize(long timestampMillis, int portSketchPrecision) {
+        HyperLogLog pairs = new HyperLogLog(portSketchPrecision);
+        portDiversity.addPairsTo(pairs);
+        return new WindowSummary(timestampMillis, perSecond(syns), perSecond(icmps), packets, bytes,
+                inboundBytes, outboundBytes, activeFlows, halfOpen, handshakesCompleted, handshakesFailed, pairs);
+    }
+}
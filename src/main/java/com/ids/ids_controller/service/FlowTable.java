@@ -0,0 +1,284 @@
+package com.ids.ids_controller.service;
+
+import com.ids.ids_controller.parser.PacketView;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Tablica przepływów (5-tuple) z adresowaniem otwartym na tablicach prymitywów o stałej pojemności.
+ * Przepływy żyją między tickami - wygasają dopiero po okresie bezczynności (czas z nagłówków rekordów PCAP).
+ * record() zgłasza pierwsze pojawienie się przepływu w bieżącym oknie - na tej podstawie shard liczy
+ * aktywne przepływy okna. Przepływ, który nie zmieścił się w pełnej tablicy (OVERFLOW), shard liczy
+ * szkicem po lastHash() - zalew ze spoofowanych źródeł nie zatrzymuje cechy na pojemności tablicy.
+ * Bezczynne przepływy usuwane są przyrostowo (kursor przeglądu), nie pełnym przeglądem na starcie okna.
+ * Nie jest bezpieczna wątkowo - należy do jednego FeatureShard.
+ *
+ * https://en.wikipedia.org/wiki/Linear_probing#Deletion - usuwanie z przesunięciem wstecz (bez "nagrobków")
+ */
+public final class FlowTable {
+
+    private static final int EMPTY = -1;
+    // Przegląd wygasania: cała tablica w SWEEP_WINDOWS oknach (co najmniej MIN_SWEEP slotów na okno),
+    // przy pełnej tablicy dodatkowo FULL_SWEEP slotów przed odrzuceniem przepływu
+    private static final int SWEEP_WINDOWS = 16;
+    private static final int MIN_SWEEP = 1024;
+    private static final int FULL_SWEEP = 64;
+
+    // Wynik record()
+    public static final int OVERFLOW = -1;      // tablica pełna, przepływ pominięty
+    public static final int UPDATED = 0;        // przepływ był już widziany w tym oknie
+    public static final int NEW_IN_WINDOW = 1;  // pierwszy pakiet przepływu w tym oknie
+
+    private final int capacity;
+    private final int mask;
+    private final int maxSize;
+    private final long idleTimeoutMicros;
+
+    private final long[] srcAddr;
+    private final long[] dstAddr;
+    private final int[] ports;      // srcPort << 16 | dstPort
+    private final int[] protocol;   // EMPTY = wolny slot
+    private final long[] packets;
+    private final long[] bytes;
+    private final long[] firstSeen;
+    private final long[] lastSeen;
+    private final int[] lastWindow; // numer okna, w którym przepływ był ostatnio widziany
+
+    private int size;
+    private int window;
+    private long overflows;
+    private long latestTimestamp;
+    private int sweepCursor;
+    private long lastHash;
+
+    public FlowTable(int requestedCapacity, long idleTimeoutMicros) {
+        this.capacity = Integer.highestOneBit(Math.max(16, requestedCapacity - 1) << 1);
+        this.mask = capacity - 1;
+        this.maxSize = (int) (capacity * 0.75);
+        this.idleTimeoutMicros = idleTimeoutMicros;
+
+        srcAddr = new long[capacity];
+        dstAddr = new long[capacity];
+        ports = new int[capacity];
+        protocol = new int[capacity];
+        packets = new long[capacity];
+        bytes = new long[capacity];
+        firstSeen = new long[capacity];
+        lastSeen = new long[capacity];
+        lastWindow = new int[capacity];
+        Arrays.fill(protocol, EMPTY);
+    }
+
+    // Aktualizuje (lub tworzy) przepływ pakietu (length - bajty, już przemnożone przez wagę rekordu).
+    // Zwraca OVERFLOW, UPDATED albo NEW_IN_WINDOW.
+    public int record(PacketView packet, long length) {
+        long src = packet.srcAddr();
+        long dst = packet.dstAddr();
+        int portPair = (Math.max(packet.srcPort(), 0) << 16) | Math.max(packet.dstPort(), 0);
+        int proto = packet.protocol() & 0xff;
+        long ts = packet.timestampMicros();
+        if (ts > latestTimestamp) latestTimestamp = ts;
+
+        long h = hash(src, dst, portPair, proto);
+        lastHash = h;
+        int i = find(h, src, dst, portPair, proto);
+        if (protocol[i] != EMPTY) {
+            return touch(i, packet.weight(), length, ts);
+        }
+
+        if (size >= maxSize) {
+            // Przegląd może przesunąć wpisy - wolny slot szukany ponownie
+            sweep(FULL_SWEEP, latestTimestamp - idleTimeoutMicros);
+            if (size >= maxSize) {
+                overflows++;
+                return OVERFLOW;
+            }
+            i = find(h, src, dst, portPair, proto);
+        }
+        srcAddr[i] = src;
+        dstAddr[i] = dst;
+        ports[i] = portPair;
+        protocol[i] = proto;
+        packets[i] = 0;
+        bytes[i] = 0;
+        firstSeen[i] = ts;
+        lastWindow[i] = window - 1;
+        size++;
+        return touch(i, packet.weight(), length, ts);
+    }
+
+    // Slot przepływu albo pierwszy wolny slot jego sekwencji sondowania
+    private int find(long h, long src, long dst, int portPair, int proto) {
+        int i = (int) h & mask;
+        while (protocol[i] != EMPTY) {
+            if (srcAddr[i] == src && dstAddr[i] == dst && ports[i] == portPair && protocol[i] == proto) {
+                return i;
+            }
+            i = (i + 1) & mask;
+        }
+        return i;
+    }
+
+    // Hash przepływu z ostatniego record() - dla szkicu przepływów odrzuconych przy pełnej tablicy
+    public long lastHash() {
+        return lastHash;
+    }
+
+    private int touch(int i, int weight, long length, long ts) {
+        packets[i] += weight;
+        bytes[i] += length;
+        if (ts > lastSeen[i]) lastSeen[i] = ts;
+        if (lastWindow[i] != window) {
+            lastWindow[i] = window;
+            return NEW_IN_WINDOW;
+        }
+        return UPDATED;
+    }
+
+    /*
+     * rozpoczyna nowe okno (numer epoki) i przegląda kolejną część tablicy, usuwając przepływy bezczynne
+     * dłużej niż idleTimeout (względem najnowszego znacznika czasu widzianego przez tablicę). Przepływ
+     * wygasa więc najpóźniej SWEEP_WINDOWS okien po przekroczeniu idleTimeout.
+     */
+    public void startWindow(int newWindow) {
+        window = newWindow;
+        if (size > 0) {
+            sweep(Math.max(MIN_SWEEP, capacity / SWEEP_WINDOWS), latestTimestamp - idleTimeoutMicros);
+        }
+    }
+
+    /*
+     * przegląda slots slotów od kursora. Usunięcie z przesunięciem wstecz przenosi wpisy tylko z pozycji
+     * dalszych w sekwencji na pozycje od kursora - żaden nieprzejrzany wpis nie trafia za kursor.
+     */
+    private void sweep(int slots, long threshold) {
+        int i = sweepCursor;
+        int visited = 0;
+        while (visited < slots && size > 0) {
+            if (protocol[i] != EMPTY && lastSeen[i] < threshold) {
+                delete(i); // do slotu i mógł trafić przesunięty wpis - sprawdzamy go ponownie
+                continue;
+            }
+            i = (i + 1) & mask;
+            visited++;
+        }
+        sweepCursor = i;
+    }
+
+    private void delete(int hole) {
+        protocol[hole] = EMPTY;
+        size--;
+        int j = hole;
+        while (true) {
+            j = (j + 1) & mask;
+            if (protocol[j] == EMPTY) return;
+            int home = (int) hash(srcAddr[j], dstAddr[j], ports[j], protocol[j]) & mask;
+            // wpis z j może wypełnić dziurę, jeśli jego pozycja domowa nie leży cyklicznie w (hole, j]
+            boolean homeInRange = hole <= j ? (home > hole && home <= j) : (home > hole || home <= j);
+            if (!homeInRange) {
+                move(j, hole);
+                hole = j;
+            }
+        }
+    }
+
+    private void move(int from, int to) {
+        srcAddr[to] = srcAddr[from];
+        dstAddr[to] = dstAddr[from];
+        ports[to] = ports[from];
+        protocol[to] = protocol[from];
+        packets[to] = packets[from];
+        bytes[to] = bytes[from];
+        firstSeen[to] = firstSeen[from];
+        lastSeen[to] = lastSeen[from];
+        lastWindow[to] = lastWindow[from];
+        protocol[from] = EMPTY;
+    }
+
+    /*
+     * największe przepływy wg bajtów - selekcja na kopcu min indeksów o rozmiarze limit,
+     * bez kopiowania tablicy przepływów. Dopisuje wyniki do out.
+     */
+    public void top(int limit, List<FlowStats> out) {
+        if (limit <= 0 || size == 0) return;
+        int[] heap = new int[Math.min(limit, size)];
+        int heapSize = 0;
+        for (int i = 0; i < capacity; i++) {
+            if (protocol[i] == EMPTY) continue;
+            if (heapSize < heap.length) {
+                heap[heapSize] = i;
+                siftUp(heap, heapSize++);
+            } else if (bytes[i] > bytes[heap[0]]) {
+                heap[0] = i;
+                siftDown(heap, heapSize);
+            }
+        }
+        List<FlowStats> result = new ArrayList<>(heapSize);
+        for (int k = 0; k < heapSize; k++) {
+            int i = heap[k];
+            result.add(new FlowStats(
+                    PacketView.formatAddress(srcAddr[i]), ports[i] >>> 16,
+                    PacketView.formatAddress(dstAddr[i]), ports[i] & 0xffff,
+                    protocol[i], packets[i], bytes[i], firstSeen[i], lastSeen[i]));
+        }
+        out.addAll(result);
+    }
+
+    private void siftUp(int[] heap, int k) {
+        while (k > 0) {
+            int parent = (k - 1) >>> 1;
+            if (bytes[heap[k]] >= bytes[heap[parent]]) return;
+            swap(heap, k, parent);
+            k = parent;
+        }
+    }
+
+    private void siftDown(int[] heap, int heapSize) {
+        int k = 0;
+        while (true) {
+            int left = 2 * k + 1;
+            if (left >= heapSize) return;
+            int smallest = left + 1 < heapSize && bytes[heap[left + 1]] < bytes[heap[left]] ? left + 1 : left;
+            if (bytes[heap[k]] <= bytes[heap[smallest]]) return;
+            swap(heap, k, smallest);
+            k = smallest;
+        }
+    }
+
+    private static void swap(int[] heap, int a, int b) {
+        int tmp = heap[a];
+        heap[a] = heap[b];
+        heap[b] = tmp;
+    }
+
+    private static long hash(long src, long dst, int ports, int proto) {
+        long h = src * 0x9E3779B97F4A7C15L;
+        h = (h ^ dst) * 0xC2B2AE3D27D4EB4FL;
+        h = (h ^ (((long) ports << 8) | proto)) * 0x165667B19E3779F9L;
+        return h ^ (h >>> 31);
+    }
+
+    // Pozycja domowa przepływu pakietu (testy sekwencji sondowania)
+    int homeSlot(PacketView packet) {
+        int portPair = (Math.max(packet.srcPort(), 0) << 16) | Math.max(packet.dstPort(), 0);
+        return (int) hash(packet.srcAddr(), packet.dstAddr(), portPair, packet.protocol() & 0xff) & mask;
+    }
+
+    public int size() { return size; }
+    public int capacity() { return capacity; }
+    public long overflows() { return overflows; }
+
+    public record FlowStats(
+            String src,
+            int srcPort,
+            String dst,
+            int dstPort,
+            int protocol,
+            long packets,
+            long bytes,
+            long firstSeenMicros,
+            long lastSeenMicros
+    ) {}
+}
@@ -1,34 +1,159 @@
 package com.ids.ids_controller.service;
 
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
 import net.sourceforge.jFuzzyLogic.FIS;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Service;
 
+import java.io.IOException;
+import java.io.InputStream;
+import java.time.Duration;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Ocena prawdopodobieństwa anomalii regułami z anomaly_finder.fcl.
+ *
+ * ids.fuzzy.engine=compiled (domyślnie) - CompiledFuzzyEngine, niezmienny i bezpieczny wątkowo,
+ * więc jedna instancja może oceniać wiele hostów/okien równolegle.
+ * ids.fuzzy.engine=jfuzzylogic - oryginalny FIS z jFuzzyLogic; jego stan jest współdzielony,
+ * dlatego ocena jest serializowana.
+ * Czas każdej oceny trafia do histogramu ids.fuzzy.analyze (tag engine).
+ */
 @Service
 public class FuzzyService {
+    private static final Logger log = LoggerFactory.getLogger(FuzzyService.class);
+
+    private static final String FCL_FILE = "anomaly_finder.fcl";
 
+    private final CompiledFuzzyEngine engine; // null w trybie jfuzzylogic
     private final FIS fis;
+    // Wejście FCL zasilane z-score'em cechy o danym identyfikatorze (FeatureRegistry); -1 / null - brak
+    private final int[] inputForFeature;
+    private final String[] fisInputForFeature;
+    private final int inputCount;
+    private final Timer analyzeTimer;
+    // Wejścia silnika compiled - analyze() bez alokacji na ocenę
+    private final ThreadLocal<double[]> inputScratch;
 
     public FuzzyService() {
-        // Wczytanie pliku FCL z zasobów
-        String fileName = "anomaly_finder.fcl";
-        this.fis = FIS.load(getClass().getClassLoader().getResourceAsStream(fileName), true);
+        this("compiled", FeatureRegistry.core(), new SimpleMeterRegistry());
+    }
+
+    @Autowired
+    public FuzzyService(@Value("${ids.fuzzy.engine:compiled}") String engineName,
+                        FeatureRegistry features,
+                        MeterRegistry meterRegistry) {
+        this.inputForFeature = new int[features.size()];
+        this.fisInputForFeature = new String[features.size()];
+        Arrays.fill(inputForFeature, -1);
+        Set<String> fed = new HashSet<>();
+        if ("jfuzzylogic".equalsIgnoreCase(engineName)) {
+            // Wczytanie pliku FCL z zasobów
+            this.fis = FIS.load(getClass().getClassLoader().getResourceAsStream(FCL_FILE), true);
+            if (fis == null) {
+                throw new RuntimeException("Nie można wczytać pliku FCL: " + FCL_FILE);
+            }
+            this.engine = null;
+            this.inputCount = 0;
+            for (int id = 0; id < features.size(); id++) {
+                String input = features.feature(id).fuzzyInput();
+                if (input != null && fis.getVariable(input) != null) {
+                    fisInputForFeature[id] = input;
+                    fed.add(input);
+                }
+            }
+        } else {
+            this.engine = compile();
+            this.fis = null;
+            List<String> engineInputs = Arrays.asList(engine.inputNames());
+            this.inputCount = engineInputs.size();
+            for (int id = 0; id < features.size(); id++) {
+                int index = engineInputs.indexOf(features.feature(id).fuzzyInput());
+                if (index >= 0) {
+                    inputForFeature[id] = index;
+                    fed.add(engineInputs.get(index));
+                }
+            }
+            for (String input : engineInputs) {
+                if (!fed.contains(input)) {
+                    log.warn("Wejście {} w {} nie ma cechy ruchu - stale 0", input, FCL_FILE);
+                }
+            }
+        }
+        for (int id = 0; id < features.size(); id++) {
+            String input = features.feature(id).fuzzyInput();
+            if (input != null && !fed.contains(input)) {
+                log.warn("Cecha {} wskazuje wejście {}, którego nie ma w {} - tylko baseline i alerty",
+                        features.name(id), input, FCL_FILE);
+            }
+        }
+        int inputs = inputCount;
+        this.inputScratch = ThreadLocal.withInitial(() -> new double[inputs]);
+        this.analyzeTimer = Timer.builder("ids.fuzzy.analyze")
+                .description("Czas jednej oceny prawdopodobieństwa anomalii")
+                .tag("engine", engine != null ? "compiled" : "jfuzzylogic")
+                .publishPercentileHistogram()
+                .minimumExpectedValue(Duration.ofNanos(500))
+                .maximumExpectedValue(Duration.ofMillis(100))
+                .register(meterRegistry);
+        log.info("Silnik logiki rozmytej: {}", engine != null ? "compiled" : "jfuzzylogic");
+    }
 
-        if (fis == null) {
-            throw new RuntimeException("Nie można wczytać pliku FCL: " + fileName);
+    private CompiledFuzzyEngine compile() {
+        try (InputStream in = getClass().getClassLoader().getResourceAsStream(FCL_FILE)) {
+            if (in == null) {
+                throw new RuntimeException("Nie można wczytać pliku FCL: " + FCL_FILE);
+            }
+            return CompiledFuzzyEngine.load(in);
+        } catch (IOException e) {
+            throw new RuntimeException("Nie można wczytać pliku FCL: " + FCL_FILE, e);
         }
     }
 
-    public double analyze(double zSyn, double zIcmp, double zAvgSize,
-                          double zAsym, double zFlows, double zPorts) {
-        fis.setVariable("z_syns", zSyn);
-        fis.setVariable("z_icmps", zIcmp);
-        fis.setVariable("z_avg_size", zAvgSize);
-        fis.setVariable("z_asymmetry", zAsym);
-        fis.setVariable("z_flows", zFlows);
-        fis.setVariable("z_ports", zPorts);
+    // z[id] - z-score cechy o identyfikatorze id z FeatureRegistry
+    public double analyze(double[] z) {
+        long start = System.nanoTime();
+        double probability = engine == null ? analyzeWithFis(z) : engine.evaluate(inputs(z, inputScratch.get()));
+        analyzeTimer.record(System.nanoTime() - start, TimeUnit.NANOSECONDS);
+        return probability;
+    }
+
+    /*
+     * reguły, które zadziałały dla danych z-score'ów (opis "reguła -> termin (stopień)") - dowód do alertów.
+     * Tylko silnik compiled; w trybie jfuzzylogic lista jest pusta.
+     */
+    public List<String> firedRules(double[] z) {
+        if (engine == null) return List.of();
+        return engine.firedRules(inputs(z, new double[inputCount])).stream()
+                .map(r -> "RULE " + r.rule() + " -> " + r.outputTerm() + " (" + String.format(Locale.ROOT, "%.2f", r.degree()) + ")")
+                .toList();
+    }
+
+    // Wejścia w kolejności VAR_INPUT silnika
+    private double[] inputs(double[] z, double[] inputs) {
+        for (int id = 0; id < inputForFeature.length; id++) {
+            if (inputForFeature[id] >= 0) inputs[inputForFeature[id]] = z[id];
+        }
+        return inputs;
+    }
+
+    private synchronized double analyzeWithFis(double[] z) {
+        for (int id = 0; id < fisInputForFeature.length; id++) {
+            if (fisInputForFeature[id] != null) fis.setVariable(fisInputForFeature[id], z[id]);
+        }
 
         fis.evaluate();
 
         return fis.getVariable("anomaly_probability").getValue();
     }
-}
\ No newline at end of file
+}
@@ -0,0 +1,322 @@
+package com.ids.ids_controller.service;
+
+import com.ids.ids_controller.parser.PacketView;
+
+import java.util.Arrays;
+
+/**
+ * Stan uzgodnień TCP (SYN -> SYN/ACK -> ACK) per połączenie klient -> serwer. Zakończone uzgodnienie
+ * i uzgodnienie porzucone (upływ ids.tcp.handshake-timeout-seconds albo RST) zgłaszane są do Listenera,
+ * a liczba wpisów to bieżąca liczba połączeń półotwartych.
+ *
+ * Wpisy leżą w puli o stałej pojemności (indeksy stabilne), wyszukiwane przez kubełki z łańcuchami.
+ * Terminy wygaśnięcia trzyma hierarchiczne koło czasu (3 poziomy po 64 sloty, tick 100 ms czasu
+ * przechwytu): wstawienie i usunięcie to O(1), upływ czasu odwiedza tylko mijane sloty, a wpisy
+ * z wyższych poziomów schodzą niżej, gdy ich slot staje się bieżący. Przy pełnej puli wypierany jest
+ * wpis o najbliższym terminie - zalew SYN-ów ze sfałszowanych adresów nie zwiększa pamięci ani kosztu pakietu.
+ *
+ * Czas płynie wg znaczników rekordów PCAP (jak wygaszanie przepływów). Nie jest bezpieczna wątkowo -
+ * należy do jednego FeatureShard.
+ *
+ * http://www.cs.columbia.edu/~nahum/w6998/papers/sosp87-timing-wheels.pdf - Varghese, Lauck: Hashed and Hierarchical Timing Wheels
+ */
+final class HalfOpenTracker {
+
+    interface Listener {
+        void completed(long unit);
+        void failed(long unit);
+    }
+
+    interface UnitCounts {
+        void accept(long unit, int halfOpen);
+    }
+
+    static final long TICK_MICROS = 100_000;
+
+    private static final int NIL = -1;
+    private static final byte SYN_SENT = 1;
+    private static final byte SYN_ACKED = 2;
+
+    private static final int WHEEL_BITS = 6;
+    private static final int WHEEL_SLOTS = 1 << WHEEL_BITS;
+    private static final int WHEEL_MASK = WHEEL_SLOTS - 1;
+    private static final int LEVELS = 3;
+    private static final long WHEEL_SPAN = 1L << (WHEEL_BITS * LEVELS); // ticki obejmowane przez koło
+    private static final long UNIT_EMPTY = Long.MIN_VALUE; // klucze jednostek są nieujemne
+
+    private final int capacity;
+    private final long timeoutTicks;
+    private final Listener listener;
+
+    // Pula wpisów
+    private final long[] client;
+    private final long[] server;
+    private final int[] ports;      // clientPort << 16 | serverPort
+    private final byte[] state;
+    private final long[] unit;      // jednostka oceny serwera albo ProtectedHosts.NONE
+    private final long[] deadline;  // tick wygaśnięcia
+    private final int[] chainNext;
+    private final int[] wheelNext;
+    private final int[] wheelPrev;
+    private final int[] wheelSlot;  // poziom * 64 + indeks slotu
+    private int freeHead;
+    private int size;
+
+    private final int[] buckets;
+    private final int bucketMask;
+    private final int[] slotHeads = new int[LEVELS * WHEEL_SLOTS];
+
+    private long now = Long.MIN_VALUE; // bieżący tick koła (MIN_VALUE - przed pierwszym rekordem)
+    private long evictions;
+
+    // Półotwarte per chroniona jednostka: adresowanie otwarte, klucze nie są usuwane (najwyżej maxUnits)
+    private final long[] unitKeys;
+    private final int[] unitCounts;
+    private final int unitMask;
+    private final int maxUnits;
+    private int unitSize;
+
+    HalfOpenTracker(int requestedCapacity, long timeoutMicros, int maxUnits, Listener listener) {
+        this.capacity = Math.max(16, requestedCapacity);
+        this.timeoutTicks = Math.max(1, timeoutMicros / TICK_MICROS);
+        if (timeoutTicks >= WHEEL_SPAN) {
+            throw new IllegalArgumentException("ids.tcp.handshake-timeout-seconds poza zakresem koła czasu: " + timeoutMicros / 1_000_000);
+        }
+        this.listener = listener;
+
+        client = new long[capacity];
+        server = new long[capacity];
+        ports = new int[capacity];
+        state = new byte[capacity];
+        unit = new long[capacity];
+        deadline = new long[capacity];
+        chainNext = new int[capacity];
+        wheelNext = new int[capacity];
+        wheelPrev = new int[capacity];
+        wheelSlot = new int[capacity];
+        for (int e = 0; e < capacity; e++) {
+            chainNext[e] = e + 1 < capacity ? e + 1 : NIL; // lista wolnych wpisów
+        }
+        freeHead = 0;
+
+        int bucketCount = Integer.highestOneBit(capacity - 1) << 1;
+        buckets = new int[bucketCount];
+        bucketMask = bucketCount - 1;
+        Arrays.fill(buckets, NIL);
+        Arrays.fill(slotHeads, NIL);
+
+        this.maxUnits = maxUnits;
+        int unitCapacity = Integer.highestOneBit(Math.max(8, maxUnits) * 2 - 1) << 1;
+        unitKeys = new long[unitCapacity];
+        unitCounts = new int[unitCapacity];
+        unitMask = unitCapacity - 1;
+        Arrays.fill(unitKeys, UNIT_EMPTY);
+    }
+
+    // Pakiet TCP z adresami IP; serverUnit - jednostka oceny adresu docelowego (dla nowego SYN-a)
+    void record(PacketView packet, long serverUnit) {
+        advance(packet.timestampMicros());
+        int flags = packet.tcpFlags();
+        long src = packet.srcAddr();
+        long dst = packet.dstAddr();
+
+        if ((flags & PacketView.TCP_RST) != 0) {
+            if (size == 0) return;
+            // Odmowa serwera albo porzucenie przez klienta - uzgodnienie nieudane od razu
+            int e = find(dst, src, portPair(packet.dstPort(), packet.srcPort()));
+            if (e == NIL) e = find(src, dst, portPair(packet.srcPort(), packet.dstPort()));
+            if (e != NIL) fail(e);
+        } else if ((flags & PacketView.TCP_SYN) != 0) {
+            if ((flags & PacketView.TCP_ACK) == 0) {
+                open(src, dst, portPair(packet.srcPort(), packet.dstPort()), serverUnit);
+            } else if (size > 0) {
+                int e = find(dst, src, portPair(packet.dstPort(), packet.srcPort()));
+                if (e != NIL && state[e] == SYN_SENT) state[e] = SYN_ACKED;
+            }
+        } else if ((flags & PacketView.TCP_ACK) != 0 && size > 0) {
+            int e = find(src, dst, portPair(packet.srcPort(), packet.dstPort()));
+            if (e != NIL && state[e] == SYN_ACKED) {
+                listener.completed(unit[e]);
+                remove(e);
+            }
+        }
+    }
+
+    int size() {
+        return size;
+    }
+
+    // Wpisy wyparte przy pełnej puli (liczone też jako nieudane uzgodnienia)
+    long evictions() {
+        return evictions;
+    }
+
+    void forEachUnit(UnitCounts action) {
+        for (int i = 0; i < unitKeys.length; i++) {
+            if (unitKeys[i] != UNIT_EMPTY && unitCounts[i] > 0) action.accept(unitKeys[i], unitCounts[i]);
+        }
+    }
+
+    private static int portPair(int clientPort, int serverPort) {
+        return (clientPort << 16) | serverPort;
+    }
+
+    private void open(long c, long s, int p, long serverUnit) {
+        if (size > 0 && find(c, s, p) != NIL) return; // retransmisja SYN-a - termin liczony od pierwszego
+        if (size == capacity) {
+            evictions++;
+            fail(oldest());
+        }
+        int e = freeHead;
+        freeHead = chainNext[e];
+        client[e] = c;
+        server[e] = s;
+        ports[e] = p;
+        state[e] = SYN_SENT;
+        unit[e] = serverUnit;
+        deadline[e] = now + timeoutTicks;
+        int b = bucket(c, s, p);
+        chainNext[e] = buckets[b];
+        buckets[b] = e;
+        link(e, slotFor(deadline[e]));
+        addUnit(serverUnit, 1);
+        size++;
+    }
+
+    private void fail(int e) {
+        listener.failed(unit[e]);
+        remove(e);
+    }
+
+    private void remove(int e) {
+        int b = bucket(client[e], server[e], ports[e]);
+        if (buckets[b] == e) {
+            buckets[b] = chainNext[e];
+        } else {
+            int prev = buckets[b];
+            while (chainNext[prev] != e) prev = chainNext[prev];
+            chainNext[prev] = chainNext[e];
+        }
+        unlink(e);
+        addUnit(unit[e], -1);
+        chainNext[e] = freeHead;
+        freeHead = e;
+        size--;
+    }
+
+    private int find(long c, long s, int p) {
+        for (int e = buckets[bucket(c, s, p)]; e != NIL; e = chainNext[e]) {
+            if (client[e] == c && server[e] == s && ports[e] == p) return e;
+        }
+        return NIL;
+    }
+
+    private int bucket(long c, long s, int p) {
+        long h = c * 0x9E3779B97F4A7C15L;
+        h = (h ^ s) * 0xC2B2AE3D27D4EB4FL;
+        h = (h ^ p) * 0x165667B19E3779F9L;
+        return (int) (h ^ (h >>> 31)) & bucketMask;
+    }
+
+    // --- koło czasu ---
+
+    /*
+     * przesuwa koło do ticku znacznika czasu, wygaszając mijane terminy. Bez wpisów - sam skok;
+     * przerwa dłuższa niż całe koło (np. luka w odtwarzanym pliku) wygasza wszystko bez odwiedzania slotów.
+     */
+    private void advance(long timestampMicros) {
+        long target = timestampMicros / TICK_MICROS;
+        if (now == Long.MIN_VALUE || size == 0) {
+            if (target > now) now = target;
+            return;
+        }
+        if (target - now >= WHEEL_SPAN) {
+            for (int slot = 0; slot < slotHeads.length; slot++) {
+                while (slotHeads[slot] != NIL) fail(slotHeads[slot]);
+            }
+            now = target;
+            return;
+        }
+        while (now < target && size > 0) {
+            now++;
+            if ((now & (WHEEL_SLOTS * WHEEL_SLOTS - 1)) == 0) {
+                cascade(2 * WHEEL_SLOTS + (int) ((now >>> (2 * WHEEL_BITS)) & WHEEL_MASK));
+            }
+            if ((now & WHEEL_MASK) == 0) {
+                cascade(WHEEL_SLOTS + (int) ((now >>> WHEEL_BITS) & WHEEL_MASK));
+            }
+            int slot = (int) (now & WHEEL_MASK);
+            while (slotHeads[slot] != NIL) fail(slotHeads[slot]);
+        }
+        if (target > now) now = target;
+    }
+
+    // Przenosi wpisy slotu wyższego poziomu na niższe (albo wygasza te, których termin już minął)
+    private void cascade(int slot) {
+        int e = slotHeads[slot];
+        slotHeads[slot] = NIL;
+        while (e != NIL) {
+            int next = wheelNext[e];
+            if (deadline[e] <= now) {
+                wheelSlot[e] = NIL; // już odpięty od slotu
+                fail(e);
+            } else {
+                link(e, slotFor(deadline[e]));
+            }
+            e = next;
+        }
+    }
+
+    private int slotFor(long due) {
+        long delta = due - now;
+        if (delta < WHEEL_SLOTS) return (int) (due & WHEEL_MASK);
+        if (delta < WHEEL_SLOTS * WHEEL_SLOTS) return WHEEL_SLOTS + (int) ((due >>> WHEEL_BITS) & WHEEL_MASK);
+        return 2 * WHEEL_SLOTS + (int) ((due >>> (2 * WHEEL_BITS)) & WHEEL_MASK);
+    }
+
+    private void link(int e, int slot) {
+        int head = slotHeads[slot];
+        wheelNext[e] = head;
+        wheelPrev[e] = NIL;
+        if (head != NIL) wheelPrev[head] = e;
+        slotHeads[slot] = e;
+        wheelSlot[e] = slot;
+    }
+
+    private void unlink(int e) {
+        int slot = wheelSlot[e];
+        if (slot == NIL) return;
+        if (wheelPrev[e] != NIL) wheelNext[wheelPrev[e]] = wheelNext[e];
+        else slotHeads[slot] = wheelNext[e];
+        if (wheelNext[e] != NIL) wheelPrev[wheelNext[e]] = wheelPrev[e];
+        wheelSlot[e] = NIL;
+    }
+
+    // Wpis o najbliższym terminie (z dokładnością do slotu) - najwyżej 3 * 64 odwiedzone sloty
+    private int oldest() {
+        for (int level = 0; level < LEVELS; level++) {
+            long cursor = now >>> (level * WHEEL_BITS);
+            for (int i = 1; i <= WHEEL_SLOTS; i++) {
+                int head = slotHeads[level * WHEEL_SLOTS + (int) ((cursor + i) & WHEEL_MASK)];
+                if (head != NIL) return head;
+            }
+        }
+        throw new IllegalStateException("Pełna pula bez wpisów w kole czasu");
+    }
+
+    private void addUnit(long key, int delta) {
+        if (key == ProtectedHosts.NONE) return;
+        int i = (int) HyperLogLog.hash(key) & unitMask;
+        while (unitKeys[i] != UNIT_EMPTY) {
+            if (unitKeys[i] == key) {
+                unitCounts[i] = Math.max(0, unitCounts[i] + delta);
+                return;
+            }
+            i = (i + 1) & unitMask;
+        }
+        if (delta < 0 || unitSize >= maxUnits) return;
+        unitKeys[i] = key;
+        unitCounts[i] = delta;
+        unitSize++;
+    }
+}
@@ -0,0 +1,90 @@
+package com.ids.ids_controller.service;
+
+/**
+ * Cechy jednej jednostki oceny (chroniony host albo zakres) w jednym oknie.
+ * Odpowiedniki cech globalnych liczone z perspektywy hosta: ruch do/od niego, SYN-y i pingi
+ * kierowane do niego, przepływy z jego udziałem oraz liczba unikalnych par (źródło, port docelowy)
+ * kierowanych do niego (szkic HLL tworzony przy pierwszym pakiecie TCP). Nie jest bezpieczna wątkowo.
+ * Publiczne odczyty - dla TrafficFeature.hostValue.
+ */
+public final class HostFeatures {
+
+    long unit;
+    long packets;
+    long bytes;
+    long inboundBytes;
+    long outboundBytes;
+    int syns;
+    int icmps;
+    int flows;
+    int halfOpen;             // stan na początku okna
+    int handshakesCompleted;
+    int handshakesFailed;
+    private HyperLogLog ports;
+
+    void reset(long unit) {
+        this.unit = unit;
+        packets = 0;
+        bytes = 0;
+        inboundBytes = 0;
+        outboundBytes = 0;
+        syns = 0;
+        icmps = 0;
+        flows = 0;
+        halfOpen = 0;
+        handshakesCompleted = 0;
+        handshakesFailed = 0;
+        if (ports != null) ports.clear();
+    }
+
+    void addPort(long srcAddr, int dstPort, int precision) {
+        if (ports == null) ports = new HyperLogLog(precision);
+        ports.addHash(HyperLogLog.hash(srcAddr * 65537 + dstPort));
+    }
+
+    void mergeFrom(HostFeatures other) {
+        packets += other.packets;
+        bytes += other.bytes;
+        inboundBytes += other.inboundBytes;
+        outboundBytes += other.outboundBytes;
+        syns += other.syns;
+        icmps += other.icmps;
+        flows += other.flows;
+        halfOpen += other.halfOpen;
+        handshakesCompleted += other.handshakesCompleted;
+        handshakesFailed += other.handshakesFailed;
+        if (other.ports != null) {
+            if (ports == null) ports = new HyperLogLog(other.ports.precision());
+            ports.merge(other.ports);
+        }
+    }
+
+    public long packets() { return packets; }
+    public long bytes() { return bytes; }
+    public long inboundBytes() { return inboundBytes; }
+    public long outboundBytes() { return outboundBytes; }
+    public int syns() { return syns; }
+    public int icmps() { return icmps; }
+    public int flows() { return flows; }
+    public int halfOpen() { return halfOpen; }
+
+    public double avgPacketSize() {
+        return packets == 0 ? 0 : (double) bytes / packets;
+    }
+
+    // Jak FeatureWindow.getTrafficAsymmetry, ale względem tego hosta
+    public double asymmetry() {
+        if (outboundBytes == 0) return inboundBytes;
+        return (double) inboundBytes / outboundBytes;
+    }
+
+    // Jak FeatureWindow.getHandshakeCompletion, ale dla połączeń do tego hosta
+    public double handshakeCompletion() {
+        int resolved = handshakesCompleted + handshakesFailed;
+        return resolved == 0 ? 1 : (double) handshakesCompleted / resolved;
+    }
+
+    public int portDiversity() {
+        return ports == null ? 0 : (int) Math.min(Integer.MAX_VALUE, ports.estimate());
+    }
+}
@@ -0,0 +1,11 @@
+package com.ids.ids_controller.service;
+
+/**
+ * Wynik oceny jednego chronionego hosta/zakresu w ticku - cechy okna i prawdopodobieństwo anomalii.
+ * Cechy nieoceniane per host (hostValue = NaN) nie występują w features.
+ */
+public record HostScore(
+        String host,
+        double anomalyProbability,
+        FeatureVector features
+) {}
@@ -0,0 +1,265 @@
+package com.ids.ids_controller.service;
+
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import jakarta.annotation.PreDestroy;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Ocena anomalii per chroniony host/zakres. Każda jednostka ma własny baseline (krótsze okno niż globalny,
+ * ids.hosts.baseline-window-size) i jest oceniana tym samym FuzzyService co ruch globalny.
+ * Jednostki raz widziane są oceniane w każdym ticku (także z zerowym ruchem), tak jak cechy globalne,
+ * aż do ids.hosts.idle-windows kolejnych okien bez ruchu - wtedy stan (z baseline) jest usuwany,
+ * a limit ids.hosts.max-tracked obejmuje tylko aktywne jednostki.
+ * Baseline jednostek można wyeksportować (checkpoint) i odtworzyć po restarcie - odtworzony baseline
+ * jest przypinany przy pierwszym ruchu jednostki, a niepodjęte wygasają po ids.hosts.idle-windows oknach.
+ * Ocena rozkładana jest na wątki puli ForkJoin - stany hostów są rozłączne, a silnik rozmyty bezstanowy.
+ */
+@Service
+public class HostScoringService implements BaselinePersistence.HostBaselines {
+    private static final Logger log = LoggerFactory.getLogger(HostScoringService.class);
+
+    private static final int MAX_LOGGED_ALERTS = 10;
+    private static final int SPLIT_THRESHOLD = 64; // liczba hostów oceniana w jednym zadaniu
+    // Cechy jednostki bez ruchu w oknie (zera, komplet uzgodnień)
+    private static final HostFeatures IDLE = new HostFeatures();
+
+    private final FuzzyService fuzzyService;
+    private final AlertService alertService;
+    // Wzorzec baseline per host - te same tryby z-score co globalny
+    private final BaselineService baselineTemplate;
+    private final int baselineWindow;
+    private final int maxHosts;
+    private final int idleWindows;
+    private final ForkJoinPool pool;
+    private final Timer scoringTimer;
+
+    // Dostęp tylko z wątku ticku agregatora
+    private final Map<Long, HostState> states = new HashMap<>();
+    private volatile List<HostScore> lastScores = List.of();
+    // Stany po ostatniej ocenie - eksport baseline z innego wątku (checkpoint)
+    private volatile HostState[] tracked = new HostState[0];
+    // Baseline odtworzone po restarcie, czekające na pierwszy ruch jednostki
+    private final Map<Long, List<BaselineService.FeatureState>> restored = new ConcurrentHashMap<>();
+    private int windowsSinceRestore;
+
+    public HostScoringService(FuzzyService fuzzyService, AlertService alertService, BaselineService baselineService,
+                              @Value("${ids.hosts.baseline-window-size:300}") int baselineWindow,
+                              @Value("${ids.hosts.scoring-parallelism:0}") int parallelism,
+                              @Value("${ids.hosts.max-tracked:4096}") int maxHosts,
+                              @Value("${ids.hosts.idle-windows:600}") int idleWindows,
+                              MeterRegistry meterRegistry) {
+        this.fuzzyService = fuzzyService;
+        this.alertService = alertService;
+        this.baselineTemplate = baselineService;
+        this.baselineWindow = baselineWindow;
+        this.maxHosts = maxHosts;
+        this.idleWindows = idleWindows;
+        this.pool = new ForkJoinPool(parallelism > 0 ? parallelism : Runtime.getRuntime().availableProcessors());
+        this.scoringTimer = Timer.builder("ids.hosts.scoring")
+                .description("Czas oceny wszystkich jednostek w jednym ticku")
+                .publishPercentileHistogram()
+                .register(meterRegistry);
+        Gauge.builder("ids.hosts.tracked", this, s -> s.lastScores.size())
+                .description("Liczba ocenianych jednostek (hostów/zakresów)")
+                .register(meterRegistry);
+    }
+
+    // Ocenia wszystkie znane jednostki na podstawie okna (kończącego się w timestampMillis);
+    // wynik posortowany malejąco wg prawdopodobieństwa
+    public List<HostScore> score(FeatureWindow window, ProtectedHosts protectedHosts, long timestampMillis) {
+        long start = System.nanoTime();
+        FeatureRegistry registry = window.getRegistry();
+
+        window.hosts.forEach(features -> {
+            HostState state = states.get(features.unit);
+            if (state == null && states.size() < maxHosts) {
+                state = new HostState(features.unit, protectedHosts.label(features.unit), registry,
+                        newBaseline(features.unit));
+                states.put(features.unit, state);
+            }
+            if (state != null) {
+                state.current = features;
+            }
+        });
+
+        HostState[] all = states.values().toArray(new HostState[0]);
+        HostScore[] results = new HostScore[all.length];
+        pool.invoke(new ScoreTask(all, results, 0, all.length, window.perSecond(1)));
+        // Przed sortowaniem results[i] odpowiada all[i] - z-score'y jednostki są jeszcze w jej stanie
+        for (int i = 0; i < results.length; i++) {
+            if (results[i].anomalyProbability() > alertService.getThreshold()) {
+                reportAlert(all[i], results[i], timestampMillis);
+            }
+        }
+        // Ocena z tego ticku jeszcze w wyniku - usunięcie dotyczy kolejnych okien
+        int evicted = 0;
+        for (HostState state : all) {
+            if (state.idleWindows >= idleWindows) {
+                states.remove(state.unit);
+                evicted++;
+            }
+        }
+        if (evicted > 0) {
+            log.debug("Usunięto {} jednostek bez ruchu od {} okien", evicted, idleWindows);
+        }
+        tracked = states.values().toArray(new HostState[0]);
+        if (!restored.isEmpty() && ++windowsSinceRestore >= idleWindows) {
+            log.info("Porzucono {} odtworzonych baseline jednostek bez ruchu od {} okien", restored.size(), idleWindows);
+            restored.clear();
+        }
+        Arrays.sort(results, Comparator.comparingDouble(HostScore::anomalyProbability).reversed());
+        List<HostScore> scores = List.of(results);
+        this.lastScores = scores;
+
+        long elapsedNanos = System.nanoTime() - start;
+        scoringTimer.record(elapsedNanos, TimeUnit.NANOSECONDS);
+        log.debug("Ocena {} hostów: {} ms", all.length, elapsedNanos / 1_000_000);
+        if (window.getHostOverflows() > 0) {
+            log.warn("Pominięto {} aktualizacji cech hostów ponad limit ids.hosts.max-tracked={}", window.getHostOverflows(), maxHosts);
+        }
+        for (int i = 0; i < Math.min(MAX_LOGGED_ALERTS, results.length); i++) {
+            if (results[i].anomalyProbability() <= alertService.getThreshold()) break;
+            log.error("!!! ANOMALIA HOSTA {} !!! Prawdopodobieństwo: {}%", results[i].host(),
+                    String.format("%.2f", results[i].anomalyProbability()));
+        }
+        return scores;
+    }
+
+    // Jednostki oceniane są tylko w globalnym potoku - alert zamyka endTick("global") agregatora
+    private void reportAlert(HostState state, HostScore score, long timestampMillis) {
+        double[] z = state.lastZ;
+        Map<String, Double> zScores = new LinkedHashMap<>();
+        for (int id = 0; id < z.length; id++) {
+            if (!Double.isNaN(score.features().get(id))) zScores.put(state.registry.name(id), z[id]);
+        }
+        alertService.report("global", score.host(), timestampMillis, score.anomalyProbability(),
+                Collections.unmodifiableMap(zScores), score, fuzzyService.firedRules(z));
+    }
+
+    public List<HostScore> getLastScores() {
+        return lastScores;
+    }
+
+    private BaselineService newBaseline(long unit) {
+        BaselineService baseline = baselineTemplate.emptyCopy(baselineWindow);
+        List<BaselineService.FeatureState> saved = restored.remove(unit);
+        if (saved != null) {
+            saved.forEach(baseline::restoreFeature);
+        }
+        return baseline;
+    }
+
+    // Baseline śledzonych jednostek (klucz jednostki -> stan cech); każda cecha kopiowana pod własną blokadą
+    @Override
+    public Map<Long, List<BaselineService.FeatureState>> exportBaselines() {
+        Map<Long, List<BaselineService.FeatureState>> baselines = new HashMap<>();
+        for (HostState state : tracked) {
+            baselines.put(state.unit, state.baseline.exportState());
+        }
+        // Jednostki jeszcze nieaktywne po restarcie - ich baseline przechodzi do kolejnej migawki
+        restored.forEach(baselines::putIfAbsent);
+        return baselines;
+    }
+
+    // Wołane przy starcie, przed pierwszym tickiem
+    @Override
+    public void restoreBaselines(Map<Long, List<BaselineService.FeatureState>> baselines) {
+        restored.putAll(baselines);
+        windowsSinceRestore = 0;
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        pool.shutdownNow();
+    }
+
+    private final class ScoreTask extends RecursiveAction {
+        private final HostState[] states;
+        private final HostScore[] results;
+        private final int from;
+        private final int to;
+        private final double rateScale;
+
+        ScoreTask(HostState[] states, HostScore[] results, int from, int to, double rateScale) {
+            this.states = states;
+            this.results = results;
+            this.from = from;
+            this.to = to;
+            this.rateScale = rateScale;
+        }
+
+        @Override
+        protected void compute() {
+            if (to - from <= SPLIT_THRESHOLD) {
+                for (int i = from; i < to; i++) {
+                    results[i] = states[i].score(fuzzyService, rateScale);
+                }
+                return;
+            }
+            int mid = (from + to) >>> 1;
+            invokeAll(new ScoreTask(states, results, from, mid, rateScale),
+                    new ScoreTask(states, results, mid, to, rateScale));
+        }
+    }
+
+    private static final class HostState {
+        private final long unit;
+        private final String label;
+        private final FeatureRegistry registry;
+        private final BaselineService baseline;
+        private final int[] slots; // slot baseline każdej cechy
+        private HostFeatures current; // cechy z bieżącego okna albo null, gdy host nie miał ruchu
+        private final double[] lastZ; // z-score'y ostatniej oceny (indeks - identyfikator cechy)
+        private int idleWindows; // kolejne okna bez ruchu
+
+        HostState(long unit, String label, FeatureRegistry registry, BaselineService baseline) {
+            this.unit = unit;
+            this.label = label;
+            this.registry = registry;
+            this.baseline = baseline;
+            this.slots = registry.slotsIn(baseline);
+            this.lastZ = new double[registry.size()];
+        }
+
+        // rateScale - mnożnik licznika okna na wartość na sekundę
+        HostScore score(FuzzyService fuzzyService, double rateScale) {
+            HostFeatures f = current != null ? current : IDLE;
+            idleWindows = current != null ? 0 : idleWindows + 1;
+            current = null;
+
+            // Tablica trafia do HostScore - nowa w każdej ocenie
+            double[] values = new double[registry.size()];
+            registry.hostValues(f, rateScale, values);
+
+            // Cechy nieoceniane per host (NaN) - z = 0, bez obserwacji w baseline
+            double[] z = lastZ;
+            for (int id = 0; id < values.length; id++) {
+                z[id] = Double.isNaN(values[id]) ? 0 : baseline.calculateZScore(slots[id], values[id]);
+            }
+            double probability = fuzzyService.analyze(z);
+
+            for (int id = 0; id < values.length; id++) {
+                if (!Double.isNaN(values[id])) baseline.addObservation(slots[id], values[id], probability);
+            }
+
+            return new HostScore(label, probability, new FeatureVector(registry, values));
+        }
+    }
+}
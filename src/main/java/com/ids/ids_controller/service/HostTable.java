@@ -0,0 +1,95 @@
+package com.ids.ids_controller.service;
+
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.function.Consumer;
+
+/**
+ * Cechy per host okna: klucz jednostki oceny -> HostFeatures, adresowanie otwarte o stałej pojemności
+ * (maxHosts, tablica 2x większa). Jednostki ponad limit są pomijane i liczone w overflows.
+ * Obiekty HostFeatures wracają po clear() do puli, więc w stanie ustalonym tick nie alokuje.
+ * Nie jest bezpieczna wątkowo - należy do jednego FeatureShard albo FeatureWindow.
+ */
+final class HostTable {
+
+    private static final long EMPTY = Long.MIN_VALUE; // klucze jednostek są nieujemne
+
+    private final int maxHosts;
+    private final int portPrecision;
+    private final long[] keys;
+    private final HostFeatures[] values;
+    private final int mask;
+    private final ArrayDeque<HostFeatures> pool = new ArrayDeque<>();
+    private int size;
+    private long overflows;
+
+    HostTable(int maxHosts, int portPrecision) {
+        this.maxHosts = maxHosts;
+        this.portPrecision = portPrecision;
+        int capacity = Integer.highestOneBit(Math.max(8, maxHosts) * 2 - 1) << 1;
+        this.keys = new long[capacity];
+        this.values = new HostFeatures[capacity];
+        this.mask = capacity - 1;
+        Arrays.fill(keys, EMPTY);
+    }
+
+    // Cechy jednostki (tworzone przy pierwszym użyciu w oknie) albo null, gdy limit jednostek jest wyczerpany
+    HostFeatures get(long unit) {
+        int i = (int) HyperLogLog.hash(unit) & mask;
+        while (keys[i] != EMPTY) {
+            if (keys[i] == unit) return values[i];
+            i = (i + 1) & mask;
+        }
+        if (size >= maxHosts) {
+            overflows++;
+            return null;
+        }
+        HostFeatures features = pool.poll();
+        if (features == null) features = new HostFeatures();
+        features.reset(unit);
+        keys[i] = unit;
+        values[i] = features;
+        size++;
+        return features;
+    }
+
+    void addPort(HostFeatures host, long srcAddr, int dstPort) {
+        host.addPort(srcAddr, dstPort, portPrecision);
+    }
+
+    void mergeFrom(HostTable other) {
+        overflows += other.overflows;
+        for (int i = 0; i < other.keys.length; i++) {
+            if (other.keys[i] == EMPTY) continue;
+            HostFeatures mine = get(other.keys[i]);
+            if (mine != null) {
+                mine.mergeFrom(other.values[i]);
+            }
+        }
+    }
+
+    void forEach(Consumer<HostFeatures> action) {
+        for (int i = 0; i < keys.length; i++) {
+            if (keys[i] != EMPTY) action.accept(values[i]);
+        }
+    }
+
+    void clear() {
+        if (size == 0) {
+            overflows = 0;
+            return;
+        }
+        for (int i = 0; i < keys.length; i++) {
+            if (keys[i] != EMPTY) {
+                pool.push(values[i]);
+                values[i] = null;
+                keys[i] = EMPTY;
+            }
+        }
+        size = 0;
+        overflows = 0;
+    }
+
+    int size() { return size; }
+    long overflows() { return overflows; }
+}
@@ -0,0 +1,140 @@
+package com.ids.ids_controller.service;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+/**
+ * HyperLogLog - szkic liczności zbioru w stałej pamięci 2^p bajtów.
+ * Błąd względny estymacji to ok. 1.04 / sqrt(2^p). Szkice o tej samej precyzji można łączyć (max rejestrów).
+ *
+ * https://algo.inria.fr/flajolet/Publications/FlFuGaMe07.pdf - Flajolet i in., HyperLogLog
+ */
+public final class HyperLogLog {
+
+    private static final byte DENSE = 0;
+    private static final byte SPARSE = 1;
+
+    private final int precision;
+    private final byte[] registers;
+
+    public HyperLogLog(int precision) {
+        if (precision < 4 || precision > 16) {
+            throw new IllegalArgumentException("Precyzja HLL musi być w zakresie 4-16: " + precision);
+        }
+        this.precision = precision;
+        this.registers = new byte[1 << precision];
+    }
+
+    // Najmniejsza precyzja zapewniająca zadany błąd względny
+    public static int precisionForError(double relativeError) {
+        double m = Math.pow(1.04 / relativeError, 2);
+        int p = (int) Math.ceil(Math.log(m) / Math.log(2));
+        return Math.max(4, Math.min(16, p));
+    }
+
+    // Wartość musi być już dobrze wymieszanym skrótem 64-bit (patrz hash())
+    public void addHash(long hash) {
+        int index = (int) (hash >>> (64 - precision));
+        long rest = (hash << precision) | (1L << (precision - 1));
+        byte rank = (byte) (Long.numberOfLeadingZeros(rest) + 1);
+        if (rank > registers[index]) {
+            registers[index] = rank;
+        }
+    }
+
+    public long estimate() {
+        int m = registers.length;
+        double sum = 0;
+        int zeros = 0;
+        for (byte r : registers) {
+            sum += 1.0 / (1L << r);
+            if (r == 0) zeros++;
+        }
+        double alpha = switch (m) {
+            case 16 -> 0.673;
+            case 32 -> 0.697;
+            case 64 -> 0.709;
+            default -> 0.7213 / (1 + 1.079 / m);
+        };
+        double estimate = alpha * m * m / sum;
+        if (estimate <= 2.5 * m && zeros > 0) {
+            // Poprawka dla małych liczności - zliczanie liniowe
+            estimate = m * Math.log((double) m / zeros);
+        }
+        return Math.round(estimate);
+    }
+
+    public void merge(HyperLogLog other) {
+        if (other.precision != precision) {
+            throw new IllegalArgumentException("Nie można łączyć szkiców HLL o różnej precyzji");
+        }
+        for (int i = 0; i < registers.length; i++) {
+            if (other.registers[i] > registers[i]) {
+                registers[i] = other.registers[i];
+            }
+        }
+    }
+
+    public void clear() {
+        Arrays.fill(registers, (byte) 0);
+    }
+
+    public int precision() { return precision; }
+
+    public int sizeInBytes() { return registers.length; }
+
+    // Surowe rejestry (np. do serializacji) - tylko do odczytu
+    byte[] registers() { return registers; }
+
+    /*
+     * zapis zwarty: [precyzja][tryb] + niezerowe rejestry jako (indeks, wartość), gdy jest ich mniej niż 1/3,
+     * inaczej wszystkie 2^p rejestrów. Szkic okna z małym ruchem to kilkadziesiąt bajtów zamiast 2^p.
+     */
+    public void writeTo(ByteBuffer out) {
+        int nonZero = nonZeroRegisters();
+        out.put((byte) precision);
+        if (nonZero * 3 < registers.length) {
+            out.put(SPARSE).putShort((short) nonZero);
+            for (int i = 0; i < registers.length; i++) {
+                if (registers[i] != 0) out.putShort((short) i).put(registers[i]);
+            }
+        } else {
+            out.put(DENSE).put(registers);
+        }
+    }
+
+    public int encodedSize() {
+        int nonZero = nonZeroRegisters();
+        return 2 + (nonZero * 3 < registers.length ? 2 + 3 * nonZero : registers.length);
+    }
+
+    public static HyperLogLog readFrom(ByteBuffer in) {
+        HyperLogLog sketch = new HyperLogLog(in.get());
+        if (in.get() == SPARSE) {
+            int count = Short.toUnsignedInt(in.getShort());
+            for (int i = 0; i < count; i++) {
+                int index = Short.toUnsignedInt(in.getShort());
+                sketch.registers[index] = in.get();
+            }
+        } else {
+            in.get(sketch.registers);
+        }
+        return sketch;
+    }
+
+    private int nonZeroRegisters() {
+        int nonZero = 0;
+        for (byte r : registers) {
+            if (r != 0) nonZero++;
+        }
+        return nonZero;
+    }
+
+    public static long hash(long value) {
+        long h = value * 0x9E3779B97F4A7C15L;
+        h ^= h >>> 32;
+        h *= 0xD6E8FEB86659FD93L;
+        h ^= h >>> 32;
+        return h;
+    }
+}
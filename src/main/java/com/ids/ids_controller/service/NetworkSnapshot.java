@@ -0,0 +1,9 @@
+package com.ids.ids_controller.service;
+
+/**
+ * Cechy ruchu zebrane w jednym oknie agregatora (wg FeatureRegistry) wraz z największymi źródłami/celami.
+ */
+public record NetworkSnapshot(
+        FeatureVector features,
+        TopTalkers topTalkers
+) {}
@@ -0,0 +1,28 @@
+package com.ids.ids_controller.service;
+
+/**
+ * Liczba unikalnych portów docelowych per adres źródłowy w oknie.
+ * GLOBAL_PORT_DIVERSITY to suma tych liczności po wszystkich źródłach.
+ */
+interface PortDiversity {
+
+    void add(long srcAddr, int dstPort);
+
+    // Dołącza dane innej instancji tego samego typu (shard -> okno)
+    void mergeFrom(PortDiversity other);
+
+    void clear();
+
+    long globalDiversity();
+
+    // Dodaje pary (źródło, port) okna do szkicu o precyzji z ustawień - scalanie między kontrolerami
+    void addPairsTo(HyperLogLog pairs);
+
+    static PortDiversity create(PortDiversitySettings settings) {
+        return settings.sketch()
+                ? new SketchPortDiversity(settings.precision(), settings.maxSources())
+                : new ExactPortDiversity();
+    }
+
+    record PortDiversitySettings(boolean sketch, int precision, int maxSources) {}
+}
@@ -0,0 +1,107 @@
+package com.ids.ids_controller.service;
+
+import com.ids.ids_controller.parser.PacketView;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+
+/**
+ * Lista chronionych adresów/podsieci IPv4 (np. "10.0.0.5, 10.0.1.0/24") jako posortowane zakresy
+ * przeszukiwane binarnie. Jednostka oceny (klucz per-host cech i baseline) zależy od ziarnistości:
+ * HOST - każdy adres z zakresów osobno (kluczem jest adres), RANGE - każdy wpis listy jako całość
+ * (kluczem jest numer wpisu). Niezmienna - współdzielona przez wszystkie shardy.
+ */
+public final class ProtectedHosts {
+
+    public static final long NONE = -1;
+
+    public enum Granularity { HOST, RANGE }
+
+    private final Granularity granularity;
+    private final long[] starts;
+    private final long[] ends;
+    private final String[] labels;
+
+    private ProtectedHosts(Granularity granularity, long[] starts, long[] ends, String[] labels) {
+        this.granularity = granularity;
+        this.starts = starts;
+        this.ends = ends;
+        this.labels = labels;
+    }
+
+    public static ProtectedHosts parse(String spec, Granularity granularity) {
+        List<Range> ranges = new ArrayList<>();
+        for (String entry : spec.split(",")) {
+            String e = entry.trim();
+            if (!e.isEmpty()) {
+                ranges.add(Range.parse(e));
+            }
+        }
+        ranges.sort(Comparator.comparingLong(Range::start));
+
+        List<Range> result = new ArrayList<>();
+        for (Range r : ranges) {
+            Range last = result.isEmpty() ? null : result.get(result.size() - 1);
+            if (last != null && r.start() <= last.end()) {
+                if (granularity == Granularity.RANGE) {
+                    throw new IllegalArgumentException("Nakładające się zakresy chronionych hostów: " + last.label() + " i " + r.label());
+                }
+                // Przy ocenie per adres nakładające się wpisy można scalić
+                result.set(result.size() - 1, new Range(last.start(), Math.max(last.end(), r.end()), last.label()));
+            } else {
+                result.add(r);
+            }
+        }
+
+        long[] starts = new long[result.size()];
+        long[] ends = new long[result.size()];
+        String[] labels = new String[result.size()];
+        for (int i = 0; i < result.size(); i++) {
+            starts[i] = result.get(i).start();
+            ends[i] = result.get(i).end();
+            labels[i] = result.get(i).label();
+        }
+        return new ProtectedHosts(granularity, starts, ends, labels);
+    }
+
+    // Klucz jednostki oceny dla adresu albo NONE, gdy adres nie jest chroniony
+    public long unitOf(long addr) {
+        if (addr < 0) return NONE; // klucze IPv6 mają ustawiony najstarszy bit
+        int i = Arrays.binarySearch(starts, addr);
+        if (i < 0) i = -i - 2; // ostatni zakres zaczynający się przed adresem
+        if (i < 0 || addr > ends[i]) return NONE;
+        return granularity == Granularity.HOST ? addr : i;
+    }
+
+    public boolean isProtected(long addr) {
+        return unitOf(addr) != NONE;
+    }
+
+    public String label(long unit) {
+        return granularity == Granularity.HOST ? PacketView.formatAddress(unit) : labels[(int) unit];
+    }
+
+    public Granularity granularity() {
+        return granularity;
+    }
+
+    public int rangeCount() {
+        return starts.length;
+    }
+
+    private record Range(long start, long end, String label) {
+        static Range parse(String entry) {
+            int slash = entry.indexOf('/');
+            long addr = PacketView.ipV4Key(slash < 0 ? entry : entry.substring(0, slash));
+            int prefix = slash < 0 ? 32 : Integer.parseInt(entry.substring(slash + 1).trim());
+            if (prefix < 0 || prefix > 32) {
+                throw new IllegalArgumentException("Niepoprawna maska podsieci: " + entry);
+            }
+            long size = 1L << (32 - prefix);
+            long start = addr & ~(size - 1) & 0xFFFFFFFFL;
+            return new Range(start, start + size - 1, entry);
+        }
+    }
+}
@@ -0,0 +1,195 @@
+package com.ids.ids_controller.service;
+
+/**
+ * Szkic kwantyli z usuwaniem - histogram kubełków logarytmicznych (jak DDSketch) z drzewem Fenwicka.
+ * Kubełek k obejmuje |x| w (MIN·γ^(k-1), MIN·γ^k], γ = (1+α)/(1-α), więc każdy zwracany kwantyl ma
+ * błąd względny najwyżej α. Dodanie i usunięcie wartości to O(log B), mediana, ranga i MAD
+ * to O(log B) / O(log n · log B), gdzie B - liczba kubełków w zakresie wartości cechy (setki).
+ *
+ * Usuwanie jest dokładne (dekrementacja licznika), więc szkic odzwierciedla okno przesuwne baseline
+ * wartość w wartość - nie trzeba sortować 86400 próbek, by poznać medianę. Tablica kubełków rośnie
+ * tylko do zakresu wartości faktycznie widzianych. Nie jest bezpieczny wątkowo - synchronizację zapewnia właściciel.
+ *
+ * https://arxiv.org/abs/1908.10693 - Masson, Rim, Lee: DDSketch
+ */
+final class QuantileSketch {
+
+    private static final double MIN_MAGNITUDE = 1e-9; // |x| nie większe - kubełek zera
+    private static final double MAX_MAGNITUDE = 1e15; // |x| większe - przycinane do ostatniego kubełka
+    private static final int INITIAL_BUCKETS = 64;
+
+    private final double gamma;
+    private final double logGamma;
+
+    // Kubełki [minKey, minKey + counts.length); długość zawsze potęgą 2 (zejście po drzewie w select)
+    private int[] counts;
+    private int[] tree; // drzewo Fenwicka nad counts, indeksy od 1
+    private int minKey;
+    private int total;
+
+    QuantileSketch(double relativeAccuracy) {
+        if (relativeAccuracy <= 0 || relativeAccuracy >= 1) {
+            throw new IllegalArgumentException("Dokładność szkicu kwantyli musi być w zakresie (0, 1): " + relativeAccuracy);
+        }
+        this.gamma = (1 + relativeAccuracy) / (1 - relativeAccuracy);
+        this.logGamma = Math.log(gamma);
+    }
+
+    int count() {
+        return total;
+    }
+
+    void add(double value) {
+        int key = key(value);
+        ensureCovers(key);
+        update(key - minKey, 1);
+        total++;
+    }
+
+    // Usuwa wcześniej dodaną wartość (najstarszą próbkę okna)
+    void remove(double value) {
+        int key = key(value);
+        if (counts == null || key < minKey || key >= minKey + counts.length || counts[key - minKey] == 0) return;
+        update(key - minKey, -1);
+        total--;
+    }
+
+    void clear() {
+        counts = null;
+        tree = null;
+        total = 0;
+    }
+
+    // Kwantyl q (0-1) - dolny przy parzystej liczbie wartości; NaN dla pustego szkicu
+    double quantile(double q) {
+        if (total == 0) return Double.NaN;
+        int rank = (int) Math.floor(Math.max(0, Math.min(1, q)) * (total - 1));
+        return valueAtRank(rank);
+    }
+
+    /*
+     * ranga percentylowa: udział wartości mniejszych od value plus połowa równych (z dokładnością
+     * do kubełka) - 0.5 dla wartości w środku rozkładu, także gdy całe okno ma jedną wartość.
+     */
+    double rank(double value) {
+        if (total == 0) return Double.NaN;
+        int index = key(value) - minKey;
+        if (index < 0) return 0;
+        if (index >= counts.length) return 1;
+        return (prefix(index) + counts[index] * 0.5) / total;
+    }
+
+    /*
+     * mediana odchyleń bezwzględnych od mediany (MAD). Odchylenia wartości leżących poniżej i powyżej
+     * kubełka mediany tworzą dwa ciągi rosnące odczytywane przez select - k-ty element ich scalenia
+     * szukany binarnie, bez przeglądania kubełków. Wartości z kubełka mediany mają odchylenie 0.
+     */
+    double mad() {
+        if (total == 0) return Double.NaN;
+        int medianIndex = select((total - 1) / 2);
+        double median = value(medianIndex + minKey);
+        int below = prefix(medianIndex);
+        int equal = counts[medianIndex];
+        int above = total - below - equal;
+
+        int k = (total - 1) / 2;
+        if (k < equal) return 0;
+        k -= equal;
+
+        // i - ile elementów wziąć z dolnego ciągu wśród k+1 najmniejszych odchyleń
+        int lo = Math.max(0, k + 1 - above);
+        int hi = Math.min(k + 1, below);
+        while (lo < hi) {
+            int i = (lo + hi) >>> 1;
+            int j = k + 1 - i;
+            if (j > 0 && median - valueAtRank(below - 1 - i) < valueAtRank(below + equal + j - 1) - median) {
+                lo = i + 1;
+            } else {
+                hi = i;
+            }
+        }
+        int j = k + 1 - lo;
+        double fromBelow = lo > 0 ? median - valueAtRank(below - lo) : 0;
+        double fromAbove = j > 0 ? valueAtRank(below + equal + j - 1) - median : 0;
+        return Math.max(fromBelow, fromAbove);
+    }
+
+    private double valueAtRank(int rank) {
+        return value(select(rank) + minKey);
+    }
+
+    // Klucz kubełka: 0 dla |x| <= MIN, dodatni dla x > 0, ujemny dla x < 0 - monotoniczny względem x
+    private int key(double value) {
+        double magnitude = Math.abs(value);
+        if (!(magnitude > MIN_MAGNITUDE)) return 0; // także NaN
+        int k = (int) Math.ceil(Math.log(Math.min(magnitude, MAX_MAGNITUDE) / MIN_MAGNITUDE) / logGamma);
+        k = Math.max(1, k);
+        return value > 0 ? k : -k;
+    }
+
+    // Reprezentant kubełka - środek przedziału w sensie błędu względnego
+    private double value(int key) {
+        if (key == 0) return 0;
+        double magnitude = MIN_MAGNITUDE * 2 * Math.pow(gamma, Math.abs(key)) / (gamma + 1);
+        return key > 0 ? magnitude : -magnitude;
+    }
+
+    // Poszerza zakres kubełków (z zapasem w stronę nowego klucza) i odbudowuje drzewo w O(B)
+    private void ensureCovers(int key) {
+        if (counts == null) {
+            counts = new int[INITIAL_BUCKETS];
+            tree = new int[INITIAL_BUCKETS + 1];
+            minKey = key - INITIAL_BUCKETS / 2;
+            return;
+        }
+        int maxKey = minKey + counts.length - 1;
+        if (key >= minKey && key <= maxKey) return;
+
+        int lo = Math.min(minKey, key);
+        int hi = Math.max(maxKey, key);
+        int length = counts.length;
+        while (length < hi - lo + 1 + counts.length / 2) length <<= 1;
+        int newMin = key < minKey ? hi - length + 1 : lo;
+
+        int[] grown = new int[length];
+        System.arraycopy(counts, 0, grown, minKey - newMin, counts.length);
+        counts = grown;
+        minKey = newMin;
+        tree = new int[length + 1];
+        for (int i = 1; i <= length; i++) {
+            tree[i] += counts[i - 1];
+            int parent = i + (i & -i);
+            if (parent <= length) tree[parent] += tree[i];
+        }
+    }
+
+    private void update(int index, int delta) {
+        counts[index] += delta;
+        for (int i = index + 1; i < tree.length; i += i & -i) {
+            tree[i] += delta;
+        }
+    }
+
+    // Liczba wartości w kubełkach o indeksie < index
+    private int prefix(int index) {
+        int sum = 0;
+        for (int i = index; i > 0; i -= i & -i) {
+            sum += tree[i];
+        }
+        return sum;
+    }
+
+    // Indeks kubełka z wartością o randze rank (od 0) - zejście po drzewie Fenwicka
+    private int select(int rank) {
+        int position = 0;
+        int remaining = rank;
+        for (int step = counts.length; step > 0; step >>= 1) {
+            int next = position + step;
+            if (next < tree.length && tree[next] <= remaining) {
+                position = next;
+                remaining -= tree[next];
+            }
+        }
+        return position; // indeks od 0 = liczba pominiętych węzłów
+    }
+}
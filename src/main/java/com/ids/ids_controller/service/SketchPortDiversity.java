@@ -0,0 +1,147 @@
+package com.ids.ids_controller.service;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Różnorodność portów o ograniczonej pamięci.
+ * Źródło zaczyna od dokładnej listy do SPARSE_LIMIT portów (większość źródeł łączy się z 1-3 portami),
+ * po jej przekroczeniu przechodzi na HyperLogLog o stałym rozmiarze 2^precision bajtów.
+ * Liczba śledzonych źródeł jest ograniczona do maxSources - kolejne źródła trafiają do wspólnego
+ * szkicu par (źródło, port), którego liczność jest wprost ich wkładem do sumy.
+ * Szkice źródeł także liczą skróty par (źródło, port), więc wszystkie można scalić w jeden szkic par
+ * okna (addPairsTo) - np. do cech całej floty kontrolerów.
+ */
+final class SketchPortDiversity implements PortDiversity {
+
+    private static final int SPARSE_LIMIT = 8;
+
+    private final int precision;
+    private final int maxSources;
+    private final Map<Long, SourcePorts> sources = new HashMap<>();
+    private final HyperLogLog overflow;
+
+    SketchPortDiversity(int precision, int maxSources) {
+        this.precision = precision;
+        this.maxSources = maxSources;
+        this.overflow = new HyperLogLog(precision);
+    }
+
+    @Override
+    public void add(long srcAddr, int dstPort) {
+        SourcePorts ports = sources.get(srcAddr);
+        if (ports == null) {
+            if (sources.size() >= maxSources) {
+                overflow.addHash(pairHash(srcAddr, dstPort));
+                return;
+            }
+            ports = new SourcePorts();
+            sources.put(srcAddr, ports);
+        }
+        ports.add(srcAddr, dstPort, precision);
+    }
+
+    @Override
+    public void mergeFrom(PortDiversity other) {
+        SketchPortDiversity o = (SketchPortDiversity) other;
+        o.sources.forEach((src, theirs) -> {
+            SourcePorts mine = sources.get(src);
+            if (mine == null && sources.size() < maxSources) {
+                mine = new SourcePorts();
+                sources.put(src, mine);
+            }
+            if (mine != null) {
+                mine.merge(theirs, src, precision);
+            } else {
+                theirs.addPairsTo(overflow, src);
+            }
+        });
+        overflow.merge(o.overflow);
+    }
+
+    @Override
+    public void clear() {
+        sources.clear();
+        overflow.clear();
+    }
+
+    @Override
+    public long globalDiversity() {
+        long sum = overflow.estimate();
+        for (SourcePorts ports : sources.values()) {
+            sum += ports.cardinality();
+        }
+        return sum;
+    }
+
+    @Override
+    public void addPairsTo(HyperLogLog pairs) {
+        sources.forEach((src, ports) -> ports.addPairsTo(pairs, src));
+        pairs.merge(overflow);
+    }
+
+    private static long pairHash(long srcAddr, int dstPort) {
+        return HyperLogLog.hash(srcAddr * 65537 + dstPort);
+    }
+
+    private static final class SourcePorts {
+        private int[] sparse = new int[SPARSE_LIMIT];
+        private int sparseSize;
+        private HyperLogLog sketch;
+
+        void add(long src, int port, int precision) {
+            if (sketch != null) {
+                sketch.addHash(pairHash(src, port));
+                return;
+            }
+            for (int i = 0; i < sparseSize; i++) {
+                if (sparse[i] == port) return;
+            }
+            if (sparseSize < SPARSE_LIMIT) {
+                sparse[sparseSize++] = port;
+                return;
+            }
+            // Przejście na HLL - lista dokładna przestaje wystarczać
+            sketch = new HyperLogLog(precision);
+            for (int i = 0; i < sparseSize; i++) {
+                sketch.addHash(pairHash(src, sparse[i]));
+            }
+            sketch.addHash(pairHash(src, port));
+            sparse = null;
+            sparseSize = 0;
+        }
+
+        void merge(SourcePorts other, long src, int precision) {
+            if (other.sketch != null) {
+                if (sketch == null) {
+                    HyperLogLog upgraded = new HyperLogLog(precision);
+                    for (int i = 0; i < sparseSize; i++) {
+                        upgraded.addHash(pairHash(src, sparse[i]));
+                    }
+                    sketch = upgraded;
+                    sparse = null;
+                    sparseSize = 0;
+                }
+                sketch.merge(other.sketch);
+            } else {
+                for (int i = 0; i < other.sparseSize; i++) {
+                    add(src, other.sparse[i], precision);
+                }
+            }
+        }
+
+        void addPairsTo(HyperLogLog pairs, long src) {
+            if (sketch != null) {
+                pairs.merge(sketch);
+                return;
+            }
+            for (int i = 0; i < sparseSize; i++) {
+                pairs.addHash(pairHash(src, sparse[i]));
+            }
+        }
+
+        long cardinality() {
+            return sketch != null ? sketch.estimate() : sparseSize;
+        }
+    }
+}
@@ -0,0 +1,428 @@
+package com.ids.ids_controller.service;
+
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.io.IOException;
+import java.nio.MappedByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.channels.FileChannel;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+/**
+ * Historia snapshotów globalnego potoku: cechy, z-score'y i prawdopodobieństwo każdego ticku
+ * w kolumnowych segmentach stałej szerokości mapowanych w pamięć (ids.history.dir). Kolumny wynikają
+ * z FeatureRegistry: wartości cech w kolejności identyfikatorów, ich z-score'y (z_<nazwa>)
+ * i anomalyProbability.
+ *
+ * Trzy poziomy rozdzielczości: raw (tick), 1m i 1h. Poziomy zgrubne są liczone przy zapisie z ticków:
+ * wiersz kubełka to sumy kolumn i liczba ticków (prawdopodobieństwo - maksimum), więc zapytanie
+ * łączące kilka wierszy dzieli sumę przez łączną liczbę ticków, a nie uśrednia średnich. Zapytanie
+ * czyta najgrubszy poziom nie grubszy niż żądany krok - zakres wielu dni to kilka tysięcy wierszy
+ * zamiast setek tysięcy ticków.
+ *
+ * Segment: [magic][układ][rozdzielczość ms][pojemność][liczba wierszy][długość nazw kolumn][zarezerwowane]
+ *          + nazwy kolumn (UTF-8, rozdzielone '\n', wyrównane do 8 B) + kolumna znaczników czasu (long)
+ *          + kolumna liczby ticków (long) + kolumny wartości (double), każda na pełną pojemność.
+ * Segment o innych nazwach kolumn (zmiana cech) albo innej rozdzielczości jest przy starcie pomijany.
+ * Pełny segment zamyka plik <poziom>-<pierwszy znacznik>.seg; przy otwarciu nowego usuwane są segmenty
+ * starsze niż retencja poziomu. Niepełny kubełek 1m/1h przy zamknięciu aplikacji nie jest zapisywany.
+ * Znacznik mniejszy od ostatniego w segmencie (ponowne odtwarzanie PCAP) otwiera nowy segment - w każdym
+ * segmencie znaczniki są niemalejące; istniejący plik o tej samej nazwie dostaje przyrostek -<n>.
+ */
+@Component
+public class SnapshotHistory {
+    private static final Logger log = LoggerFactory.getLogger(SnapshotHistory.class);
+
+    private static final int MAGIC = 0x49445348; // "IDSH"
+    // Układ pliku; zgodność kolumn sprawdzana po nazwach zapisanych w nagłówku
+    private static final int LAYOUT = 3;
+    private static final int HEADER = 32;
+    private static final int COUNT_OFFSET = 20;
+    private static final int NAMES_OFFSET = 24;
+    private static final String SUFFIX = ".seg";
+    private static final int MAX_POINTS = 5000;     // górna granica punktów odpowiedzi - krok jest zwiększany
+    private static final int DEFAULT_POINTS = 500;  // krok domyślny, gdy nie podano
+    private static final long MINUTE = 60_000;
+    private static final long HOUR = 3_600_000;
+    private static final long DAY = 86_400_000;
+
+    private final boolean enabled;
+    private final Path directory;
+    private final String[] columns;
+    private final int probability; // ostatnia kolumna - w kubełkach maksimum zamiast średniej
+    private final byte[] columnHeader;
+    private final Tier[] tiers; // od najdrobniejszej rozdzielczości
+
+    public SnapshotHistory(FeatureRegistry registry,
+                           @Value("${ids.history.enabled:true}") boolean enabled,
+                           @Value("${ids.history.dir:data/history}") String directory,
+                           @Value("${ids.aggregator.tick-ms:1000}") long tickMillis,
+                           @Value("${ids.history.retention.raw-days:7}") int rawDays,
+                           @Value("${ids.history.retention.minute-days:90}") int minuteDays,
+                           @Value("${ids.history.retention.hour-days:1825}") int hourDays) {
+        this.enabled = enabled;
+        this.directory = Path.of(directory);
+        List<String> names = new ArrayList<>(registry.names());
+        registry.names().forEach(name -> names.add("z_" + name));
+        names.add("anomalyProbability");
+        this.columns = names.toArray(new String[0]);
+        this.probability = columns.length - 1;
+        this.columnHeader = String.join("\n", names).getBytes(StandardCharsets.UTF_8);
+        this.tiers = new Tier[]{
+                new Tier("raw", tickMillis, (int) (DAY / tickMillis), rawDays * DAY),
+                new Tier("1m", MINUTE, (int) (7 * DAY / MINUTE), minuteDays * DAY),
+                new Tier("1h", HOUR, (int) (366 * DAY / HOUR), hourDays * DAY)
+        };
+    }
+
+    @PostConstruct
+    public void init() throws IOException {
+        if (!enabled) return;
+        Files.createDirectories(directory);
+        for (Tier tier : tiers) {
+            tier.load();
+        }
+        log.info("Historia snapshotów: {} wierszy raw, {} 1m, {} 1h w {}", tiers[0].rows(), tiers[1].rows(),
+                tiers[2].rows(), directory);
+    }
+
+    // Nazwy kolumn w kolejności wartości przekazywanych do append()
+    public List<String> getColumns() {
+        return List.of(columns);
+    }
+
+    /*
+     * zapis wyniku ticku - wołane tylko z wątku ticku globalnego agregatora.
+     * values w kolejności getColumns(); zapis to kilkadziesiąt putów do zmapowanej strony, bez wywołań systemowych.
+     */
+    public synchronized void append(long timestampMillis, double[] values) {
+        if (!enabled) return;
+        if (values.length != columns.length) {
+            throw new IllegalArgumentException("Wiersz historii ma " + values.length + " wartości, oczekiwano " + columns.length);
+        }
+        try {
+            tiers[0].append(timestampMillis, 1, values);
+            tiers[1].accumulate(timestampMillis, values);
+            tiers[2].accumulate(timestampMillis, values);
+        } catch (IOException e) {
+            log.error("Błąd zapisu historii snapshotów: {}", e.getMessage());
+        }
+    }
+
+    /*
+     * wiersze z [from, to] zagregowane w kubełki po stepMillis (średnia, maksimum prawdopodobieństwa);
+     * step <= 0 - dobierany do ~DEFAULT_POINTS punktów. Puste kubełki są pomijane.
+     */
+    public HistorySeries query(long from, long to, long stepMillis) {
+        if (to <= from) {
+            throw new IllegalArgumentException("Pusty zakres historii: from=" + from + ", to=" + to);
+        }
+        long span = to - from;
+        long step = stepMillis > 0 ? stepMillis : Math.max(1, span / DEFAULT_POINTS);
+        step = Math.max(step, (span + MAX_POINTS - 1) / MAX_POINTS);
+
+        Tier tier = tiers[0];
+        for (Tier t : tiers) {
+            if (t.resolution <= step) tier = t;
+        }
+
+        int buckets = (int) (span / step) + 1;
+        long[] ticks = new long[buckets];
+        double[][] sums = new double[columns.length][buckets];
+        Arrays.fill(sums[probability], Double.NEGATIVE_INFINITY);
+        if (enabled) {
+            for (Segment segment : tier.segments) {
+                segment.aggregate(from, to, step, probability, ticks, sums);
+            }
+        }
+
+        int points = 0;
+        for (long count : ticks) {
+            if (count > 0) points++;
+        }
+        long[] timestamps = new long[points];
+        Map<String, double[]> values = new LinkedHashMap<>();
+        double[][] out = new double[columns.length][points];
+        for (int b = 0, p = 0; b < buckets; b++) {
+            if (ticks[b] == 0) continue;
+            timestamps[p] = from + b * step;
+            for (int c = 0; c < columns.length; c++) {
+                out[c][p] = c == probability ? sums[c][b] : sums[c][b] / ticks[b];
+            }
+            p++;
+        }
+        for (int c = 0; c < columns.length; c++) {
+            values.put(columns[c], out[c]);
+        }
+        return new HistorySeries(from, to, step, tier.resolution, timestamps, values);
+    }
+
+    public record HistorySeries(long from, long to, long step, long resolution,
+                                long[] timestamps, Map<String, double[]> columns) {}
+
+    @PreDestroy
+    public synchronized void shutdown() {
+        if (!enabled) return;
+        for (Tier tier : tiers) {
+            for (Segment segment : tier.segments) {
+                segment.buffer.force();
+            }
+        }
+    }
+
+    // --- poziomy i segmenty ---
+
+    private final class Tier {
+        final String name;
+        final long resolution;
+        final int capacity;
+        final long retention;
+        // Lista segmentów od najstarszego - kopiowana przy zmianie, czytelnicy iterują bez blokad
+        final List<Segment> segments = new CopyOnWriteArrayList<>();
+
+        // Kubełek w budowie (tylko poziomy zgrubne): sumy kolumn i liczba ticków
+        private long bucketStart = Long.MIN_VALUE;
+        private int bucketCount;
+        private final double[] bucket = new double[columns.length];
+
+        Tier(String name, long resolution, int capacity, long retention) {
+            this.name = name;
+            this.resolution = resolution;
+            this.capacity = capacity;
+            this.retention = retention;
+        }
+
+        void accumulate(long timestampMillis, double[] values) throws IOException {
+            long start = timestampMillis - Math.floorMod(timestampMillis, resolution);
+            if (bucketCount > 0 && start != bucketStart) {
+                append(bucketStart, bucketCount, bucket);
+                bucketCount = 0;
+            }
+            if (bucketCount == 0) {
+                bucketStart = start;
+                Arrays.fill(bucket, 0);
+                bucket[probability] = Double.NEGATIVE_INFINITY;
+            }
+            for (int c = 0; c < columns.length; c++) {
+                bucket[c] = c == probability ? Math.max(bucket[c], values[c]) : bucket[c] + values[c];
+            }
+            bucketCount++;
+        }
+
+        // Wiersz: sumy z ticks ticków (poziom raw - jeden tick, sumy to wartości)
+        void append(long timestampMillis, long ticks, double[] values) throws IOException {
+            Segment current = segments.isEmpty() ? null : segments.get(segments.size() - 1);
+            if (current == null || current.count == capacity || timestampMillis < current.lastTimestamp()) {
+                current = Segment.create(segmentPath(timestampMillis), resolution, capacity, columnHeader,
+                        columns.length, timestampMillis);
+                segments.add(current);
+                expire(timestampMillis);
+            }
+            current.write(timestampMillis, ticks, values);
+        }
+
+        // <poziom>-<pierwszy znacznik>.seg; przy powtórzonym znaczniku <poziom>-<znacznik>-<n>.seg
+        private Path segmentPath(long firstTimestamp) {
+            Path path = directory.resolve(name + "-" + firstTimestamp + SUFFIX);
+            for (int n = 1; Files.exists(path); n++) {
+                path = directory.resolve(name + "-" + firstTimestamp + "-" + n + SUFFIX);
+            }
+            return path;
+        }
+
+        // Retencja liczona od najnowszego zapisu - działa tak samo przy odtwarzaniu PCAP
+        private void expire(long now) throws IOException {
+            for (Segment segment : segments) {
+                if (segments.size() > 1 && segment.lastTimestamp() < now - retention) {
+                    segments.remove(segment);
+                    Files.deleteIfExists(segment.path);
+                    log.debug("Usunięto segment historii {} (retencja {} dni)", segment.path.getFileName(), retention / DAY);
+                }
+            }
+        }
+
+        void load() throws IOException {
+            List<Segment> loaded = new ArrayList<>();
+            try (DirectoryStream<Path> files = Files.newDirectoryStream(directory, name + "-*" + SUFFIX)) {
+                for (Path file : files) {
+                    try {
+                        loaded.add(Segment.open(file, resolution, capacity, columnHeader, columns.length));
+                    } catch (IOException | RuntimeException e) {
+                        log.warn("Pominięto segment historii {}: {}", file.getFileName(), e.getMessage());
+                    }
+                }
+            }
+            loaded.sort(Comparator.comparingLong(s -> s.firstTimestamp));
+            segments.addAll(loaded);
+            if (!loaded.isEmpty()) {
+                expire(loaded.get(loaded.size() - 1).lastTimestamp());
+            }
+        }
+
+        long rows() {
+            long rows = 0;
+            for (Segment segment : segments) rows += segment.count;
+            return rows;
+        }
+    }
+
+    /*
+     * segment kolumnowy: kolumna znaczników czasu, liczby ticków i kolumny wartości, każda na capacity
+     * wierszy. Jeden piszący; czytelnicy widzą wiersze < count (volatile zapisywane po wierszu).
+     */
+    private static final class Segment {
+        final Path path;
+        final MappedByteBuffer buffer;
+        final int capacity;
+        final int width;
+        final int dataStart;
+        final long firstTimestamp;
+        volatile int count;
+
+        private Segment(Path path, MappedByteBuffer buffer, int capacity, int width, int dataStart, int count) {
+            this.path = path;
+            this.buffer = buffer;
+            this.capacity = capacity;
+            this.width = width;
+            this.dataStart = dataStart;
+            this.count = count;
+            this.firstTimestamp = count > 0 ? buffer.getLong(dataStart) : parseTimestamp(path);
+        }
+
+        static Segment create(Path path, long resolution, int capacity, byte[] columnHeader, int width,
+                              long firstTimestamp) throws IOException {
+            int dataStart = dataStart(columnHeader);
+            MappedByteBuffer buffer = map(path, size(dataStart, capacity, width), StandardOpenOption.CREATE_NEW);
+            buffer.putInt(0, MAGIC).putInt(4, LAYOUT).putLong(8, resolution).putInt(16, capacity)
+                    .putInt(COUNT_OFFSET, 0).putInt(NAMES_OFFSET, columnHeader.length);
+            buffer.put(HEADER, columnHeader);
+            return new Segment(path, buffer, capacity, width, dataStart, 0);
+        }
+
+        static Segment open(Path path, long resolution, int capacity, byte[] columnHeader, int width) throws IOException {
+            int dataStart = dataStart(columnHeader);
+            long size = size(dataStart, capacity, width);
+            if (Files.size(path) != size) {
+                throw new IOException("niezgodny rozmiar pliku (zmieniono ids.aggregator.tick-ms albo cechy ruchu?)");
+            }
+            MappedByteBuffer buffer = map(path, size);
+            if (buffer.getInt(0) != MAGIC || buffer.getInt(4) != LAYOUT
+                    || buffer.getLong(8) != resolution || buffer.getInt(16) != capacity) {
+                throw new IOException("niezgodny nagłówek");
+            }
+            byte[] stored = new byte[columnHeader.length];
+            buffer.get(HEADER, stored);
+            if (buffer.getInt(NAMES_OFFSET) != columnHeader.length || !Arrays.equals(stored, columnHeader)) {
+                throw new IOException("inne kolumny niż bieżące cechy ruchu");
+            }
+            int count = Math.min(Math.max(0, buffer.getInt(COUNT_OFFSET)), capacity);
+            return new Segment(path, buffer, capacity, width, dataStart, count);
+        }
+
+        private static MappedByteBuffer map(Path path, long size, StandardOpenOption... extra) throws IOException {
+            List<StandardOpenOption> options = new ArrayList<>(List.of(StandardOpenOption.READ, StandardOpenOption.WRITE));
+            options.addAll(List.of(extra));
+            try (FileChannel channel = FileChannel.open(path, options.toArray(new StandardOpenOption[0]))) {
+                return channel.map(FileChannel.MapMode.READ_WRITE, 0, size);
+            }
+        }
+
+        // Początek kolumn - za nazwami kolumn, wyrównany do 8 B
+        private static int dataStart(byte[] columnHeader) {
+            return (HEADER + columnHeader.length + 7) & ~7;
+        }
+
+        private static long size(int dataStart, int capacity, int width) {
+            return dataStart + 8L * capacity * (2 + width);
+        }
+
+        private static long parseTimestamp(Path path) {
+            String name = path.getFileName().toString();
+            int start = name.indexOf('-') + 1;
+            int end = name.indexOf('-', start);
+            return Long.parseLong(name.substring(start, end > 0 ? end : name.length() - SUFFIX.length()));
+        }
+
+        private int timestampOffset(int row) {
+            return dataStart + 8 * row;
+        }
+
+        private int ticksOffset(int row) {
+            return dataStart + 8 * (capacity + row);
+        }
+
+        private int valueOffset(int column, int row) {
+            return dataStart + 8 * (capacity * (column + 2) + row);
+        }
+
+        long timestamp(int row) {
+            return buffer.getLong(timestampOffset(row));
+        }
+
+        long lastTimestamp() {
+            int n = count;
+            return n > 0 ? timestamp(n - 1) : firstTimestamp;
+        }
+
+        void write(long timestampMillis, long ticks, double[] values) {
+            int row = count;
+            buffer.putLong(timestampOffset(row), timestampMillis);
+            buffer.putLong(ticksOffset(row), ticks);
+            for (int c = 0; c < width; c++) {
+                buffer.putDouble(valueOffset(c, row), values[c]);
+            }
+            buffer.putInt(COUNT_OFFSET, row + 1);
+            count = row + 1;
+        }
+
+        // Pierwszy wiersz o znaczniku >= timestamp (znaczniki w segmencie niemalejące - Tier.append)
+        private int lowerBound(long timestamp, int n) {
+            int lo = 0, hi = n;
+            while (lo < hi) {
+                int mid = (lo + hi) >>> 1;
+                if (timestamp(mid) < timestamp) lo = mid + 1;
+                else hi = mid;
+            }
+            return lo;
+        }
+
+        // Dodaje wiersze z [from, to] do kubełków - kolumna po kolumnie, czytając ciągłe obszary pliku
+        void aggregate(long from, long to, long step, int probability, long[] ticks, double[][] sums) {
+            int n = count;
+            if (n == 0 || firstTimestamp > to || lastTimestamp() < from) return;
+            int start = lowerBound(from, n);
+            int end = lowerBound(to + 1, n);
+            if (start >= end) return;
+
+            int[] bucketOf = new int[end - start];
+            for (int row = start; row < end; row++) {
+                int b = (int) ((timestamp(row) - from) / step);
+                bucketOf[row - start] = b;
+                ticks[b] += buffer.getLong(ticksOffset(row));
+            }
+            for (int c = 0; c < width; c++) {
+                double[] column = sums[c];
+                for (int row = start; row < end; row++) {
+                    double value = buffer.getDouble(valueOffset(c, row));
+                    int b = bucketOf[row - start];
+                    column[b] = c == probability ? Math.max(column[b], value) : column[b] + value;
+                }
+            }
+        }
+    }
+}
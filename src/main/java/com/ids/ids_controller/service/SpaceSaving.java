@@ -0,0 +1,181 @@
+package com.ids.ids_controller.service;
+
+import com.ids.ids_controller.parser.PacketView;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Space-Saving - przybliżone heavy-hitters (top-K kluczy wg wagi) w stałej pamięci k liczników.
+ * Każdy klucz o udziale większym niż suma/k jest na pewno śledzony, a jego licznik jest zawyżony
+ * co najwyżej o wartość error. Liczniki trzymane są w kopcu min, więc wymiana najmniejszego
+ * i zwiększenie licznika kosztują O(log k). Nie jest bezpieczny wątkowo.
+ *
+ * https://www.cs.ucsb.edu/sites/default/files/documents/2005-23.pdf - Metwally i in., Space-Saving
+ */
+public final class SpaceSaving {
+
+    private static final int EMPTY = -1;
+
+    private final int capacity;
+    private final long[] keys;
+    private final long[] counts;
+    private final long[] errors;
+    private final int[] heap;      // indeksy slotów, kopiec min wg counts
+    private final int[] heapPos;   // pozycja slotu w kopcu
+    private int size;
+
+    // Indeks klucz -> slot (adresowanie otwarte)
+    private final long[] indexKeys;
+    private final int[] indexSlots;
+    private final int indexMask;
+
+    public SpaceSaving(int capacity) {
+        this.capacity = capacity;
+        keys = new long[capacity];
+        counts = new long[capacity];
+        errors = new long[capacity];
+        heap = new int[capacity];
+        heapPos = new int[capacity];
+
+        int indexSize = Integer.highestOneBit(Math.max(4, capacity) * 4 - 1) << 1;
+        indexKeys = new long[indexSize];
+        indexSlots = new int[indexSize];
+        indexMask = indexSize - 1;
+        Arrays.fill(indexSlots, EMPTY);
+    }
+
+    public void add(long key, long weight) {
+        if (weight <= 0) return;
+        int slot = find(key);
+        if (slot != EMPTY) {
+            counts[slot] += weight;
+            siftDown(heapPos[slot]);
+            return;
+        }
+        if (size < capacity) {
+            slot = size;
+            keys[slot] = key;
+            counts[slot] = weight;
+            errors[slot] = 0;
+            heap[size] = slot;
+            heapPos[slot] = size;
+            size++;
+            siftUp(heapPos[slot]);
+            indexPut(key, slot);
+            return;
+        }
+        // Wymiana klucza o najmniejszym liczniku - nowy klucz dziedziczy jego licznik jako błąd
+        slot = heap[0];
+        indexRemove(keys[slot]);
+        long min = counts[slot];
+        keys[slot] = key;
+        counts[slot] = min + weight;
+        errors[slot] = min;
+        siftDown(0);
+        indexPut(key, slot);
+    }
+
+    // Łączenie szkiców (shard -> okno): liczniki i błędy drugiego szkicu dodawane jak obserwacje
+    public void merge(SpaceSaving other) {
+        for (int i = 0; i < other.size; i++) {
+            add(other.keys[i], other.counts[i]);
+            int slot = find(other.keys[i]);
+            if (slot != EMPTY) {
+                errors[slot] += other.errors[i];
+            }
+        }
+    }
+
+    public void clear() {
+        size = 0;
+        Arrays.fill(indexSlots, EMPTY);
+    }
+
+    // Top-k wpisów malejąco wg licznika
+    public List<Talker> top(int k) {
+        Integer[] order = new Integer[size];
+        for (int i = 0; i < size; i++) order[i] = i;
+        Arrays.sort(order, (a, b) -> Long.compare(counts[b], counts[a]));
+        List<Talker> result = new ArrayList<>(Math.min(k, size));
+        for (int i = 0; i < Math.min(k, size); i++) {
+            int slot = order[i];
+            result.add(new Talker(PacketView.formatAddress(keys[slot]), counts[slot], errors[slot]));
+        }
+        return result;
+    }
+
+    private int find(long key) {
+        int i = (int) HyperLogLog.hash(key) & indexMask;
+        while (indexSlots[i] != EMPTY) {
+            if (indexKeys[i] == key) return indexSlots[i];
+            i = (i + 1) & indexMask;
+        }
+        return EMPTY;
+    }
+
+    private void indexPut(long key, int slot) {
+        int i = (int) HyperLogLog.hash(key) & indexMask;
+        while (indexSlots[i] != EMPTY) {
+            i = (i + 1) & indexMask;
+        }
+        indexKeys[i] = key;
+        indexSlots[i] = slot;
+    }
+
+    private void indexRemove(long key) {
+        int i = (int) HyperLogLog.hash(key) & indexMask;
+        while (indexSlots[i] != EMPTY && indexKeys[i] != key) {
+            i = (i + 1) & indexMask;
+        }
+        if (indexSlots[i] == EMPTY) return;
+        // Usuwanie z przesunięciem wstecz
+        int hole = i;
+        indexSlots[hole] = EMPTY;
+        int j = hole;
+        while (true) {
+            j = (j + 1) & indexMask;
+            if (indexSlots[j] == EMPTY) return;
+            int home = (int) HyperLogLog.hash(indexKeys[j]) & indexMask;
+            boolean homeInRange = hole <= j ? (home > hole && home <= j) : (home > hole || home <= j);
+            if (!homeInRange) {
+                indexKeys[hole] = indexKeys[j];
+                indexSlots[hole] = indexSlots[j];
+                indexSlots[j] = EMPTY;
+                hole = j;
+            }
+        }
+    }
+
+    private void siftUp(int pos) {
+        while (pos > 0) {
+            int parent = (pos - 1) >>> 1;
+            if (counts[heap[pos]] >= counts[heap[parent]]) return;
+            swap(pos, parent);
+            pos = parent;
+        }
+    }
+
+    private void siftDown(int pos) {
+        while (true) {
+            int left = 2 * pos + 1;
+            if (left >= size) return;
+            int smallest = left + 1 < size && counts[heap[left + 1]] < counts[heap[left]] ? left + 1 : left;
+            if (counts[heap[pos]] <= counts[heap[smallest]]) return;
+            swap(pos, smallest);
+            pos = smallest;
+        }
+    }
+
+    private void swap(int a, int b) {
+        int slotA = heap[a];
+        int slotB = heap[b];
+        heap[a] = slotB;
+        heap[b] = slotA;
+        heapPos[slotB] = a;
+        heapPos[slotA] = b;
+    }
+
+    public record Talker(String address, long count, long error) {}
+}
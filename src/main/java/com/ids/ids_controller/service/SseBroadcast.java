@@ -0,0 +1,44 @@
+package com.ids.ids_controller.service;
+
+import org.springframework.http.codec.ServerSentEvent;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Sinks;
+import tools.jackson.databind.ObjectMapper;
+
+import java.time.Duration;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Gorący strumień SSE współdzielony przez wszystkich subskrybentów.
+ * Każda wartość jest serializowana do JSON raz, przy publikacji - subskrybenci dostają ten sam gotowy event.
+ * Dołączający później dostają ostatnie replaySize eventów, a wolny klient (brak popytu) pomija
+ * wartości pośrednie i dostaje tylko najnowszą - nie blokuje publikującego ani innych klientów.
+ */
+public final class SseBroadcast<T> {
+
+    private final ObjectMapper objectMapper;
+    private final Sinks.Many<ServerSentEvent<String>> sink;
+    private final AtomicLong sequence = new AtomicLong();
+
+    public SseBroadcast(ObjectMapper objectMapper, int replaySize) {
+        this.objectMapper = objectMapper;
+        this.sink = Sinks.many().replay().limit(Math.max(1, replaySize));
+    }
+
+    // Publikacja z wielu wątków jest serializowana przez busy-loop sinka (emisje są rzadkie - raz na tick)
+    public void publish(T value) {
+        String json = objectMapper.writeValueAsString(value);
+        ServerSentEvent<String> event = ServerSentEvent.builder(json)
+                .id(Long.toString(sequence.incrementAndGet()))
+                .build();
+        sink.emitNext(event, Sinks.EmitFailureHandler.busyLooping(Duration.ofMillis(100)));
+    }
+
+    public Flux<ServerSentEvent<String>> flux() {
+        return sink.asFlux().onBackpressureLatest();
+    }
+
+    public void complete() {
+        sink.tryEmitComplete();
+    }
+}
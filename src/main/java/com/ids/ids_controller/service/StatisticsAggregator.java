@@ -1,137 +1,301 @@
 package com.ids.ids_controller.service;
 
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
 import jakarta.annotation.PostConstruct;
 import jakarta.annotation.PreDestroy;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.DependsOn;
+import org.springframework.http.codec.ServerSentEvent;
 import org.springframework.stereotype.Service;
 import reactor.core.Disposable;
 import reactor.core.publisher.Flux;
 import reactor.core.scheduler.Schedulers;
+import tools.jackson.databind.ObjectMapper;
 
 import java.time.Duration;
-import java.util.HashMap;
+import java.util.Collections;
+import java.util.LinkedHashMap;
 import java.util.Map;
+import java.util.concurrent.TimeUnit;
 
 @Service
+@DependsOn("baselinePersistence") // stan baseline musi być odtworzony przed pierwszym tickiem
 public class StatisticsAggregator {
     private static final Logger log = LoggerFactory.getLogger(StatisticsAggregator.class);
 
     private final FeatureExtractor featureExtractor;
     private final BaselineService baselineService;
     private final FuzzyService fuzzyService;
+    private final FeatureRegistry features;
+    private final int[] slots; // slot baseline każdej cechy (indeks - identyfikator cechy)
+    private final HostScoringService hostScoringService; // null - bez oceny per host (potoki per-sonda)
+    private final AlertService alertService;
+    private final SnapshotHistory history; // null - bez historii (potoki per-sonda)
     private Disposable subscription; // Referencja do subskrypcji, by móc ją zamknąć
+    private final String label; // "global" dla beana, identyfikator sondy dla potoków per-sonda
+    private final long tickMillis;
+    // true - ticki wyznacza odtwarzanie PCAP wg znaczników czasu przechwytu (tick(...)), bez Flux.interval
+    private final boolean captureClock;
+    // true - podsumowanie każdego okna dla wymiany w klastrze (ids.cluster.enabled, tylko potok globalny)
+    private final boolean summarizeWindows;
 
-    public double lastProbability;
-    public double zSyn;
-    public double zIcmp;
-    public double zAvgSize;
-    public double zAsym;
-    public double zFlows;
-    public double zPortVar;
+    private static final int TOP_TALKERS = 10; // ile największych źródeł/celów dołączać do snapshotu
+    private static final long MIN_TICK_MS = 100;
+    private static final int SSE_REPLAY = 10; // ile ostatnich ticków dostaje klient dołączający do strumienia
+    private static final ObjectMapper objectMapper = new ObjectMapper();
 
-    public StatisticsAggregator(FeatureExtractor featureExtractor, BaselineService baselineService, FuzzyService fuzzyService) {
+    // Wyniki ostatniego ticku - niezmienne obiekty publikowane przez volatile (bez rozdartych odczytów)
+    private volatile NetworkSnapshot lastSnapshot;
+    private volatile Map<String, Double> currentMetrics = Map.of();
+    private volatile double lastProbability;
+    private volatile WindowSummary lastSummary;
+    // Suma liczników wyparć z tablic uzgodnień przy poprzednim ticku (tylko wątek ticku)
+    private long lastHalfOpenEvictions;
+    private final SseBroadcast<Map<String, Double>> metricsBroadcast = new SseBroadcast<>(objectMapper, SSE_REPLAY);
+
+    // Czas ticku (zebranie okna + ocena) i opóźnienie jego startu względem harmonogramu, tag pipeline=label
+    private final MeterRegistry meterRegistry;
+    private final Timer tickTimer;
+    private final Timer lagTimer;
+    private final Counter packetCounter;
+    private final Gauge probabilityGauge;
+
+    @Autowired
+    public StatisticsAggregator(FeatureExtractor featureExtractor, BaselineService baselineService,
+                                FuzzyService fuzzyService, HostScoringService hostScoringService,
+                                AlertService alertService, SnapshotHistory history, MeterRegistry meterRegistry,
+                                @Value("${ids.aggregator.tick-ms:1000}") long tickMillis,
+                                @Value("${ids.replay.file:}") String replayFile,
+                                @Value("${ids.cluster.enabled:false}") boolean clusterEnabled) {
+        this(featureExtractor, baselineService, fuzzyService, hostScoringService, alertService, history, meterRegistry,
+                "global", tickMillis, !replayFile.isBlank(), clusterEnabled);
+    }
+
+    // Konstruktor dla potoków per-sonda tworzonych poza kontekstem Springa (init()/cleanup() wołane ręcznie)
+    public StatisticsAggregator(FeatureExtractor featureExtractor, BaselineService baselineService,
+                                FuzzyService fuzzyService, AlertService alertService, MeterRegistry meterRegistry,
+                                String label, long tickMillis) {
+        this(featureExtractor, baselineService, fuzzyService, null, alertService, null, meterRegistry, label, tickMillis,
+                false, false);
+    }
+
+    private StatisticsAggregator(FeatureExtractor featureExtractor, BaselineService baselineService,
+                                 FuzzyService fuzzyService, HostScoringService hostScoringService, AlertService alertService,
+                                 SnapshotHistory history, MeterRegistry meterRegistry, String label, long tickMillis,
+                                 boolean captureClock, boolean summarizeWindows) {
+        if (tickMillis < MIN_TICK_MS) {
+            throw new IllegalArgumentException("ids.aggregator.tick-ms musi wynosić co najmniej " + MIN_TICK_MS + " ms: " + tickMillis);
+        }
         this.featureExtractor = featureExtractor;
         this.baselineService = baselineService;
         this.fuzzyService = fuzzyService;
+        this.features = featureExtractor.getFeatureRegistry();
+        this.slots = features.slotsIn(baselineService);
+        this.hostScoringService = hostScoringService;
+        this.alertService = alertService;
+        this.history = history;
+        this.label = label;
+        this.tickMillis = tickMillis;
+        this.captureClock = captureClock;
+        this.summarizeWindows = summarizeWindows;
+        this.meterRegistry = meterRegistry;
+        this.tickTimer = Timer.builder("ids.aggregator.tick")
+                .description("Czas ticku agregatora: zebranie okna, ocena globalna i per host")
+                .tag("pipeline", label)
+                .publishPercentileHistogram()
+                .maximumExpectedValue(Duration.ofMillis(tickMillis * 10))
+                .register(meterRegistry);
+        this.lagTimer = Timer.builder("ids.aggregator.lag")
+                .description("Opóźnienie startu ticku względem harmonogramu Flux.interval")
+                .tag("pipeline", label)
+                .publishPercentileHistogram()
+                .maximumExpectedValue(Duration.ofMillis(tickMillis * 10))
+                .register(meterRegistry);
+        this.packetCounter = Counter.builder("ids.aggregator.packets")
+                .description("Pakiety uwzględnione w oknach potoku (przy próbkowaniu - oszacowanie z wagami)")
+                .tag("pipeline", label)
+                .register(meterRegistry);
+        this.probabilityGauge = Gauge.builder("ids.aggregator.probability", this, StatisticsAggregator::getLastProbability)
+                .description("Prawdopodobieństwo anomalii z ostatniego ticku (%)")
+                .tag("pipeline", label)
+                .register(meterRegistry);
     }
 
     @PostConstruct
     public void init() {
-        log.info("Inicjalizacja agregatora statystyk...");
+        if (captureClock) {
+            log.info("Agregator statystyk [{}]: tick co {} ms czasu przechwytu (odtwarzanie PCAP)", label, tickMillis);
+            return;
+        }
+        log.info("Inicjalizacja agregatora statystyk [{}], tick co {} ms...", label, tickMillis);
 
-        // Tworzymy strumień, który "tyka" co 1 sekundę
-        this.subscription = Flux.interval(Duration.ofSeconds(1))
+        // Tworzymy strumień, który "tyka" co ids.aggregator.tick-ms (domyślnie 1 s)
+        long startNanos = System.nanoTime();
+        long tickNanos = TimeUnit.MILLISECONDS.toNanos(tickMillis);
+        this.subscription = Flux.interval(Duration.ofMillis(tickMillis))
                 .publishOn(Schedulers.parallel())
-                .map(tick -> captureSnapshot())
-                .doOnNext(this::logSnapshot)
+                .doOnNext(tick -> {
+                    // Tick n planowo startuje (n + 1) okresów po subskrypcji - nadwyżka to zaległość potoku
+                    long lag = System.nanoTime() - (startNanos + (tick + 1) * tickNanos);
+                    lagTimer.record(Math.max(0, lag), TimeUnit.NANOSECONDS);
+                })
+                .doOnNext(tick -> tickTimer.record(() ->
+                        processWindow(featureExtractor.captureWindow(), System.currentTimeMillis())))
                 .subscribe(
                         tick -> {}, // OnNext
                         error -> log.error("Błąd w strumieniu agregatora: ", error)
                 );
     }
 
-    private NetworkSnapshot captureSnapshot() {
-        int syns = featureExtractor.getAndResetSynCount();
-        int icmps = featureExtractor.getAndResetIcmpCount();
-        double avgSize = featureExtractor.getAvgPacketSize();
-        double asymmetry = featureExtractor.getTrafficAsymmetry();
-        int flows = featureExtractor.getActiveFlowsCount();
-
-        Map<String, Integer> portMap = featureExtractor.getAndResetPortVariety();
-        int globalPortDiversity = portMap.values().stream().mapToInt(Integer::intValue).sum();
-
-        NetworkSnapshot snapshot = new NetworkSnapshot(
-                syns, icmps, avgSize, asymmetry, flows, globalPortDiversity
-        );
+    /*
+     * tick sterowany z zewnątrz (odtwarzanie PCAP): okno o długości durationNanos czasu przechwytu
+     * kończące się w endMillis (znacznik historii). Wołający nie może być w trakcie paczki
+     * odbiornika ekstraktora (między begin() i end()).
+     */
+    public void tick(long durationNanos, long endMillis) {
+        tickTimer.record(() -> processWindow(featureExtractor.captureWindow(durationNanos), endMillis));
+    }
 
-        featureExtractor.resetAll();
+    public long getTickMillis() {
+        return tickMillis;
+    }
 
-        return snapshot;
+    // Okno zebrane (i wyzerowane) ze wszystkich shardów ekstraktora - ocena globalna, potem per host
+    private void processWindow(FeatureWindow window, long timestampMillis) {
+        if (window.getSampledShare() > 0) {
+            log.warn("[{}] Przeciążenie wejścia: {}% pakietów okna oszacowano z próbkowania", label,
+                    String.format("%.1f", window.getSampledShare() * 100));
+        }
+        if (window.getHalfOpenEvictions() > lastHalfOpenEvictions) {
+            log.warn("[{}] Tablica uzgodnień TCP pełna: wyparto {} połączeń półotwartych (ids.tcp.half-open.capacity)",
+                    label, window.getHalfOpenEvictions() - lastHalfOpenEvictions);
+        }
+        lastHalfOpenEvictions = window.getHalfOpenEvictions();
+        packetCounter.increment(window.getPacketCount());
+        if (summarizeWindows) {
+            lastSummary = window.summarize(timestampMillis, featureExtractor.getPortSketchPrecision());
+        }
+        logSnapshot(toSnapshot(window), timestampMillis);
+        if (hostScoringService != null) {
+            hostScoringService.score(window, featureExtractor.getProtectedHosts(), timestampMillis);
+        }
+        // Alerty potoku bez anomalii w tym ticku odliczają do zamknięcia
+        alertService.endTick(label);
     }
 
-    private void logSnapshot(NetworkSnapshot s) {
-        this.zSyn = baselineService.calculateZScore("SYNS_PER_SEC", s.syns);
-        this.zIcmp = baselineService.calculateZScore("ICMPS_PER_SEC", s.icmps);
-        this.zAvgSize = baselineService.calculateZScore("AVG_PACKET_SIZE", s.avgPacketSize);
-        this.zAsym = baselineService.calculateZScore("TRAFFIC_ASYMMETRY", s.asymmetry);
-        this.zFlows = baselineService.calculateZScore("ACTIVE_FLOWS", s.flows);
-        this.zPortVar = baselineService.calculateZScore("GLOBAL_PORT_DIVERSITY", s.portDiversity);
+    private NetworkSnapshot toSnapshot(FeatureWindow window) {
+        return new NetworkSnapshot(new FeatureVector(features, features.values(window)), window.getTopTalkers(TOP_TALKERS));
+    }
 
+    private void logSnapshot(NetworkSnapshot s, long timestampMillis) {
+        int n = features.size();
+        double[] z = new double[n];
+        for (int id = 0; id < n; id++) {
+            z[id] = baselineService.calculateZScore(slots[id], s.features().get(id));
+        }
 
-        log.info("--- NETWORK SNAPSHOT (REACTIVE) ---");
-        log.info("Liczników SYN:   {} pkt/s,     Z: {}", s.syns(), zSyn);
-        log.info("Liczników ICMP:  {} pkt/s,     Z: {}", s.icmps(), zIcmp);
-        log.info("Śr. rozm. pkt:   {} bytes,     Z: {}", String.format("%.2f", s.avgPacketSize()), zAvgSize);
-        log.info("Asymetria (I/O): {},           Z: {}", String.format("%.2f", s.asymmetry()), zAsym);
-        log.info("Aktywne Flowy:   {},           Z: {}", s.flows(), zFlows);
-        log.info("Ilość unikalnych portów:   {}, Z: {}", s.portDiversity, zPortVar);
-        log.info("------------------------------------");
+        double probability = fuzzyService.analyze(z);
 
-        this.lastProbability = fuzzyService.analyze(zSyn, zIcmp, zAvgSize, zAsym, zFlows, zPortVar);
+        // Pełny zapis ticku trafia do historii (/dashboard/history) - w logu tylko na poziomie DEBUG
+        if (log.isDebugEnabled()) {
+            log.debug("--- NETWORK SNAPSHOT (REACTIVE) [{}] ---", label);
+            for (int id = 0; id < n; id++) {
+                log.debug("{}: {}, Z: {}", features.name(id), String.format("%.2f", s.features().get(id)), z[id]);
+            }
+            log.debug("--- ANALIZA ZAGROŻEŃ ---");
+            log.debug("Prawdopodobieństwo anomalii: {}%", String.format("%.2f", probability));
+        }
+        if (history != null) {
+            // Kolumny historii (SnapshotHistory.getColumns()): wartości cech, ich z-score'y, prawdopodobieństwo
+            double[] row = new double[2 * n + 1];
+            for (int id = 0; id < n; id++) {
+                row[id] = s.features().get(id);
+                row[n + id] = z[id];
+            }
+            row[2 * n] = probability;
+            history.append(timestampMillis, row);
+        }
 
-        log.info("--- ANALIZA ZAGROŻEŃ ---");
-        log.info("Prawdopodobieństwo anomalii: {}%", String.format("%.2f", this.lastProbability));
+        Map<String, Double> zScores = new LinkedHashMap<>();
+        for (int id = 0; id < n; id++) {
+            zScores.put(features.name(id), z[id]);
+        }
+        zScores = Collections.unmodifiableMap(zScores);
 
-        if (this.lastProbability > 70) {
+        if (probability > alertService.getThreshold()) {
             log.error("!!! WYKRYTO POWAŻNĄ ANOMALIĘ !!!");
+            log.error("Największe źródła (pakiety): {}", s.topTalkers().sourcesByPackets());
+            log.error("Największe źródła (SYN):     {}", s.topTalkers().sourcesBySyns());
+            // Zapis i publikacja alertu poza tickiem (wątek dziennika) - tu tylko stan otwartego alertu
+            alertService.report(label, "global", timestampMillis, probability, zScores, s, fuzzyService.firedRules(z));
         }
 
-        baselineService.addObservation("SYNS_PER_SEC", s.syns, this.lastProbability);
-        baselineService.addObservation("ICMPS_PER_SEC", s.icmps, this.lastProbability);
-        baselineService.addObservation("AVG_PACKET_SIZE", s.avgPacketSize, this.lastProbability);
-        baselineService.addObservation("TRAFFIC_ASYMMETRY", s.asymmetry, this.lastProbability);
-        baselineService.addObservation("ACTIVE_FLOWS", s.flows, this.lastProbability);
-        baselineService.addObservation("GLOBAL_PORT_DIVERSITY", s.portDiversity, this.lastProbability);
+        Map<String, Double> metrics = new LinkedHashMap<>(zScores);
+        metrics.put("anomalyProbability", probability);
+        metrics = Collections.unmodifiableMap(metrics);
+
+        this.lastSnapshot = s;
+        this.lastProbability = probability;
+        this.currentMetrics = metrics;
+        // Jedna serializacja na tick, współdzielona przez wszystkich klientów SSE
+        metricsBroadcast.publish(metrics);
+
+        for (int id = 0; id < n; id++) {
+            baselineService.addObservation(slots[id], s.features().get(id), probability);
+        }
+        baselineService.flushJournal();
     }
 
+    // Z-score cech i prawdopodobieństwo z ostatniego ticku (mapa niezmienna)
     public Map<String, Double> getCurrentMetrics() {
-        Map<String, Double> metrics = new HashMap<>();
-        metrics.put("SYNS_PER_SEC", this.zSyn);
-        metrics.put("ICMPS_PER_SEC", this.zIcmp);
-        metrics.put("AVG_PACKET_SIZE", this.zAvgSize);
-        metrics.put("TRAFFIC_ASYMMETRY", this.zAsym);
-        metrics.put("ACTIVE_FLOWS", this.zFlows);
-        metrics.put("GLOBAL_PORT_DIVERSITY", this.zPortVar);
-        metrics.put("anomalyProbability", this.lastProbability);
+        return currentMetrics;
+    }
+
+    // Gorący strumień metryk dla dashboardu - jeden na agregator, niezależnie od liczby klientów
+    public Flux<ServerSentEvent<String>> metricsStream() {
+        return metricsBroadcast.flux();
+    }
 
-        return metrics;
+    public double getLastProbability() {
+        return lastProbability;
+    }
+
+    // Heavy-hitters z ostatniego snapshotu - kto odpowiada za bieżący ruch
+    public TopTalkers getTopTalkers() {
+        NetworkSnapshot s = lastSnapshot;
+        return s != null ? s.topTalkers() : TopTalkers.EMPTY;
+    }
+
+    // Addytywne podsumowanie ostatniego okna (null bez ids.cluster.enabled albo przed pierwszym tickiem)
+    public WindowSummary getLastSummary() {
+        return lastSummary;
+    }
+
+    public NetworkSnapshot getLastSnapshot() {
+        return lastSnapshot;
+    }
+
+    public FeatureExtractor getFeatureExtractor() {
+        return featureExtractor;
     }
 
     @PreDestroy
     public void cleanup() {
+        alertService.closeAll(label);
+        metricsBroadcast.complete();
+        meterRegistry.remove(tickTimer);
+        meterRegistry.remove(lagTimer);
+        meterRegistry.remove(packetCounter);
+        meterRegistry.remove(probabilityGauge);
         if (subscription != null) {
             subscription.dispose();
-            log.info("Strumień agregatora został zatrzymany.");
+            log.info("Strumień agregatora [{}] został zatrzymany.", label);
         }
     }
-
-    private record NetworkSnapshot(
-            int syns,
-            int icmps,
-            double avgPacketSize,
-            double asymmetry,
-            int flows,
-            int portDiversity
-    ) {}
 }
\ No newline at end of file
@@ -0,0 +1,61 @@
+package com.ids.ids_controller.service;
+
+/**
+ * Komplet szkiców heavy-hitters jednego shardu/okna: źródła i cele wg pakietów, bajtów i SYN-ów.
+ * Pamięć jest stała (6 x capacity liczników) niezależnie od liczby adresów w ruchu.
+ */
+final class TalkerSketches {
+
+    private final SpaceSaving srcPackets;
+    private final SpaceSaving srcBytes;
+    private final SpaceSaving srcSyns;
+    private final SpaceSaving dstPackets;
+    private final SpaceSaving dstBytes;
+    private final SpaceSaving dstSyns;
+
+    TalkerSketches(int capacity) {
+        srcPackets = new SpaceSaving(capacity);
+        srcBytes = new SpaceSaving(capacity);
+        srcSyns = new SpaceSaving(capacity);
+        dstPackets = new SpaceSaving(capacity);
+        dstBytes = new SpaceSaving(capacity);
+        dstSyns = new SpaceSaving(capacity);
+    }
+
+    // weight - liczba pakietów reprezentowanych przez rekord (próbkowanie), length - bajty już z wagą
+    void record(long src, long dst, long length, int weight) {
+        srcPackets.add(src, weight);
+        srcBytes.add(src, length);
+        dstPackets.add(dst, weight);
+        dstBytes.add(dst, length);
+    }
+
+    void recordSyn(long src, long dst, int weight) {
+        srcSyns.add(src, weight);
+        dstSyns.add(dst, weight);
+    }
+
+    void mergeFrom(TalkerSketches other) {
+        srcPackets.merge(other.srcPackets);
+        srcBytes.merge(other.srcBytes);
+        srcSyns.merge(other.srcSyns);
+        dstPackets.merge(other.dstPackets);
+        dstBytes.merge(other.dstBytes);
+        dstSyns.merge(other.dstSyns);
+    }
+
+    void clear() {
+        srcPackets.clear();
+        srcBytes.clear();
+        srcSyns.clear();
+        dstPackets.clear();
+        dstBytes.clear();
+        dstSyns.clear();
+    }
+
+    TopTalkers top(int k) {
+        return new TopTalkers(
+                srcPackets.top(k), srcBytes.top(k), srcSyns.top(k),
+                dstPackets.top(k), dstBytes.top(k), dstSyns.top(k));
+    }
+}
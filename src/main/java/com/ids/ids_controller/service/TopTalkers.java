@@ -0,0 +1,18 @@
+package com.ids.ids_controller.service;
+
+import java.util.List;
+
+/**
+ * Największe źródła i cele ruchu w oknie (heavy-hitters ze szkiców Space-Saving).
+ * count jest górnym oszacowaniem, prawdziwa wartość leży w przedziale [count - error, count].
+ */
+public record TopTalkers(
+        List<SpaceSaving.Talker> sourcesByPackets,
+        List<SpaceSaving.Talker> sourcesByBytes,
+        List<SpaceSaving.Talker> sourcesBySyns,
+        List<SpaceSaving.Talker> destinationsByPackets,
+        List<SpaceSaving.Talker> destinationsByBytes,
+        List<SpaceSaving.Talker> destinationsBySyns
+) {
+    public static final TopTalkers EMPTY = new TopTalkers(List.of(), List.of(), List.of(), List.of(), List.of(), List.of());
+}
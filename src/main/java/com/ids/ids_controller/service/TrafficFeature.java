@@ -0,0 +1,58 @@
+package com.ids.ids_controller.service;
+
+import com.ids.ids_controller.parser.PacketView;
+
+/**
+ * Cecha ruchu oceniana przez potoki (SPI). Wbudowane cechy to CoreFeature; kolejne dodaje się jako bean
+ * Springa implementujący ten interfejs (kolejność wg @Order) - FeatureRegistry nadaje każdej gęsty
+ * identyfikator, pod którym w tablicach leżą jej wartość, z-score i slot baseline.
+ *
+ * Cecha, której nie wystarczają liczniki FeatureWindow, deklaruje własne liczniki okna (counters())
+ * i zwiększa je w count() - wołanym dla każdego pakietu na wątku piszącego shardu, więc musi być tania
+ * i bez alokacji. Liczniki są sumowane ze wszystkich shardów jak pozostałe liczniki okna.
+ *
+ * Przykład - tempo zapytań DNS:
+ * <pre>
+ * &#64;Component
+ * public class DnsQueryRate implements TrafficFeature {
+ *     public String name() { return "DNS_QUERIES_PER_SEC"; }
+ *     public int counters() { return 1; }
+ *     public void count(PacketView p, int weight, long[] counters, int base) {
+ *         if (p.protocol() == PacketView.PROTO_UDP &amp;&amp; p.dstPort() == 53) counters[base] += weight;
+ *     }
+ *     public double value(FeatureWindow window, int base) { return window.perSecond(window.counter(base)); }
+ * }
+ * </pre>
+ */
+public interface TrafficFeature {
+
+    // Nazwa w baseline, alertach, metrykach i digestach klastra - unikalna
+    String name();
+
+    // Zmienna VAR_INPUT w anomaly_finder.fcl zasilana z-score'em cechy; null - cecha tylko w baseline i alertach
+    default String fuzzyInput() {
+        return null;
+    }
+
+    // Liczba własnych liczników okna (indeksy base .. base + counters() - 1)
+    default int counters() {
+        return 0;
+    }
+
+    // Pakiet z wagą (rekord z próbki 1 z N liczy się za N) - tylko cechy z counters() > 0
+    default void count(PacketView packet, int weight, long[] counters, int base) {
+    }
+
+    // Wartość cechy dla okna globalnego
+    double value(FeatureWindow window, int base);
+
+    // Wartość dla jednostki oceny per host (rateScale - licznik okna na wartość na sekundę); NaN - cecha nieoceniana per host
+    default double hostValue(HostFeatures host, double rateScale) {
+        return Double.NaN;
+    }
+
+    // Wartość ze scalonych okien floty (ids.cluster); NaN - cecha nieoceniana dla floty
+    default double fleetValue(WindowSummary summary) {
+        return Double.NaN;
+    }
+}
@@ -0,0 +1,65 @@
+package com.ids.ids_controller.service;
+
+import java.util.List;
+
+/**
+ * Addytywna część cech jednego okna - sumy, tempa na sekundę i szkic par (źródło, port docelowy).
+ * Podsumowania okien różnych kontrolerów można scalać (sumy, maksimum rejestrów HLL) i liczyć z nich
+ * cechy całej floty; cechy ilorazowe (średni rozmiar, asymetria, udział uzgodnień) liczone są ze scalonych sum
+ * (CoreFeature.fleetValue).
+ */
+public record WindowSummary(
+        long timestampMillis,     // koniec okna
+        double synsPerSecond,
+        double icmpsPerSecond,
+        long packets,
+        long bytes,
+        long inboundBytes,
+        long outboundBytes,
+        long flows,
+        long halfOpen,
+        long handshakesCompleted,
+        long handshakesFailed,
+        HyperLogLog portPairs
+) {
+
+    // Sumy okien kontrolerów; szkice o innej precyzji niż pierwszy są pomijane (inne ids.features.port-sketch.error)
+    public static WindowSummary merge(List<WindowSummary> summaries) {
+        WindowSummary first = summaries.get(0);
+        HyperLogLog pairs = new HyperLogLog(first.portPairs.precision());
+        long timestamp = 0;
+        double syns = 0;
+        double icmps = 0;
+        long packets = 0;
+        long bytes = 0;
+        long inbound = 0;
+        long outbound = 0;
+        long flows = 0;
+        long halfOpen = 0;
+        long completed = 0;
+        long failed = 0;
+        for (WindowSummary s : summaries) {
+            timestamp = Math.max(timestamp, s.timestampMillis);
+            syns += s.synsPerSecond;
+            icmps += s.icmpsPerSecond;
+            packets += s.packets;
+            bytes += s.bytes;
+            inbound += s.inboundBytes;
+            outbound += s.outboundBytes;
+            flows += s.flows;
+            halfOpen += s.halfOpen;
+            completed += s.handshakesCompleted;
+            failed += s.handshakesFailed;
+            if (s.portPairs.precision() == pairs.precision()) {
+                pairs.merge(s.portPairs);
+            }
+        }
+        return new WindowSummary(timestamp, syns, icmps, packets, bytes, inbound, outbound, flows,
+                halfOpen, completed, failed, pairs);
+    }
+
+    // Cechy floty wg rejestru (TrafficFeature.fleetValue) - bez heavy-hitterów, te same nazwy cech w baseline
+    public NetworkSnapshot toSnapshot(FeatureRegistry registry) {
+        return new NetworkSnapshot(new FeatureVector(registry, registry.fleetValues(this)), TopTalkers.EMPTY);
+    }
+}
@@ -0,0 +1,100 @@
+package com.ids.ids_controller.cluster;
+
+import com.ids.ids_controller.service.BaselineService;
+import com.ids.ids_controller.service.CoreFeature;
+import com.ids.ids_controller.service.FeatureRegistry;
+import com.ids.ids_controller.service.FeatureVector;
+import com.ids.ids_controller.service.HyperLogLog;
+import com.ids.ids_controller.service.WindowSummary;
+import org.junit.jupiter.api.Test;
+
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class ClusterCodecTest {
+
+    @Test
+    void digestRoundTripsWithSparseAndDenseSketches() {
+        for (int pairs : new int[]{10, 50_000}) {
+            HyperLogLog sketch = new HyperLogLog(12);
+            for (long p = 0; p < pairs; p++) {
+                sketch.addHash(HyperLogLog.hash(p));
+            }
+            Map<String, ClusterDigest.Stats> baseline = new LinkedHashMap<>();
+            baseline.put("SYNS_PER_SEC", new ClusterDigest.Stats(3600, 12.5, 840.25));
+            baseline.put("HALF_OPEN", new ClusterDigest.Stats(42, 0.5, 3.0));
+            WindowSummary window = new WindowSummary(1_700_000_000_000L, 12, 1.5, 900, 540_000, 400_000, 140_000,
+                    37, 4, 20, 2, sketch);
+            ClusterDigest digest = new ClusterDigest("krakow", 77L, 1234L, true, baseline, window);
+
+            ClusterDigest decoded = ClusterCodec.decode(ClusterCodec.encode(digest));
+
+            assertEquals("krakow", decoded.site());
+            assertEquals(77L, decoded.instance());
+            assertEquals(1234L, decoded.sequence());
+            assertTrue(decoded.full());
+            assertEquals(baseline, decoded.baseline());
+            assertEquals(window.packets(), decoded.window().packets());
+            assertEquals(window.handshakesFailed(), decoded.window().handshakesFailed());
+            assertEquals(sketch.estimate(), decoded.window().portPairs().estimate());
+        }
+    }
+
+    @Test
+    void corruptedDigestIsRejected() {
+        byte[] encoded = ClusterCodec.encode(new ClusterDigest("a", 1, 2, false, Map.of(), null));
+        assertNull(ClusterCodec.decode(encoded).window());
+        encoded[10] ^= 1;
+        assertThrows(IllegalArgumentException.class, () -> ClusterCodec.decode(encoded));
+    }
+
+    @Test
+    void mergedStatsEqualStatsOfAllSamples() {
+        Random random = new Random(7);
+        BaselineService.BaselineStats siteA = new BaselineService.BaselineStats();
+        BaselineService.BaselineStats siteB = new BaselineService.BaselineStats();
+        BaselineService.BaselineStats all = new BaselineService.BaselineStats();
+        for (int i = 0; i < 5000; i++) {
+            double a = 100 + random.nextGaussian() * 10;
+            siteA.update(a);
+            all.update(a);
+        }
+        for (int i = 0; i < 300; i++) {
+            double b = 400 + random.nextGaussian() * 50;
+            siteB.update(b);
+            all.update(b);
+        }
+
+        BaselineService.BaselineStats fleet = siteA.copy();
+        fleet.merge(siteB.getCount(), siteB.getMean(), siteB.getM2());
+
+        assertEquals(all.getCount(), fleet.getCount());
+        assertEquals(all.getMean(), fleet.getMean(), 1e-9);
+        assertEquals(all.getStdDev(), fleet.getStdDev(), 1e-9);
+    }
+
+    @Test
+    void mergedWindowsSumCountersAndUnionPortPairs() {
+        HyperLogLog a = new HyperLogLog(12);
+        HyperLogLog b = new HyperLogLog(12);
+        for (long p = 0; p < 3000; p++) {
+            a.addHash(HyperLogLog.hash(p));
+            b.addHash(HyperLogLog.hash(p + 1500)); // połowa par wspólna
+        }
+        WindowSummary merged = WindowSummary.merge(List.of(
+                new WindowSummary(1000, 10, 0, 100, 10_000, 6_000, 4_000, 5, 1, 3, 1, a),
+                new WindowSummary(1200, 20, 2, 300, 50_000, 30_000, 20_000, 7, 2, 5, 1, b)));
+
+        assertEquals(1200, merged.timestampMillis());
+        assertEquals(400, merged.packets());
+        FeatureVector fleet = merged.toSnapshot(FeatureRegistry.core()).features();
+        assertEquals(150, fleet.get(CoreFeature.AVG_PACKET_SIZE), 1e-9);
+        assertEquals(30, fleet.get(CoreFeature.SYNS_PER_SEC), 1e-9);
+        assertEquals(0.8, fleet.get(CoreFeature.HANDSHAKE_COMPLETION), 1e-9);
+        assertEquals(4500, merged.portPairs().estimate(), 4500 * 0.05);
+    }
+}
@@ -0,0 +1,123 @@
+package com.ids.ids_controller.parser;
+
+import com.ids.ids_controller.service.FeatureSink;
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.Unpooled;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class PacketDecoderTest {
+
+    @Test
+    void streamSplitAtAnyOffsetDecodesLikeSingleChunk() {
+        byte[] stream = pcapStream(40, 65535, 1_700_000_000);
+        List<String> expected = decode(stream, stream.length);
+        assertEquals(40, expected.size());
+
+        // Dwie paczki: podział w każdym miejscu, także wewnątrz nagłówka globalnego i nagłówków rekordów
+        for (int split = 1; split < stream.length; split++) {
+            Recorder sink = new Recorder();
+            PacketDecoder decoder = new PacketDecoder(sink, true);
+            decoder.decode(Unpooled.wrappedBuffer(stream, 0, split));
+            decoder.decode(Unpooled.wrappedBuffer(stream, split, stream.length - split));
+            assertEquals(expected, sink.packets, "podział na offsecie " + split);
+            assertEquals(0, decoder.getResyncSkips(), "podział na offsecie " + split);
+        }
+    }
+
+    @Test
+    void shortChunksFromStreamStartDecodeLikeSingleChunk() {
+        byte[] stream = pcapStream(40, 65535, 1_700_000_000);
+        List<String> expected = decode(stream, stream.length);
+
+        // Paczki krótsze niż nagłówek globalny (24 B) i nagłówek rekordu (16 B)
+        for (int chunk = 1; chunk <= 64; chunk++) {
+            assertEquals(expected, decode(stream, chunk), "paczki po " + chunk + " B");
+        }
+    }
+
+    @Test
+    void garbageDoesNotGrowCumulationBuffer() {
+        Recorder sink = new Recorder();
+        PacketDecoder decoder = new PacketDecoder(sink, true);
+        int initialCapacity = decoder.cumulationCapacity();
+
+        // Nagłówek globalny ze snaplen 1500, potem 12.8 MB zer w paczkach 16 KiB (długości 0 - przesuwanie o bajt)
+        decoder.decode(Unpooled.wrappedBuffer(pcapStream(0, 1500, 0)));
+        byte[] zeros = new byte[16 * 1024];
+        for (int i = 0; i < 800; i++) {
+            decoder.decode(Unpooled.wrappedBuffer(zeros));
+            assertTrue(decoder.getBufferedBytes() < 16, "bufor po paczce " + i + ": " + decoder.getBufferedBytes());
+        }
+        assertEquals(initialCapacity, decoder.cumulationCapacity());
+
+        // Rekord po śmieciach jest odnajdywany (znacznik 0 - żaden przesunięty nagłówek nie ma wiarygodnej długości)
+        ByteBuf record = Unpooled.buffer();
+        writeRecord(record, 0, 1, 60);
+        decoder.decode(record);
+        assertEquals(1, sink.packets.size());
+        assertEquals(16 * 1024 * 800L, decoder.getResyncSkips());
+    }
+
+    private static List<String> decode(byte[] stream, int chunkSize) {
+        Recorder sink = new Recorder();
+        PacketDecoder decoder = new PacketDecoder(sink, true);
+        for (int from = 0; from < stream.length; from += chunkSize) {
+            decoder.decode(Unpooled.wrappedBuffer(stream, from, Math.min(chunkSize, stream.length - from)));
+        }
+        return sink.packets;
+    }
+
+    // Strumień little-endian: nagłówek globalny i rekordy TCP o rosnących rozmiarach (60-600 B ramki)
+    private static byte[] pcapStream(int records, int snapLength, int tsSec) {
+        ByteBuf stream = Unpooled.buffer();
+        stream.writeIntLE(0xa1b2c3d4).writeShortLE(2).writeShortLE(4).writeIntLE(0).writeIntLE(0)
+                .writeIntLE(snapLength).writeIntLE(1);
+        for (int n = 0; n < records; n++) {
+            writeRecord(stream, tsSec, n, 60 + (n * 37) % 540);
+        }
+        byte[] bytes = new byte[stream.readableBytes()];
+        stream.readBytes(bytes);
+        return bytes;
+    }
+
+    private static void writeRecord(ByteBuf out, int tsSec, int n, int frameLength) {
+        out.writeIntLE(tsSec).writeIntLE(tsSec == 0 ? 0 : n * 1000).writeIntLE(frameLength).writeIntLE(frameLength);
+        int start = out.writerIndex();
+        out.writeZero(12);
+        out.writeShort(0x0800);
+        out.writeByte(0x45).writeByte(0).writeShort(frameLength - 14);
+        out.writeShort(0).writeShort(0);
+        out.writeByte(64).writeByte(PacketView.PROTO_TCP).writeShort(0);
+        out.writeInt((10 << 24) | n);
+        out.writeInt((172 << 24) | (18 << 16) | 3);
+        out.writeShort(40000 + n).writeShort(80);
+        out.writeInt(0).writeInt(0);
+        out.writeByte(0x50).writeByte(PacketView.TCP_SYN).writeShort(1024);
+        out.writeShort(0).writeShort(0);
+        out.writeZero(frameLength - (out.writerIndex() - start));
+    }
+
+    // Zapis zdekodowanych pakietów do porównania
+    private static final class Recorder implements FeatureSink {
+        final List<String> packets = new ArrayList<>();
+
+        @Override public void begin() { }
+
+        @Override
+        public void accept(PacketView p) {
+            packets.add(p.timestampMicros() + " " + PacketView.formatAddress(p.srcAddr()) + ":" + p.srcPort()
+                    + " > " + PacketView.formatAddress(p.dstAddr()) + ":" + p.dstPort()
+                    + " flags=" + p.tcpFlags() + " len=" + p.wireLength());
+        }
+
+        @Override public void end() { }
+
+        @Override public void close() { }
+    }
+}
@@ -0,0 +1,89 @@
+package com.ids.ids_controller.receiver;
+
+import com.ids.ids_controller.parser.PacketDecoder;
+import com.ids.ids_controller.parser.PacketView;
+import com.ids.ids_controller.service.FeatureSink;
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.Unpooled;
+import org.junit.jupiter.api.Test;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTimeoutPreemptively;
+
+class PcapReplayTest {
+
+    private static final long START_SEC = 1_700_000_000L;
+    private static final long GAP_SEC = 30L * 24 * 3600;
+    private static final long TICK_MS = 1000;
+
+    @Test
+    void captureGapClosesOneWindowInsteadOfCatchingUp() {
+        // Sekundy od początku przechwytu: dwie granice ticku, 30 dni przerwy, potem przerwa 7 ticków (poniżej limitu)
+        double[] offsets = {0.2, 0.7, 2.5, GAP_SEC + 0.3, GAP_SEC + 1.5, GAP_SEC + 8.2};
+        List<Long> tickEnds = new ArrayList<>();
+        Counter delegate = new Counter();
+        PcapReplay.ClockedSink sink = new PcapReplay.ClockedSink(delegate, (duration, endMillis) -> {
+            assertEquals(TICK_MS * 1_000_000, duration);
+            tickEnds.add(endMillis);
+        }, TICK_MS, 1000, 10);
+        PacketDecoder decoder = new PacketDecoder(sink, true);
+
+        // Tempo 1000x - bez pominięcia przerwy w czasie ściennym odtwarzanie spałoby 43 minuty
+        assertTimeoutPreemptively(Duration.ofSeconds(10), () -> {
+            decoder.decode(pcapStream(offsets));
+            decoder.close();
+        });
+
+        assertEquals(offsets.length, delegate.packets);
+        long startMs = START_SEC * 1000 + 200;
+        List<Long> expected = new ArrayList<>(List.of(startMs + 1000, startMs + 2000, startMs + 3000));
+        // Po przerwie ticki zachowują fazę: granica GAP+1.2 s zamyka okno rekordu GAP+0.3 s
+        for (long k = 1; k <= 8; k++) {
+            expected.add(startMs + (GAP_SEC + k) * 1000);
+        }
+        assertEquals(expected, tickEnds);
+        assertEquals(11, sink.ticks);
+        assertEquals(GAP_SEC - 3, sink.skippedTicks);
+    }
+
+    private static ByteBuf pcapStream(double[] offsets) {
+        ByteBuf stream = Unpooled.buffer();
+        stream.writeIntLE(0xa1b2c3d4).writeShortLE(2).writeShortLE(4).writeIntLE(0).writeIntLE(0)
+                .writeIntLE(65535).writeIntLE(1);
+        for (int n = 0; n < offsets.length; n++) {
+            long micros = Math.round(offsets[n] * 1e6);
+            stream.writeIntLE((int) (START_SEC + micros / 1_000_000)).writeIntLE((int) (micros % 1_000_000))
+                    .writeIntLE(60).writeIntLE(60);
+            int start = stream.writerIndex();
+            stream.writeZero(12);
+            stream.writeShort(0x0800);
+            stream.writeByte(0x45).writeByte(0).writeShort(46);
+            stream.writeShort(0).writeShort(0);
+            stream.writeByte(64).writeByte(PacketView.PROTO_TCP).writeShort(0);
+            stream.writeInt((10 << 24) | n);
+            stream.writeInt((172 << 24) | (18 << 16) | 3);
+            stream.writeShort(40000 + n).writeShort(80);
+            stream.writeInt(0).writeInt(0);
+            stream.writeByte(0x50).writeByte(PacketView.TCP_ACK).writeShort(1024);
+            stream.writeShort(0).writeShort(0);
+            stream.writeZero(60 - (stream.writerIndex() - start));
+        }
+        return stream;
+    }
+
+    private static final class Counter implements FeatureSink {
+        int packets;
+
+        @Override public void begin() { }
+
+        @Override public void accept(PacketView packet) { packets++; }
+
+        @Override public void end() { }
+
+        @Override public void close() { }
+    }
+}
@@ -0,0 +1,143 @@
+package com.ids.ids_controller.service;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import tools.jackson.databind.ObjectMapper;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Instant;
+import java.util.List;
+import java.util.Map;
+import java.util.function.BooleanSupplier;
+import java.util.stream.Stream;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.fail;
+
+class AlertServiceTest {
+
+    private static final long T0 = 1_700_000_000_000L;
+    private static final Map<String, Double> Z = Map.of("SYN", 4.0);
+
+    @TempDir
+    Path dir;
+
+    @Test
+    void consecutiveAnomalousTicksCoalesceIntoOneAlert() throws Exception {
+        // Aktualizacja co 2 ticki, zamknięcie po 2 tickach bez anomalii
+        AlertService alerts = service(2, 2, 16, 64, new SimpleMeterRegistry());
+        alerts.init();
+        double[] probabilities = {80, 95, 85};
+        for (int tick = 0; tick < 3; tick++) {
+            alerts.report("global", "global", T0 + tick * 1000L, probabilities[tick], Z, "okno " + tick, List.of());
+            alerts.endTick("global");
+        }
+        alerts.endTick("global");
+        alerts.endTick("global");
+        // Anomalia po zamknięciu - nowy alert
+        alerts.report("global", "global", T0 + 5000, 90, Z, "okno 5", List.of());
+        alerts.shutdown();
+
+        assertEquals(List.of("1 OPEN", "1 UPDATE", "1 CLOSED", "2 OPEN", "2 CLOSED"),
+                journal().stream().map(e -> e.id() + " " + e.state()).toList());
+        AlertEvent first = alerts.get(1);
+        assertEquals(AlertEvent.State.CLOSED, first.state());
+        assertEquals(3, first.ticks());
+        assertEquals(95, first.peakProbability());
+        assertEquals(85, first.lastProbability());
+        assertEquals("okno 1", first.evidence());
+        // Znaczniki z okien agregatora, nie z chwili zapisu
+        assertEquals(Instant.ofEpochMilli(T0), first.startedAt());
+        assertEquals(Instant.ofEpochMilli(T0 + 2000), first.updatedAt());
+        assertEquals(Instant.ofEpochMilli(T0 + 5000), alerts.get(2).startedAt());
+        assertEquals(2, alerts.page(0, 10, null).total());
+    }
+
+    @Test
+    void fullQueueDropsEventsWithoutBlockingTick() throws Exception {
+        SimpleMeterRegistry registry = new SimpleMeterRegistry();
+        // Bez init() wątek dziennika nie opróżnia kolejki - mieści się jedno zdarzenie
+        AlertService alerts = service(3, 60, 1, 64, registry);
+        for (int host = 1; host <= 3; host++) {
+            alerts.report("global", "10.0.0." + host, T0, 90, Z, null, List.of());
+        }
+        alerts.endTick("global");
+
+        assertEquals(2, registry.get("ids.alerts.dropped").counter().count());
+        assertEquals(3, registry.get("ids.alerts.open").gauge().value());
+        alerts.shutdown();
+        assertEquals(5, registry.get("ids.alerts.dropped").counter().count());
+    }
+
+    @Test
+    void indexReloadsFromTailAfterRotation() throws Exception {
+        // Segment 1 MB, zdarzenia ok. 300 kB - rotacja po czwartym
+        String large = "x".repeat(300_000);
+        AlertService alerts = service(1, 60, 64, 64, new SimpleMeterRegistry());
+        alerts.init();
+        // Alert na sondę - zamykane po kolei w closeAll, kolejność wpisów w segmencie jest stała
+        for (int probe = 1; probe <= 4; probe++) {
+            alerts.report("sonda-" + probe, "global", T0, 90, Z, large, List.of());
+            alerts.endTick("sonda-" + probe);
+        }
+        awaitSegments(1);
+        // Zamknięcie alertów 1-4 wypełnia i rotuje drugi segment
+        Thread.sleep(5);
+        for (int probe = 1; probe <= 4; probe++) {
+            alerts.closeAll("sonda-" + probe);
+        }
+        awaitSegments(2);
+        alerts.report("global", "10.0.0.5", T0 + 2000, 90, Z, "mały", List.of());
+        alerts.shutdown();
+
+        AlertService reloaded = service(1, 60, 64, 64, new SimpleMeterRegistry());
+        reloaded.init();
+        // Z najnowszego segmentu czytany jest tylko ostatni 1 MB - zamknięcie alertu 1 jest ucięte
+        assertNull(reloaded.get(1));
+        for (long id = 2; id <= 4; id++) {
+            assertEquals(AlertEvent.State.CLOSED, reloaded.get(id).state(), "alert " + id);
+        }
+        assertEquals("mały", reloaded.get(5).evidence());
+        assertEquals(4, reloaded.page(0, 10, null).total());
+        // Identyfikatory kontynuowane po odtworzeniu
+        reloaded.report("global", "10.0.0.6", T0 + 3000, 90, Z, null, List.of());
+        reloaded.shutdown();
+        assertEquals("10.0.0.6", reloaded.get(6).subject());
+    }
+
+    private AlertService service(int closeAfterTicks, int updateEveryTicks, int queueCapacity, int indexSize,
+                                 SimpleMeterRegistry registry) {
+        return new AlertService(70, closeAfterTicks, updateEveryTicks, queueCapacity, indexSize, true,
+                dir.toString(), 1, 24, 30, registry);
+    }
+
+    private List<AlertEvent> journal() throws IOException {
+        ObjectMapper mapper = new ObjectMapper();
+        return Files.readAllLines(dir.resolve("alerts.jsonl")).stream()
+                .map(line -> mapper.readValue(line, AlertEvent.class))
+                .toList();
+    }
+
+    // Rotację wykonuje wątek dziennika po zapisie partii
+    private void awaitSegments(int count) throws Exception {
+        await(() -> {
+            try (Stream<Path> files = Files.list(dir)) {
+                return files.filter(f -> f.getFileName().toString().startsWith("alerts-")).count() == count;
+            } catch (IOException e) {
+                return false;
+            }
+        });
+    }
+
+    private static void await(BooleanSupplier condition) throws InterruptedException {
+        for (int i = 0; i < 500; i++) {
+            if (condition.getAsBoolean()) return;
+            Thread.sleep(10);
+        }
+        fail("warunek niespełniony w 5 s");
+    }
+}
@@ -0,0 +1,274 @@
+package com.ids.ids_controller.service;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.stream.Stream;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class BaselinePersistenceTest {
+
+    private static final int WINDOW = 50;
+    private static final long TICK_MS = 1000;
+    // Wpis dziennika cechy "SYN": [2 B długość][3 B nazwa][8 B seq][8 B wartość][4 B CRC]
+    private static final String FEATURE = "SYN";
+    private static final int RECORD = 2 + 3 + 8 + 8 + 4;
+
+    @TempDir
+    Path root;
+    private Path dir;
+
+    @BeforeEach
+    void setUp() {
+        dir = root.resolve("live");
+    }
+
+    @Test
+    void snapshotPlusLogReplayRestoresState() throws IOException {
+        BaselineService baseline = new BaselineService(WINDOW);
+        BaselinePersistence persistence = open(baseline, dir);
+        Random random = new Random(5);
+        observe(baseline, random, 80);
+        persistence.checkpoint();
+        observe(baseline, random, 70);
+        baseline.flushJournal();
+
+        // Bez shutdown() - jak po awarii procesu: migawka z 80 obserwacji + dziennik z 70 kolejnymi
+        BaselineService recovered = new BaselineService(WINDOW);
+        open(recovered, dir);
+        assertSameState(baseline, recovered);
+        assertEquals(baseline.getObservationSeq(), recovered.getObservationSeq());
+    }
+
+    @Test
+    void tornTailAndBadCrcStopReplay() throws IOException {
+        BaselineService baseline = new BaselineService(WINDOW);
+        open(baseline, dir);
+        double[] values = new Random(9).doubles(40, 0, 100).toArray();
+        for (double v : values) baseline.addObservation(FEATURE, v, 0);
+        baseline.flushJournal();
+        Path log = onlyLog(dir);
+        assertEquals(40L * RECORD, Files.size(log));
+
+        // Urwany ostatni wpis - odtwarzamy 39 pełnych
+        Path torn = copyOf(dir, "torn");
+        try (FileChannel channel = FileChannel.open(torn.resolve(log.getFileName()), StandardOpenOption.WRITE)) {
+            channel.truncate(40L * RECORD - 5);
+        }
+        assertSameState(reference(values, 39), recover(torn));
+
+        // Zmieniona wartość wpisu 25 - CRC się nie zgadza, reszta pliku jest pomijana
+        Path corrupt = copyOf(dir, "corrupt");
+        try (FileChannel channel = FileChannel.open(corrupt.resolve(log.getFileName()), StandardOpenOption.WRITE)) {
+            channel.write(ByteBuffer.wrap(new byte[]{0x7f}), 25L * RECORD + 2 + 3 + 8);
+        }
+        assertSameState(reference(values, 25), recover(corrupt));
+    }
+
+    @Test
+    void crashBetweenCheckpointStepsLosesNothing() throws IOException {
+        BaselineService baseline = new BaselineService(WINDOW);
+        BaselinePersistence persistence = open(baseline, dir);
+        Random random = new Random(13);
+        observe(baseline, random, 60);
+        persistence.checkpoint();
+        observe(baseline, random, 60);
+        baseline.flushJournal();
+        // Stan przed checkpointem: migawka po 60 obserwacjach + dziennik z kolejnymi 60
+        Path before = copyOf(dir, "before");
+        Path oldLog = onlyLog(before);
+        String name = oldLog.getFileName().toString();
+        long generation = Long.parseLong(name.substring("baseline-".length(), name.length() - ".log".length()));
+        persistence.checkpoint();
+
+        // 1. Po rotacji dziennika, przed zapisem migawki: stara migawka, stary dziennik i pusty nowy
+        Path rotated = copyOf(before, "rotated");
+        Files.createFile(rotated.resolve("baseline-" + (generation + 1) + ".log"));
+        assertSameState(baseline, recover(rotated));
+
+        // 2. Migawka zapisana do pliku tymczasowego tylko częściowo - plik tymczasowy nie jest czytany
+        Path partial = copyOf(rotated, "partial");
+        byte[] snapshot = Files.readAllBytes(dir.resolve("baseline.snap"));
+        Files.write(partial.resolve("baseline.snap.tmp"), Arrays.copyOf(snapshot, snapshot.length / 2));
+        assertSameState(baseline, recover(partial));
+
+        // 3. Migawka podmieniona, stare dzienniki jeszcze nieusunięte - wpisy zawarte w migawce nie są liczone drugi raz
+        Path moved = copyOf(dir, "moved");
+        Files.copy(oldLog, moved.resolve(oldLog.getFileName()));
+        assertSameState(baseline, recover(moved));
+
+        // Kolejny checkpoint po takim restarcie sprząta plik tymczasowy i stare dzienniki
+        BaselinePersistence restarted = open(new BaselineService(WINDOW), partial);
+        restarted.checkpoint();
+        assertFalse(Files.exists(partial.resolve("baseline.snap.tmp")));
+        assertEquals(1, logs(partial).size());
+    }
+
+    @Test
+    void hostBaselinesSurviveRestartFromCheckpoint() throws IOException {
+        Hosts hosts = new Hosts();
+        BaselinePersistence persistence = open(new BaselineService(WINDOW), hosts, dir);
+        BaselineService first = new BaselineService(20);
+        BaselineService second = new BaselineService(20);
+        Random random = new Random(17);
+        observe(first, random, 30);
+        observe(second, random, 7);
+        hosts.baselines = Map.of(1L, first.exportState(), 2L, second.exportState(), 3L, List.of());
+        persistence.checkpoint();
+
+        Hosts recovered = new Hosts();
+        open(new BaselineService(WINDOW), recovered, dir);
+        assertEquals(hosts.baselines.keySet(), recovered.baselines.keySet());
+        assertSameState(first, restore(recovered.baselines.get(1L)));
+        assertSameState(second, restore(recovered.baselines.get(2L)));
+        assertTrue(recovered.baselines.get(3L).isEmpty());
+
+        // Uszkodzona migawka hostów nie blokuje odtworzenia baseline globalnego
+        try (FileChannel channel = FileChannel.open(dir.resolve("hosts.snap"), StandardOpenOption.WRITE)) {
+            channel.write(ByteBuffer.wrap(new byte[]{1, 2, 3}), 40);
+        }
+        Hosts corrupt = new Hosts();
+        open(new BaselineService(WINDOW), corrupt, dir);
+        assertTrue(corrupt.baselines.isEmpty());
+    }
+
+    @Test
+    void snapshotFromDifferentTickIsRejected() throws IOException {
+        Hosts hosts = new Hosts();
+        BaselineService baseline = new BaselineService(WINDOW);
+        BaselinePersistence persistence = open(baseline, hosts, dir);
+        observe(baseline, new Random(21), 40);
+        hosts.baselines = Map.of(1L, baseline.exportState());
+        persistence.checkpoint();
+        observe(baseline, new Random(22), 10);
+        baseline.flushJournal();
+
+        // Ten sam tick - pełne odtworzenie
+        assertSameState(baseline, recover(copyOf(dir, "same")));
+
+        // Tick 100 ms - liczności okna nieporównywalne: migawka, dziennik i baseline hostów odrzucone
+        Hosts restored = new Hosts();
+        BaselineService faster = new BaselineService(WINDOW);
+        open(faster, restored, dir, 100);
+        assertTrue(faster.exportState().isEmpty());
+        assertEquals(0, faster.getObservationSeq());
+        assertTrue(restored.baselines.isEmpty());
+
+        // Checkpoint przy starcie zapisał migawkę z nowym tickiem i usunął stare dzienniki
+        BaselineService again = new BaselineService(WINDOW);
+        open(again, new Hosts(), dir, 100);
+        assertTrue(again.exportState().isEmpty());
+        assertEquals(1, logs(dir).size());
+    }
+
+    private static BaselineService restore(List<BaselineService.FeatureState> state) {
+        BaselineService baseline = new BaselineService(20);
+        state.forEach(baseline::restoreFeature);
+        return baseline;
+    }
+
+    private static BaselinePersistence open(BaselineService baseline, Path directory) throws IOException {
+        return open(baseline, new Hosts(), directory, TICK_MS);
+    }
+
+    private static BaselinePersistence open(BaselineService baseline, Hosts hosts, Path directory) throws IOException {
+        return open(baseline, hosts, directory, TICK_MS);
+    }
+
+    private static BaselinePersistence open(BaselineService baseline, Hosts hosts, Path directory, long tickMillis)
+            throws IOException {
+        BaselinePersistence persistence = new BaselinePersistence(baseline, hosts, true, directory.toString(), tickMillis);
+        persistence.init();
+        return persistence;
+    }
+
+    private static BaselineService recover(Path directory) throws IOException {
+        BaselineService recovered = new BaselineService(WINDOW);
+        open(recovered, directory);
+        return recovered;
+    }
+
+    private static void observe(BaselineService baseline, Random random, int n) {
+        for (int i = 0; i < n; i++) {
+            baseline.addObservation(FEATURE, random.nextGaussian() * 10 + 100, 0);
+            baseline.addObservation("ACTIVE_FLOWS", random.nextInt(500), 0);
+        }
+    }
+
+    private static BaselineService reference(double[] values, int count) {
+        BaselineService reference = new BaselineService(WINDOW);
+        for (int i = 0; i < count; i++) reference.addObservation(FEATURE, values[i], 0);
+        return reference;
+    }
+
+    private static void assertSameState(BaselineService expected, BaselineService actual) {
+        List<BaselineService.FeatureState> e = expected.exportState();
+        List<BaselineService.FeatureState> a = actual.exportState();
+        assertEquals(e.size(), a.size());
+        for (int i = 0; i < e.size(); i++) {
+            assertEquals(e.get(i).name(), a.get(i).name());
+            assertEquals(e.get(i).count(), a.get(i).count(), e.get(i).name());
+            assertEquals(e.get(i).mean(), a.get(i).mean(), 1e-9, e.get(i).name());
+            assertEquals(e.get(i).m2(), a.get(i).m2(), 1e-6, e.get(i).name());
+            assertEquals(e.get(i).sequence(), a.get(i).sequence(), e.get(i).name());
+            assertArrayEquals(e.get(i).history(), a.get(i).history(), e.get(i).name());
+        }
+    }
+
+    private Path copyOf(Path source, String name) throws IOException {
+        Path target = Files.createDirectory(root.resolve(name));
+        for (Path file : logsAndSnapshot(source)) {
+            Files.copy(file, target.resolve(file.getFileName()), StandardCopyOption.COPY_ATTRIBUTES);
+        }
+        return target;
+    }
+
+    private static List<Path> logsAndSnapshot(Path directory) throws IOException {
+        try (Stream<Path> files = Files.list(directory)) {
+            return files.filter(p -> !p.getFileName().toString().endsWith(".tmp")).toList();
+        }
+    }
+
+    private static List<Path> logs(Path directory) throws IOException {
+        try (Stream<Path> files = Files.list(directory)) {
+            return files.filter(p -> p.getFileName().toString().endsWith(".log")).toList();
+        }
+    }
+
+    private static Path onlyLog(Path directory) throws IOException {
+        List<Path> logs = logs(directory);
+        assertEquals(1, logs.size(), logs.toString());
+        return logs.get(0);
+    }
+
+    // Baseline per host w pamięci zamiast HostScoringService
+    private static final class Hosts implements BaselinePersistence.HostBaselines {
+        Map<Long, List<BaselineService.FeatureState>> baselines = Map.of();
+
+        @Override
+        public Map<Long, List<BaselineService.FeatureState>> exportBaselines() {
+            return baselines;
+        }
+
+        @Override
+        public void restoreBaselines(Map<Long, List<BaselineService.FeatureState>> restored) {
+            baselines = restored;
+        }
+    }
+}
@@ -0,0 +1,145 @@
+package com.ids.ids_controller.service;
+
+import net.sourceforge.jFuzzyLogic.FIS;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class CompiledFuzzyEngineTest {
+
+    private static final String[] INPUTS = {"z_syns", "z_icmps", "z_avg_size", "z_asymmetry", "z_flows", "z_ports",
+            "z_half_open", "z_completion"};
+    // Wyjście w skali 0-100; różnice wynikają wyłącznie z dyskretyzacji uniwersum przy COG
+    private static final double TOLERANCE = 0.5;
+
+    private static CompiledFuzzyEngine engine;
+    private static FIS fis;
+
+    @BeforeAll
+    static void load() throws Exception {
+        try (InputStream in = CompiledFuzzyEngineTest.class.getClassLoader().getResourceAsStream("anomaly_finder.fcl")) {
+            engine = CompiledFuzzyEngine.load(in);
+        }
+        fis = FIS.load(CompiledFuzzyEngineTest.class.getClassLoader().getResourceAsStream("anomaly_finder.fcl"), false);
+    }
+
+    @Test
+    void matchesJFuzzyLogicOnGrid() {
+        double[] levels = {-6, -4, -3.5, -2, -1, 0, 1, 1.5, 2, 2.5, 3, 4, 4.5, 5, 6, 7, 10, 16};
+        Random random = new Random(7);
+        for (int i = 0; i < 2000; i++) {
+            double[] z = new double[INPUTS.length];
+            for (int v = 0; v < z.length; v++) {
+                z[v] = levels[random.nextInt(levels.length)];
+            }
+            assertMatches(z);
+        }
+    }
+
+    @Test
+    void matchesJFuzzyLogicOnRandomInputs() {
+        Random random = new Random(42);
+        for (int i = 0; i < 5000; i++) {
+            double[] z = new double[INPUTS.length];
+            for (int v = 0; v < z.length; v++) {
+                z[v] = -6 + random.nextDouble() * 24;
+            }
+            assertMatches(z);
+        }
+    }
+
+    @Test
+    void isSafeForConcurrentEvaluation() throws Exception {
+        double[] z = {5, 0, 1, 4, 5, 3, 2, -3.5};
+        double expected = engine.evaluate(z);
+        ExecutorService pool = Executors.newFixedThreadPool(4);
+        try {
+            List<Future<Double>> results = new ArrayList<>();
+            for (int i = 0; i < 64; i++) {
+                results.add(pool.submit(() -> {
+                    double last = 0;
+                    for (int k = 0; k < 1000; k++) last = engine.evaluate(z);
+                    return last;
+                }));
+            }
+            for (Future<Double> result : results) {
+                assertEquals(expected, result.get());
+            }
+        } finally {
+            pool.shutdownNow();
+        }
+    }
+
+    @Test
+    void reportsFiredRulesStrongestFirst() {
+        List<CompiledFuzzyEngine.RuleActivation> fired = engine.firedRules(5, 0, 0, 0, 0, 0, 0, 0);
+        assertFalse(fired.isEmpty());
+        assertEquals("critical", fired.get(0).outputTerm());
+        for (int i = 1; i < fired.size(); i++) {
+            assertTrue(fired.get(i - 1).degree() >= fired.get(i).degree());
+        }
+        assertTrue(engine.firedRules(0, 0, 0, 0, 0, 0, 0, 0).stream().noneMatch(r -> r.outputTerm().equals("critical")));
+    }
+
+    @Test
+    void flagsUnansweredHandshakes() {
+        // Ta sama liczba SYN-ów - rośnie liczba półotwartych albo spada udział zakończonych uzgodnień
+        assertTrue(engine.evaluate(0, 0, 0, 0, 0, 0, 6, 0) > 90);
+        assertTrue(engine.evaluate(0, 0, 0, 0, 0, 0, 0, -6) > 70);
+        assertTrue(engine.evaluate(0, 0, 0, 0, 0, 0, 0, 0) < 25);
+    }
+
+    @Test
+    void orUsesOperatorDeclaredInRuleBlock() {
+        // a = b = 0.5: ASUM daje 0.75, MAX 0.5
+        assertEquals(0.75, orDegree("AND : PROD; OR : ASUM;"), 1e-9);
+        assertEquals(0.5, orDegree("AND : MIN; OR : MAX;"), 1e-9);
+        assertEquals(0.5, orDegree("AND : PROD;"), 1e-9);
+        assertThrows(IllegalArgumentException.class, () -> orDegree("AND : MIN; OR : ASUM;"));
+    }
+
+    private static double orDegree(String operators) {
+        CompiledFuzzyEngine e = CompiledFuzzyEngine.parse("""
+                FUNCTION_BLOCK t
+                VAR_INPUT a : REAL; b : REAL; END_VAR
+                VAR_OUTPUT y : REAL; END_VAR
+                FUZZIFY a TERM on := (0, 0) (1, 1); END_FUZZIFY
+                FUZZIFY b TERM on := (0, 0) (1, 1); END_FUZZIFY
+                DEFUZZIFY y TERM yes := (0, 0) (1, 1); METHOD : COG; DEFAULT := 0; END_DEFUZZIFY
+                RULEBLOCK r
+                """ + operators + """
+                ACT : MIN; ACCU : MAX;
+                RULE 1 : IF a IS on OR b IS on THEN y IS yes;
+                END_RULEBLOCK
+                END_FUNCTION_BLOCK
+                """);
+        return e.firedRules(0.5, 0.5).get(0).degree();
+    }
+
+    private static void assertMatches(double[] z) {
+        double expected = evaluateFis(z);
+        double actual = engine.evaluate(z);
+        assertEquals(expected, actual, TOLERANCE, () -> "wejścia " + Arrays.toString(z));
+    }
+
+    private static double evaluateFis(double[] z) {
+        for (int v = 0; v < INPUTS.length; v++) {
+            fis.setVariable(INPUTS[v], z[v]);
+        }
+        fis.evaluate();
+        return fis.getVariable("anomaly_probability").getValue();
+    }
+}
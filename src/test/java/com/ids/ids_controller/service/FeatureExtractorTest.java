@@ -0,0 +1,302 @@
+package com.ids.ids_controller.service;
+
+import com.ids.ids_controller.parser.PacketDecoder;
+import com.ids.ids_controller.parser.PacketView;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.Unpooled;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class FeatureExtractorTest {
+
+    private static final int WRITERS = 4;
+    private static final int CHUNKS = 2000;
+    private static final int PACKETS_PER_CHUNK = 50;
+
+    @Test
+    void epochSwapsDoNotLoseOrSplitPackets() throws Exception {
+        FeatureExtractor extractor = new FeatureExtractor();
+        AtomicInteger running = new AtomicInteger(WRITERS);
+        List<Thread> writers = new ArrayList<>();
+        for (int w = 0; w < WRITERS; w++) {
+            int writer = w;
+            Thread thread = new Thread(() -> {
+                FeatureSink sink = extractor.openSink();
+                PacketView view = synPacket(writer);
+                for (int c = 0; c < CHUNKS; c++) {
+                    sink.begin();
+                    try {
+                        for (int p = 0; p < PACKETS_PER_CHUNK; p++) {
+                            sink.accept(view);
+                        }
+                    } finally {
+                        sink.end();
+                    }
+                }
+                running.decrementAndGet();
+            });
+            writers.add(thread);
+            thread.start();
+        }
+
+        long packets = 0;
+        long syns = 0;
+        while (running.get() > 0) {
+            FeatureWindow window = extractor.captureWindow();
+            packets += window.getPacketCount();
+            syns += window.getSynCount();
+            // W jednym oknie pakiety paczki nigdy nie są rozdzielone między epoki
+            assertEquals(0, window.getPacketCount() % PACKETS_PER_CHUNK);
+        }
+        for (Thread thread : writers) {
+            thread.join();
+        }
+        FeatureWindow last = extractor.captureWindow();
+        packets += last.getPacketCount();
+        syns += last.getSynCount();
+
+        long expected = (long) WRITERS * CHUNKS * PACKETS_PER_CHUNK;
+        assertEquals(expected, packets);
+        assertEquals(expected, syns);
+    }
+
+    @Test
+    void truncatedCaptureIsAccountedWithWireLength() {
+        FeatureExtractor extractor = new FeatureExtractor();
+        PacketDecoder decoder = new PacketDecoder(extractor.openSink(), true, 54);
+
+        // Sonda z snaplen 54 (Ethernet + IPv4 + TCP): pełna ramka 1514 B, przechwycone 54 B
+        ByteBuf stream = Unpooled.buffer();
+        stream.writeIntLE(0xa1b2c3d4).writeShortLE(2).writeShortLE(4).writeIntLE(0).writeIntLE(0)
+                .writeIntLE(54).writeIntLE(1);
+        ByteBuf frame = synFrame(1, 1500);
+        // orig_len zachowany przez sondę
+        stream.writeIntLE(1).writeIntLE(0).writeIntLE(54).writeIntLE(1514).writeBytes(frame, 0, 54);
+        // orig_len nadpisany przez incl_len - długość z nagłówka IP
+        stream.writeIntLE(1).writeIntLE(0).writeIntLE(54).writeIntLE(54).writeBytes(frame, 0, 54);
+        decoder.decode(stream);
+
+        FeatureWindow window = extractor.captureWindow();
+        assertEquals(2, window.getPacketCount());
+        assertEquals(2, window.getSynCount());
+        assertEquals(1514, window.getAvgPacketSize(), 1e-9);
+        assertEquals(2, decoder.getTruncatedRecords());
+    }
+
+    @Test
+    void decoderRealignsAfterChunkShedMidRecord() {
+        FeatureExtractor extractor = new FeatureExtractor();
+        PacketDecoder decoder = new PacketDecoder(extractor.openSink(), true);
+
+        int records = 200;
+        int recordSize = 16 + 60;
+        ByteBuf stream = Unpooled.buffer();
+        stream.writeIntLE(0xa1b2c3d4).writeShortLE(2).writeShortLE(4).writeIntLE(0).writeIntLE(0)
+                .writeIntLE(65535).writeIntLE(1);
+        for (int n = 0; n < records; n++) {
+            ByteBuf frame = synFrame(n % 250 + 1, 40);
+            stream.writeIntLE(1_700_000_000).writeIntLE(n * 1000).writeIntLE(60).writeIntLE(60).writeBytes(frame, 0, 60);
+        }
+
+        // Paczki po 1000 B (nie dzielą się przez rozmiar rekordu); czwarta odrzucona jak przy drop-oldest
+        int chunkSize = 1000;
+        int shed = 3;
+        for (int c = 0; c * chunkSize < stream.readableBytes(); c++) {
+            int from = c * chunkSize;
+            ByteBuf chunk = stream.slice(from, Math.min(chunkSize, stream.readableBytes() - from));
+            if (c == shed) continue;
+            if (c == shed + 1) decoder.resync();
+            decoder.decode(chunk);
+        }
+
+        // Tracone są tylko rekordy, które miały choć bajt w odrzuconej paczce
+        int lost = 0;
+        for (int n = 0; n < records; n++) {
+            int start = 24 + n * recordSize;
+            if (start < (shed + 1) * chunkSize && start + recordSize > shed * chunkSize) lost++;
+        }
+        FeatureWindow window = extractor.captureWindow();
+        assertEquals(records - lost, window.getPacketCount());
+        assertEquals(records - lost, window.getSynCount());
+        assertEquals(0, decoder.getDecodeErrors());
+    }
+
+    @Test
+    void bogusOriginalLengthIsClampedAndWeightedInLong() {
+        FeatureExtractor extractor = new FeatureExtractor();
+        FeatureSink sink = extractor.openSink();
+        PacketView view = synPacket(1);
+        // orig_len z uszkodzonego nagłówka rekordu; waga próbkowania 1 z 100000
+        view.setOriginalLength(Integer.MAX_VALUE);
+        view.setWeight(100_000);
+        assertEquals(65535 + 14, view.wireLength());
+
+        sink.begin();
+        sink.accept(view);
+        sink.end();
+
+        assertEquals(65535 + 14, extractor.captureWindow().getAvgPacketSize(), 1e-9);
+    }
+
+    @Test
+    void unansweredHandshakesExpireAsHalfOpen() {
+        FeatureExtractor extractor = new FeatureExtractor();
+        FeatureSink sink = extractor.openSink();
+        long start = 1_000_000_000L;
+        long server = PacketView.ipV4Key("172.18.0.3");
+
+        // 10 klientów wysyła SYN, 6 kończy uzgodnienie, 4 nie dostaje odpowiedzi
+        sink.begin();
+        for (int n = 1; n <= 10; n++) {
+            sink.accept(tcpPacket(start, (10 << 24) | n, 40000 + n, server, 80, PacketView.TCP_SYN));
+        }
+        for (int n = 1; n <= 6; n++) {
+            sink.accept(tcpPacket(start, server, 80, (10 << 24) | n, 40000 + n, PacketView.TCP_SYN | PacketView.TCP_ACK));
+            sink.accept(tcpPacket(start, (10 << 24) | n, 40000 + n, server, 80, PacketView.TCP_ACK));
+        }
+        sink.end();
+
+        FeatureWindow window = extractor.captureWindow();
+        assertEquals(10, window.getSynCount());
+        assertEquals(4, window.getHalfOpenCount());
+        assertEquals(1, window.getHandshakeCompletion(), 1e-9);
+
+        // Dowolny rekord po upływie ids.tcp.handshake-timeout-seconds przesuwa koło czasu
+        sink.begin();
+        sink.accept(tcpPacket(start + 31_000_000L, (10 << 24) | 1, 40001, server, 80, PacketView.TCP_ACK));
+        sink.end();
+
+        window = extractor.captureWindow();
+        assertEquals(0, window.getHalfOpenCount());
+        assertEquals(0, window.getHandshakeCompletion(), 1e-9);
+    }
+
+    @Test
+    void refusedHandshakesAreMatchedAcrossWorkers() throws Exception {
+        FeatureExtractor extractor = new FeatureExtractor(4, 65536, 60, 65536, 30, "sketch", 0.05, 16384, 64,
+                "172.18.0.3", "host", 4096, "block", FeatureRegistry.core(), new SimpleMeterRegistry());
+        try {
+            FeatureSink sink = extractor.openSink();
+            long server = PacketView.ipV4Key("172.18.0.3");
+            int clients = 20;
+
+            // Serwer odrzuca każde połączenie (RST/ACK) - SYN i RST mają przeciwne adresy źródłowe
+            sink.begin();
+            for (int n = 1; n <= clients; n++) {
+                sink.accept(tcpPacket(0, (10 << 24) | n, 40000 + n, server, 80, PacketView.TCP_SYN));
+                sink.accept(tcpPacket(0, server, 80, (10 << 24) | n, 40000 + n, PacketView.TCP_RST | PacketView.TCP_ACK));
+            }
+            sink.end();
+
+            // Wątki robocze przetwarzają partie asynchronicznie - okna zbierane aż do objęcia wszystkich SYN-ów
+            int syns = 0;
+            int failed = 0;
+            FeatureWindow window = null;
+            long deadline = System.nanoTime() + 5_000_000_000L;
+            while (syns < clients && System.nanoTime() < deadline) {
+                Thread.sleep(10);
+                window = extractor.captureWindow();
+                syns += window.getSynCount();
+                failed += window.handshakesFailed;
+            }
+
+            assertEquals(clients, syns);
+            assertEquals(clients, failed);
+            assertEquals(0, window.getHalfOpenCount());
+        } finally {
+            extractor.shutdown();
+        }
+    }
+
+    @Test
+    void spoofedFloodBeyondFlowTableCapacityIsStillCounted() {
+        FeatureExtractor extractor = new FeatureExtractor();
+        FeatureSink sink = extractor.openSink();
+        long server = PacketView.ipV4Key("172.18.0.3");
+        int sources = 100_000; // ponad 0.75 pojemności domyślnej tablicy (65536)
+
+        sink.begin();
+        for (int n = 0; n < sources; n++) {
+            sink.accept(tcpPacket(0, (11 << 24) | n, 1024 + n % 60000, server, 80, PacketView.TCP_SYN));
+        }
+        sink.end();
+
+        FeatureWindow window = extractor.captureWindow();
+        assertTrue(window.getFlowTableOverflows() > 0);
+        assertEquals(sources, window.getActiveFlowsCount(), sources * 0.03);
+    }
+
+    @Test
+    void pluginFeatureCountsOwnWindowCounters() {
+        TrafficFeature webSyns = new TrafficFeature() {
+            public String name() { return "WEB_SYNS"; }
+            public int counters() { return 1; }
+            public void count(PacketView p, int weight, long[] counters, int base) {
+                if (p.isSyn() && p.dstPort() == 80) counters[base] += weight;
+            }
+            public double value(FeatureWindow window, int base) { return window.counter(base); }
+        };
+        FeatureRegistry registry = new FeatureRegistry(List.of(webSyns));
+        FeatureExtractor extractor = new FeatureExtractor(registry);
+        FeatureSink sink = extractor.openSink();
+        long server = PacketView.ipV4Key("172.18.0.3");
+
+        sink.begin();
+        for (int n = 1; n <= 5; n++) {
+            sink.accept(tcpPacket(0, (10 << 24) | n, 40000 + n, server, 80, PacketView.TCP_SYN));
+            sink.accept(tcpPacket(0, (10 << 24) | n, 40000 + n, server, 443, PacketView.TCP_SYN));
+        }
+        sink.end();
+
+        FeatureVector features = new FeatureVector(registry, registry.values(extractor.captureWindow()));
+        assertEquals(CoreFeature.values().length, registry.id("WEB_SYNS"));
+        assertEquals(5, features.get("WEB_SYNS"), 1e-9);
+        // Liczniki cechy zerowane razem z oknem
+        assertEquals(0, registry.values(extractor.captureWindow())[registry.id("WEB_SYNS")], 1e-9);
+    }
+
+    // Ethernet + IPv4 + TCP SYN z 10.0.0.<n> do chronionego 172.18.0.3:80
+    private static PacketView synPacket(int n) {
+        ByteBuf frame = synFrame(n, 40);
+        PacketView view = new PacketView();
+        view.parse(frame, 0, frame.readableBytes());
+        return view;
+    }
+
+    private static PacketView tcpPacket(long timestampMicros, long src, int srcPort, long dst, int dstPort, int flags) {
+        ByteBuf frame = tcpFrame((int) src, srcPort, (int) dst, dstPort, flags, 40);
+        PacketView view = new PacketView();
+        view.parse(frame, 0, frame.readableBytes());
+        view.setTimestampMicros(timestampMicros);
+        return view;
+    }
+
+    private static ByteBuf synFrame(int n, int ipTotalLength) {
+        return tcpFrame((10 << 24) | n, 40000 + n, (int) PacketView.ipV4Key("172.18.0.3"), 80,
+                PacketView.TCP_SYN, ipTotalLength);
+    }
+
+    private static ByteBuf tcpFrame(int src, int srcPort, int dst, int dstPort, int flags, int ipTotalLength) {
+        ByteBuf frame = Unpooled.buffer(60);
+        frame.writeZero(12);
+        frame.writeShort(0x0800);
+        frame.writeByte(0x45).writeByte(0).writeShort(ipTotalLength);
+        frame.writeShort(0).writeShort(0);
+        frame.writeByte(64).writeByte(PacketView.PROTO_TCP).writeShort(0);
+        frame.writeInt(src);
+        frame.writeInt(dst);
+        frame.writeShort(srcPort).writeShort(dstPort);
+        frame.writeInt(0).writeInt(0);
+        frame.writeByte(0x50).writeByte(flags).writeShort(1024);
+        frame.writeShort(0).writeShort(0);
+        frame.writeZero(60 - frame.writerIndex());
+        return frame;
+    }
+}
@@ -0,0 +1,108 @@
+package com.ids.ids_controller.service;
+
+import com.ids.ids_controller.parser.PacketView;
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.Unpooled;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+class FlowTableTest {
+
+    private static final long IDLE_MICROS = 1000;
+    private static final long SERVER = PacketView.ipV4Key("172.18.0.3");
+
+    private int nextSource;
+
+    @Test
+    void deleteShiftsProbeSequenceAcrossTableEnd() {
+        FlowTable table = new FlowTable(32, IDLE_MICROS);
+        int last = table.capacity() - 1;
+
+        // Sekwencja sondowania z ostatniego slotu zawija się na początek tablicy: a(31) d(0) b(1) c(2), e(3)
+        PacketView a = flowWithHome(table, last, 0);
+        PacketView b = flowWithHome(table, last, 5000);
+        PacketView c = flowWithHome(table, last, 5000);
+        PacketView d = flowWithHome(table, 0, 5000);
+        PacketView e = flowWithHome(table, 3, 5000);
+        for (PacketView p : List.of(a, d, b, c, e)) {
+            assertEquals(FlowTable.NEW_IN_WINDOW, table.record(p, 60));
+        }
+
+        // Wygasa tylko a - d zostaje u siebie (dom w zawiniętym zakresie), b i c przesuwane wstecz przez koniec tablicy
+        table.startWindow(1);
+        assertEquals(4, table.size());
+
+        // Każdy pozostały przepływ jest odnajdywany (inaczej record() dopisałby duplikat)
+        for (PacketView p : List.of(b, c, d, e)) {
+            p.setTimestampMicros(6000);
+            assertEquals(FlowTable.NEW_IN_WINDOW, table.record(p, 60));
+            assertEquals(FlowTable.UPDATED, table.record(p, 60));
+        }
+        assertEquals(4, table.size());
+        List<FlowTable.FlowStats> flows = new ArrayList<>();
+        table.top(10, flows);
+        assertEquals(4, flows.size());
+        flows.forEach(f -> assertEquals(3, f.packets()));
+    }
+
+    @Test
+    void sweepRechecksEntryShiftedIntoCursorSlot() {
+        FlowTable table = new FlowTable(32768, IDLE_MICROS);
+        int last = table.capacity() - 1;
+
+        // Żywy przepływ poza przeglądanym zakresem - przegląd działa tylko przy niepustej tablicy
+        PacketView live = flowWithHome(table, table.capacity() / 2, 10_000);
+        table.record(live, 60);
+        for (int w = 1; w < 16; w++) {
+            table.startWindow(w);
+        }
+
+        // Ostatni przegląd obejmuje ostatnią 1/16 tablicy: a(last) i b(0) bezczynne, c(1) żywy.
+        // Usunięcie a przenosi b do slotu kursora - b musi zostać sprawdzony ponownie, zanim kursor pójdzie dalej
+        PacketView a = flowWithHome(table, last, 0);
+        PacketView b = flowWithHome(table, last, 0);
+        PacketView c = flowWithHome(table, last, 10_000);
+        table.record(a, 60);
+        table.record(b, 60);
+        table.record(c, 60);
+        assertEquals(4, table.size());
+
+        table.startWindow(16);
+        assertEquals(2, table.size());
+        assertEquals(FlowTable.NEW_IN_WINDOW, table.record(c, 60));
+        assertEquals(FlowTable.NEW_IN_WINDOW, table.record(live, 60));
+        assertEquals(2, table.size());
+    }
+
+    // Przepływ TCP 10.x.x.x -> 172.18.0.3:80 o zadanej pozycji domowej
+    private PacketView flowWithHome(FlowTable table, int home, long timestampMicros) {
+        while (true) {
+            PacketView p = tcpPacket((10L << 24) | nextSource++, timestampMicros);
+            if (table.homeSlot(p) == home) return p;
+        }
+    }
+
+    private static PacketView tcpPacket(long src, long timestampMicros) {
+        ByteBuf frame = Unpooled.buffer(60);
+        frame.writeZero(12);
+        frame.writeShort(0x0800);
+        frame.writeByte(0x45).writeByte(0).writeShort(40);
+        frame.writeShort(0).writeShort(0);
+        frame.writeByte(64).writeByte(PacketView.PROTO_TCP).writeShort(0);
+        frame.writeInt((int) src);
+        frame.writeInt((int) SERVER);
+        frame.writeShort(40000).writeShort(80);
+        frame.writeInt(0).writeInt(0);
+        frame.writeByte(0x50).writeByte(PacketView.TCP_ACK).writeShort(1024);
+        frame.writeShort(0).writeShort(0);
+        frame.writeZero(60 - frame.writerIndex());
+        PacketView view = new PacketView();
+        view.parse(frame, 0, frame.readableBytes());
+        view.setTimestampMicros(timestampMicros);
+        return view;
+    }
+}
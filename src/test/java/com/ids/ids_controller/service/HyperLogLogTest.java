@@ -0,0 +1,72 @@
+package com.ids.ids_controller.service;
+
+import org.junit.jupiter.api.Test;
+
+import java.nio.ByteBuffer;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class HyperLogLogTest {
+
+    @Test
+    void estimateStaysWithinRelativeError() {
+        for (int precision : new int[]{10, 12, 14}) {
+            // 3 odchylenia standardowe błędu 1.04 / sqrt(2^p)
+            double bound = 3 * 1.04 / Math.sqrt(1 << precision);
+            HyperLogLog sketch = new HyperLogLog(precision);
+            int counted = 0;
+            for (int n : new int[]{10, 100, 1_000, 10_000, 100_000, 1_000_000}) {
+                for (; counted < n; counted++) {
+                    sketch.addHash(HyperLogLog.hash(counted));
+                }
+                double error = Math.abs(sketch.estimate() - n) / (double) n;
+                assertTrue(error <= bound, "p=" + precision + " n=" + n + " błąd " + error);
+            }
+        }
+    }
+
+    @Test
+    void duplicatesDoNotChangeEstimate() {
+        HyperLogLog sketch = new HyperLogLog(12);
+        for (int i = 0; i < 5_000; i++) sketch.addHash(HyperLogLog.hash(i));
+        long estimate = sketch.estimate();
+        for (int repeat = 0; repeat < 10; repeat++) {
+            for (int i = 0; i < 5_000; i++) sketch.addHash(HyperLogLog.hash(i));
+        }
+        assertEquals(estimate, sketch.estimate());
+    }
+
+    @Test
+    void mergeEqualsSketchOfUnion() {
+        // Zbiory zachodzące na siebie: [0, 60000) i [40000, 100000)
+        HyperLogLog left = new HyperLogLog(12);
+        HyperLogLog right = new HyperLogLog(12);
+        HyperLogLog union = new HyperLogLog(12);
+        for (int i = 0; i < 60_000; i++) left.addHash(HyperLogLog.hash(i));
+        for (int i = 40_000; i < 100_000; i++) right.addHash(HyperLogLog.hash(i));
+        for (int i = 0; i < 100_000; i++) union.addHash(HyperLogLog.hash(i));
+
+        left.merge(right);
+        assertArrayEquals(union.registers(), left.registers());
+        assertEquals(union.estimate(), left.estimate());
+        assertEquals(100_000, left.estimate(), 100_000 * 3 * 1.04 / 64);
+
+        assertThrows(IllegalArgumentException.class, () -> left.merge(new HyperLogLog(10)));
+    }
+
+    @Test
+    void sparseAndDenseEncodingsRoundTrip() {
+        for (int n : new int[]{0, 50, 50_000}) {
+            HyperLogLog sketch = new HyperLogLog(12);
+            for (int i = 0; i < n; i++) sketch.addHash(HyperLogLog.hash(i));
+            ByteBuffer buffer = ByteBuffer.allocate(sketch.encodedSize());
+            sketch.writeTo(buffer);
+            assertEquals(0, buffer.remaining(), "n=" + n);
+            buffer.flip();
+            assertArrayEquals(sketch.registers(), HyperLogLog.readFrom(buffer).registers(), "n=" + n);
+        }
+    }
+}
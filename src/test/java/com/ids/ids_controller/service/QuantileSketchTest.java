@@ -0,0 +1,64 @@
+package com.ids.ids_controller.service;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class QuantileSketchTest {
+
+    private static final double ACCURACY = 0.01;
+    private static final int WINDOW = 5000;
+
+    @Test
+    void tracksSlidingWindowWithinRelativeError() {
+        QuantileSketch sketch = new QuantileSketch(ACCURACY);
+        ArrayDeque<Double> window = new ArrayDeque<>();
+        Random random = new Random(3);
+        for (int i = 0; i < 4 * WINDOW; i++) {
+            // Rozkład logarytmicznie normalny z 5% wartości odstających
+            double value = random.nextDouble() < 0.05 ? 1e5 * random.nextDouble() : Math.exp(random.nextGaussian() + 5);
+            sketch.add(value);
+            window.add(value);
+            if (window.size() > WINDOW) sketch.remove(window.poll());
+
+            if (i % 1000 == 999) {
+                double[] sorted = window.stream().mapToDouble(Double::doubleValue).sorted().toArray();
+                double median = sorted[(sorted.length - 1) / 2];
+                double[] deviations = Arrays.stream(sorted).map(v -> Math.abs(v - median)).sorted().toArray();
+                double mad = deviations[(deviations.length - 1) / 2];
+
+                assertEquals(window.size(), sketch.count());
+                assertEquals(median, sketch.quantile(0.5), median * 2 * ACCURACY);
+                assertEquals(sorted[(int) (0.99 * (sorted.length - 1))], sketch.quantile(0.99),
+                        sorted[(int) (0.99 * (sorted.length - 1))] * 2 * ACCURACY);
+                assertEquals(mad, sketch.mad(), mad * 0.05);
+                assertEquals(0.9, sketch.rank(sorted[(int) (0.9 * (sorted.length - 1))]), 0.01);
+            }
+        }
+    }
+
+    @Test
+    void handlesConstantAndSignedValues() {
+        QuantileSketch sketch = new QuantileSketch(ACCURACY);
+        for (int i = 0; i < 100; i++) sketch.add(0);
+        assertEquals(0, sketch.mad());
+        assertEquals(0.5, sketch.rank(0));
+        assertEquals(1, sketch.rank(5));
+        assertEquals(0, sketch.rank(-1));
+
+        sketch.clear();
+        sketch.add(-1e6);
+        sketch.add(1e-3);
+        sketch.add(3);
+        sketch.add(1e12);
+        assertEquals(-1e6, sketch.quantile(0), 1e6 * ACCURACY);
+        assertEquals(1e12, sketch.quantile(1), 1e12 * ACCURACY);
+        assertEquals(3, sketch.mad(), 3 * ACCURACY);
+        assertTrue(sketch.rank(2) > 0.25 && sketch.rank(2) < 0.75);
+    }
+}
@@ -0,0 +1,145 @@
+package com.ids.ids_controller.service;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.stream.Stream;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+class SnapshotHistoryTest {
+
+    private static final long MINUTE = 60_000;
+    private static final long HOUR = 3_600_000;
+    // Początek pełnej godziny - granice kubełków 1m i 1h
+    private static final long T0 = 1_700_000_000_000L - 1_700_000_000_000L % HOUR;
+    private static final String FIRST = CoreFeature.SYNS_PER_SEC.name();
+
+    @TempDir
+    Path dir;
+
+    @Test
+    void columnsFollowFeatureRegistry() {
+        FeatureRegistry registry = new FeatureRegistry(List.of(new NamedFeature("DNS_QUERIES_PER_SEC")));
+        SnapshotHistory history = new SnapshotHistory(registry, true, dir.toString(), 1000, 7, 90, 1825);
+
+        List<String> columns = history.getColumns();
+        assertEquals(2 * registry.size() + 1, columns.size());
+        assertEquals(registry.names(), columns.subList(0, registry.size()));
+        assertEquals("z_DNS_QUERIES_PER_SEC", columns.get(2 * registry.size() - 1));
+        assertEquals("anomalyProbability", columns.get(columns.size() - 1));
+    }
+
+    @Test
+    void rollupsWeightBucketsByTickCount() throws IOException {
+        SnapshotHistory history = open(FeatureRegistry.core());
+        // Minuta 0: 60 ticków o wartościach 0..59; minuta 1 (od granicy włącznie): tylko 2 ticki
+        for (int second = 0; second < 60; second++) {
+            history.append(T0 + second * 1000L, row(second));
+        }
+        history.append(T0 + MINUTE, row(100));
+        history.append(T0 + MINUTE + 1000, row(200));
+        // Niepełne kubełki 1m i 1h nie są zapisane - poziom godzinowy jest jeszcze pusty
+        assertEquals(0, history.query(T0, T0 + HOUR - 1, HOUR).timestamps().length);
+        // Tick następnej godziny zamyka minutę 1 i godzinę 0
+        history.append(T0 + HOUR, row(1000));
+
+        SnapshotHistory.HistorySeries minutes = history.query(T0, T0 + 2 * MINUTE - 1, MINUTE);
+        assertEquals(MINUTE, minutes.resolution());
+        assertArrayEquals(new long[]{T0, T0 + MINUTE}, minutes.timestamps());
+        assertArrayEquals(new double[]{29.5, 150}, minutes.columns().get(FIRST), 1e-9);
+        assertArrayEquals(new double[]{5.9, 20}, minutes.columns().get("anomalyProbability"), 1e-9);
+
+        // Dwa wiersze 1m w jednym kubełku: suma 2070 z 62 ticków, nie średnia średnich (29.5 + 150) / 2
+        double mean = (1770 + 300) / 62.0;
+        SnapshotHistory.HistorySeries merged = history.query(T0, T0 + 2 * MINUTE - 1, 2 * MINUTE);
+        assertEquals(MINUTE, merged.resolution());
+        assertArrayEquals(new double[]{mean}, merged.columns().get(FIRST), 1e-9);
+
+        SnapshotHistory.HistorySeries hours = history.query(T0, T0 + HOUR - 1, HOUR);
+        assertEquals(HOUR, hours.resolution());
+        assertArrayEquals(new long[]{T0}, hours.timestamps());
+        assertArrayEquals(new double[]{mean}, hours.columns().get(FIRST), 1e-9);
+        assertArrayEquals(new double[]{-2 * mean}, hours.columns().get("z_" + FIRST), 1e-9);
+    }
+
+    @Test
+    void reopenedHistoryContinuesExistingSegment() throws IOException {
+        SnapshotHistory history = open(FeatureRegistry.core());
+        for (int i = 0; i < 10; i++) {
+            history.append(T0 + i * 1000L, row(i));
+        }
+        history.shutdown();
+
+        SnapshotHistory reopened = open(FeatureRegistry.core());
+        for (int i = 10; i < 20; i++) {
+            reopened.append(T0 + i * 1000L, row(i));
+        }
+        SnapshotHistory.HistorySeries raw = reopened.query(T0, T0 + 19_999, 1000);
+        assertEquals(20, raw.timestamps().length);
+        assertEquals(19, raw.columns().get(FIRST)[19]);
+        assertEquals(1, segments("raw"));
+
+        // Inne cechy - inne kolumny w nagłówku: stare segmenty pominięte, zapis do nowego pliku
+        SnapshotHistory changed = open(new FeatureRegistry(List.of(new NamedFeature("DNS_QUERIES_PER_SEC"))));
+        assertEquals(0, changed.query(T0, T0 + 19_999, 1000).timestamps().length);
+        double[] values = new double[changed.getColumns().size()];
+        changed.append(T0 + 20_000, values);
+        assertEquals(1, changed.query(T0, T0 + 20_999, 1000).timestamps().length);
+        assertEquals(2, segments("raw"));
+    }
+
+    @Test
+    void timestampGoingBackOpensNewSegment() throws IOException {
+        SnapshotHistory history = open(FeatureRegistry.core());
+        history.append(T0 + 10_000, row(1));
+        history.append(T0 + 20_000, row(2));
+        // Ponowne odtworzenie przechwytu - znacznik sprzed ostatniego wiersza
+        history.append(T0 + 5_000, row(3));
+        history.append(T0 + 15_000, row(4));
+        assertEquals(2, segments("raw"));
+
+        // Każdy segment przeszukiwany osobno - widoczne są oba przebiegi
+        SnapshotHistory.HistorySeries raw = history.query(T0, T0 + 30_000, 1000);
+        assertArrayEquals(new long[]{T0 + 5_000, T0 + 10_000, T0 + 15_000, T0 + 20_000}, raw.timestamps());
+        assertArrayEquals(new double[]{3, 1, 4, 2}, raw.columns().get(FIRST), 1e-9);
+
+        // Po ponownym otwarciu segmenty są w kolejności pierwszych znaczników
+        history.shutdown();
+        assertArrayEquals(raw.timestamps(), open(FeatureRegistry.core()).query(T0, T0 + 30_000, 1000).timestamps());
+    }
+
+    private SnapshotHistory open(FeatureRegistry registry) throws IOException {
+        SnapshotHistory history = new SnapshotHistory(registry, true, dir.toString(), 1000, 7, 90, 1825);
+        history.init();
+        return history;
+    }
+
+    // Pierwsza cecha = value, jej z-score = -2 * value, prawdopodobieństwo = value / 10
+    private static double[] row(double value) {
+        int n = FeatureRegistry.core().size();
+        double[] row = new double[2 * n + 1];
+        row[0] = value;
+        row[n] = -2 * value;
+        row[2 * n] = value / 10;
+        return row;
+    }
+
+    private long segments(String tier) throws IOException {
+        try (Stream<Path> files = Files.list(dir)) {
+            return files.filter(f -> f.getFileName().toString().startsWith(tier + "-")).count();
+        }
+    }
+
+    private record NamedFeature(String name) implements TrafficFeature {
+        @Override
+        public double value(FeatureWindow window, int base) {
+            return 0;
+        }
+    }
+}
@@ -0,0 +1,83 @@
+package com.ids.ids_controller.service;
+
+import com.ids.ids_controller.parser.PacketView;
+import org.junit.jupiter.api.Test;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class SpaceSavingTest {
+
+    private static final int CAPACITY = 64;
+    private static final long BASE = PacketView.ipV4Key("10.0.0.0");
+
+    @Test
+    void guaranteesHoldWhenKeysExceedCapacity() {
+        SpaceSaving sketch = new SpaceSaving(CAPACITY);
+        Map<String, Long> exact = new HashMap<>();
+        long total = feed(new Random(7), 200_000, sketch, exact);
+
+        assertGuarantees(sketch.top(CAPACITY), exact, total);
+    }
+
+    @Test
+    void mergedShardsKeepGuarantees() {
+        // Dwa shardy z różnym ruchem łączone w okno (TalkerSketches.mergeFrom)
+        TalkerSketches window = new TalkerSketches(CAPACITY);
+        Map<String, Long> exact = new HashMap<>();
+        long total = 0;
+        for (int shard = 0; shard < 2; shard++) {
+            TalkerSketches sketches = new TalkerSketches(CAPACITY);
+            Random random = new Random(11 + shard);
+            for (int i = 0; i < 100_000; i++) {
+                long src = key(random);
+                int weight = 1 + random.nextInt(4);
+                sketches.record(src, BASE, 60L * weight, weight);
+                exact.merge(PacketView.formatAddress(src), (long) weight, Long::sum);
+                total += weight;
+            }
+            window.mergeFrom(sketches);
+        }
+
+        assertGuarantees(window.top(CAPACITY).sourcesByPackets(), exact, total);
+    }
+
+    // count zawyżony najwyżej o error i najwyżej o total/k; każdy klucz powyżej total/k jest śledzony
+    private static void assertGuarantees(List<SpaceSaving.Talker> top, Map<String, Long> exact, long total) {
+        assertEquals(CAPACITY, top.size());
+        long threshold = total / CAPACITY;
+        for (SpaceSaving.Talker t : top) {
+            long actual = exact.getOrDefault(t.address(), 0L);
+            assertTrue(t.count() >= actual, t + " prawdziwa " + actual);
+            assertTrue(t.count() - t.error() <= actual, t + " prawdziwa " + actual);
+            assertTrue(t.error() <= threshold, t + " próg " + threshold);
+        }
+        List<String> tracked = top.stream().map(SpaceSaving.Talker::address).toList();
+        long heavy = exact.entrySet().stream().filter(e -> e.getValue() > threshold)
+                .peek(e -> assertTrue(tracked.contains(e.getKey()), e.getKey() + " = " + e.getValue()))
+                .count();
+        assertTrue(heavy >= 5, "za mało kluczy powyżej progu: " + heavy);
+    }
+
+    private static long feed(Random random, int records, SpaceSaving sketch, Map<String, Long> exact) {
+        long total = 0;
+        for (int i = 0; i < records; i++) {
+            long src = key(random);
+            int weight = 1 + random.nextInt(4);
+            sketch.add(src, weight);
+            exact.merge(PacketView.formatAddress(src), (long) weight, Long::sum);
+            total += weight;
+        }
+        return total;
+    }
+
+    // 10 ciężkich źródeł (ok. 40% ruchu) na tle 20 tys. rzadkich - znacznie więcej kluczy niż liczników
+    private static long key(Random random) {
+        return BASE + (random.nextInt(10) < 4 ? 1 + random.nextInt(10) : 100 + random.nextInt(20_000));
+    }
+}